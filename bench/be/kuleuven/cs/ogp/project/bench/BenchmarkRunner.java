@@ -0,0 +1,29 @@
+package be.kuleuven.cs.ogp.project.bench;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the GC profiler, which reports the allocation rate and the number of bytes allocated per
+ * operation next to the time per operation. The benchmarks to run can be selected with a regular expression as first
+ * argument, for example "DungeonBenchmark.getSpace".
+ *
+ * The benchmark classes are generated by the JMH annotation processor, so annotation processing has to be enabled when
+ * compiling the bench folder.
+ *
+ * @author  Frederic Hannes
+ */
+public class BenchmarkRunner {
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include((args.length > 0) ? args[0] : DungeonBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+
+}
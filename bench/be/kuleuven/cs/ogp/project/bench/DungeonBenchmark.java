@@ -0,0 +1,108 @@
+package be.kuleuven.cs.ogp.project.bench;
+
+import be.kuleuven.cs.ogp.project.Dungeon;
+import be.kuleuven.cs.ogp.project.Square;
+import be.kuleuven.cs.ogp.project.TeleportInterface;
+import be.kuleuven.cs.ogp.project.borders.NoBorder;
+import be.kuleuven.cs.ogp.project.borders.Wall;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the operations on the squares of a dungeon, for every shape and size of DungeonState. Benchmarks
+ * which change the dungeon undo their change in the same operation, so the dungeon is the same for every operation.
+ *
+ * @author  Frederic Hannes
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DungeonBenchmark {
+
+    /**
+     * Adds a square at a free position next to the squares of the dungeon, linking it with its neighbours, and
+     * removes it again.
+     */
+    @Benchmark
+    public Square addSquare(DungeonState state) {
+        state.dungeon.addSquare(new Square(), state.free);
+        return state.dungeon.removeSquare(state.free);
+    }
+
+    @Benchmark
+    public Square getSquare(DungeonState state) {
+        return state.dungeon.getSquare(state.nextPosition());
+    }
+
+    @Benchmark
+    public List<Square> getSpace(DungeonState state) {
+        return state.dungeon.getSpace(state.square.getPos());
+    }
+
+    @Benchmark
+    public List<Square> getTeleSpace(DungeonState state) {
+        return state.dungeon.getTeleSpace(state.square.getPos());
+    }
+
+    /**
+     * Checks whether the squares of the dungeon can be reached from the square, going round all squares.
+     */
+    @Benchmark
+    public boolean canReach(DungeonState state) {
+        return state.square.canReach(state.dungeon.getSquare(state.nextPosition()));
+    }
+
+    /**
+     * Finds the sub dungeon holding the squares of the dungeon in the root dungeon, going round all squares.
+     */
+    @Benchmark
+    public Dungeon getDungeonAt(DungeonState state) {
+        return state.root.getDungeonAt(state.nextQuery());
+    }
+
+    /**
+     * Places a wall between the neighbouring squares and removes it again.
+     */
+    @Benchmark
+    public Square setBorder(DungeonState state) {
+        state.square.setBorder(new Wall(false), state.dir);
+        state.square.setBorder(new NoBorder(), state.dir);
+        return state.square;
+    }
+
+    /**
+     * Merges the neighbouring squares and places a wall between them again.
+     */
+    @Benchmark
+    public Square mergeWith(DungeonState state) {
+        state.square.mergeWith(state.neighbour, state.dir);
+        state.square.setBorder(new Wall(false), state.dir);
+        return state.square;
+    }
+
+    @Benchmark
+    public List<TeleportInterface> getTeleports(DungeonState state) {
+        return state.root.getTeleports();
+    }
+
+    /**
+     * Moves the avatar onto the neighbouring square and back.
+     */
+    @Benchmark
+    public Square move(DungeonState state) {
+        state.avatar.move(state.dir);
+        state.avatar.move(state.dir.opposite());
+        return state.avatar.getSquare();
+    }
+
+}
@@ -0,0 +1,143 @@
+package be.kuleuven.cs.ogp.project.bench;
+
+import be.kuleuven.cs.ogp.project.CompositeDungeon;
+import be.kuleuven.cs.ogp.project.Direction;
+import be.kuleuven.cs.ogp.project.Dungeon;
+import be.kuleuven.cs.ogp.project.Square;
+import be.kuleuven.cs.ogp.project.dungeons.Level;
+import be.kuleuven.cs.ogp.project.dungeons.Shaft;
+import be.kuleuven.cs.ogp.project.squares.Rock;
+import be.kuleuven.cs.ogp.project.tools.Point3D;
+import be.kuleuven.cs.ogp.project.tools.RandomSource;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The shapes of the dungeons used by the benchmarks. Every shape holds about size * size squares, so the shapes can be
+ * compared at the same size.
+ *
+ * @author  Frederic Hannes
+ */
+public enum DungeonShape {
+
+    /**
+     * A dense level of size by size squares.
+     */
+    LEVEL {
+        @Override
+        Dungeon<Square> build(CompositeDungeon<Square> root, int size, RandomSource random, List<Point3D> positions) {
+            Level<Square> level = new Level<>();
+            fill(level, size, 0, positions);
+            root.addDungeon(level, new Point3D(0, 0, 0));
+            return level;
+        }
+    },
+
+    /**
+     * A shaft of size * size squares on top of each other.
+     */
+    SHAFT {
+        @Override
+        @SuppressWarnings("unchecked")
+        Dungeon<Square> build(CompositeDungeon<Square> root, int size, RandomSource random, List<Point3D> positions) {
+            Dungeon<Square> shaft = new Shaft<>();
+            for (int z = 1; z <= size * size; z++) {
+                Point3D pos = new Point3D(0, 0, z);
+                shaft.addSquare(new Square(), pos);
+                positions.add(pos);
+            }
+            root.addDungeon(shaft, new Point3D(0, 0, 0));
+            return shaft;
+        }
+    },
+
+    /**
+     * A sparse cave carved by a random walk through a cube of size squares along every axis. Squares of the cave
+     * without a square below them stand on rock.
+     */
+    CAVE {
+        @Override
+        Dungeon<Square> build(CompositeDungeon<Square> root, int size, RandomSource random, List<Point3D> positions) {
+            Dungeon<Square> cave = new Dungeon<>();
+            Set<Point3D> carved = new HashSet<>();
+            Point3D pos = new Point3D(size / 2, size / 2 + 1, size / 2);
+            Direction[] dirs = Direction.values();
+            while (carved.size() < size * size) {
+                if (Dungeon.isValidPos(pos) && carved.add(pos)) {
+                    cave.addSquare(new Square(), pos);
+                    positions.add(pos);
+                }
+                Point3D next = dirs[random.nextInt(dirs.length)].move(pos);
+                if ((next.getX() >= 0) && (next.getX() < size) && (next.getY() >= 0) && (next.getY() < size) &&
+                        (next.getZ() >= 0) && (next.getZ() < size))
+                    pos = next;
+            }
+            for (Point3D square : positions) {
+                Point3D below = Direction.FLOOR.move(square);
+                if (Dungeon.isValidPos(below) && !cave.hasSquare(below))
+                    cave.addSquare(new Rock(), below);
+            }
+            root.addDungeon(cave, new Point3D(0, 0, 0));
+            return cave;
+        }
+    },
+
+    /**
+     * A chain of size / 4 composite dungeons, each holding a level of 4 by size squares and the next composite
+     * dungeon. The squares used by the benchmarks are those of the deepest level.
+     */
+    COMPOSITE {
+        @Override
+        Dungeon<Square> build(CompositeDungeon<Square> root, int size, RandomSource random, List<Point3D> positions) {
+            int depth = Math.max(1, size / 4);
+            CompositeDungeon<Square> parent = root;
+            Level<Square> level = null;
+            for (int z = 0; z < depth; z++) {
+                level = new Level<>();
+                for (int x = 0; x < 4; x++)
+                    for (int y = 1; y <= size; y++)
+                        level.addSquare(new Square(), new Point3D(x, y, 0));
+                // Sub dungeons are found by the position in the root dungeon, so every level gets its own layer
+                parent.addDungeon(level, new Point3D(0, 0, z));
+                CompositeDungeon<Square> child = new CompositeDungeon<>();
+                parent.addDungeon(child, new Point3D(0, 0, z + 1));
+                parent = child;
+            }
+            for (int x = 0; x < 4; x++)
+                for (int y = 1; y <= size; y++)
+                    positions.add(new Point3D(x, y, 0));
+            return level;
+        }
+    };
+
+    /**
+     * Builds a dungeon of this shape as a sub dungeon of a root dungeon.
+     *
+     * @param   root
+     *          The root dungeon.
+     * @param   size
+     *          The size of the dungeon.
+     * @param   random
+     *          The source of randomness for the layout.
+     * @param   positions
+     *          The list to add the positions of the squares of the returned dungeon to.
+     * @return  The dungeon holding the squares used by the benchmarks.
+     */
+    abstract Dungeon<Square> build(CompositeDungeon<Square> root, int size, RandomSource random,
+            List<Point3D> positions);
+
+    /**
+     * Internal method to fill a layer of a dungeon with size by size squares.
+     */
+    private static void fill(Dungeon<Square> dungeon, int size, int z, List<Point3D> positions) {
+        for (int x = 0; x < size; x++)
+            for (int y = 1; y <= size; y++) {
+                Point3D pos = new Point3D(x, y, z);
+                dungeon.addSquare(new Square(), pos);
+                positions.add(pos);
+            }
+    }
+
+}
@@ -0,0 +1,187 @@
+package be.kuleuven.cs.ogp.project.bench;
+
+import be.kuleuven.cs.ogp.project.Avatar;
+import be.kuleuven.cs.ogp.project.CompositeDungeon;
+import be.kuleuven.cs.ogp.project.Direction;
+import be.kuleuven.cs.ogp.project.Dungeon;
+import be.kuleuven.cs.ogp.project.Square;
+import be.kuleuven.cs.ogp.project.squares.Teleport;
+import be.kuleuven.cs.ogp.project.tools.Point3D;
+import be.kuleuven.cs.ogp.project.tools.RandomSource;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The dungeon a benchmark runs on, built once per trial for every shape and size. The layout only depends on the
+ * parameters, so every run measures the same dungeon.
+ *
+ * @author  Frederic Hannes
+ */
+@State(Scope.Thread)
+public class DungeonState {
+
+    /**
+     * The seed of the layouts.
+     */
+    private static final long SEED = 0x0A5EEDL;
+
+    /**
+     * One square in every TELEPORT_SPACING squares is replaced by a teleport.
+     */
+    private static final int TELEPORT_SPACING = 64;
+
+    @Param
+    public DungeonShape shape;
+
+    @Param({ "8", "32", "64" })
+    public int size;
+
+    /**
+     * The root of the dungeon.
+     */
+    CompositeDungeon<Square> root;
+
+    /**
+     * The dungeon holding the squares used by the benchmarks.
+     */
+    Dungeon<Square> dungeon;
+
+    /**
+     * The positions of the squares of the dungeon.
+     */
+    Point3D[] positions;
+
+    /**
+     * The positions of the squares of the dungeon in the root dungeon.
+     */
+    Point3D[] queries;
+
+    /**
+     * A square that is not solid, and a neighbour of it which is not solid in the given direction.
+     */
+    Square square;
+
+    Square neighbour;
+
+    Direction dir;
+
+    /**
+     * A free position next to a square, at which a square can be added.
+     */
+    Point3D free;
+
+    /**
+     * An avatar standing on the square.
+     */
+    Avatar avatar;
+
+    private int next = 0;
+
+    @Setup
+    public void setUp() {
+        RandomSource random = new RandomSource(SEED);
+        root = new CompositeDungeon<>();
+        List<Point3D> list = new ArrayList<>();
+        dungeon = shape.build(root, size, random, list);
+        positions = list.toArray(new Point3D[list.size()]);
+        Point3D offset = dungeon.getPos();
+        List<Point3D> translated = new ArrayList<>();
+        for (Point3D pos : positions) {
+            Point3D query = new Point3D(pos.getX() + offset.getX(), pos.getY() + offset.getY(),
+                    pos.getZ() + offset.getZ());
+            if (Dungeon.isValidPos(query))
+                translated.add(query);
+        }
+        queries = translated.toArray(new Point3D[translated.size()]);
+        addTeleports(random);
+        findPair();
+        findFree();
+        avatar = new Avatar(square);
+    }
+
+    /**
+     * Returns the next position of a square, going round all squares.
+     */
+    Point3D nextPosition() {
+        Point3D pos = positions[next];
+        next = (next + 1) % positions.length;
+        return pos;
+    }
+
+    /**
+     * Returns the next position of a square in the root dungeon, going round all squares.
+     */
+    Point3D nextQuery() {
+        Point3D pos = queries[next % queries.length];
+        next = (next + 1) % positions.length;
+        return pos;
+    }
+
+    /**
+     * Internal method to replace some squares by teleports to random squares of the dungeon.
+     */
+    private void addTeleports(RandomSource random) {
+        List<Teleport> teleports = new ArrayList<>();
+        for (int i = TELEPORT_SPACING / 2; i < positions.length; i += TELEPORT_SPACING) {
+            if (dungeon.getSquare(positions[i]).isSolid())
+                continue;
+            dungeon.removeSquare(positions[i]);
+            Teleport teleport = new Teleport();
+            dungeon.addSquare(teleport, positions[i]);
+            teleports.add(teleport);
+        }
+        for (Teleport teleport : teleports) {
+            Square dest = dungeon.getSquare(positions[random.nextInt(positions.length)]);
+            if (!dest.isSolid() && (dest != teleport))
+                teleport.addDest(dest);
+        }
+    }
+
+    /**
+     * Internal method to find two neighbouring squares that are not solid.
+     */
+    private void findPair() {
+        for (Point3D pos : positions) {
+            Square sq = dungeon.getSquare(pos);
+            if (sq.isSolid() || (sq instanceof Teleport))
+                continue;
+            for (Direction d : Direction.values()) {
+                Square other = dungeon.getSquare(d.move(pos));
+                if ((other != null) && !other.isSolid() && !(other instanceof Teleport)) {
+                    square = sq;
+                    neighbour = other;
+                    dir = d;
+                    return;
+                }
+            }
+        }
+        throw new IllegalStateException("No neighbouring squares in the dungeon!");
+    }
+
+    /**
+     * Internal method to find a free position next to a square, at which the dungeon accepts a square.
+     */
+    private void findFree() {
+        for (Point3D pos : positions)
+            for (Direction d : Direction.values()) {
+                Point3D candidate = d.move(pos);
+                if (!Dungeon.isValidPos(candidate) || dungeon.hasSquare(candidate))
+                    continue;
+                try {
+                    dungeon.addSquare(new Square(), candidate);
+                } catch (IllegalArgumentException e) {
+                    continue;
+                }
+                dungeon.removeSquare(candidate);
+                free = candidate;
+                return;
+            }
+        throw new IllegalStateException("No free position in the dungeon!");
+    }
+
+}
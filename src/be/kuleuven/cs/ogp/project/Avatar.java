@@ -12,12 +12,12 @@ public class Avatar {
     /**
      * The square the avatar is on.
      */
-    private Square square = null;
+    private volatile Square square = null;
 
     /**
      * Whether the avatar is alive or not.
      */
-    private boolean alive = true;
+    private volatile boolean alive = true;
 
     /**
      * Creates an instance of the avatar and assigns it to a square.
@@ -46,11 +46,35 @@ public class Avatar {
     }
 
     /**
-     * Internal method to kill the avatar.
+     * Internal method to kill the avatar. The avatar is marked dead before it leaves its square, so a thread that sees
+     * it without a square also sees it dead.
      */
     protected void kill() {
+        Square previous = this.square;
         this.alive = false;
         this.square = null;
+        AvatarIndex.update(this, previous, null);
+        DungeonMetrics.avatarDied();
+    }
+
+    /**
+     * Takes the avatar out of its dungeon without killing it, for an avatar that is handed over to another owner of
+     * the dungeon, such as another process. The avatar can not be positioned again afterwards.
+     *
+     * @throws  IllegalArgumentException
+     *          Throws an illegal argument exception if the avatar is dead or has been replaced on its square by another
+     *          avatar.
+     * @post    The avatar is no longer on a square and can no longer move.
+     *          | (new.getSquare() == null) && !new.isAlive()
+     */
+    public void leave() throws IllegalArgumentException {
+        Square from = this.square;
+        if (!isAlive() || (from == null) || !from.vacate(this))
+            throw new IllegalArgumentException("The avatar is dead!");
+        this.alive = false;
+        this.square = null;
+        AvatarIndex.update(this, from, null);
+        from.publish(DungeonEvent.Type.AVATAR_MOVED, null, this);
     }
 
     /**
@@ -64,23 +88,24 @@ public class Avatar {
      *          Throws an illegal argument exception if the avatar is already on the given square.
      * @throws  IllegalArgumentException
      *          Throws an illegal argument exception if the avatar is dead.
-     * @post    The new square equals the given square.
+     * @throws  IllegalArgumentException
+     *          Throws an illegal argument exception if the given square is solid.
+     * @effect  The avatar enters the given square.
+     *          | enter(square)
      */
     public void setSquare(Square square) throws IllegalArgumentException {
         if (square == null)
             throw new IllegalArgumentException("Invalid square!");
-        if (getSquare().equals(square))
+        if (square.equals(getSquare()))
             throw new IllegalArgumentException("Avatar already on given square!");
         if (!isAlive())
             throw new IllegalArgumentException("The avatar is dead!");
-        if (this.getSquare() != null)
-            this.getSquare().setAvatar(null);
-        this.square = square;
-        square.setAvatar(this);
+        enter(square);
     }
 
     /**
-     * Moves the avatar in a certain direction.
+     * Moves the avatar in a certain direction. Teleports are followed until a square is reached which is not a
+     * teleport, or until a teleport without destinations is reached.
      *
      * @param   dir
      *          The given direction.
@@ -90,19 +115,90 @@ public class Avatar {
      *          Throws an illegal argument exception if the avatar is dead.
      * @throws  IllegalArgumentException
      *          Throws an illegal argument exception if there's no square in the given direction.
+     * @throws  IllegalArgumentException
+     *          Throws an illegal argument exception if the square that is reached is solid.
+     * @throws  IllegalStateException
+     *          Throws an illegal state exception if the teleports reached can lead into a cycle of teleports which can
+     *          not be left.
      */
-    public void move(Direction dir) {
+    public void move(Direction dir) throws IllegalArgumentException, IllegalStateException {
         if (dir == null)
             throw new IllegalArgumentException("Invalid direction!");
-        if (!this.isAlive())
+        Square from = this.getSquare();
+        if (!this.isAlive() || (from == null))
             throw new IllegalArgumentException("The avatar is dead!");
-        if (this.getSquare().getBorder(dir).getAdjacent() == null)
+        Border adjacent = from.getBorder(dir).getAdjacent();
+        if (adjacent == null)
             throw new IllegalArgumentException("There's no other square in the given direction!");
-        this.getSquare().setAvatar(null);
-        Square sq = this.getSquare().getBorder(dir).getAdjacent().getSquare();
-        while (sq instanceof TeleportInterface)
-            sq = ((TeleportInterface) sq).teleport();
-        sq.setAvatar(this);
+        Square sq = adjacent.getSquare();
+        if (sq instanceof TeleportInterface) {
+            Square dest = ((TeleportInterface) sq).teleportTerminal(sq.getRandomSource(from));
+            if (dest != null) {
+                sq = dest;
+                DungeonMetrics.teleported();
+            }
+        }
+        enter(sq);
+    }
+
+    /**
+     * Internal method to move the avatar from its current square onto the given square. If another avatar is
+     * positioned on the given square, one of both avatars is killed. Avatars entering a square at once collide one by
+     * one, so exactly one of them is left on the square.
+     *
+     * @param   square
+     *          The given square.
+     * @throws  IllegalArgumentException
+     *          Throws an illegal argument exception if the given square is solid.
+     * @throws  IllegalArgumentException
+     *          Throws an illegal argument exception if the avatar is dead or has been replaced on its square by another
+     *          avatar.
+     * @post    The avatar is no longer positioned on its old square.
+     *          | (old.getSquare() == null) || (old.getSquare().getAvatar() != this)
+     * @post    If the avatar survives, it is positioned on the given square.
+     *          | if (new.isAlive())
+     *          |   (new.getSquare() == square) && (square.getAvatar() == this)
+     */
+    private void enter(Square square) throws IllegalArgumentException {
+        if (square.isSolid())
+            throw new IllegalArgumentException("Can't position an avatar on a solid square!");
+        Square from = getSquare();
+        if (!isAlive())
+            throw new IllegalArgumentException("The avatar is dead!");
+        DungeonJournal journal = square.getJournal();
+        if ((journal == null) && (from != null))
+            journal = from.getJournal();
+        long start = DungeonTrace.start();
+        Avatar loser = (journal != null) ? journal.logAvatarMove(this, from, square) : relocate(from, square);
+        if (loser != null) {
+            loser.kill();
+            DungeonTrace.commit(DungeonTrace.Kind.COLLISION_KILL, start, 1, loser == this);
+        }
+        square.publish((loser != this) ? DungeonEvent.Type.AVATAR_MOVED : DungeonEvent.Type.AVATAR_KILLED, null, this);
+        if ((loser != null) && (loser != this))
+            square.publish(DungeonEvent.Type.AVATAR_KILLED, null, loser);
+    }
+
+    /**
+     * Internal method to take the avatar from one square to another. The loser of a collision is not killed by this
+     * method.
+     *
+     * @param   from
+     *          The square the avatar is on, null if it is not on a square yet.
+     * @param   to
+     *          The square to enter.
+     * @return  The avatar that lost the collision on the given square, null if the square was free.
+     * @throws  IllegalArgumentException
+     *          Throws an illegal argument exception if the avatar has been replaced on its square by another avatar.
+     */
+    Avatar relocate(Square from, Square to) throws IllegalArgumentException {
+        if ((from != null) && !from.vacate(this))
+            throw new IllegalArgumentException("The avatar is dead!");
+        Square previous = this.square;
+        this.square = to;
+        Avatar loser = to.occupy(this, previous);
+        AvatarIndex.update(this, previous, to);
+        return loser;
     }
 
 }
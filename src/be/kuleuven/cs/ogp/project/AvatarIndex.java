@@ -0,0 +1,846 @@
+package be.kuleuven.cs.ogp.project;
+
+import be.kuleuven.cs.ogp.project.tools.Point3D;
+import be.kuleuven.cs.ogp.project.tools.RandomSource;
+import be.kuleuven.cs.som.annotate.Basic;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * An index of the avatars in a dungeon by their absolute position, for finding the avatars near a position without
+ * visiting every square. The index is a grid hash: space is cut into cubes of CELL_SIZE squares along every axis, and
+ * the avatars are kept in a hash table by the cube they are in. A query only visits the cubes overlapping the range it
+ * asks for, so its cost depends on the number of avatars around the position and not on the size of the dungeon.
+ *
+ * The index of a dungeon is kept up to date as avatars enter squares and are killed. It can be used by several threads
+ * at once; a query sees every avatar at the square it entered last. An update only locks the avatar and the cubes it
+ * leaves and enters, and the part of the hash table holding them, so avatars moving in different parts of the dungeon
+ * do not wait for each other. Cubes are removed once their last avatar left them.
+ *
+ * @author  Frederic Hannes
+ */
+public class AvatarIndex {
+
+    /**
+     * Selects the avatars a query is interested in.
+     */
+    public interface Filter {
+
+        /**
+         * Returns true if the given avatar is to be returned by the query.
+         *
+         * @param   avatar
+         *          The given avatar.
+         */
+        public boolean accept(Avatar avatar);
+
+    }
+
+    /**
+     * The number of bits of a coordinate covered by a cube.
+     */
+    private static final int CELL_BITS = 3;
+
+    /**
+     * The number of squares along every axis of a cube.
+     */
+    public static final int CELL_SIZE = 1 << CELL_BITS;
+
+    /**
+     * The number of parts of the hash table of the cubes, every part having a lock of its own.
+     */
+    private static final int SEGMENTS = 16;
+
+    /**
+     * An avatar in the index. The entry is locked while the avatar is indexed, its position and cube are only changed
+     * while the cube is locked as well.
+     */
+    private static final class Entry {
+
+        private final Avatar avatar;
+
+        /**
+         * The square the avatar was indexed on, and its absolute position.
+         */
+        private Square square;
+        private int x;
+        private int y;
+        private int z;
+
+        /**
+         * The cube holding the entry and the index of the entry in it.
+         */
+        private Cell cell;
+        private int slot;
+
+        private Entry(Avatar avatar) {
+            this.avatar = avatar;
+        }
+
+    }
+
+    /**
+     * A cube of the grid, holding the entries of the avatars in it. The cube is locked while its entries are read or
+     * changed.
+     */
+    private static final class Cell {
+
+        private final int cx;
+        private final int cy;
+        private final int cz;
+
+        private Entry[] entries = new Entry[4];
+
+        /**
+         * The positions of the entries, three coordinates per entry, so a query scans them without visiting the entries
+         * themselves.
+         */
+        private int[] coords = new int[12];
+
+        private int size = 0;
+
+        /**
+         * Equals true once the cube was taken out of the hash table, an entry must then be added to a new cube.
+         */
+        private boolean removed = false;
+
+        private Cell(int cx, int cy, int cz) {
+            this.cx = cx;
+            this.cy = cy;
+            this.cz = cz;
+        }
+
+    }
+
+    /**
+     * A part of the hash table of the cubes, using open addressing. The part is locked while it is read or changed.
+     */
+    private static final class Segment {
+
+        private Cell[] cells = new Cell[8];
+
+        private int count = 0;
+
+    }
+
+    /**
+     * The number of cubes holding avatars at every coordinate along an axis, to keep the bounds of the cubes when cubes
+     * are removed.
+     */
+    private static final class Axis {
+
+        private final TreeMap<Integer, Integer> counts = new TreeMap<>();
+
+        private void add(int c) {
+            Integer count = counts.get(c);
+            counts.put(c, (count == null) ? 1 : count + 1);
+        }
+
+        private void remove(int c) {
+            int count = counts.get(c);
+            if (count == 1)
+                counts.remove(c);
+            else
+                counts.put(c, count - 1);
+        }
+
+        private int min() {
+            return counts.isEmpty() ? Integer.MAX_VALUE : counts.firstKey();
+        }
+
+        private int max() {
+            return counts.isEmpty() ? Integer.MIN_VALUE : counts.lastKey();
+        }
+
+    }
+
+    private final Dungeon<?> dungeon;
+
+    /**
+     * The entries of the indexed avatars.
+     */
+    private final ConcurrentHashMap<Avatar, Entry> entries = new ConcurrentHashMap<>();
+
+    /**
+     * The parts of the hash table of the cubes.
+     */
+    private final Segment[] segments = new Segment[SEGMENTS];
+
+    /**
+     * The cubes holding avatars along every axis, guarded by the lock of the index.
+     */
+    private final Axis axisX = new Axis();
+    private final Axis axisY = new Axis();
+    private final Axis axisZ = new Axis();
+
+    /**
+     * The bounds of the cubes holding avatars, which limit the search for nearest avatars. The bounds are widened
+     * before an avatar enters a new cube and narrowed after a cube is removed.
+     */
+    private volatile int minCX = Integer.MAX_VALUE;
+    private volatile int minCY = Integer.MAX_VALUE;
+    private volatile int minCZ = Integer.MAX_VALUE;
+    private volatile int maxCX = Integer.MIN_VALUE;
+    private volatile int maxCY = Integer.MIN_VALUE;
+    private volatile int maxCZ = Integer.MIN_VALUE;
+
+    /**
+     * Creates the index of a dungeon, holding the avatars that are in it.
+     *
+     * @param   dungeon
+     *          The given dungeon, not part of another dungeon.
+     */
+    AvatarIndex(Dungeon<?> dungeon) {
+        this.dungeon = dungeon;
+        for (int i = 0; i < SEGMENTS; i++)
+            segments[i] = new Segment();
+    }
+
+    /**
+     * Returns the dungeon the index belongs to.
+     */
+    @Basic
+    public Dungeon<?> getDungeon() {
+        return dungeon;
+    }
+
+    /**
+     * Returns the number of avatars in the index.
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Returns the number of cubes holding avatars.
+     */
+    public int getCellCount() {
+        int res = 0;
+        for (Segment segment : segments)
+            synchronized (segment) {
+                res += segment.count;
+            }
+        return res;
+    }
+
+    /**
+     * Returns the nearest avatars to a position, ordered by their distance to the position. Avatars at the same
+     * distance are ordered by their position along the X, Y and Z axis.
+     *
+     * @param   pos
+     *          The given absolute position.
+     * @param   k
+     *          The maximum number of avatars to return.
+     * @param   radius
+     *          The maximum distance of the avatars to return.
+     * @param   filter
+     *          The filter selecting the avatars to return, null to return any avatar. The filter is called while a cube
+     *          of the index is locked, so it must not use the index itself.
+     * @throws  IllegalArgumentException
+     *          Throws an illegal argument exception if the given position is invalid.
+     *          | pos == null
+     * @throws  IllegalArgumentException
+     *          Throws an illegal argument exception if the given number of avatars is invalid.
+     *          | k < 1
+     * @throws  IllegalArgumentException
+     *          Throws an illegal argument exception if the given radius is invalid.
+     *          | !(radius >= 0)
+     */
+    public List<Avatar> getNearest(Point3D pos, int k, double radius, Filter filter) throws IllegalArgumentException {
+        if (pos == null)
+            throw new IllegalArgumentException("Invalid position!");
+        if (k < 1)
+            throw new IllegalArgumentException("Invalid number of avatars!");
+        if (!(radius >= 0))
+            throw new IllegalArgumentException("Invalid radius!");
+        if (entries.isEmpty())
+            return new ArrayList<>();
+        int x = pos.getX();
+        int y = pos.getY();
+        int z = pos.getZ();
+        long cx = x >> CELL_BITS;
+        long cy = y >> CELL_BITS;
+        long cz = z >> CELL_BITS;
+        double maxDist = radius * radius;
+        // The best avatars found so far, kept in a heap with the worst one on top, with their positions when found
+        int capacity = Math.max(1, Math.min(k, entries.size()));
+        Avatar[] best = new Avatar[capacity];
+        long[] dist = new long[capacity];
+        int[] coords = new int[capacity * 3];
+        int found = 0;
+        long minX = minCX, minY = minCY, minZ = minCZ, maxX = maxCX, maxY = maxCY, maxZ = maxCZ;
+        long maxRing = Math.max(Math.max(Math.max(cx - minX, maxX - cx), Math.max(cy - minY, maxY - cy)),
+                Math.max(cz - minZ, maxZ - cz));
+        for (long ring = 0; ring <= maxRing; ring++) {
+            // No square in a cube of this ring is closer than this
+            long bound = (ring == 0) ? 0 : (ring - 1) * CELL_SIZE + 1;
+            if ((bound > radius) || ((found == capacity) && (bound * bound > dist[0])))
+                break;
+            long dzMin = Math.max(-ring, minZ - cz);
+            long dzMax = Math.min(ring, maxZ - cz);
+            for (long dx = Math.max(-ring, minX - cx); dx <= Math.min(ring, maxX - cx); dx++)
+                for (long dy = Math.max(-ring, minY - cy); dy <= Math.min(ring, maxY - cy); dy++) {
+                    if ((Math.abs(dx) == ring) || (Math.abs(dy) == ring)) {
+                        for (long dz = dzMin; dz <= dzMax; dz++)
+                            found = collect(getCell(cx + dx, cy + dy, cz + dz), x, y, z, maxDist, filter, best, dist,
+                                    coords, found);
+                    } else {
+                        // Inside the ring only the top and bottom cubes belong to it
+                        if (dzMin == -ring)
+                            found = collect(getCell(cx + dx, cy + dy, cz - ring), x, y, z, maxDist, filter, best, dist,
+                                    coords, found);
+                        if (dzMax == ring)
+                            found = collect(getCell(cx + dx, cy + dy, cz + ring), x, y, z, maxDist, filter, best, dist,
+                                    coords, found);
+                    }
+                }
+        }
+        List<Avatar> res = new ArrayList<>(Collections.<Avatar>nCopies(found, null));
+        while (found > 0) {
+            res.set(--found, best[0]);
+            move(best, dist, coords, found, 0);
+            siftDown(best, dist, coords, found);
+        }
+        return res;
+    }
+
+    /**
+     * Returns the nearest avatars to a position, ordered by their distance to the position.
+     *
+     * @param   pos
+     *          The given absolute position.
+     * @param   k
+     *          The maximum number of avatars to return.
+     * @param   radius
+     *          The maximum distance of the avatars to return.
+     * @effect  | result == getNearest(pos, k, radius, null)
+     */
+    public List<Avatar> getNearest(Point3D pos, int k, double radius) throws IllegalArgumentException {
+        return getNearest(pos, k, radius, null);
+    }
+
+    /**
+     * Returns the avatars within a distance of a position, in no particular order.
+     *
+     * @param   pos
+     *          The given absolute position.
+     * @param   radius
+     *          The given distance.
+     * @throws  IllegalArgumentException
+     *          Throws an illegal argument exception if the given position is invalid.
+     *          | pos == null
+     * @throws  IllegalArgumentException
+     *          Throws an illegal argument exception if the given radius is invalid.
+     *          | !(radius >= 0)
+     */
+    public List<Avatar> getWithin(Point3D pos, double radius) throws IllegalArgumentException {
+        if (pos == null)
+            throw new IllegalArgumentException("Invalid position!");
+        if (!(radius >= 0))
+            throw new IllegalArgumentException("Invalid radius!");
+        int x = pos.getX();
+        int y = pos.getY();
+        int z = pos.getZ();
+        long reach = (long) Math.min(Math.floor(radius), Integer.MAX_VALUE);
+        double maxDist = radius * radius;
+        List<Avatar> res = new ArrayList<>();
+        for (long cx = Math.max(minCX, (x - reach) >> CELL_BITS); cx <= Math.min(maxCX, (x + reach) >> CELL_BITS); cx++)
+            for (long cy = Math.max(minCY, (y - reach) >> CELL_BITS); cy <= Math.min(maxCY, (y + reach) >> CELL_BITS);
+                    cy++)
+                for (long cz = Math.max(minCZ, (z - reach) >> CELL_BITS);
+                        cz <= Math.min(maxCZ, (z + reach) >> CELL_BITS); cz++) {
+                    Cell cell = getCell(cx, cy, cz);
+                    if ((cell == null) || (gap(cell, x, y, z) > maxDist))
+                        continue;
+                    synchronized (cell) {
+                        for (int i = 0; i < cell.size; i++)
+                            if (distance(cell.coords, i, x, y, z) <= maxDist)
+                                res.add(cell.entries[i].avatar);
+                    }
+                }
+        return res;
+    }
+
+    /**
+     * Returns the avatars inside a box, in no particular order.
+     *
+     * @param   min
+     *          The absolute position of the corner of the box with the lowest coordinates.
+     * @param   max
+     *          The absolute position of the corner of the box with the highest coordinates, part of the box as well.
+     * @throws  IllegalArgumentException
+     *          Throws an illegal argument exception if the given corners are invalid.
+     *          | (min == null) || (max == null)
+     */
+    public List<Avatar> getInBox(Point3D min, Point3D max) throws IllegalArgumentException {
+        if ((min == null) || (max == null))
+            throw new IllegalArgumentException("Invalid corners!");
+        List<Avatar> res = new ArrayList<>();
+        for (int cx = Math.max(minCX, min.getX() >> CELL_BITS); cx <= Math.min(maxCX, max.getX() >> CELL_BITS); cx++)
+            for (int cy = Math.max(minCY, min.getY() >> CELL_BITS); cy <= Math.min(maxCY, max.getY() >> CELL_BITS);
+                    cy++)
+                for (int cz = Math.max(minCZ, min.getZ() >> CELL_BITS);
+                        cz <= Math.min(maxCZ, max.getZ() >> CELL_BITS); cz++) {
+                    Cell cell = getCell(cx, cy, cz);
+                    if (cell == null)
+                        continue;
+                    synchronized (cell) {
+                        for (int i = 0; i < cell.size; i++) {
+                            Entry entry = cell.entries[i];
+                            if ((entry.x >= min.getX()) && (entry.x <= max.getX()) && (entry.y >= min.getY()) &&
+                                    (entry.y <= max.getY()) && (entry.z >= min.getZ()) && (entry.z <= max.getZ()))
+                                res.add(entry.avatar);
+                        }
+                    }
+                }
+        return res;
+    }
+
+    /**
+     * Internal method to add the entries of a cube that are nearer than the farthest entry found so far to the heap of
+     * nearest entries.
+     *
+     * @return  The number of entries in the heap.
+     */
+    private static int collect(Cell cell, int x, int y, int z, double maxDist, Filter filter, Avatar[] best,
+            long[] dist, int[] coords, int found) {
+        if (cell == null)
+            return found;
+        long g = gap(cell, x, y, z);
+        if ((g > maxDist) || ((found == best.length) && (g > dist[0])))
+            return found;
+        synchronized (cell) {
+            for (int i = 0; i < cell.size; i++) {
+                long d = distance(cell.coords, i, x, y, z);
+                if ((d > maxDist) || ((found == best.length) && (d > dist[0])))
+                    continue;
+                int ex = cell.coords[i * 3];
+                int ey = cell.coords[i * 3 + 1];
+                int ez = cell.coords[i * 3 + 2];
+                if ((found == best.length) && !before(d, ex, ey, ez, dist[0], coords[0], coords[1], coords[2]))
+                    continue;
+                Avatar avatar = cell.entries[i].avatar;
+                if ((filter != null) && !filter.accept(avatar))
+                    continue;
+                int slot = (found < best.length) ? found : 0;
+                best[slot] = avatar;
+                dist[slot] = d;
+                coords[slot * 3] = ex;
+                coords[slot * 3 + 1] = ey;
+                coords[slot * 3 + 2] = ez;
+                if (found < best.length)
+                    siftUp(best, dist, coords, found++);
+                else
+                    siftDown(best, dist, coords, found);
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Internal method to bring the index up to date with the avatars moving from one square to another.
+     *
+     * @param   avatar
+     *          The avatar that moved or was killed.
+     * @param   previous
+     *          The square the avatar was on, null if it was not on a square.
+     * @param   current
+     *          The square the avatar is on now, null if it was killed.
+     */
+    static void update(Avatar avatar, Square previous, Square current) {
+        AvatarIndex index = (current != null) ? current.findAvatarIndex() : null;
+        AvatarIndex old = (previous != null) ? previous.findAvatarIndex() : null;
+        if ((old != null) && (old != index))
+            old.update(avatar);
+        if (index != null)
+            index.update(avatar);
+    }
+
+    /**
+     * Internal method to add the avatars in a dungeon to the index.
+     *
+     * @param   dungeon
+     *          The given dungeon, part of the dungeon of the index.
+     */
+    void addAvatars(Dungeon<?> dungeon) {
+        List<Avatar> avatars = new ArrayList<>();
+        dungeon.getAvatars(avatars);
+        for (Avatar avatar : avatars)
+            update(avatar);
+    }
+
+    /**
+     * Internal method to remove an avatar from the index, when its square is removed from the dungeon.
+     *
+     * @param   avatar
+     *          The given avatar.
+     */
+    void removeAvatar(Avatar avatar) {
+        Entry entry;
+        while ((entry = entries.get(avatar)) != null) {
+            synchronized (entry) {
+                if (entries.get(avatar) != entry)
+                    continue;
+                if (entry.cell != null)
+                    leave(entry);
+                entries.remove(avatar, entry);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Internal method to index an avatar at the square it is on now, or to remove it from the index if it is dead or
+     * on a square of another dungeon. The state of the avatar is read while its entry is locked, so concurrent updates
+     * for the same avatar leave the index in the state of the last one.
+     */
+    private void update(Avatar avatar) {
+        while (true) {
+            Entry entry = entries.get(avatar);
+            if (entry == null) {
+                Square square = avatar.getSquare();
+                if (!avatar.isAlive() || (square == null) || (square.findAvatarIndex() != this))
+                    return;
+                Entry added = new Entry(avatar);
+                entry = entries.putIfAbsent(avatar, added);
+                if (entry == null)
+                    entry = added;
+            }
+            synchronized (entry) {
+                // The entry may have been removed while this thread waited for it
+                if (entries.get(avatar) != entry)
+                    continue;
+                Square square = avatar.getSquare();
+                if ((entry.cell != null) && (entry.square == square) && avatar.isAlive())
+                    return;
+                Point3D pos = null;
+                if (avatar.isAlive() && (square != null) && (square.findAvatarIndex() == this))
+                    pos = square.getAbsolutePos();
+                if (pos == null) {
+                    if (entry.cell != null)
+                        leave(entry);
+                    entries.remove(avatar, entry);
+                    return;
+                }
+                entry.square = square;
+                Cell cell = entry.cell;
+                if ((cell != null) && (cell.cx == pos.getX() >> CELL_BITS) && (cell.cy == pos.getY() >> CELL_BITS) &&
+                        (cell.cz == pos.getZ() >> CELL_BITS)) {
+                    synchronized (cell) {
+                        place(entry, pos);
+                    }
+                    return;
+                }
+                if (cell != null)
+                    leave(entry);
+                enter(entry, pos);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Internal method to add an entry to the cube holding the given position. The entry must be locked.
+     */
+    private void enter(Entry entry, Point3D pos) {
+        int cx = pos.getX() >> CELL_BITS;
+        int cy = pos.getY() >> CELL_BITS;
+        int cz = pos.getZ() >> CELL_BITS;
+        while (true) {
+            Cell cell = getOrAddCell(cx, cy, cz);
+            synchronized (cell) {
+                // The cube may have lost its last avatar and been removed in the meantime
+                if (cell.removed)
+                    continue;
+                if (cell.size == cell.entries.length) {
+                    Entry[] grown = new Entry[cell.size * 2];
+                    System.arraycopy(cell.entries, 0, grown, 0, cell.size);
+                    cell.entries = grown;
+                    int[] coords = new int[grown.length * 3];
+                    System.arraycopy(cell.coords, 0, coords, 0, cell.size * 3);
+                    cell.coords = coords;
+                }
+                entry.cell = cell;
+                entry.slot = cell.size;
+                cell.entries[cell.size++] = entry;
+                place(entry, pos);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Internal method to store the position of an entry in the entry and its cube. The cube must be locked.
+     */
+    private static void place(Entry entry, Point3D pos) {
+        entry.x = pos.getX();
+        entry.y = pos.getY();
+        entry.z = pos.getZ();
+        Cell cell = entry.cell;
+        cell.coords[entry.slot * 3] = entry.x;
+        cell.coords[entry.slot * 3 + 1] = entry.y;
+        cell.coords[entry.slot * 3 + 2] = entry.z;
+    }
+
+    /**
+     * Internal method to remove an entry from its cube, removing the cube once it is empty. The entry must be locked.
+     */
+    private void leave(Entry entry) {
+        Cell cell = entry.cell;
+        synchronized (cell) {
+            Entry last = cell.entries[--cell.size];
+            cell.entries[entry.slot] = last;
+            System.arraycopy(cell.coords, cell.size * 3, cell.coords, entry.slot * 3, 3);
+            last.slot = entry.slot;
+            cell.entries[cell.size] = null;
+            entry.cell = null;
+            if (cell.size == 0)
+                removeCell(cell);
+        }
+    }
+
+    /**
+     * Internal method to return the part of the hash table holding the cube with the given coordinates.
+     */
+    private Segment segment(int hash) {
+        return segments[(hash >>> 28) & (SEGMENTS - 1)];
+    }
+
+    /**
+     * Internal method to return the cube with the given coordinates, null if it holds no avatars.
+     */
+    private Cell getCell(long cx, long cy, long cz) {
+        int hash = hash((int) cx, (int) cy, (int) cz);
+        Segment segment = segment(hash);
+        synchronized (segment) {
+            return find(segment, hash, cx, cy, cz);
+        }
+    }
+
+    /**
+     * Internal method to find a cube in a locked part of the hash table.
+     */
+    private static Cell find(Segment segment, int hash, long cx, long cy, long cz) {
+        int mask = segment.cells.length - 1;
+        for (int i = hash & mask; ; i = (i + 1) & mask) {
+            Cell cell = segment.cells[i];
+            if ((cell == null) || ((cell.cx == cx) && (cell.cy == cy) && (cell.cz == cz)))
+                return cell;
+        }
+    }
+
+    /**
+     * Internal method to return the cube with the given coordinates, adding it if it does not exist yet. The bounds
+     * of the cubes are widened before the cube is returned.
+     */
+    private Cell getOrAddCell(int cx, int cy, int cz) {
+        int hash = hash(cx, cy, cz);
+        Segment segment = segment(hash);
+        synchronized (segment) {
+            Cell cell = find(segment, hash, cx, cy, cz);
+            if (cell != null)
+                return cell;
+            if (2 * (segment.count + 1) > segment.cells.length) {
+                Cell[] old = segment.cells;
+                segment.cells = new Cell[old.length * 2];
+                for (Cell c : old)
+                    if (c != null)
+                        insert(segment, c);
+            }
+            cell = new Cell(cx, cy, cz);
+            insert(segment, cell);
+            segment.count++;
+            addBounds(cell);
+            return cell;
+        }
+    }
+
+    /**
+     * Internal method to take an empty cube out of the hash table and narrow the bounds of the cubes. The cube must be
+     * locked.
+     */
+    private void removeCell(Cell cell) {
+        int hash = hash(cell.cx, cell.cy, cell.cz);
+        Segment segment = segment(hash);
+        synchronized (segment) {
+            Cell[] cells = segment.cells;
+            int mask = cells.length - 1;
+            int i = hash & mask;
+            while (cells[i] != cell)
+                i = (i + 1) & mask;
+            // Shift the following cubes of the run back, so no cube is cut off from the place of its hash
+            for (int j = (i + 1) & mask; cells[j] != null; j = (j + 1) & mask) {
+                int home = hash(cells[j].cx, cells[j].cy, cells[j].cz) & mask;
+                if (((j - home) & mask) >= ((j - i) & mask)) {
+                    cells[i] = cells[j];
+                    i = j;
+                }
+            }
+            cells[i] = null;
+            segment.count--;
+            cell.removed = true;
+        }
+        removeBounds(cell);
+    }
+
+    /**
+     * Internal method to put a cube in the first free place of a locked part of the hash table for its coordinates.
+     */
+    private static void insert(Segment segment, Cell cell) {
+        int mask = segment.cells.length - 1;
+        int i = hash(cell.cx, cell.cy, cell.cz) & mask;
+        while (segment.cells[i] != null)
+            i = (i + 1) & mask;
+        segment.cells[i] = cell;
+    }
+
+    /**
+     * Internal method to widen the bounds of the cubes with a new cube.
+     */
+    private synchronized void addBounds(Cell cell) {
+        axisX.add(cell.cx);
+        axisY.add(cell.cy);
+        axisZ.add(cell.cz);
+        updateBounds();
+    }
+
+    /**
+     * Internal method to narrow the bounds of the cubes when a cube is removed.
+     */
+    private synchronized void removeBounds(Cell cell) {
+        axisX.remove(cell.cx);
+        axisY.remove(cell.cy);
+        axisZ.remove(cell.cz);
+        updateBounds();
+    }
+
+    /**
+     * Internal method to publish the bounds of the cubes. The index must be locked.
+     */
+    private void updateBounds() {
+        minCX = axisX.min();
+        minCY = axisY.min();
+        minCZ = axisZ.min();
+        maxCX = axisX.max();
+        maxCY = axisY.max();
+        maxCZ = axisZ.max();
+    }
+
+    /**
+     * Internal method to compute the hash of the coordinates of a cube.
+     */
+    private static int hash(int cx, int cy, int cz) {
+        long res = ((long) cx * 0x9E3779B97F4A7C15L) ^ ((long) cy * 0xC2B2AE3D27D4EB4FL) ^ cz;
+        return (int) RandomSource.mix(res);
+    }
+
+    /**
+     * Internal method to compute the square of the distance of the entry in a slot of a cube to a position.
+     */
+    private static long distance(int[] coords, int slot, int x, int y, int z) {
+        long dx = (long) coords[slot * 3] - x;
+        long dy = (long) coords[slot * 3 + 1] - y;
+        long dz = (long) coords[slot * 3 + 2] - z;
+        return dx * dx + dy * dy + dz * dz;
+    }
+
+    /**
+     * Internal method to compute the square of the distance of a cube to a position, no square of the cube being
+     * nearer to the position.
+     */
+    private static long gap(Cell cell, int x, int y, int z) {
+        long dx = gap((long) cell.cx << CELL_BITS, x);
+        long dy = gap((long) cell.cy << CELL_BITS, y);
+        long dz = gap((long) cell.cz << CELL_BITS, z);
+        return dx * dx + dy * dy + dz * dz;
+    }
+
+    /**
+     * Internal method to compute the distance of a coordinate to the range of a cube along an axis.
+     */
+    private static long gap(long low, int v) {
+        if (v < low)
+            return low - v;
+        long high = low + CELL_SIZE - 1;
+        return (v > high) ? v - high : 0;
+    }
+
+    /**
+     * Internal method to check whether the first avatar is nearer than the second one. Avatars at the same distance
+     * are ordered by their position.
+     */
+    private static boolean before(long d1, int x1, int y1, int z1, long d2, int x2, int y2, int z2) {
+        if (d1 != d2)
+            return d1 < d2;
+        if (x1 != x2)
+            return x1 < x2;
+        if (y1 != y2)
+            return y1 < y2;
+        return z1 < z2;
+    }
+
+    /**
+     * Internal method to check whether the avatar in one place of the heap is nearer than the one in another place.
+     */
+    private static boolean before(long[] dist, int[] coords, int i, int j) {
+        return before(dist[i], coords[i * 3], coords[i * 3 + 1], coords[i * 3 + 2], dist[j], coords[j * 3],
+                coords[j * 3 + 1], coords[j * 3 + 2]);
+    }
+
+    /**
+     * Internal method to move an avatar up the heap of nearest avatars, the farthest avatar being on top.
+     */
+    private static void siftUp(Avatar[] heap, long[] dist, int[] coords, int i) {
+        while (i > 0) {
+            int parent = (i - 1) / 2;
+            if (!before(dist, coords, parent, i))
+                return;
+            swap(heap, dist, coords, i, parent);
+            i = parent;
+        }
+    }
+
+    /**
+     * Internal method to move the top avatar down the heap of nearest avatars.
+     */
+    private static void siftDown(Avatar[] heap, long[] dist, int[] coords, int size) {
+        int i = 0;
+        while (2 * i + 1 < size) {
+            int child = 2 * i + 1;
+            if ((child + 1 < size) && before(dist, coords, child, child + 1))
+                child++;
+            if (!before(dist, coords, i, child))
+                return;
+            swap(heap, dist, coords, i, child);
+            i = child;
+        }
+    }
+
+    /**
+     * Internal method to copy the avatar in one place of the heap to another place.
+     */
+    private static void move(Avatar[] heap, long[] dist, int[] coords, int from, int to) {
+        heap[to] = heap[from];
+        dist[to] = dist[from];
+        System.arraycopy(coords, from * 3, coords, to * 3, 3);
+    }
+
+    private static void swap(Avatar[] heap, long[] dist, int[] coords, int i, int j) {
+        Avatar avatar = heap[i];
+        heap[i] = heap[j];
+        heap[j] = avatar;
+        long d = dist[i];
+        dist[i] = dist[j];
+        dist[j] = d;
+        for (int k = 0; k < 3; k++) {
+            int c = coords[i * 3 + k];
+            coords[i * 3 + k] = coords[j * 3 + k];
+            coords[j * 3 + k] = c;
+        }
+    }
+
+}
@@ -93,6 +93,29 @@ public abstract class Border {
         this.adjacent = adjacent;
     }
 
+    /**
+     * Must be called by subclasses after the state of the border has changed, so the change can be recorded in the
+     * journal of the dungeon the border belongs to and reported to its listeners.
+     *
+     * @param   type
+     *          The type of the change reported to the listeners.
+     */
+    protected final void stateChanged(DungeonEvent.Type type) {
+        Square square = getSquare();
+        if ((square == null) || (square.getDungeon() == null))
+            return;
+        DungeonJournal journal = square.getJournal();
+        if (journal != null)
+            journal.logBorderState(this);
+        for (Direction dir : Direction.values())
+            if (square.getBorder(dir) == this)
+                square.publish(type, dir, null);
+        // The state is shared with the adjacent border
+        Border adjacent = getAdjacent();
+        if ((adjacent != null) && (adjacent.getSquare() != null))
+            adjacent.getSquare().changed();
+    }
+
     /**
      * Creates and returns a copy of this object.
      */
@@ -14,16 +14,37 @@ import java.util.*;
  */
 public class CompositeDungeon<T extends Square> extends Dungeon<T> {
 
-    private Map<Point3D, Dungeon> dungeons = new HashMap<>();
+    private Map<Point3D, Dungeon<T>> dungeons = new HashMap<>();
 
     /**
      * Returns the map containing the dungeons.
      */
     @Basic
-    private Map<Point3D, Dungeon> getDungeons() {
+    private Map<Point3D, Dungeon<T>> getDungeons() {
         return dungeons;
     }
 
+    /**
+     * Returns the direct sub dungeons of this dungeon, ordered by their position along the X, Y and Z axis. The order
+     * only depends on the layout of the dungeon, so it can be used to number dungeons in a reproducible way.
+     */
+    public List<Dungeon<T>> getSubDungeons() {
+        List<Dungeon<T>> res = new ArrayList<>(getDungeons().values());
+        Collections.sort(res, new Comparator<Dungeon<T>>() {
+            @Override
+            public int compare(Dungeon<T> d1, Dungeon<T> d2) {
+                Point3D p1 = d1.getPos();
+                Point3D p2 = d2.getPos();
+                if (p1.getX() != p2.getX())
+                    return Integer.compare(p1.getX(), p2.getX());
+                if (p1.getY() != p2.getY())
+                    return Integer.compare(p1.getY(), p2.getY());
+                return Integer.compare(p1.getZ(), p2.getZ());
+            }
+        });
+        return res;
+    }
+
     /**
      * Returns the dungeon at the given position. Returns null if there's no dungeon at the given position. This
      * function iterates recursively through all sub dungeons.
@@ -31,12 +52,22 @@ public class CompositeDungeon<T extends Square> extends Dungeon<T> {
      * @param   pos
      *          The given position.
      */
-    public Dungeon getDungeonAt(Point3D pos) {
+    public Dungeon<T> getDungeonAt(Point3D pos) {
+        long start = DungeonMetrics.start();
+        Dungeon<T> res = findDungeonAt(pos);
+        DungeonMetrics.dungeonFound(start);
+        return res;
+    }
+
+    /**
+     * Internal method to find the dungeon at the given position.
+     */
+    private Dungeon<T> findDungeonAt(Point3D pos) {
         if (!isValidPos(pos))
             return null;
-        for (Dungeon d : getDungeons().values()) {
+        for (Dungeon<T> d : getDungeons().values()) {
             if (d instanceof CompositeDungeon) {
-                Dungeon sub = ((CompositeDungeon) d).getDungeonAt(pos);
+                Dungeon<T> sub = ((CompositeDungeon<T>) d).findDungeonAt(pos);
                 if (sub != null)
                     return sub;
             }
@@ -64,20 +95,41 @@ public class CompositeDungeon<T extends Square> extends Dungeon<T> {
      *          Throws an illegal argument exception if the dungeon is being added to itself.
      * @throws  IllegalArgumentException
      *          Throws an illegal argument exception if a dungeon is already present at the given position.
+     * @throws  IllegalArgumentException
+     *          Throws an illegal argument exception if the given dungeon has a journal of its own.
+     * @throws  IllegalArgumentException
+     *          Throws an illegal argument exception if the given dungeon has changes scheduled in a scheduler of its
+     *          own.
      */
     // TODO: Check overlap
-    public void addDungeon(Dungeon dungeon, Point3D pos) throws IllegalArgumentException {
+    public void addDungeon(Dungeon<T> dungeon, Point3D pos) throws IllegalArgumentException {
         if ((pos == null) || (dungeon == null))
             throw new IllegalArgumentException("Invalid position or dungeon!");
         if (dungeon.getDungeon() != null)
             throw new IllegalArgumentException("Dungeon already assigned!");
         if (dungeon.equals(this))
             throw new IllegalArgumentException("Can't add dungeon to itself!");
-        if (getDungeonAt(pos) != null)
+        long start = DungeonTrace.start();
+        boolean overlap = getDungeonAt(pos) != null;
+        DungeonTrace.commit(DungeonTrace.Kind.OVERLAP_CHECK, start, getDungeons().size(), overlap);
+        if (overlap)
             throw new IllegalArgumentException("Dungeon already present at the given position!");
+        if (dungeon.getJournal() != null)
+            throw new IllegalArgumentException("The given dungeon has a journal of its own!");
+        if (dungeon.hasPendingChanges())
+            throw new IllegalArgumentException("The given dungeon has a scheduler of its own!");
         getDungeons().put(pos, dungeon);
         dungeon.setDungeon(this);
-        dungeon.setPos((Point3D) pos.clone());
+        dungeon.setPos(pos);
+        DungeonJournal journal = getJournal();
+        if (journal != null)
+            journal.logAddDungeon(dungeon);
+        AvatarIndex index = findAvatarIndex();
+        if (index != null)
+            index.addAvatars(dungeon);
+        SnapshotTracker tracker = findSnapshotTracker();
+        if (tracker != null)
+            tracker.addSquares(dungeon);
     }
 
     /**
@@ -119,7 +171,7 @@ public class CompositeDungeon<T extends Square> extends Dungeon<T> {
      */
     @Override
     public void addSquare(T square, Point3D pos) throws IllegalArgumentException {
-        Dungeon d = getDungeonAt(pos);
+        Dungeon<T> d = getDungeonAt(pos);
         if ((d != null) && (d.hasSquare(pos)))
             throw new IllegalArgumentException("Square already present at the given position!");
         super.addSquare(square, pos);
@@ -131,23 +183,43 @@ public class CompositeDungeon<T extends Square> extends Dungeon<T> {
      * @param   dungeons
      *          The given list to add the results to.
      */
-    private void getLevelsAndShafts(List<Dungeon> dungeons) {
-        for (Dungeon d : getDungeons().values())
+    private void getLevelsAndShafts(List<Dungeon<T>> dungeons) {
+        for (Dungeon<T> d : getDungeons().values())
             if ((d instanceof Level) || (d instanceof Shaft))
                 dungeons.add(d);
             else if (d instanceof CompositeDungeon)
-                ((CompositeDungeon) d).getLevelsAndShafts(dungeons);
+                ((CompositeDungeon<T>) d).getLevelsAndShafts(dungeons);
     }
 
     /**
      * Returns a list containing all sub dungeons of the type level or shaft recursively.
      */
-    public List<Dungeon> getLevelsAndShafts() {
-        List<Dungeon> res = new ArrayList<>();
+    public List<Dungeon<T>> getLevelsAndShafts() {
+        List<Dungeon<T>> res = new ArrayList<>();
         getLevelsAndShafts(res);
         return res;
     }
 
+    /**
+     * Internal method to fill a list with all squares of the dungeon and its sub dungeons.
+     */
+    @Override
+    protected void getAllSquares(List<Square> squares) {
+        super.getAllSquares(squares);
+        for (Dungeon<T> d : getDungeons().values())
+            d.getAllSquares(squares);
+    }
+
+    /**
+     * Internal method to fill a list with all avatars on the squares of the dungeon and its sub dungeons.
+     */
+    @Override
+    protected void getAvatars(List<Avatar> avatars) {
+        super.getAvatars(avatars);
+        for (Dungeon<T> d : getDungeons().values())
+            d.getAvatars(avatars);
+    }
+
     /**
      * Returns a list of all teleports in the dungeon recursively.
      */
@@ -155,7 +227,7 @@ public class CompositeDungeon<T extends Square> extends Dungeon<T> {
     public List<TeleportInterface> getTeleports() {
         List<TeleportInterface> teleports = new ArrayList<>();
         getTeleports(teleports);
-        for (Dungeon d : getDungeons().values())
+        for (Dungeon<T> d : getDungeons().values())
             d.getTeleports(teleports);
         return teleports;
     }
@@ -11,7 +11,7 @@ import java.security.PublicKey;
  */
 public enum Direction {
 
-    NORTH {
+    NORTH(0, 1, 0) {
         /**
          * Returns the opposite direction.
          */
@@ -19,24 +19,8 @@ public enum Direction {
         public Direction opposite() {
             return SOUTH;
         }
-
-        /**
-         * Moves the point into the given direction and returns the moved point.
-         *
-         * @param   pos
-         *          The given point.
-         * @return  The new moved point.
-         */
-        @Override
-        public Point3D move(Point3D pos) {
-            if (pos == null)
-                return null;
-            Point3D res = (Point3D) pos.clone();
-            res.setY(res.getY() + 1);
-            return res;
-        }
     },
-    EAST {
+    EAST(1, 0, 0) {
         /**
          * Returns the opposite direction.
          */
@@ -44,24 +28,8 @@ public enum Direction {
         public Direction opposite() {
             return WEST;
         }
-
-        /**
-         * Moves the point into the given direction and returns the moved point.
-         *
-         * @param   pos
-         *          The given point.
-         * @return  The new moved point.
-         */
-        @Override
-        public Point3D move(Point3D pos) {
-            if (pos == null)
-                return null;
-            Point3D res = (Point3D) pos.clone();
-            res.setX(res.getX() + 1);
-            return res;
-        }
     },
-    SOUTH {
+    SOUTH(0, -1, 0) {
         /**
          * Returns the opposite direction.
          */
@@ -69,24 +37,8 @@ public enum Direction {
         public Direction opposite() {
             return NORTH;
         }
-
-        /**
-         * Moves the point into the given direction and returns the moved point.
-         *
-         * @param   pos
-         *          The given point.
-         * @return  The new moved point.
-         */
-        @Override
-        public Point3D move(Point3D pos) {
-            if (pos == null)
-                return null;
-            Point3D res = (Point3D) pos.clone();
-            res.setY(res.getY() - 1);
-            return res;
-        }
     },
-    WEST {
+    WEST(-1, 0, 0) {
         /**
          * Returns the opposite direction.
          */
@@ -94,24 +46,8 @@ public enum Direction {
         public Direction opposite() {
             return EAST;
         }
-
-        /**
-         * Moves the point into the given direction and returns the moved point.
-         *
-         * @param   pos
-         *          The given point.
-         * @return  The new moved point.
-         */
-        @Override
-        public Point3D move(Point3D pos) {
-            if (pos == null)
-                return null;
-            Point3D res = (Point3D) pos.clone();
-            res.setX(res.getX() - 1);
-            return res;
-        }
     },
-    CEILING {
+    CEILING(0, 0, 1) {
         /**
          * Returns the opposite direction.
          */
@@ -119,24 +55,8 @@ public enum Direction {
         public Direction opposite() {
             return FLOOR;
         }
-
-        /**
-         * Moves the point into the given direction and returns the moved point.
-         *
-         * @param   pos
-         *          The given point.
-         * @return  The new moved point.
-         */
-        @Override
-        public Point3D move(Point3D pos) {
-            if (pos == null)
-                return null;
-            Point3D res = (Point3D) pos.clone();
-            res.setZ(res.getZ() + 1);
-            return res;
-        }
     },
-    FLOOR {
+    FLOOR(0, 0, -1) {
         /**
          * Returns the opposite direction.
          */
@@ -144,32 +64,81 @@ public enum Direction {
         public Direction opposite() {
             return CEILING;
         }
-
-        /**
-         * Moves the point into the given direction and returns the moved point.
-         *
-         * @param   pos
-         *          The given point.
-         * @return  The new moved point.
-         */
-        @Override
-        public Point3D move(Point3D pos) {
-            if (pos == null)
-                return null;
-            Point3D res = (Point3D) pos.clone();
-            res.setZ(res.getZ() - 1);
-            return res;
-        }
     };
 
+    /**
+     * The number of directions.
+     */
+    public static final int COUNT = 6;
+
+    /**
+     * The directions in the order of their ordinals, values() copies this array on every call.
+     */
+    private static final Direction[] VALUES = values();
+
+    /**
+     * The change of the coordinates when moving in the direction.
+     */
+    private final int dx;
+    private final int dy;
+    private final int dz;
+
+    private Direction(int dx, int dy, int dz) {
+        this.dx = dx;
+        this.dy = dy;
+        this.dz = dz;
+    }
+
+    /**
+     * Returns the direction with the given ordinal. Unlike values(), this method does not allocate.
+     *
+     * @param   ordinal
+     *          The given ordinal.
+     * @throws  IllegalArgumentException
+     *          Throws an illegal argument exception if there's no direction with the given ordinal.
+     *          | (ordinal < 0) || (ordinal >= COUNT)
+     */
+    public static Direction get(int ordinal) throws IllegalArgumentException {
+        if ((ordinal < 0) || (ordinal >= COUNT))
+            throw new IllegalArgumentException("Invalid ordinal!");
+        return VALUES[ordinal];
+    }
+
+    /**
+     * Returns the change of the x-coordinate when moving in the direction.
+     */
+    public int getDX() {
+        return dx;
+    }
+
+    /**
+     * Returns the change of the y-coordinate when moving in the direction.
+     */
+    public int getDY() {
+        return dy;
+    }
+
+    /**
+     * Returns the change of the z-coordinate when moving in the direction.
+     */
+    public int getDZ() {
+        return dz;
+    }
+
     /**
      * Moves the point into the given direction and returns the moved point.
      *
      * @param   pos
      *          The given point.
-     * @return  The new moved point.
+     * @return  The new moved point, null if no point is given.
+     *          | if (pos != null)
+     *          |   result.equals(pos.translate(getDX(), getDY(), getDZ()))
      */
-    public abstract Point3D move(Point3D pos);
+    public Point3D move(Point3D pos) {
+        if (pos == null)
+            return null;
+        return pos.translate(dx, dy, dz);
+    }
 
     /**
      * Returns the opposite direction.
@@ -3,12 +3,15 @@ package be.kuleuven.cs.ogp.project;
 import be.kuleuven.cs.ogp.project.squares.Rock;
 import be.kuleuven.cs.ogp.project.squares.Teleport;
 import be.kuleuven.cs.ogp.project.tools.Point3D;
+import be.kuleuven.cs.ogp.project.tools.RandomSource;
+import be.kuleuven.cs.ogp.project.tools.SliceCounts;
+import be.kuleuven.cs.ogp.project.tools.Tools;
 import be.kuleuven.cs.som.annotate.Basic;
 import be.kuleuven.cs.som.annotate.Model;
 import be.kuleuven.cs.som.annotate.Raw;
-import sun.rmi.log.LogInputStream;
 
 import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * The class containing the most basic dungeon type.
@@ -29,6 +32,72 @@ public class Dungeon<T extends Square> {
      */
     private static final double MAX_SLIPPERY = 0.2; // 0 <= MAX_SLIPPERY <= 1
 
+    /**
+     * The state of a search of a space: the cursor walking over the squares, the squares which were reached and the
+     * squares whose neighbours still have to be searched. Every thread reuses a single search state for all of its
+     * searches, so a search only allocates the list it returns.
+     */
+    private static final class SpaceSearch {
+
+        /**
+         * The number of reached squares above which the set of reached squares is dropped after a search, so a single
+         * large search does not slow down every following search by clearing a large table.
+         */
+        private static final int MAX_RETAINED = 1 << 12;
+
+        private DungeonCursor cursor = null;
+
+        private Set<Square> visited = newVisited();
+
+        private final Deque<Square> stack = new ArrayDeque<>();
+
+        /**
+         * Whether the search state is in use, a search started while another one of the same thread runs gets a
+         * search state of its own.
+         */
+        private boolean busy = false;
+
+        private static Set<Square> newVisited() {
+            return Collections.newSetFromMap(new IdentityHashMap<Square, Boolean>());
+        }
+
+        /**
+         * Prepares the search state for a search of the given dungeon and returns its cursor.
+         */
+        private DungeonCursor start(Dungeon<?> dungeon) {
+            busy = true;
+            if (cursor == null)
+                cursor = new DungeonCursor(dungeon);
+            else
+                cursor.reset(dungeon);
+            return cursor;
+        }
+
+        /**
+         * Clears the search state after a search.
+         */
+        private void finish() {
+            cursor.reset(null);
+            stack.clear();
+            if (visited.size() > MAX_RETAINED)
+                visited = newVisited();
+            else
+                visited.clear();
+            busy = false;
+        }
+
+    }
+
+    /**
+     * The search state of every thread.
+     */
+    private static final ThreadLocal<SpaceSearch> searches = new ThreadLocal<SpaceSearch>() {
+        @Override
+        protected SpaceSearch initialValue() {
+            return new SpaceSearch();
+        }
+    };
+
     /**
      * The composite dungeon which contains this dungeon.
      */
@@ -69,11 +138,64 @@ public class Dungeon<T extends Square> {
      */
     private long zDim = 0;
 
+    /**
+     * The number of squares in every slice along the X, Y and Z axis, which bound the dimensions from below.
+     */
+    private final SliceCounts xSlices = new SliceCounts();
+    private final SliceCounts ySlices = new SliceCounts();
+    private final SliceCounts zSlices = new SliceCounts();
+
     /**
      * The map containing all of the squares in the dungeon.
      */
     private Map<Point3D, T> squares = new HashMap<>();
 
+    /**
+     * The journal attached to this dungeon, if any.
+     */
+    private DungeonJournal journal = null;
+
+    /**
+     * The buffer holding the events for the listeners of this dungeon, created when the first listener subscribes.
+     */
+    private DungeonEventBuffer events = null;
+
+    /**
+     * The random source set for this dungeon, if any.
+     */
+    private RandomSource random = null;
+
+    /**
+     * The scheduler running the timed changes of this dungeon, created when it is first asked for.
+     */
+    private DungeonScheduler scheduler = null;
+
+    /**
+     * The index of the avatars in this dungeon, created when it is first asked for.
+     */
+    private volatile AvatarIndex avatars = null;
+
+    /**
+     * The tracker of the chunks written since the last snapshot of this dungeon, created when the first snapshot is
+     * taken.
+     */
+    private volatile SnapshotTracker snapshots = null;
+
+    /**
+     * Equals true while squares are attached which were loaded from outside of the heap, which is not a change.
+     */
+    private boolean silent = false;
+
+    /**
+     * The number of changes made to the layout of this dungeon.
+     */
+    private final AtomicLong layoutVersion = new AtomicLong();
+
+    /**
+     * The number of destinations added to the teleports of this dungeon.
+     */
+    private final AtomicLong teleportVersion = new AtomicLong();
+
     /**
      * Creates a new instance of dungeon.
      *
@@ -88,6 +210,25 @@ public class Dungeon<T extends Square> {
         setZDimMax(Long.MAX_VALUE);
     }
 
+    /**
+     * Creates a new instance of dungeon which keeps its squares in the given map. This allows subclasses to store
+     * their squares outside of the heap.
+     *
+     * @param   squares
+     *          The given square map.
+     * @throws  IllegalArgumentException
+     *          Throws an illegal argument exception if the given map is invalid.
+     *          | squares == null
+     * @effect  Creates the dungeon with the default settings.
+     *          | this()
+     */
+    protected Dungeon(Map<Point3D, T> squares) throws IllegalArgumentException {
+        this();
+        if (squares == null)
+            throw new IllegalArgumentException("Invalid square map!");
+        this.squares = squares;
+    }
+
     /**
      * Returns the maximum size for the X dimension.
      */
@@ -165,16 +306,16 @@ public class Dungeon<T extends Square> {
      * @param   xDim
      *          The given size.
      * @throws  IllegalArgumentException
-     *          Throws an illegal argument exception if the new dimension is smaller than the old one.
-     *          | xDim < this.getXDim()
+     *          Throws an illegal argument exception if the new dimension does not hold all squares of the dungeon.
+     *          | for some square in getSquares().values(): square.getPos().getX() >= xDim
      * @throws  IllegalArgumentException
      *          Throws an illegal argument exception if the new dimension is larger than the maximum allowed size.
      *          | xDim > this.getXDimMax()
      */
     @Model @Raw
     private void setXDim(long xDim) throws IllegalArgumentException {
-        if (xDim < this.getXDim())
-            throw new IllegalArgumentException("The new X dimension has to be larger than the old one!");
+        if (xDim < xSlices.getExtent())
+            throw new IllegalArgumentException("The new X dimension does not hold all squares!");
         if (xDim > this.getXDimMax())
             throw new IllegalArgumentException("The new X dimension is larger than the maximum allowed size!");
         this.xDim = xDim;
@@ -194,16 +335,16 @@ public class Dungeon<T extends Square> {
      * @param   yDim
      *          The given size.
      * @throws  IllegalArgumentException
-     *          Throws an illegal argument exception if the new dimension is smaller than the old one.
-     *          | yDim < this.getYDim()
+     *          Throws an illegal argument exception if the new dimension does not hold all squares of the dungeon.
+     *          | for some square in getSquares().values(): square.getPos().getY() >= yDim
      * @throws  IllegalArgumentException
      *          Throws an illegal argument exception if the new dimension is larger than the maximum allowed size.
      *          | yDim > this.getYDimMax()
      */
     @Model @Raw
     private final void setYDim(long yDim) throws IllegalArgumentException {
-        if (yDim < this.getYDim())
-            throw new IllegalArgumentException("The new Y dimension has to be larger than the old one!");
+        if (yDim < ySlices.getExtent())
+            throw new IllegalArgumentException("The new Y dimension does not hold all squares!");
         if (yDim > this.getYDimMax())
             throw new IllegalArgumentException("The new Y dimension is larger than the maximum allowed size!");
         this.yDim = yDim;
@@ -223,16 +364,16 @@ public class Dungeon<T extends Square> {
      * @param   zDim
      *          The given size.
      * @throws  IllegalArgumentException
-     *          Throws an illegal argument exception if the new dimension is smaller than the old one.
-     *          | zDim < this.getZDim()
+     *          Throws an illegal argument exception if the new dimension does not hold all squares of the dungeon.
+     *          | for some square in getSquares().values(): square.getPos().getZ() >= zDim
      * @throws  IllegalArgumentException
      *          Throws an illegal argument exception if the new dimension is larger than the maximum allowed size.
      *          | zDim > this.getZDimMax()
      */
     @Model @Raw
     private final void setZDim(long zDim) throws IllegalArgumentException {
-        if (zDim < this.getZDim())
-            throw new IllegalArgumentException("The new Z dimension has to be larger than the old one!");
+        if (zDim < zSlices.getExtent())
+            throw new IllegalArgumentException("The new Z dimension does not hold all squares!");
         if (zDim > this.getZDimMax())
             throw new IllegalArgumentException("The new Z dimension is larger than the maximum allowed size!");
         this.zDim = zDim;
@@ -289,6 +430,23 @@ public class Dungeon<T extends Square> {
         return this.getSquares().get(pos);
     }
 
+    /**
+     * Gets the square at the given coordinates. Dungeons which keep their squares in chunks override this method to
+     * look the square up without creating a point.
+     *
+     * @param   x
+     *          The given x-coordinate.
+     * @param   y
+     *          The given y-coordinate.
+     * @param   z
+     *          The given z-coordinate.
+     * @return  The square at the position with the given coordinates.
+     *          | result == getSquare(new Point3D(x, y, z))
+     */
+    public T getSquare(int x, int y, int z) {
+        return getSquare(Point3D.of(x, y, z));
+    }
+
     /**
      * Adds a square to the dungeon.
      *
@@ -312,14 +470,9 @@ public class Dungeon<T extends Square> {
      *          Throws an illegal argument exception if the maximum allowed number of squares with a slippery floor is
      *          already present in the dungeon.
      *          | (slipperyCount / getSquares().size()) > MAX_SLIPPERY
-     * @effect  Increases all dimensions to the required size if the given position does not fall inside of the current
-     *          dimensions.
-     *          | if (pos.getX() >= this.getXDim())
-     *          |   this.setXDim(pos.getX() + 1);
-     *          | if (pos.getY() >= this.getYDim())
-     *          |   this.setYDim(pos.getY() + 1);
-     *          | if (pos.getZ() >= this.getZDim())
-     *          |   this.setZDim(pos.getZ() + 1);
+     * @effect  The position is occupied, increasing all dimensions to the required size if it does not fall inside of
+     *          the current dimensions.
+     *          | occupy(pos)
      * @post    The given square is now part of the dungeon.
      *          | new.getSquare(pos).equals(square) == true
      * @effect  The square is assigned to the dungeon and can not be assigned to any other dungeon afterwards.
@@ -343,24 +496,193 @@ public class Dungeon<T extends Square> {
             if ((slipperyCount / getSquares().size()) > MAX_SLIPPERY)
                 throw new IllegalArgumentException("Maximum allowed tiles with a slippery floor is already present!");
         }
-        // Add square to dungeon
+        DungeonJournal journal = getJournal();
+        boolean log = (journal != null) && journal.mute();
+        try {
+            // Add square to dungeon
+            occupy(pos);
+            getSquares().put(pos, square);
+            square.setDungeon(this);
+            square.setPos(pos);
+            // Link squares
+            for (Direction dir : Direction.values()) {
+                Square neighbour = getSquare(dir.move(pos));
+                if (neighbour != null)
+                    square.link(neighbour, dir);
+            }
+        } finally {
+            if (log)
+                journal.unmute();
+        }
+        if (log)
+            journal.logAddSquare(square);
+        SnapshotTracker tracker = findSnapshotTracker();
+        if (tracker != null)
+            tracker.add(square);
+        DungeonMetrics.squareAdded();
+        publish(DungeonEvent.Type.SQUARE_ADDED, square, pos, null, null);
+    }
+
+    /**
+     * Increases all dimensions to the required size if the given position does not fall inside of the current
+     * dimensions.
+     *
+     * @param   pos
+     *          The given position.
+     * @effect  Every dimension is increased to hold the given position.
+     *          | if (pos.getX() >= this.getXDim())
+     *          |   this.setXDim(pos.getX() + 1);
+     *          | if (pos.getY() >= this.getYDim())
+     *          |   this.setYDim(pos.getY() + 1);
+     *          | if (pos.getZ() >= this.getZDim())
+     *          |   this.setZDim(pos.getZ() + 1);
+     */
+    @Model
+    protected void fitDimensions(Point3D pos) throws IllegalArgumentException {
         if (pos.getX() >= this.getXDim())
             this.setXDim(pos.getX() + 1);
         if (pos.getY() >= this.getYDim())
             this.setYDim(pos.getY() + 1);
         if (pos.getZ() >= this.getZDim())
             this.setZDim(pos.getZ() + 1);
-        getSquares().put((Point3D) pos.clone(), square);
-        square.setDungeon(this);
-        square.setPos(pos);
-        // Link squares
-        for (Direction dir : Direction.values()) {
-            Square neighbour = getSquare(dir.move(pos));
-            if (neighbour != null)
-                square.link(neighbour, dir);
+    }
+
+    /**
+     * Marks the given position as occupied by a square, increasing the dimensions to hold it.
+     *
+     * @param   pos
+     *          The given position.
+     * @effect  The dimensions are increased to hold the position.
+     *          | fitDimensions(pos)
+     * @post    If the dungeon can shrink, the position is counted in the slices holding it.
+     */
+    @Model
+    protected void occupy(Point3D pos) throws IllegalArgumentException {
+        fitDimensions(pos);
+        if (isShrinkable()) {
+            xSlices.add(pos.getX());
+            ySlices.add(pos.getY());
+            zSlices.add(pos.getZ());
+        }
+    }
+
+    /**
+     * Marks the given position as no longer occupied by a square, shrinking the dimensions to the squares that are
+     * left.
+     *
+     * @param   pos
+     *          The given position, which was occupied.
+     * @effect  If the dungeon can shrink, the dimensions are shrunk to the squares that are left.
+     *          | if (isShrinkable())
+     *          |   shrinkDimensions()
+     */
+    @Model
+    protected void vacate(Point3D pos) {
+        if (isShrinkable()) {
+            xSlices.remove(pos.getX());
+            ySlices.remove(pos.getY());
+            zSlices.remove(pos.getZ());
+            shrinkDimensions();
         }
     }
 
+    /**
+     * Shrinks every dimension to the smallest size holding all squares of the dungeon, unless the dungeon can not
+     * shrink. The highest occupied slices are kept sorted, so this takes logarithmic time.
+     *
+     * @post    If the dungeon can shrink, every dimension is the smallest size holding all squares.
+     *          | if (isShrinkable())
+     *          |   (new.getXDim() == max({0} + {sq.getPos().getX() + 1 | sq in getSquares().values()})) &&
+     *          |   (new.getYDim() == max({0} + {sq.getPos().getY() + 1 | sq in getSquares().values()})) &&
+     *          |   (new.getZDim() == max({0} + {sq.getPos().getZ() + 1 | sq in getSquares().values()}))
+     */
+    @Model
+    protected void shrinkDimensions() {
+        if (!isShrinkable())
+            return;
+        setXDim(xSlices.getExtent());
+        setYDim(ySlices.getExtent());
+        setZDim(zSlices.getExtent());
+    }
+
+    /**
+     * Returns true if the dimensions of the dungeon shrink when its squares are removed. Dungeons with fixed
+     * dimensions return false.
+     */
+    protected boolean isShrinkable() {
+        return true;
+    }
+
+    /**
+     * Shrinks the dimensions of the dungeon to its squares and releases the storage left empty by removed squares.
+     *
+     * @effect  The dimensions are shrunk to the squares of the dungeon.
+     *          | shrinkDimensions()
+     */
+    public void compact() {
+        shrinkDimensions();
+        // A hash map never shrinks its table, so it is rebuilt at the size its squares need
+        if (squares.getClass() == HashMap.class)
+            squares = new HashMap<>(squares);
+    }
+
+    /**
+     * Internal method to attach a square which was loaded from outside of the heap. Unlike addSquare, the square is not
+     * stored and the dimensions are left untouched, the square is only assigned to the dungeon and linked to those of
+     * its neighbours found in the given map.
+     *
+     * @param   square
+     *          The given square, which is not part of a dungeon yet.
+     * @param   pos
+     *          The position of the square.
+     * @param   neighbours
+     *          The map holding the neighbours the square can be linked to.
+     * @effect  The square is assigned to the dungeon.
+     *          | square.setDungeon(this)
+     *          | square.setPos(pos)
+     */
+    protected void attachSquare(T square, Point3D pos, Map<Point3D, ? extends Square> neighbours) {
+        DungeonJournal journal = getJournal();
+        boolean muted = (journal != null) && journal.mute();
+        silent = true;
+        try {
+            square.setDungeon(this);
+            square.setPos(pos);
+            for (Direction dir : Direction.values()) {
+                Square neighbour = neighbours.get(dir.move(pos));
+                if (neighbour != null)
+                    square.link(neighbour, dir);
+            }
+        } finally {
+            silent = false;
+            if (muted)
+                journal.unmute();
+        }
+        SnapshotTracker tracker = findSnapshotTracker();
+        if (tracker != null)
+            tracker.add(square);
+    }
+
+    /**
+     * Internal method to detach a square from the dungeon and all of its neighbours without removing it from the
+     * storage of the dungeon.
+     *
+     * @param   square
+     *          The given square.
+     */
+    protected void detachSquare(T square) {
+        square.unlink();
+    }
+
+    /**
+     * Returns true if every square of the dungeon is linked to all of its neighbours, so a square which is not linked
+     * in a direction has no neighbour in that direction. Dungeons which attach and detach their squares while they are
+     * loaded return false.
+     */
+    protected boolean isFullyLinked() {
+        return true;
+    }
+
     /**
      * Removes the square at a given position and returns it.
      *
@@ -369,6 +691,9 @@ public class Dungeon<T extends Square> {
      * @throws  IllegalArgumentException
      *          Throws an illegal argument exception if the given position is invalid.
      *          | !isValidPos(pos)
+     * @effect  If a square was removed, the dimensions are shrunk to the squares that are left.
+     *          | if (getSquare(pos) != null)
+     *          |   vacate(pos)
      * @return  The square that was removed from the dungeon.
      *          result == getSquare(pos)
      */
@@ -377,8 +702,20 @@ public class Dungeon<T extends Square> {
             throw new IllegalArgumentException("Invalid position!");
         T old = getSquare(pos);
         if (old != null) {
+            SnapshotTracker tracker = findSnapshotTracker();
+            if (tracker != null)
+                tracker.remove(old);
             old.unlink();
             getSquares().remove(pos);
+            vacate(pos);
+            AvatarIndex index = findAvatarIndex();
+            if ((index != null) && (old.getAvatar() != null))
+                index.removeAvatar(old.getAvatar());
+            DungeonJournal journal = getJournal();
+            if (journal != null)
+                journal.logRemoveSquare(this, pos);
+            DungeonMetrics.squareRemoved();
+            publish(DungeonEvent.Type.SQUARE_REMOVED, old, pos, null, null);
         }
         return old;
     }
@@ -397,7 +734,8 @@ public class Dungeon<T extends Square> {
     }
 
     /**
-     * Fills a list with all squares belonging to a space at a given position. Time complexity of O(6n).
+     * Fills a list with all squares belonging to a space at a given position. Time complexity of O(6n). The space is
+     * searched depth first with an explicit stack and a cursor, which are reused by all searches of a thread.
      *
      * @param   space
      *          The given space list.
@@ -405,41 +743,69 @@ public class Dungeon<T extends Square> {
      *          The given position.
      * @param   teleports
      *          The flag which indicates whether or not to include teleport squares.
-     * @effect  If there's no square at the given position, the square is already part of the space or the given
-     *          position falls outside of the bounds of the dungeon, the method exits.
-     *          | if (sq == null || space.contains(sq) || !insideDimensions(pos))
+     * @effect  If there's no square at the given position or the given position falls outside of the bounds of the
+     *          dungeon, the method exits.
+     *          | if (sq == null || !insideDimensions(pos))
      *          |   return
-     * @effect  If the square is found and is not part of the space, it is added to the space?
+     * @effect  Every square that is reached is added to the space once.
      *          | space.add(sq)
-     * @effect  All neighbours are being checked to see if they are part of the space.
+     * @effect  The neighbours behind the open borders of a square in the space are part of the space.
      *          | for (Direction dir : Direction.values()) {
-     *          |   next = dir.move(pos)
-     *          |   neighbour = getSquare(next)
+     *          |   neighbour = getSquare(dir.move(sq.getPos()))
      *          |   if ((neighbour != null) && (sq.getBorder(dir).isOpen()))
-     *          |       getSpace(space, next, teleports) }
-     * @effect  If the teleport flag is set and the square at the given position is a teleport square, the spaces of the
-     *          destinations of the teleport are added to the space.
+     *          |       space.contains(neighbour) }
+     * @effect  If the teleport flag is set, the squares at the positions of the destinations of the teleport squares
+     *          in the space are part of the space.
      *          | if (teleports && (sq instanceof Teleport))
      *          |   for (square : ((Teleport) sq).getDest())
-     *          |       getSpace(space, square.getPos(), teleports)
+     *          |       space.contains(getSquare(square.getPos()))
      */
     @Model
     private void getSpace(List<Square> space, Point3D pos, boolean teleports) {
         if (!insideDimensions(pos))
             return;
-        Square sq = getSquare(pos);
-        if (sq == null || space.contains(sq))
-            return;
-        space.add(sq);
-        for (Direction dir : Direction.values()) {
-            Point3D next = dir.move(pos);
-            Square neighbour = getSquare(next);
-            if ((neighbour != null) && (sq.getBorder(dir).isOpen()))
-                getSpace(space, next, teleports);
+        SpaceSearch search = searches.get();
+        if (search.busy)
+            search = new SpaceSearch();
+        DungeonCursor cursor = search.start(this);
+        try {
+            if (!cursor.moveTo(pos.getX(), pos.getY(), pos.getZ()))
+                return;
+            Set<Square> visited = search.visited;
+            Deque<Square> stack = search.stack;
+            visited.add(cursor.getSquare());
+            stack.push(cursor.getSquare());
+            while (!stack.isEmpty()) {
+                Square sq = stack.pop();
+                visiting(sq);
+                space.add(sq);
+                cursor.moveTo(sq);
+                for (int i = 0; i < Direction.COUNT; i++) {
+                    Direction dir = Direction.get(i);
+                    if (!cursor.isOpen(dir))
+                        continue;
+                    Square neighbour = cursor.neighbour(dir);
+                    if ((neighbour != null) && visited.add(neighbour))
+                        stack.push(neighbour);
+                }
+                if (teleports && (sq instanceof Teleport))
+                    for (Square square : ((Teleport) sq).getDest())
+                        if ((square.getPos() != null) && cursor.moveTo(square) && visited.add(cursor.getSquare()))
+                            stack.push(cursor.getSquare());
+            }
+        } finally {
+            search.finish();
         }
-        if (teleports && (sq instanceof Teleport))
-            for (Square square : ((Teleport) sq).getDest())
-                getSpace(space, square.getPos(), teleports);
+    }
+
+    /**
+     * Is called by the search of a space for every square it reaches, before the borders of the square are read. This
+     * method can be overridden in subclasses which have to know which squares a search depends on.
+     *
+     * @param   square
+     *          The square that is reached.
+     */
+    protected void visiting(Square square) {
     }
 
     /**
@@ -462,8 +828,12 @@ public class Dungeon<T extends Square> {
             throw new IllegalArgumentException("Invalid position!");
         if (!hasSquare(pos))
             throw new IllegalArgumentException("There's no square at the given position!");
+        long start = DungeonMetrics.start();
+        long traced = DungeonTrace.start();
         List<Square> space = new ArrayList<>();
         getSpace(space, pos, false);
+        DungeonMetrics.traversed(start, space.size());
+        DungeonTrace.commit(DungeonTrace.Kind.TRAVERSAL, traced, space.size(), false);
         return space;
     }
 
@@ -488,8 +858,12 @@ public class Dungeon<T extends Square> {
             throw new IllegalArgumentException("Invalid position!");
         if (!hasSquare(pos))
             throw new IllegalArgumentException("There's no square at the given position!");
+        long start = DungeonMetrics.start();
+        long traced = DungeonTrace.start();
         List<Square> space = new ArrayList<>();
         getSpace(space, pos, true);
+        DungeonMetrics.traversed(start, space.size());
+        DungeonTrace.commit(DungeonTrace.Kind.TRAVERSAL, traced, space.size(), true);
         return space;
     }
 
@@ -513,6 +887,286 @@ public class Dungeon<T extends Square> {
     @Basic
     protected void setDungeon(CompositeDungeon<T> dungeon) {
         this.dungeon = dungeon;
+        // The avatars are indexed and the snapshots are taken by the outermost dungeon from now on
+        this.avatars = null;
+        if (snapshots != null) {
+            snapshots.detach();
+            snapshots = null;
+        }
+    }
+
+    /**
+     * Returns the journal recording the changes made to this dungeon. The journal of a sub dungeon is the one attached
+     * to the closest dungeon which contains it, null is returned if there's no such journal.
+     */
+    public DungeonJournal getJournal() {
+        for (Dungeon<?> dungeon = this; dungeon != null; dungeon = dungeon.getDungeon())
+            if (dungeon.journal != null)
+                return dungeon.journal;
+        return null;
+    }
+
+    /**
+     * Returns the random source deciding the random outcomes in this dungeon, like collisions and teleports. This is
+     * the source set for the closest dungeon containing this dungeon, or the default source of the project if no
+     * source was set.
+     */
+    public RandomSource getRandomSource() {
+        for (Dungeon<?> dungeon = this; dungeon != null; dungeon = dungeon.getDungeon())
+            if (dungeon.random != null)
+                return dungeon.random;
+        return Tools.getRandomSource();
+    }
+
+    /**
+     * Sets the random source deciding the random outcomes in this dungeon and its sub dungeons.
+     *
+     * @param   random
+     *          The given random source, null to use the source of the dungeon containing this dungeon.
+     * @post    The random source of the dungeon equals the given source, if a source was given.
+     *          | if (random != null)
+     *          |   new.getRandomSource() == random
+     */
+    public void setRandomSource(RandomSource random) {
+        this.random = random;
+    }
+
+    /**
+     * Returns the scheduler running the timed changes of this dungeon. The sub dungeons of a dungeon share the
+     * scheduler of the outermost dungeon containing them.
+     */
+    public DungeonScheduler getScheduler() {
+        Dungeon<?> root = this;
+        while (root.getDungeon() != null)
+            root = root.getDungeon();
+        if (root.scheduler == null)
+            root.scheduler = new DungeonScheduler(root);
+        return root.scheduler;
+    }
+
+    /**
+     * Returns the current tick of the scheduler of this dungeon, without creating the scheduler.
+     *
+     * @return  | result == getScheduler().getTick()
+     */
+    public long getTick() {
+        Dungeon<?> root = this;
+        while (root.getDungeon() != null)
+            root = root.getDungeon();
+        DungeonScheduler scheduler = root.scheduler;
+        return (scheduler == null) ? 0 : scheduler.getTick();
+    }
+
+    /**
+     * Returns the index of the avatars in this dungeon, by their absolute position. The sub dungeons of a dungeon share
+     * the index of the outermost dungeon containing them. The index is built from the squares of the dungeon when it is
+     * first asked for, and kept up to date from then on.
+     */
+    public AvatarIndex getAvatarIndex() {
+        Dungeon<?> root = this;
+        while (root.getDungeon() != null)
+            root = root.getDungeon();
+        synchronized (root) {
+            if (root.avatars == null) {
+                AvatarIndex index = new AvatarIndex(root);
+                root.avatars = index;
+                index.addAvatars(root);
+            }
+            return root.avatars;
+        }
+    }
+
+    /**
+     * Internal method to return the avatar index of the outermost dungeon containing this dungeon, without creating
+     * it.
+     *
+     * @return  The avatar index, null if it was not asked for yet.
+     */
+    @Model
+    AvatarIndex findAvatarIndex() {
+        Dungeon<?> root = this;
+        while (root.getDungeon() != null)
+            root = root.getDungeon();
+        return root.avatars;
+    }
+
+    /**
+     * Takes a snapshot of the squares of this dungeon and its sub dungeons, by their absolute position. The snapshots
+     * of a sub dungeon are those of the outermost dungeon containing it. The first snapshot copies every square; later
+     * snapshots only copy the chunks of squares that changed since the previous one, and share the others with it.
+     *
+     * @note    A snapshot is only consistent if no changes are made while it is taken, for instance by taking it
+     *          between two ticks of the game. Once taken, it can be read while the dungeon changes.
+     */
+    public DungeonSnapshot snapshot() {
+        Dungeon<?> root = this;
+        while (root.getDungeon() != null)
+            root = root.getDungeon();
+        SnapshotTracker tracker = root.snapshots;
+        if (tracker == null) {
+            synchronized (root) {
+                tracker = root.snapshots;
+                if (tracker == null) {
+                    tracker = new SnapshotTracker(root);
+                    // Published first, so squares added meanwhile are tracked; no snapshot is taken until all are added
+                    synchronized (tracker) {
+                        root.snapshots = tracker;
+                        tracker.addSquares(root);
+                    }
+                }
+            }
+        }
+        return tracker.snapshot();
+    }
+
+    /**
+     * Internal method to return the snapshot tracker of the outermost dungeon containing this dungeon, without
+     * creating it.
+     *
+     * @return  The snapshot tracker, null if no snapshot was taken yet.
+     */
+    @Model
+    SnapshotTracker findSnapshotTracker() {
+        Dungeon<?> root = this;
+        while (root.getDungeon() != null)
+            root = root.getDungeon();
+        return root.snapshots;
+    }
+
+    /**
+     * Returns true if changes are scheduled for this dungeon in a scheduler of its own.
+     */
+    @Model
+    boolean hasPendingChanges() {
+        return (scheduler != null) && (scheduler.getPending() > 0);
+    }
+
+    /**
+     * Subscribes a listener to the changes made to this dungeon and its sub dungeons. The changes are delivered in
+     * batches by flushEvents.
+     *
+     * @param   listener
+     *          The given listener.
+     * @throws  IllegalArgumentException
+     *          Throws an illegal argument exception if the given listener is invalid.
+     */
+    public void subscribe(DungeonListener listener) throws IllegalArgumentException {
+        if (listener == null)
+            throw new IllegalArgumentException("Invalid listener!");
+        if (events == null)
+            events = new DungeonEventBuffer(this);
+        events.subscribe(listener);
+    }
+
+    /**
+     * Unsubscribes a listener from the changes made to this dungeon. Waiting changes are dropped once no listeners are
+     * left.
+     *
+     * @param   listener
+     *          The given listener.
+     */
+    public void unsubscribe(DungeonListener listener) {
+        if (events != null)
+            events.unsubscribe(listener);
+    }
+
+    /**
+     * Delivers the changes made since the previous call to the listeners of this dungeon as a single batch. This
+     * method is meant to be called once per tick of the game.
+     */
+    public void flushEvents() {
+        if (events != null)
+            events.deliver();
+    }
+
+    /**
+     * Internal method to report a change made to a square of this dungeon to the listeners of this dungeon and of the
+     * dungeons containing it.
+     *
+     * @param   type
+     *          The type of the change.
+     * @param   square
+     *          The changed square.
+     * @param   pos
+     *          The position of the square in this dungeon.
+     * @param   dir
+     *          The direction of the changed border, null if no border changed.
+     * @param   avatar
+     *          The avatar that moved or was killed, null if no avatar was involved.
+     */
+    @Model
+    void publish(DungeonEvent.Type type, Square square, Point3D pos, Direction dir, Avatar avatar) {
+        if (silent)
+            return;
+        if ((type != DungeonEvent.Type.CLIMATE_CHANGED) && (type != DungeonEvent.Type.AVATAR_MOVED) &&
+                (type != DungeonEvent.Type.AVATAR_KILLED))
+            layoutVersion.incrementAndGet();
+        for (Dungeon<?> dungeon = this; dungeon != null; dungeon = dungeon.getDungeon())
+            if (dungeon.events != null)
+                dungeon.events.publish(type, this, square, pos, dir, avatar);
+    }
+
+    /**
+     * Internal method to report that the state of one of the squares of the dungeon changed. Changes made while
+     * squares are attached are not reported.
+     *
+     * @param   square
+     *          The square that changed.
+     */
+    @Model
+    void reportChanged(Square square) {
+        if (!silent)
+            squareChanged(square);
+    }
+
+    /**
+     * Is called when the state of one of the squares of the dungeon changed: its climate, its floor, its borders or
+     * the avatar on it. This method can be overridden in subclasses which keep the state of their squares outside of
+     * the heap.
+     *
+     * @param   square
+     *          The square that changed.
+     */
+    protected void squareChanged(Square square) {
+    }
+
+    /**
+     * Returns the version of the layout of this dungeon. The version changes whenever a square is added to or removed
+     * from the dungeon, or a border of one of its squares is changed, opened or closed, so results that only depend on
+     * the layout can be kept until it changes.
+     */
+    public long getLayoutVersion() {
+        return layoutVersion.get();
+    }
+
+    /**
+     * Returns the version of the teleports of this dungeon. The version changes whenever a destination is added to one
+     * of the teleports in the dungeon, so results that only depend on the destinations of the teleports can be kept
+     * until it changes.
+     */
+    public long getTeleportVersion() {
+        return teleportVersion.get();
+    }
+
+    /**
+     * Internal method to report that a destination was added to one of the teleports of the dungeon.
+     */
+    @Model
+    void teleportChanged() {
+        teleportVersion.incrementAndGet();
+    }
+
+    /**
+     * Internal method to attach a journal to the dungeon.
+     *
+     * @param   journal
+     *          The given journal, null to detach the current one.
+     * @post    The new journal equals the given journal.
+     *          | new.getJournal() == journal
+     */
+    @Model
+    void setJournal(DungeonJournal journal) {
+        this.journal = journal;
     }
 
     /**
@@ -520,28 +1174,30 @@ public class Dungeon<T extends Square> {
      * dungeon, the method returns null.
      */
     public Point3D getPos() {
-        if (pos == null)
-            return null;
-        else
-            return (Point3D) pos.clone();
+        return pos;
     }
 
     /**
      * Returns the absolute position of the dungeon on the playing field. If the dungeon does not have a parent dungeon,
      * the method returns null.
      *
-     * @result  If the dungeon has a parent dungeon, the absolute position is returned, recursively factoring in that
-     *          parent.
-     *          | if ((this.getDungeonAt() != null) && (this.getPos() != null))
-     *          |   result == this.getDungeonAt().getPos().add(this.getPos())
+     * @result  If the dungeon has a parent dungeon, the absolute position is returned, recursively factoring in the
+     *          dungeons containing it.
+     *          | if ((this.getDungeon() != null) && (this.getDungeon().getAbsolutePos() != null))
+     *          |   result == this.getDungeon().getAbsolutePos().add(this.getPos())
+     *          | else if (this.getDungeon() != null)
+     *          |   result == this.getPos()
      * @result  If the dungeon does not have a parent dungeon, null is returned.
-     *          | if ((this.getDungeonAt() == null) || (this.getPos() == null))
+     *          | if ((this.getDungeon() == null) || (this.getPos() == null))
      *          |   result == null;
      */
     public Point3D getAbsolutePos() {
-        if ((this.getDungeon() != null) && (this.getPos() != null))
-            return this.getDungeon().getPos().add(this.getPos());
-        else return null;
+        if ((this.getDungeon() == null) || (this.getPos() == null))
+            return null;
+        Point3D res = this.getPos();
+        for (Dungeon<?> dungeon = this.getDungeon(); dungeon.getPos() != null; dungeon = dungeon.getDungeon())
+            res = dungeon.getPos().add(res);
+        return res;
     }
 
     /**
@@ -574,6 +1230,22 @@ public class Dungeon<T extends Square> {
 
     }
 
+    /**
+     * Internal method to fill a list with all squares of the dungeon and its sub dungeons.
+     */
+    protected void getAllSquares(List<Square> squares) {
+        squares.addAll(getSquares().values());
+    }
+
+    /**
+     * Internal method to fill a list with all avatars on the squares of the dungeon and its sub dungeons.
+     */
+    protected void getAvatars(List<Avatar> avatars) {
+        for (Square sq : getSquares().values())
+            if (sq.getAvatar() != null)
+                avatars.add(sq.getAvatar());
+    }
+
     /**
      * Returns a list of all teleports in the dungeon recursively.
      */
@@ -0,0 +1,287 @@
+package be.kuleuven.cs.ogp.project;
+
+import be.kuleuven.cs.ogp.project.tools.Point3D;
+import be.kuleuven.cs.som.annotate.Basic;
+
+/**
+ * A cursor which walks over the squares of a dungeon. The cursor holds its position as plain coordinates and finds
+ * the neighbours of its square through the borders linking them, so moving the cursor and reading its neighbours does
+ * not allocate. Squares are only looked up in the dungeon when the cursor jumps to a position, or when the dungeon does
+ * not keep all of its squares linked. A cursor is meant to be reused, but not to be shared between threads.
+ *
+ * @invar   The square of the cursor, if any, belongs to the dungeon of the cursor.
+ *          | (getSquare() == null) || (getSquare().getDungeon() == getDungeon())
+ *
+ * @author  Frederic Hannes
+ */
+public final class DungeonCursor {
+
+    private Dungeon<?> dungeon;
+
+    /**
+     * The coordinates of the cursor.
+     */
+    private int x = 0;
+    private int y = 0;
+    private int z = 0;
+
+    /**
+     * The square at the position of the cursor, null if there's none.
+     */
+    private Square square = null;
+
+    /**
+     * Creates a cursor for the given dungeon, positioned at the origin.
+     *
+     * @param   dungeon
+     *          The given dungeon.
+     * @throws  IllegalArgumentException
+     *          Throws an illegal argument exception if the dungeon is invalid.
+     *          | dungeon == null
+     */
+    public DungeonCursor(Dungeon<?> dungeon) throws IllegalArgumentException {
+        if (dungeon == null)
+            throw new IllegalArgumentException("Invalid dungeon!");
+        this.dungeon = dungeon;
+    }
+
+    /**
+     * Creates a cursor positioned on the given square, in the dungeon of the square.
+     *
+     * @param   square
+     *          The given square.
+     * @throws  IllegalArgumentException
+     *          Throws an illegal argument exception if the square is invalid or not part of a dungeon.
+     *          | (square == null) || (square.getDungeon() == null)
+     * @effect  The cursor is moved onto the square.
+     *          | moveTo(square)
+     */
+    public DungeonCursor(Square square) throws IllegalArgumentException {
+        this(square == null ? null : square.getDungeon());
+        moveTo(square);
+    }
+
+    /**
+     * Internal method to let the cursor walk over another dungeon, positioned at the origin. A cursor which is kept
+     * for later use is reset to no dungeon at all, so it does not keep its last dungeon alive.
+     *
+     * @param   dungeon
+     *          The given dungeon, null if the cursor is not used until it is reset again.
+     */
+    void reset(Dungeon<?> dungeon) {
+        this.dungeon = dungeon;
+        this.x = 0;
+        this.y = 0;
+        this.z = 0;
+        this.square = null;
+    }
+
+    /**
+     * Returns the dungeon the cursor walks over.
+     */
+    @Basic
+    public Dungeon<?> getDungeon() {
+        return dungeon;
+    }
+
+    /**
+     * Returns the x-coordinate of the cursor.
+     */
+    @Basic
+    public int getX() {
+        return x;
+    }
+
+    /**
+     * Returns the y-coordinate of the cursor.
+     */
+    @Basic
+    public int getY() {
+        return y;
+    }
+
+    /**
+     * Returns the z-coordinate of the cursor.
+     */
+    @Basic
+    public int getZ() {
+        return z;
+    }
+
+    /**
+     * Returns the position of the cursor as a packed long value.
+     *
+     * @throws  IllegalArgumentException
+     *          Throws an illegal argument exception if the position can not be packed.
+     *          | !Point3D.isPackable(getX(), getY(), getZ())
+     * @return  The packed position.
+     *          | result == Point3D.pack(getX(), getY(), getZ())
+     */
+    public long getPacked() throws IllegalArgumentException {
+        return Point3D.pack(x, y, z);
+    }
+
+    /**
+     * Returns the square at the position of the cursor, null if there's none.
+     */
+    @Basic
+    public Square getSquare() {
+        return square;
+    }
+
+    /**
+     * Returns true if there's a square at the position of the cursor.
+     *
+     * @return  True if the cursor has a square.
+     *          | result == (getSquare() != null)
+     */
+    public boolean hasSquare() {
+        return square != null;
+    }
+
+    /**
+     * Moves the cursor to the given coordinates.
+     *
+     * @param   x
+     *          The given x-coordinate.
+     * @param   y
+     *          The given y-coordinate.
+     * @param   z
+     *          The given z-coordinate.
+     * @post    The cursor is positioned at the given coordinates, on the square of the dungeon at those coordinates.
+     *          | (new.getX() == x) && (new.getY() == y) && (new.getZ() == z) &&
+     *          |   (new.getSquare() == getDungeon().getSquare(new Point3D(x, y, z)))
+     * @return  True if there's a square at the given coordinates.
+     *          | result == new.hasSquare()
+     */
+    public boolean moveTo(int x, int y, int z) {
+        this.x = x;
+        this.y = y;
+        this.z = z;
+        this.square = lookup(x, y, z);
+        return square != null;
+    }
+
+    /**
+     * Moves the cursor to the given packed position.
+     *
+     * @param   packed
+     *          The given packed position.
+     * @effect  The cursor is moved to the unpacked coordinates.
+     *          | moveTo(Point3D.unpackX(packed), Point3D.unpackY(packed), Point3D.unpackZ(packed))
+     */
+    public boolean moveTo(long packed) {
+        return moveTo(Point3D.unpackX(packed), Point3D.unpackY(packed), Point3D.unpackZ(packed));
+    }
+
+    /**
+     * Moves the cursor to the position of the given square. If the square belongs to another dungeon, the cursor is
+     * moved to the square at the same position in the dungeon of the cursor.
+     *
+     * @param   square
+     *          The given square.
+     * @throws  IllegalArgumentException
+     *          Throws an illegal argument exception if the square is invalid or does not have a position.
+     *          | (square == null) || (square.getPos() == null)
+     * @effect  The cursor is moved to the position of the square.
+     *          | moveTo(square.getPos().getX(), square.getPos().getY(), square.getPos().getZ())
+     */
+    public boolean moveTo(Square square) throws IllegalArgumentException {
+        Point3D pos = (square == null) ? null : square.getPos();
+        if (pos == null)
+            throw new IllegalArgumentException("Invalid square!");
+        if (square.getDungeon() != dungeon)
+            return moveTo(pos.getX(), pos.getY(), pos.getZ());
+        this.x = pos.getX();
+        this.y = pos.getY();
+        this.z = pos.getZ();
+        this.square = square;
+        return true;
+    }
+
+    /**
+     * Moves the cursor a single step in the given direction.
+     *
+     * @param   dir
+     *          The given direction.
+     * @throws  IllegalArgumentException
+     *          Throws an illegal argument exception if the direction is invalid.
+     *          | dir == null
+     * @post    The cursor is positioned on the neighbour in the given direction.
+     *          | (new.getX() == getX() + dir.getDX()) && (new.getY() == getY() + dir.getDY()) &&
+     *          |   (new.getZ() == getZ() + dir.getDZ()) && (new.getSquare() == neighbour(dir))
+     * @return  True if there's a square at the new position.
+     *          | result == new.hasSquare()
+     */
+    public boolean moveTo(Direction dir) throws IllegalArgumentException {
+        Square next = neighbour(dir);
+        x += dir.getDX();
+        y += dir.getDY();
+        z += dir.getDZ();
+        square = next;
+        return next != null;
+    }
+
+    /**
+     * Returns the square next to the position of the cursor in the given direction, null if there's none.
+     *
+     * @param   dir
+     *          The given direction.
+     * @throws  IllegalArgumentException
+     *          Throws an illegal argument exception if the direction is invalid.
+     *          | dir == null
+     * @return  The square of the dungeon at the neighbouring position.
+     *          | result == getDungeon().getSquare(new Point3D(getX() + dir.getDX(), getY() + dir.getDY(),
+     *          |   getZ() + dir.getDZ()))
+     */
+    public Square neighbour(Direction dir) throws IllegalArgumentException {
+        if (dir == null)
+            throw new IllegalArgumentException("Invalid direction!");
+        if (square != null) {
+            Border border = square.getBorder(dir);
+            Border adjacent = (border == null) ? null : border.getAdjacent();
+            if (adjacent != null) {
+                Square res = adjacent.getSquare();
+                if ((res != null) && (res.getDungeon() == dungeon))
+                    return res;
+            }
+            if (dungeon.isFullyLinked())
+                return null;
+        }
+        return lookup(x + dir.getDX(), y + dir.getDY(), z + dir.getDZ());
+    }
+
+    /**
+     * Returns the border of the square of the cursor in the given direction, null if the cursor has no square.
+     *
+     * @param   dir
+     *          The given direction.
+     * @return  The border of the square.
+     *          | if (hasSquare())
+     *          |   result == getSquare().getBorder(dir)
+     */
+    public Border border(Direction dir) {
+        return (square == null) ? null : square.getBorder(dir);
+    }
+
+    /**
+     * Returns true if the square of the cursor has an open border in the given direction.
+     *
+     * @param   dir
+     *          The given direction.
+     * @return  True if the border exists and is open.
+     *          | result == (border(dir) != null) && border(dir).isOpen()
+     */
+    public boolean isOpen(Direction dir) {
+        Border border = border(dir);
+        return (border != null) && border.isOpen();
+    }
+
+    /**
+     * Internal method to look up the square at the given coordinates in the dungeon.
+     */
+    private Square lookup(int x, int y, int z) {
+        return dungeon.getSquare(x, y, z);
+    }
+
+}
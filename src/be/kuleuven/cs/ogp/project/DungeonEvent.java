@@ -0,0 +1,166 @@
+package be.kuleuven.cs.ogp.project;
+
+import be.kuleuven.cs.ogp.project.tools.Point3D;
+import be.kuleuven.cs.som.annotate.Basic;
+
+/**
+ * This class represents a change made to a dungeon. Events are delivered to the listeners of a dungeon in batches and
+ * the event objects are reused once a batch has been delivered, so listeners should copy whatever they want to keep.
+ *
+ * @author  Frederic Hannes
+ */
+public class DungeonEvent {
+
+    /**
+     * The types of changes reported by events.
+     */
+    public enum Type {
+        SQUARE_ADDED, SQUARE_REMOVED, BORDER_CHANGED, DOOR_TOGGLED, FOIL_TORN, CLIMATE_CHANGED, AVATAR_MOVED,
+        AVATAR_KILLED
+    }
+
+    private Type type;
+
+    /**
+     * The dungeon holding the changed square.
+     */
+    private Dungeon<?> dungeon;
+
+    private Square square;
+
+    /**
+     * The position of the square in its dungeon.
+     */
+    private int x;
+    private int y;
+    private int z;
+
+    /**
+     * The direction of the changed border, null if no border changed.
+     */
+    private Direction direction;
+
+    /**
+     * The avatar that moved or was killed, null for other types of changes.
+     */
+    private Avatar avatar;
+
+    /**
+     * Creates an empty event, to be filled in by the event buffer.
+     */
+    DungeonEvent() { }
+
+    /**
+     * Returns the type of the change.
+     */
+    @Basic
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * Returns the dungeon holding the changed square. For a removed square, this is the dungeon it was removed from.
+     */
+    @Basic
+    public Dungeon<?> getDungeon() {
+        return dungeon;
+    }
+
+    /**
+     * Returns the changed square.
+     */
+    @Basic
+    public Square getSquare() {
+        return square;
+    }
+
+    /**
+     * Returns the x-coordinate of the changed square in its dungeon.
+     */
+    @Basic
+    public int getX() {
+        return x;
+    }
+
+    /**
+     * Returns the y-coordinate of the changed square in its dungeon.
+     */
+    @Basic
+    public int getY() {
+        return y;
+    }
+
+    /**
+     * Returns the z-coordinate of the changed square in its dungeon.
+     */
+    @Basic
+    public int getZ() {
+        return z;
+    }
+
+    /**
+     * Returns the position of the changed square in its dungeon.
+     *
+     * @return  | result == new Point3D(getX(), getY(), getZ())
+     */
+    public Point3D getPos() {
+        return new Point3D(x, y, z);
+    }
+
+    /**
+     * Returns the direction of the changed border, null if the change does not concern a border.
+     */
+    @Basic
+    public Direction getDirection() {
+        return direction;
+    }
+
+    /**
+     * Returns the avatar that moved or was killed, null if the change does not concern an avatar.
+     */
+    @Basic
+    public Avatar getAvatar() {
+        return avatar;
+    }
+
+    /**
+     * Internal method to check whether a change can be folded into this event.
+     */
+    boolean covers(Type type, Dungeon<?> dungeon, Square square, Direction direction) {
+        return (this.type == type) && (this.dungeon == dungeon) && (this.square == square) &&
+                (this.direction == direction) && (type != Type.SQUARE_ADDED) && (type != Type.SQUARE_REMOVED) &&
+                (type != Type.AVATAR_MOVED) && (type != Type.AVATAR_KILLED);
+    }
+
+    /**
+     * Internal method to fill in the event.
+     */
+    void set(Type type, Dungeon<?> dungeon, Square square, Point3D pos, Direction direction, Avatar avatar) {
+        this.type = type;
+        this.dungeon = dungeon;
+        this.square = square;
+        this.x = pos.getX();
+        this.y = pos.getY();
+        this.z = pos.getZ();
+        this.direction = direction;
+        this.avatar = avatar;
+    }
+
+    /**
+     * Internal method to drop the references held by the event once it has been delivered.
+     */
+    void clear() {
+        dungeon = null;
+        square = null;
+        avatar = null;
+    }
+
+    /**
+     * Returns a string representation of the object.
+     */
+    @Override
+    public String toString() {
+        return "DungeonEvent(type:" + type + ";pos:(" + x + "," + y + "," + z + ");dir:" + direction + ")";
+    }
+
+}
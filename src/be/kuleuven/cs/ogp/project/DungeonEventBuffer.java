@@ -0,0 +1,168 @@
+package be.kuleuven.cs.ogp.project;
+
+import be.kuleuven.cs.ogp.project.tools.Point3D;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class collects the events of a dungeon in a ring of preallocated events until they are delivered to its
+ * listeners as a batch. Publishing an event only fills in the next free slot, so no objects are created while changes
+ * are made. A batch is delivered early when the ring is full; events published by listeners during a delivery are kept
+ * for the next batch. Events may be published by several threads at once.
+ *
+ * @author  Frederic Hannes
+ */
+class DungeonEventBuffer {
+
+    /**
+     * The number of events in a new ring, a power of 2.
+     */
+    static final int DEFAULT_CAPACITY = 1024;
+
+    /**
+     * The dungeon the listeners subscribed to.
+     */
+    private final Dungeon<?> dungeon;
+
+    /**
+     * The listeners of the dungeon. The list is replaced instead of modified, so listeners can unsubscribe while a
+     * batch is delivered.
+     */
+    private List<DungeonListener> listeners = new ArrayList<>();
+
+    /**
+     * The ring of events.
+     */
+    private DungeonEvent[] ring;
+
+    /**
+     * The total number of events published and delivered. The events in between are waiting for delivery.
+     */
+    private long tail = 0;
+    private long head = 0;
+
+    /**
+     * The end of the batch that is being delivered, equal to head if no batch is being delivered.
+     */
+    private long end = 0;
+
+    /**
+     * The read-only view passed to the listeners.
+     */
+    private final List<DungeonEvent> batch = new AbstractList<DungeonEvent>() {
+        @Override
+        public DungeonEvent get(int index) {
+            if ((index < 0) || (index >= size()))
+                throw new IndexOutOfBoundsException("Invalid event index!");
+            return ring[(int) ((head + index) & (ring.length - 1))];
+        }
+
+        @Override
+        public int size() {
+            return (int) (end - head);
+        }
+    };
+
+    /**
+     * Creates a new event buffer for a dungeon.
+     *
+     * @param   dungeon
+     *          The given dungeon.
+     */
+    DungeonEventBuffer(Dungeon<?> dungeon) {
+        this.dungeon = dungeon;
+        this.ring = new DungeonEvent[DEFAULT_CAPACITY];
+        for (int i = 0; i < ring.length; i++)
+            ring[i] = new DungeonEvent();
+    }
+
+    /**
+     * Returns true if no listeners are subscribed.
+     */
+    synchronized boolean isEmpty() {
+        return listeners.isEmpty();
+    }
+
+    /**
+     * Subscribes a listener.
+     */
+    synchronized void subscribe(DungeonListener listener) {
+        List<DungeonListener> res = new ArrayList<>(listeners);
+        res.add(listener);
+        listeners = res;
+    }
+
+    /**
+     * Unsubscribes a listener.
+     */
+    synchronized void unsubscribe(DungeonListener listener) {
+        List<DungeonListener> res = new ArrayList<>(listeners);
+        res.remove(listener);
+        listeners = res;
+        if (res.isEmpty())
+            discard();
+    }
+
+    /**
+     * Records a change in the next free event, unless the last event already reports it.
+     */
+    synchronized void publish(DungeonEvent.Type type, Dungeon<?> dungeon, Square square, Point3D pos, Direction dir,
+                 Avatar avatar) {
+        if (listeners.isEmpty())
+            return;
+        if ((tail > end) && ring[(int) ((tail - 1) & (ring.length - 1))].covers(type, dungeon, square, dir))
+            return;
+        if (tail - head == ring.length) {
+            if (end == head)
+                deliver();
+            else
+                grow();
+        }
+        ring[(int) (tail & (ring.length - 1))].set(type, dungeon, square, pos, dir, avatar);
+        tail++;
+    }
+
+    /**
+     * Delivers all waiting events to the listeners as a single batch. Does nothing if a batch is being delivered.
+     */
+    synchronized void deliver() {
+        if ((end != head) || (tail == head))
+            return;
+        end = tail;
+        try {
+            for (DungeonListener listener : listeners)
+                listener.dungeonChanged(dungeon, batch);
+        } finally {
+            for (long i = head; i < end; i++)
+                ring[(int) (i & (ring.length - 1))].clear();
+            head = end;
+        }
+    }
+
+    /**
+     * Internal method to drop all waiting events.
+     */
+    private void discard() {
+        if (end != head)
+            return;
+        for (long i = head; i < tail; i++)
+            ring[(int) (i & (ring.length - 1))].clear();
+        head = end = tail;
+    }
+
+    /**
+     * Internal method to double the size of the ring while a batch is being delivered.
+     */
+    private void grow() {
+        DungeonEvent[] res = new DungeonEvent[ring.length * 2];
+        for (long i = head; i < tail; i++)
+            res[(int) (i & (res.length - 1))] = ring[(int) (i & (ring.length - 1))];
+        for (int i = 0; i < res.length; i++)
+            if (res[i] == null)
+                res[i] = new DungeonEvent();
+        ring = res;
+    }
+
+}
@@ -0,0 +1,1062 @@
+package be.kuleuven.cs.ogp.project;
+
+import be.kuleuven.cs.ogp.project.borders.Door;
+import be.kuleuven.cs.ogp.project.borders.PlasticFoil;
+import be.kuleuven.cs.ogp.project.io.DungeonReader;
+import be.kuleuven.cs.ogp.project.io.DungeonWriter;
+import be.kuleuven.cs.ogp.project.tools.Point3D;
+import be.kuleuven.cs.som.annotate.Basic;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.zip.CRC32;
+
+import static be.kuleuven.cs.ogp.project.io.DungeonFormat.*;
+
+/**
+ * This class records every change made to a dungeon in an append-only journal, so the dungeon can be recovered up to
+ * any point in time after its last checkpoint.
+ *
+ * A journal directory holds a single generation: a checkpoint, which is a snapshot of the dungeon, and the journal of
+ * the changes made after it. Every checkpoint starts a new generation and removes the files of the previous one.
+ *
+ * Changes are encoded into an in-memory buffer by the thread making them. A background thread writes the buffer to
+ * the journal in batches (group commit), so the mutations themselves never wait for the disk. A batch consists of the
+ * length of its records, the sequence number of its first record, the number of records, the time of its first
+ * record, the records and a CRC32 checksum of the records. A record holds its opcode, its time relative to the batch
+ * and its operands. Squares are identified by the number of their dungeon and their packed position, dungeons are
+ * numbered in pre-order with sub dungeons ordered by position. Changes may be recorded by several threads at once.
+ *
+ * @invar   Changes are only recorded for dungeons which can be stored in a snapshot.
+ *
+ * @author  Frederic Hannes
+ */
+public class DungeonJournal implements Closeable {
+
+    /**
+     * The number of milliseconds the writer waits for more changes before a batch is written, by default.
+     */
+    public static final long DEFAULT_COMMIT_INTERVAL = 5;
+
+    /**
+     * The magic number at the start of every journal file ("OGPJ").
+     */
+    private static final int JOURNAL_MAGIC = 0x4F47504A;
+
+    /**
+     * The number of bytes in front of the records of a batch.
+     */
+    private static final int BATCH_HEADER = 24;
+
+    /**
+     * The number of buffered bytes above which changes have to wait for the writer.
+     */
+    private static final int MAX_PENDING = 1 << 24;
+
+    private static final String CHECKPOINT_PREFIX = "checkpoint-";
+    private static final String CHECKPOINT_SUFFIX = ".snap";
+    private static final String JOURNAL_PREFIX = "journal-";
+    private static final String JOURNAL_SUFFIX = ".log";
+
+    private static final byte OP_ADD_DUNGEON = 1;
+    private static final byte OP_ADD_SQUARE = 2;
+    private static final byte OP_REMOVE_SQUARE = 3;
+    private static final byte OP_SET_BORDER = 4;
+    private static final byte OP_BORDER_STATE = 5;
+    private static final byte OP_SET_TEMP = 6;
+    private static final byte OP_SET_HUMIDITY = 7;
+    private static final byte OP_MERGE = 8;
+    private static final byte OP_ADD_DEST = 9;
+    private static final byte OP_AVATAR_MOVE = 10;
+    private static final byte OP_AVATAR_MOVES = 11;
+    private static final byte OP_ADD_WEIGHTED_DEST = 12;
+
+    private static final byte MOVE_ENTERED = 0;
+    private static final byte MOVE_OCCUPANT_KILLED = 1;
+    private static final byte MOVE_AVATAR_KILLED = 2;
+
+    /**
+     * The dungeon whose changes are recorded.
+     */
+    private final Dungeon<?> root;
+
+    /**
+     * The directory holding the checkpoint and the journal.
+     */
+    private final File dir;
+
+    /**
+     * The number of milliseconds the writer waits for more changes before a batch is written.
+     */
+    private final long commitInterval;
+
+    /**
+     * Equals true if every batch is forced to the storage device before it counts as durable.
+     */
+    private final boolean durable;
+
+    /**
+     * The numbers of the dungeons in the journal.
+     */
+    private final Map<Dungeon<?>, Integer> ids = new IdentityHashMap<>();
+
+    /**
+     * The lock guarding the buffers, the sequence numbers and the state of the writer.
+     */
+    private final Object lock = new Object();
+
+    /**
+     * The buffer the changes are encoded into and the buffer which is reused once the writer is done with a batch.
+     */
+    private Buffer pending = new Buffer();
+    private Buffer spare = new Buffer();
+
+    /**
+     * The number of records in the pending buffer, the sequence number of the first one and its time.
+     */
+    private int pendingCount = 0;
+    private long pendingSequence = 0;
+    private long pendingTime = 0;
+
+    /**
+     * The sequence number of the last recorded change.
+     */
+    private long sequence;
+
+    /**
+     * The sequence number of the last change which has been written to the journal.
+     */
+    private long durableSequence;
+
+    /**
+     * The sequence number of the last change included in the current checkpoint.
+     */
+    private long checkpointSequence;
+
+    /**
+     * The number of changes after which checkpointIfDue writes a new checkpoint, 0 if disabled.
+     */
+    private long checkpointInterval = 0;
+
+    /**
+     * The generation of the current checkpoint and the stream of its journal.
+     */
+    private int generation;
+    private FileOutputStream out = null;
+
+    /**
+     * Equals true for a thread while it makes changes which are recorded as a whole by the change that contains them.
+     */
+    private final ThreadLocal<Boolean> muted = new ThreadLocal<Boolean>() {
+        @Override
+        protected Boolean initialValue() {
+            return Boolean.FALSE;
+        }
+    };
+
+    private boolean closed = false;
+    private IOException failure = null;
+
+    /**
+     * The background thread writing batches to the journal.
+     */
+    private final Thread writer;
+
+    /**
+     * Creates a new journal for a dungeon with the default commit interval, forcing every batch to the storage device.
+     *
+     * @param   root
+     *          The given root dungeon.
+     * @param   dir
+     *          The directory holding the journal.
+     * @effect  | this(root, dir, DEFAULT_COMMIT_INTERVAL, true)
+     */
+    public DungeonJournal(Dungeon<?> root, File dir) throws IOException {
+        this(root, dir, DEFAULT_COMMIT_INTERVAL, true);
+    }
+
+    /**
+     * Creates a new journal for a dungeon. A checkpoint of the dungeon is written first, sequence numbers continue
+     * where a journal already present in the directory left off.
+     *
+     * @param   root
+     *          The given root dungeon.
+     * @param   dir
+     *          The directory holding the journal.
+     * @param   commitInterval
+     *          The number of milliseconds the writer waits for more changes before a batch is written.
+     * @param   durable
+     *          True if every batch has to be forced to the storage device.
+     * @throws  IllegalArgumentException
+     *          Throws an illegal argument exception if the dungeon is invalid, not a root dungeon or already has a
+     *          journal.
+     * @throws  IllegalArgumentException
+     *          Throws an illegal argument exception if the commit interval is negative.
+     * @throws  IOException
+     *          Throws an IO exception if the directory can not be used or the checkpoint can not be written.
+     */
+    public DungeonJournal(Dungeon<?> root, File dir, long commitInterval, boolean durable) throws IOException {
+        if (root == null)
+            throw new IllegalArgumentException("Invalid dungeon!");
+        if (root.getDungeon() != null)
+            throw new IllegalArgumentException("Only root dungeons can be journaled!");
+        if (root.getJournal() != null)
+            throw new IllegalArgumentException("The dungeon already has a journal!");
+        if (commitInterval < 0)
+            throw new IllegalArgumentException("Invalid commit interval!");
+        if (!dir.isDirectory() && !dir.mkdirs())
+            throw new IOException("Can't create journal directory " + dir + "!");
+        this.root = root;
+        this.dir = dir;
+        this.commitInterval = commitInterval;
+        this.durable = durable;
+        generation = latestGeneration(dir);
+        sequence = (generation < 0) ? 0 : replay(journalFile(dir, generation), null, Long.MAX_VALUE, Long.MAX_VALUE);
+        durableSequence = sequence;
+        rotate();
+        root.setJournal(this);
+        writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                writeBatches();
+            }
+        }, "dungeon-journal");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Returns the dungeon whose changes are recorded.
+     */
+    @Basic
+    public Dungeon<?> getRoot() {
+        return root;
+    }
+
+    /**
+     * Returns the sequence number of the last recorded change.
+     */
+    public long getSequence() {
+        synchronized (lock) {
+            return sequence;
+        }
+    }
+
+    /**
+     * Returns the sequence number of the last change which has been written to the journal.
+     */
+    public long getDurableSequence() {
+        synchronized (lock) {
+            return durableSequence;
+        }
+    }
+
+    /**
+     * Returns the sequence number of the last change included in the current checkpoint.
+     */
+    @Basic
+    public long getCheckpointSequence() {
+        return checkpointSequence;
+    }
+
+    /**
+     * Returns the number of changes after which checkpointIfDue writes a new checkpoint, 0 if disabled.
+     */
+    @Basic
+    public long getCheckpointInterval() {
+        return checkpointInterval;
+    }
+
+    /**
+     * Sets the number of changes after which checkpointIfDue writes a new checkpoint.
+     *
+     * @param   checkpointInterval
+     *          The given number of changes, 0 to disable periodic checkpoints.
+     * @throws  IllegalArgumentException
+     *          Throws an illegal argument exception if the given number is negative.
+     * @post    | new.getCheckpointInterval() == checkpointInterval
+     */
+    @Basic
+    public void setCheckpointInterval(long checkpointInterval) throws IllegalArgumentException {
+        if (checkpointInterval < 0)
+            throw new IllegalArgumentException("Invalid checkpoint interval!");
+        this.checkpointInterval = checkpointInterval;
+    }
+
+    /**
+     * Writes a checkpoint if at least the checkpoint interval of changes was recorded since the last one. This method
+     * is meant to be called by the simulation between two steps, when no changes are being made to the dungeon.
+     *
+     * @return  True if a checkpoint was written.
+     */
+    public boolean checkpointIfDue() throws IOException {
+        if ((checkpointInterval == 0) || (getSequence() - checkpointSequence < checkpointInterval))
+            return false;
+        checkpoint();
+        return true;
+    }
+
+    /**
+     * Writes a checkpoint of the dungeon and starts a new journal after it. The files of the previous checkpoint are
+     * removed once the new one is stored. No changes may be made to the dungeon while this method runs.
+     *
+     * @throws  IllegalStateException
+     *          Throws an illegal state exception if the journal is closed.
+     */
+    public void checkpoint() throws IOException {
+        synchronized (lock) {
+            if (closed)
+                throw new IllegalStateException("The journal is closed!");
+        }
+        sync();
+        rotate();
+    }
+
+    /**
+     * Waits until all changes recorded so far have been written to the journal.
+     *
+     * @throws  IOException
+     *          Throws an IO exception if the writer failed.
+     */
+    public void sync() throws IOException {
+        synchronized (lock) {
+            long target = sequence;
+            try {
+                while ((durableSequence < target) && (failure == null))
+                    lock.wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for the journal!");
+            }
+            if (failure != null)
+                throw new IOException("The journal failed!", failure);
+        }
+    }
+
+    /**
+     * Writes all remaining changes, stops the writer and detaches the journal from the dungeon.
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (lock) {
+            if (closed)
+                return;
+            closed = true;
+            lock.notifyAll();
+        }
+        root.setJournal(null);
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        out.close();
+        if (failure != null)
+            throw new IOException("The journal failed!", failure);
+    }
+
+    /**
+     * Recovers a dungeon from a journal directory by loading its checkpoint and replaying all changes after it.
+     *
+     * @param   dir
+     *          The directory holding the journal.
+     * @effect  | recover(dir, Long.MAX_VALUE, Long.MAX_VALUE)
+     */
+    public static Dungeon<Square> recover(File dir) throws IOException {
+        return recover(dir, Long.MAX_VALUE, Long.MAX_VALUE);
+    }
+
+    /**
+     * Recovers a dungeon from a journal directory by loading its checkpoint and replaying the changes after it, up to
+     * a given sequence number and time. Replaying stops at the first batch which was not completely written.
+     *
+     * @param   dir
+     *          The directory holding the journal.
+     * @param   maxSequence
+     *          The sequence number of the last change to replay.
+     * @param   maxTime
+     *          The time, in milliseconds since the epoch, of the last change to replay.
+     * @throws  IOException
+     *          Throws an IO exception if there's no checkpoint or if a change can not be replayed.
+     */
+    public static Dungeon<Square> recover(File dir, long maxSequence, long maxTime) throws IOException {
+        int generation = latestGeneration(dir);
+        if (generation < 0)
+            throw new IOException("No checkpoint found in " + dir + "!");
+        Dungeon<Square> root;
+        try (DungeonReader reader = new DungeonReader(new FileInputStream(checkpointFile(dir, generation)))) {
+            root = reader.read();
+        }
+        List<Dungeon<?>> dungeons = new ArrayList<>();
+        number(root, dungeons);
+        replay(journalFile(dir, generation), dungeons, maxSequence, maxTime);
+        return root;
+    }
+
+    /**
+     * Internal method to list a dungeon and all of its sub dungeons in the order in which they are numbered.
+     */
+    private static void number(Dungeon<?> dungeon, List<Dungeon<?>> dungeons) {
+        dungeons.add(dungeon);
+        if (dungeon instanceof CompositeDungeon)
+            for (Dungeon<?> sub : ((CompositeDungeon<?>) dungeon).getSubDungeons())
+                number(sub, dungeons);
+    }
+
+    /**
+     * Internal method to number a dungeon and all of its sub dungeons after the dungeons which are already numbered.
+     * Has to be called while holding the lock.
+     */
+    private void register(Dungeon<?> dungeon) {
+        List<Dungeon<?>> dungeons = new ArrayList<>();
+        number(dungeon, dungeons);
+        for (Dungeon<?> d : dungeons)
+            ids.put(d, ids.size());
+    }
+
+    /**
+     * Internal method to return the number of a dungeon. Has to be called while holding the lock.
+     *
+     * @throws  IllegalStateException
+     *          Throws an illegal state exception if the dungeon is not part of the journaled dungeon.
+     */
+    private int id(Dungeon<?> dungeon) throws IllegalStateException {
+        Integer id = ids.get(dungeon);
+        if (id == null)
+            throw new IllegalStateException("The dungeon is not part of the journaled dungeon!");
+        return id;
+    }
+
+    /**
+     * Returns the number of the latest generation in a journal directory, or -1 if there's no checkpoint.
+     */
+    private static int latestGeneration(File dir) {
+        int res = -1;
+        String[] names = dir.list();
+        if (names == null)
+            return res;
+        for (String name : names)
+            if (name.startsWith(CHECKPOINT_PREFIX) && name.endsWith(CHECKPOINT_SUFFIX))
+                try {
+                    res = Math.max(res, Integer.parseInt(
+                            name.substring(CHECKPOINT_PREFIX.length(), name.length() - CHECKPOINT_SUFFIX.length())));
+                } catch (NumberFormatException e) {
+                    // Not a checkpoint written by a journal
+                }
+        return res;
+    }
+
+    private static File checkpointFile(File dir, int generation) {
+        return new File(dir, CHECKPOINT_PREFIX + generation + CHECKPOINT_SUFFIX);
+    }
+
+    private static File journalFile(File dir, int generation) {
+        return new File(dir, JOURNAL_PREFIX + generation + JOURNAL_SUFFIX);
+    }
+
+    /**
+     * Internal method to write a checkpoint of the dungeon, start the journal of the new generation and remove the
+     * files of older generations. The pending buffer has to be empty.
+     */
+    private void rotate() throws IOException {
+        int next = generation + 1;
+        File checkpoint = checkpointFile(dir, next);
+        File tmp = new File(dir, checkpoint.getName() + ".tmp");
+        FileOutputStream snapshot = new FileOutputStream(tmp);
+        try (DungeonWriter writer = new DungeonWriter(snapshot)) {
+            writer.write(root);
+            writer.flush();
+            snapshot.getFD().sync();
+        }
+        FileOutputStream journal = new FileOutputStream(journalFile(dir, next));
+        try {
+            DataOutputStream header = new DataOutputStream(journal);
+            header.writeInt(JOURNAL_MAGIC);
+            header.writeShort(VERSION);
+            header.writeShort(0);
+            header.writeLong(sequence);
+            journal.getFD().sync();
+        } catch (IOException e) {
+            journal.close();
+            throw e;
+        }
+        if (!tmp.renameTo(checkpoint)) {
+            journal.close();
+            throw new IOException("Can't store checkpoint " + checkpoint + "!");
+        }
+        FileOutputStream old;
+        synchronized (lock) {
+            old = out;
+            out = journal;
+            generation = next;
+            checkpointSequence = sequence;
+            ids.clear();
+            register(root);
+        }
+        if (old != null)
+            old.close();
+        for (int gen = next - 1; gen >= 0; gen--) {
+            File file = checkpointFile(dir, gen);
+            if (!file.exists())
+                break;
+            file.delete();
+            journalFile(dir, gen).delete();
+        }
+    }
+
+    /**
+     * Internal method run by the writer thread. Waits for changes, collects them for the commit interval and writes
+     * them as a single batch.
+     */
+    private void writeBatches() {
+        byte[] header = new byte[BATCH_HEADER];
+        CRC32 crc = new CRC32();
+        try {
+            while (true) {
+                Buffer batch;
+                int count;
+                long first, time;
+                FileOutputStream target;
+                synchronized (lock) {
+                    while ((pendingCount == 0) && !closed)
+                        lock.wait();
+                    if (pendingCount == 0)
+                        return;
+                    if (!closed && (commitInterval > 0))
+                        lock.wait(commitInterval);
+                    batch = pending;
+                    count = pendingCount;
+                    first = pendingSequence;
+                    time = pendingTime;
+                    pending = spare;
+                    pendingCount = 0;
+                    target = out;
+                }
+                ByteBuffer.wrap(header).putInt(batch.size()).putLong(first).putInt(count).putLong(time);
+                crc.reset();
+                crc.update(batch.array(), 0, batch.size());
+                target.write(header);
+                target.write(batch.array(), 0, batch.size());
+                target.write(ByteBuffer.allocate(8).putLong(crc.getValue()).array());
+                if (durable)
+                    target.getFD().sync();
+                synchronized (lock) {
+                    batch.reset();
+                    spare = batch;
+                    durableSequence = first + count - 1;
+                    lock.notifyAll();
+                }
+            }
+        } catch (IOException e) {
+            synchronized (lock) {
+                failure = e;
+                lock.notifyAll();
+            }
+        } catch (InterruptedException e) {
+            synchronized (lock) {
+                failure = new InterruptedIOException("The journal writer was interrupted!");
+                lock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Internal method to start a new record in the pending buffer. Has to be called while holding the lock.
+     *
+     * @throws  IllegalStateException
+     *          Throws an illegal state exception if the writer failed.
+     */
+    private Buffer begin(byte op) throws IllegalStateException {
+        while ((pending.size() >= MAX_PENDING) && (failure == null))
+            try {
+                lock.wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        if (failure != null)
+            throw new IllegalStateException("The journal failed: " + failure.getMessage());
+        long now = System.currentTimeMillis();
+        if (pendingCount == 0) {
+            pendingSequence = sequence + 1;
+            pendingTime = now;
+            lock.notifyAll();
+        }
+        sequence++;
+        pendingCount++;
+        pending.write(op);
+        pending.putVarLong(Math.max(0, now - pendingTime));
+        return pending;
+    }
+
+    /**
+     * Internal method to write the address of a square to a record.
+     */
+    private void putSquare(Buffer buffer, Square square) {
+        buffer.putVarLong(id(square.getDungeon()));
+        buffer.putVarLong(square.getPos().pack());
+    }
+
+    /**
+     * Internal method to suppress the recording of changes until unmute is called, because they are part of a change
+     * that is recorded as a whole.
+     *
+     * @return  True if the changes were not suppressed yet, in which case the caller has to call unmute and record its
+     *          change.
+     */
+    boolean mute() {
+        if (muted.get())
+            return false;
+        muted.set(Boolean.TRUE);
+        return true;
+    }
+
+    /**
+     * Internal method to resume the recording of changes.
+     */
+    void unmute() {
+        muted.set(Boolean.FALSE);
+    }
+
+    void logAddDungeon(Dungeon<?> dungeon) {
+        if (muted.get())
+            return;
+        ByteArrayOutputStream snapshot = new ByteArrayOutputStream();
+        try (DungeonWriter writer = new DungeonWriter(snapshot)) {
+            writer.write(dungeon);
+        } catch (IOException e) {
+            throw new IllegalStateException("Can't record the dungeon: " + e.getMessage());
+        }
+        Point3D pos = dungeon.getPos();
+        synchronized (lock) {
+            int parent = id(dungeon.getDungeon());
+            Buffer buffer = begin(OP_ADD_DUNGEON);
+            buffer.putVarLong(parent);
+            buffer.putVarLong(pos.pack());
+            buffer.putVarLong(snapshot.size());
+            buffer.write(snapshot.toByteArray(), 0, snapshot.size());
+            register(dungeon);
+        }
+    }
+
+    void logAddSquare(Square square) {
+        if (muted.get())
+            return;
+        synchronized (lock) {
+            Buffer buffer = begin(OP_ADD_SQUARE);
+            putSquare(buffer, square);
+            buffer.write(squareType(square));
+            buffer.write(square.isSlipperyFloor() ? FLAG_SLIPPERY : 0);
+            buffer.putZigZag(square.getTemp());
+            buffer.putLong(Double.doubleToLongBits(square.getHumidity()));
+            for (Direction dir : Direction.values())
+                buffer.write(encodeBorder(square.getBorder(dir)));
+        }
+    }
+
+    void logRemoveSquare(Dungeon<?> dungeon, Point3D pos) {
+        if (muted.get())
+            return;
+        synchronized (lock) {
+            Buffer buffer = begin(OP_REMOVE_SQUARE);
+            buffer.putVarLong(id(dungeon));
+            buffer.putVarLong(pos.pack());
+        }
+    }
+
+    void logSetBorder(Square square, Direction dir, Border border) {
+        if (muted.get())
+            return;
+        synchronized (lock) {
+            Buffer buffer = begin(OP_SET_BORDER);
+            putSquare(buffer, square);
+            buffer.write(dir.ordinal());
+            buffer.write(encodeBorder(border));
+        }
+    }
+
+    void logBorderState(Border border) {
+        if (muted.get())
+            return;
+        Square square = border.getSquare();
+        for (Direction dir : Direction.values())
+            if (square.getBorder(dir) == border)
+                synchronized (lock) {
+                    Buffer buffer = begin(OP_BORDER_STATE);
+                    putSquare(buffer, square);
+                    buffer.write(dir.ordinal());
+                    buffer.write(encodeBorder(border));
+                    return;
+                }
+    }
+
+    void logSetTemp(Square square) {
+        if (muted.get())
+            return;
+        synchronized (lock) {
+            Buffer buffer = begin(OP_SET_TEMP);
+            putSquare(buffer, square);
+            buffer.putZigZag(square.getTemp());
+        }
+    }
+
+    void logSetHumidity(Square square) {
+        if (muted.get())
+            return;
+        synchronized (lock) {
+            Buffer buffer = begin(OP_SET_HUMIDITY);
+            putSquare(buffer, square);
+            buffer.putLong(Double.doubleToLongBits(square.getHumidity()));
+        }
+    }
+
+    void logMerge(Square square, Square other, Direction dir) {
+        if (muted.get())
+            return;
+        synchronized (lock) {
+            Buffer buffer = begin(OP_MERGE);
+            putSquare(buffer, square);
+            putSquare(buffer, other);
+            buffer.write(dir.ordinal());
+        }
+    }
+
+    void logAddDest(Square teleport, Square dest, int weight) {
+        if (muted.get())
+            return;
+        synchronized (lock) {
+            Buffer buffer = begin((weight == 1) ? OP_ADD_DEST : OP_ADD_WEIGHTED_DEST);
+            putSquare(buffer, teleport);
+            putSquare(buffer, dest);
+            if (weight != 1)
+                buffer.putVarLong(weight);
+        }
+    }
+
+    /**
+     * Internal method to move an avatar and record the outcome. The move is made while the journal is locked, so moves
+     * to and from the same square are recorded in the order in which they were made.
+     *
+     * @return  The avatar that lost the collision, null if the square was free.
+     * @throws  IllegalArgumentException
+     *          Throws an illegal argument exception if the avatar has been replaced on its square by another avatar.
+     */
+    Avatar logAvatarMove(Avatar avatar, Square from, Square to) throws IllegalArgumentException {
+        if (muted.get())
+            return avatar.relocate(from, to);
+        synchronized (lock) {
+            Avatar loser = avatar.relocate(from, to);
+            Buffer buffer = begin(OP_AVATAR_MOVE);
+            buffer.write((loser == avatar) ? MOVE_AVATAR_KILLED : (loser != null) ? MOVE_OCCUPANT_KILLED :
+                    MOVE_ENTERED);
+            buffer.write((from == null) ? 0 : 1);
+            if (from != null)
+                putSquare(buffer, from);
+            putSquare(buffer, to);
+            return loser;
+        }
+    }
+
+    /**
+     * Internal method to record that the avatar on a square was killed, either on that square or while moving to the
+     * given target.
+     */
+    void logAvatarKilled(Square square, Square target) {
+        if (muted.get())
+            return;
+        synchronized (lock) {
+            Buffer buffer = begin(OP_AVATAR_MOVE);
+            buffer.write(MOVE_AVATAR_KILLED);
+            buffer.write(1);
+            putSquare(buffer, square);
+            putSquare(buffer, target);
+        }
+    }
+
+    /**
+     * Internal method to record avatars moving at the same time. All avatars leave their squares before any of them
+     * enters its target, so avatars may swap squares. The targets have to be free once the avatars have left.
+     */
+    void logAvatarMoves(List<Square> from, List<Square> to) {
+        if (muted.get())
+            return;
+        synchronized (lock) {
+            Buffer buffer = begin(OP_AVATAR_MOVES);
+            buffer.putVarLong(from.size());
+            for (int i = 0; i < from.size(); i++) {
+                putSquare(buffer, from.get(i));
+                putSquare(buffer, to.get(i));
+            }
+        }
+    }
+
+    /**
+     * Internal method to read the batches of a journal file and apply their changes to a list of numbered dungeons.
+     * Reading stops at the first batch that is incomplete or corrupt.
+     *
+     * @param   file
+     *          The journal file.
+     * @param   dungeons
+     *          The numbered dungeons, null to only look for the last sequence number.
+     * @param   maxSequence
+     *          The sequence number of the last change to apply.
+     * @param   maxTime
+     *          The time of the last change to apply.
+     * @return  The sequence number of the last change that was read.
+     */
+    private static long replay(File file, List<Dungeon<?>> dungeons, long maxSequence, long maxTime)
+            throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file),
+                BUFFER_SIZE))) {
+            if ((in.readInt() != JOURNAL_MAGIC) || (in.readShort() != VERSION))
+                throw new IOException("Not a dungeon journal!");
+            in.readShort();
+            long last = in.readLong();
+            CRC32 crc = new CRC32();
+            while (true) {
+                byte[] records;
+                long first, time;
+                int count;
+                try {
+                    int length = in.readInt();
+                    first = in.readLong();
+                    count = in.readInt();
+                    time = in.readLong();
+                    if ((length < 0) || (count <= 0) || (first != last + 1))
+                        return last;
+                    records = new byte[length];
+                    in.readFully(records);
+                    crc.reset();
+                    crc.update(records);
+                    if (in.readLong() != crc.getValue())
+                        return last;
+                } catch (EOFException e) {
+                    return last;
+                }
+                if (dungeons == null) {
+                    last = first + count - 1;
+                    continue;
+                }
+                DataInputStream data = new DataInputStream(new ByteArrayInputStream(records));
+                for (int i = 0; i < count; i++) {
+                    byte op = data.readByte();
+                    long seq = first + i;
+                    if ((seq > maxSequence) || (time + readVarLong(data) > maxTime))
+                        return last;
+                    try {
+                        apply(op, data, dungeons);
+                    } catch (IllegalArgumentException | IllegalStateException | ClassCastException e) {
+                        throw new IOException("Change " + seq + " can not be replayed: " + e.getMessage(), e);
+                    }
+                    last = seq;
+                }
+            }
+        } catch (EOFException e) {
+            throw new IOException("Corrupt journal header in " + file + "!");
+        }
+    }
+
+    /**
+     * Internal method to read the square at the address stored in a record.
+     */
+    private static Square readSquare(DataInput in, List<Dungeon<?>> dungeons) throws IOException {
+        Dungeon<?> dungeon = dungeons.get((int) readVarLong(in));
+        Square square = dungeon.getSquare(Point3D.unpack(readVarLong(in)));
+        if (square == null)
+            throw new IOException("Journal refers to a missing square!");
+        return square;
+    }
+
+    /**
+     * Internal method to apply a single change read from the journal.
+     */
+    @SuppressWarnings("unchecked")
+    private static void apply(byte op, DataInput in, List<Dungeon<?>> dungeons) throws IOException {
+        switch (op) {
+            case OP_ADD_DUNGEON: {
+                CompositeDungeon<Square> parent = (CompositeDungeon<Square>) dungeons.get((int) readVarLong(in));
+                Point3D pos = Point3D.unpack(readVarLong(in));
+                byte[] snapshot = new byte[(int) readVarLong(in)];
+                in.readFully(snapshot);
+                Dungeon<Square> dungeon;
+                try (DungeonReader reader = new DungeonReader(new ByteArrayInputStream(snapshot))) {
+                    dungeon = reader.read();
+                }
+                parent.addDungeon(dungeon, pos);
+                number(dungeon, dungeons);
+                break;
+            }
+            case OP_ADD_SQUARE: {
+                Dungeon<Square> dungeon = (Dungeon<Square>) dungeons.get((int) readVarLong(in));
+                Point3D pos = Point3D.unpack(readVarLong(in));
+                byte type = in.readByte();
+                byte flags = in.readByte();
+                int temp = (int) readZigZag(in);
+                double humidity = in.readDouble();
+                byte[] borders = new byte[BORDERS];
+                in.readFully(borders);
+                Square square = createSquare(type, borders, 0);
+                if (square.canChangeTemp())
+                    square.setTemp(temp);
+                if (square.canChangeHumidity())
+                    square.setHumidity(humidity);
+                dungeon.addSquare(square, pos);
+                applyBorderStates(square, borders, 0);
+                square.setSlipperyFloor((flags & FLAG_SLIPPERY) != 0);
+                break;
+            }
+            case OP_REMOVE_SQUARE: {
+                Dungeon<?> dungeon = dungeons.get((int) readVarLong(in));
+                dungeon.removeSquare(Point3D.unpack(readVarLong(in)));
+                break;
+            }
+            case OP_SET_BORDER: {
+                Square square = readSquare(in, dungeons);
+                Direction dir = Direction.values()[in.readByte()];
+                square.setBorder(decodeBorder(in.readByte()), dir);
+                break;
+            }
+            case OP_BORDER_STATE: {
+                Square square = readSquare(in, dungeons);
+                Border border = square.getBorder(Direction.values()[in.readByte()]);
+                byte code = in.readByte();
+                if (border instanceof Door)
+                    ((Door) border).setOpened(code == BORDER_DOOR_OPEN);
+                else if ((border instanceof PlasticFoil) && (code == BORDER_FOIL_TORN))
+                    ((PlasticFoil) border).tear();
+                break;
+            }
+            case OP_SET_TEMP:
+                readSquare(in, dungeons).setTemp((int) readZigZag(in));
+                break;
+            case OP_SET_HUMIDITY:
+                readSquare(in, dungeons).setHumidity(in.readDouble());
+                break;
+            case OP_MERGE: {
+                Square square = readSquare(in, dungeons);
+                Square other = readSquare(in, dungeons);
+                square.mergeWith(other, Direction.values()[in.readByte()]);
+                break;
+            }
+            case OP_ADD_DEST: {
+                Square teleport = readSquare(in, dungeons);
+                ((TeleportInterface) teleport).addDest(readSquare(in, dungeons));
+                break;
+            }
+            case OP_ADD_WEIGHTED_DEST: {
+                Square teleport = readSquare(in, dungeons);
+                Square dest = readSquare(in, dungeons);
+                ((TeleportInterface) teleport).addDest(dest, (int) readVarLong(in));
+                break;
+            }
+            case OP_AVATAR_MOVE: {
+                byte outcome = in.readByte();
+                Square from = (in.readByte() == 0) ? null : readSquare(in, dungeons);
+                Square to = readSquare(in, dungeons);
+                replayMove(from, to, outcome);
+                break;
+            }
+            case OP_AVATAR_MOVES: {
+                int count = (int) readVarLong(in);
+                Avatar[] avatars = new Avatar[count];
+                Square[] to = new Square[count];
+                for (int i = 0; i < count; i++) {
+                    Square from = readSquare(in, dungeons);
+                    to[i] = readSquare(in, dungeons);
+                    avatars[i] = from.getAvatar();
+                    if ((avatars[i] == null) || !from.vacate(avatars[i]))
+                        throw new IOException("Journal moves a missing avatar!");
+                }
+                for (int i = 0; i < count; i++)
+                    if (avatars[i].relocate(null, to[i]) != null)
+                        throw new IOException("Journal moves an avatar onto an occupied square!");
+                break;
+            }
+            default:
+                throw new IOException("Unknown journal record " + op + "!");
+        }
+    }
+
+    /**
+     * Internal method to replay the outcome of an avatar entering a square, without deciding a collision again.
+     */
+    private static void replayMove(Square from, Square to, byte outcome) throws IOException {
+        Avatar avatar = (from == null) ? null : from.getAvatar();
+        if ((from != null) && (avatar == null))
+            throw new IOException("Journal moves a missing avatar!");
+        if (outcome == MOVE_AVATAR_KILLED) {
+            if (avatar != null) {
+                from.setAvatar(null);
+                avatar.kill();
+            }
+            return;
+        }
+        Avatar occupant = to.getAvatar();
+        if ((outcome == MOVE_OCCUPANT_KILLED) && (occupant != null) && (occupant != avatar)) {
+            to.setAvatar(null);
+            occupant.kill();
+        }
+        if (avatar == null)
+            new Avatar(to);
+        else if (from != to)
+            avatar.setSquare(to);
+    }
+
+    /**
+     * A growable buffer which encodes records with the codecs of the dungeon format, without checked exceptions.
+     */
+    private static class Buffer extends ByteArrayOutputStream {
+
+        /**
+         * The data output writing to this buffer.
+         */
+        private final DataOutputStream data = new DataOutputStream(this);
+
+        /**
+         * Returns the internal array of the buffer, valid up to size().
+         */
+        private byte[] array() {
+            return buf;
+        }
+
+        /**
+         * Writes an unsigned variable length long value.
+         *
+         * @effect  | writeVarLong(data, value)
+         */
+        private void putVarLong(long value) {
+            try {
+                writeVarLong(data, value);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        /**
+         * Writes a signed value using zig-zag encoding.
+         *
+         * @effect  | writeZigZag(data, value)
+         */
+        private void putZigZag(long value) {
+            try {
+                writeZigZag(data, value);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        /**
+         * Writes a long value in big endian order.
+         */
+        private void putLong(long value) {
+            try {
+                data.writeLong(value);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,24 @@
+package be.kuleuven.cs.ogp.project;
+
+import java.util.List;
+
+/**
+ * The interface for objects which want to be notified of the changes made to a dungeon.
+ *
+ * @author  Frederic Hannes
+ */
+public interface DungeonListener {
+
+    /**
+     * Is called with the changes made to a dungeon or its sub dungeons since the previous batch, in the order in which
+     * they were made. Consecutive changes of the same kind to the same square and border are reported once. The list
+     * and its events are reused after this method returns.
+     *
+     * @param   dungeon
+     *          The dungeon the listener subscribed to.
+     * @param   events
+     *          The changes, a read-only list.
+     */
+    public void dungeonChanged(Dungeon<?> dungeon, List<DungeonEvent> events);
+
+}
@@ -0,0 +1,365 @@
+package be.kuleuven.cs.ogp.project;
+
+import be.kuleuven.cs.ogp.project.tools.Histogram;
+import be.kuleuven.cs.ogp.project.tools.StripedCounter;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.InvalidAttributeValueException;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The registry of the metrics kept on the hot paths of the dungeons: counters of the changes made to the dungeons and
+ * of the traversals, teleports and deaths, and histograms of the latencies of the space searches. The metrics are
+ * only kept while they are enabled; a disabled hook costs a single read of a volatile flag, and an enabled hook does
+ * not allocate. Metrics are disabled by default, they are enabled from the start if the system property
+ * "be.kuleuven.cs.ogp.project.metrics" is set to true.
+ *
+ * The registry can be published as an MBean, every counter is an attribute and every histogram has an attribute for its
+ * count, mean, median, 99th percentile and maximum.
+ *
+ * @author  Frederic Hannes
+ */
+public final class DungeonMetrics {
+
+    /**
+     * The name the registry is published under.
+     */
+    public static final String OBJECT_NAME = "be.kuleuven.cs.ogp.project:type=DungeonMetrics";
+
+    private static volatile boolean enabled = Boolean.getBoolean("be.kuleuven.cs.ogp.project.metrics");
+
+    private static final StripedCounter squaresAdded = new StripedCounter();
+    private static final StripedCounter squaresRemoved = new StripedCounter();
+    private static final StripedCounter links = new StripedCounter();
+    private static final StripedCounter borderReplacements = new StripedCounter();
+    private static final StripedCounter traversals = new StripedCounter();
+    private static final StripedCounter squaresVisited = new StripedCounter();
+    private static final StripedCounter teleportsTaken = new StripedCounter();
+    private static final StripedCounter avatarDeaths = new StripedCounter();
+
+    /**
+     * The number of squares visited by every traversal.
+     */
+    private static final Histogram traversalSize = new Histogram();
+
+    /**
+     * The latencies in nanoseconds of the space searches, of the reach checks and of the dungeon look-ups.
+     */
+    private static final Histogram spaceLatency = new Histogram();
+    private static final Histogram canReachLatency = new Histogram();
+    private static final Histogram dungeonAtLatency = new Histogram();
+
+    private static final Map<String, StripedCounter> counters;
+    private static final Map<String, Histogram> histograms;
+
+    static {
+        Map<String, StripedCounter> c = new LinkedHashMap<>();
+        c.put("SquaresAdded", squaresAdded);
+        c.put("SquaresRemoved", squaresRemoved);
+        c.put("Links", links);
+        c.put("BorderReplacements", borderReplacements);
+        c.put("Traversals", traversals);
+        c.put("SquaresVisited", squaresVisited);
+        c.put("TeleportsTaken", teleportsTaken);
+        c.put("AvatarDeaths", avatarDeaths);
+        counters = Collections.unmodifiableMap(c);
+        Map<String, Histogram> h = new LinkedHashMap<>();
+        h.put("TraversalSize", traversalSize);
+        h.put("SpaceLatency", spaceLatency);
+        h.put("CanReachLatency", canReachLatency);
+        h.put("DungeonAtLatency", dungeonAtLatency);
+        histograms = Collections.unmodifiableMap(h);
+    }
+
+    private DungeonMetrics() {
+    }
+
+    /**
+     * Returns true if the metrics are being kept.
+     */
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Sets whether the metrics are being kept. The metrics kept so far are not reset.
+     *
+     * @param   enabled
+     *          The given flag.
+     * @post    The metrics are kept if the flag is set.
+     *          | new.isEnabled() == enabled
+     */
+    public static void setEnabled(boolean enabled) {
+        DungeonMetrics.enabled = enabled;
+    }
+
+    /**
+     * Returns the counters by name, in a fixed order.
+     */
+    public static Map<String, StripedCounter> getCounters() {
+        return counters;
+    }
+
+    /**
+     * Returns the histograms by name, in a fixed order.
+     */
+    public static Map<String, Histogram> getHistograms() {
+        return histograms;
+    }
+
+    /**
+     * Returns the counter with the given name, null if there's no such counter.
+     */
+    public static StripedCounter getCounter(String name) {
+        return counters.get(name);
+    }
+
+    /**
+     * Returns the histogram with the given name, null if there's no such histogram.
+     */
+    public static Histogram getHistogram(String name) {
+        return histograms.get(name);
+    }
+
+    /**
+     * Resets all counters and histograms.
+     */
+    public static void reset() {
+        for (StripedCounter counter : counters.values())
+            counter.reset();
+        for (Histogram histogram : histograms.values())
+            histogram.reset();
+    }
+
+    /**
+     * Publishes the registry on the platform MBean server under OBJECT_NAME, if it has not been published yet.
+     *
+     * @throws  IllegalStateException
+     *          Throws an illegal state exception if the server refuses the registry.
+     * @return  The name the registry is published under.
+     */
+    public static ObjectName registerMBean() throws IllegalStateException {
+        try {
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            synchronized (DungeonMetrics.class) {
+                if (!server.isRegistered(name))
+                    server.registerMBean(new Bean(), name);
+            }
+            return name;
+        } catch (JMException e) {
+            throw new IllegalStateException("Can't publish the metrics!", e);
+        }
+    }
+
+    /**
+     * Returns the time a timed operation starts at, or zero if the metrics are disabled.
+     */
+    public static long start() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Counts a square added to a dungeon.
+     */
+    public static void squareAdded() {
+        if (enabled)
+            squaresAdded.increment();
+    }
+
+    /**
+     * Counts a square removed from a dungeon.
+     */
+    public static void squareRemoved() {
+        if (enabled)
+            squaresRemoved.increment();
+    }
+
+    /**
+     * Counts two squares being linked.
+     */
+    public static void linked() {
+        if (enabled)
+            links.increment();
+    }
+
+    /**
+     * Counts a border replacing another border of a square.
+     */
+    public static void borderReplaced() {
+        if (enabled)
+            borderReplacements.increment();
+    }
+
+    /**
+     * Counts a teleport taken by an avatar.
+     */
+    public static void teleported() {
+        if (enabled)
+            teleportsTaken.increment();
+    }
+
+    /**
+     * Counts an avatar dying.
+     */
+    public static void avatarDied() {
+        if (enabled)
+            avatarDeaths.increment();
+    }
+
+    /**
+     * Records a traversal of a space.
+     *
+     * @param   start
+     *          The time the traversal started at, as returned by start().
+     * @param   squares
+     *          The number of squares visited.
+     */
+    public static void traversed(long start, int squares) {
+        if (enabled) {
+            traversals.increment();
+            squaresVisited.add(squares);
+            traversalSize.record(squares);
+            if (start != 0)
+                spaceLatency.record(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Records the latency of a reach check.
+     *
+     * @param   start
+     *          The time the check started at, as returned by start().
+     */
+    public static void reachChecked(long start) {
+        if (enabled && (start != 0))
+            canReachLatency.record(System.nanoTime() - start);
+    }
+
+    /**
+     * Records the latency of a dungeon look-up.
+     *
+     * @param   start
+     *          The time the look-up started at, as returned by start().
+     */
+    public static void dungeonFound(long start) {
+        if (enabled && (start != 0))
+            dungeonAtLatency.record(System.nanoTime() - start);
+    }
+
+    /**
+     * The registry as an MBean.
+     */
+    private static class Bean implements DynamicMBean {
+
+        private static final String[] STATISTICS = { "Count", "Mean", "P50", "P99", "Max" };
+
+        @Override
+        public Object getAttribute(String attribute) throws AttributeNotFoundException {
+            if (attribute.equals("Enabled"))
+                return isEnabled();
+            StripedCounter counter = getCounter(attribute);
+            if (counter != null)
+                return counter.sum();
+            for (String statistic : STATISTICS)
+                if (attribute.endsWith(statistic)) {
+                    Histogram histogram = getHistogram(attribute.substring(0,
+                            attribute.length() - statistic.length()));
+                    if (histogram != null)
+                        return getStatistic(histogram, statistic);
+                }
+            throw new AttributeNotFoundException("Invalid attribute: " + attribute);
+        }
+
+        /**
+         * Internal method to read a statistic of a histogram.
+         */
+        private static Object getStatistic(Histogram histogram, String statistic) {
+            switch (statistic) {
+                case "Count": return histogram.getCount();
+                case "Mean": return histogram.getMean();
+                case "P50": return histogram.getPercentile(50);
+                case "P99": return histogram.getPercentile(99);
+                default: return histogram.getMax();
+            }
+        }
+
+        @Override
+        public void setAttribute(Attribute attribute) throws AttributeNotFoundException,
+                InvalidAttributeValueException {
+            if (!attribute.getName().equals("Enabled"))
+                throw new AttributeNotFoundException("Invalid attribute: " + attribute.getName());
+            if (!(attribute.getValue() instanceof Boolean))
+                throw new InvalidAttributeValueException("Invalid value!");
+            setEnabled((Boolean) attribute.getValue());
+        }
+
+        @Override
+        public AttributeList getAttributes(String[] attributes) {
+            AttributeList list = new AttributeList();
+            for (String attribute : attributes)
+                try {
+                    list.add(new Attribute(attribute, getAttribute(attribute)));
+                } catch (AttributeNotFoundException e) {
+                    // Unknown attributes are left out of the list
+                }
+            return list;
+        }
+
+        @Override
+        public AttributeList setAttributes(AttributeList attributes) {
+            AttributeList list = new AttributeList();
+            for (Attribute attribute : attributes.asList())
+                try {
+                    setAttribute(attribute);
+                    list.add(attribute);
+                } catch (JMException e) {
+                    // Attributes that can't be set are left out of the list
+                }
+            return list;
+        }
+
+        @Override
+        public Object invoke(String action, Object[] params, String[] signature) throws ReflectionException {
+            if (!action.equals("reset") || ((params != null) && (params.length > 0)))
+                throw new ReflectionException(new NoSuchMethodException(action));
+            reset();
+            return null;
+        }
+
+        @Override
+        public MBeanInfo getMBeanInfo() {
+            List<MBeanAttributeInfo> attributes = new ArrayList<>();
+            attributes.add(new MBeanAttributeInfo("Enabled", "boolean", "Whether the metrics are kept", true, true,
+                    true));
+            for (String name : counters.keySet())
+                attributes.add(new MBeanAttributeInfo(name, "long", name, true, false, false));
+            for (String name : histograms.keySet())
+                for (String statistic : STATISTICS)
+                    attributes.add(new MBeanAttributeInfo(name + statistic, statistic.equals("Mean") ? "double" :
+                            "long", name + " " + statistic, true, false, false));
+            MBeanOperationInfo reset = new MBeanOperationInfo("reset", "Resets all metrics", null, "void",
+                    MBeanOperationInfo.ACTION);
+            return new MBeanInfo(DungeonMetrics.class.getName(), "Metrics of the dungeons",
+                    attributes.toArray(new MBeanAttributeInfo[attributes.size()]), null,
+                    new MBeanOperationInfo[] { reset }, null);
+        }
+
+    }
+
+}
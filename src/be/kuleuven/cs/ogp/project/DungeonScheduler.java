@@ -0,0 +1,355 @@
+package be.kuleuven.cs.ogp.project;
+
+import be.kuleuven.cs.ogp.project.borders.Door;
+import be.kuleuven.cs.ogp.project.borders.PlasticFoil;
+import be.kuleuven.cs.ogp.project.tools.TimingWheel;
+import be.kuleuven.cs.som.annotate.Basic;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * This class runs timed changes to a dungeon, like doors opening on a schedule or foils tearing after a delay. The
+ * changes are held in a timing wheel, so scheduling and cancelling a change take constant time and pending changes
+ * cost nothing until they are due. The changes due in the same tick run together, in the order in which they were
+ * scheduled.
+ *
+ * @author  Frederic Hannes
+ */
+public class DungeonScheduler {
+
+    /**
+     * A change scheduled in a dungeon scheduler.
+     */
+    public static final class Action {
+
+        private final Runnable change;
+
+        /**
+         * The number of ticks between two runs of the change, 0 if the change runs once.
+         */
+        private final long period;
+
+        /**
+         * The number of the action, in the order in which actions were scheduled.
+         */
+        private final long id;
+
+        private final TimingWheel.Timer<Action> timer;
+
+        private Action(DungeonScheduler scheduler, Runnable change, long due, long period) {
+            this.change = change;
+            this.period = period;
+            this.id = scheduler.nextId++;
+            this.timer = scheduler.wheel.schedule(this, due);
+        }
+
+        /**
+         * Returns the number of ticks between two runs of the change, 0 if the change runs once.
+         */
+        @Basic
+        public long getPeriod() {
+            return period;
+        }
+
+        /**
+         * Returns the tick the change runs in next.
+         */
+        public long getDue() {
+            return timer.getDue();
+        }
+
+        /**
+         * Returns true if the change will run again.
+         */
+        public boolean isPending() {
+            return timer.isPending();
+        }
+
+        /**
+         * Cancels the change.
+         *
+         * @return  True if the change would have run again.
+         */
+        public boolean cancel() {
+            return timer.cancel();
+        }
+
+    }
+
+    /**
+     * Orders actions by the order in which they were scheduled.
+     */
+    private static final Comparator<Action> BY_ID = new Comparator<Action>() {
+        @Override
+        public int compare(Action a1, Action a2) {
+            return (a1.id < a2.id) ? -1 : (a1.id == a2.id) ? 0 : 1;
+        }
+    };
+
+    private final Dungeon<?> dungeon;
+
+    private final TimingWheel<Action> wheel = new TimingWheel<>(0);
+
+    private long nextId = 0;
+
+    /**
+     * The actions due in the tick that is being run.
+     */
+    private final List<Action> due = new ArrayList<>();
+
+    /**
+     * Creates a new scheduler for a dungeon.
+     *
+     * @param   dungeon
+     *          The given dungeon.
+     */
+    DungeonScheduler(Dungeon<?> dungeon) {
+        this.dungeon = dungeon;
+    }
+
+    /**
+     * Returns the dungeon the scheduler belongs to.
+     */
+    @Basic
+    public Dungeon<?> getDungeon() {
+        return dungeon;
+    }
+
+    /**
+     * Returns the current tick.
+     */
+    public long getTick() {
+        return wheel.getTick();
+    }
+
+    /**
+     * Returns the number of pending changes.
+     */
+    public int getPending() {
+        return wheel.getSize();
+    }
+
+    /**
+     * Schedules a change.
+     *
+     * @param   change
+     *          The given change.
+     * @param   delay
+     *          The number of ticks after the current tick in which the change runs.
+     * @return  The scheduled action.
+     * @throws  IllegalArgumentException
+     *          Throws an illegal argument exception if the given change is invalid.
+     *          | change == null
+     * @throws  IllegalArgumentException
+     *          Throws an illegal argument exception if the given delay is invalid.
+     *          | delay < 1
+     */
+    public Action schedule(Runnable change, long delay) throws IllegalArgumentException {
+        return schedule(change, delay, 0);
+    }
+
+    /**
+     * Schedules a change which runs repeatedly.
+     *
+     * @param   change
+     *          The given change.
+     * @param   delay
+     *          The number of ticks after the current tick in which the change runs first.
+     * @param   period
+     *          The number of ticks between two runs of the change, 0 if the change runs once.
+     * @return  The scheduled action.
+     * @throws  IllegalArgumentException
+     *          Throws an illegal argument exception if the given change is invalid.
+     *          | change == null
+     * @throws  IllegalArgumentException
+     *          Throws an illegal argument exception if the given delay is invalid.
+     *          | delay < 1
+     * @throws  IllegalArgumentException
+     *          Throws an illegal argument exception if the given period is invalid.
+     *          | period < 0
+     */
+    public Action schedule(Runnable change, long delay, long period) throws IllegalArgumentException {
+        if (change == null)
+            throw new IllegalArgumentException("Invalid change!");
+        if (delay < 1)
+            throw new IllegalArgumentException("Invalid delay!");
+        if (period < 0)
+            throw new IllegalArgumentException("Invalid period!");
+        return new Action(this, change, getTick() + delay, period);
+    }
+
+    /**
+     * Schedules a door to be opened or closed.
+     *
+     * @param   door
+     *          The given door.
+     * @param   opened
+     *          The state the door is given.
+     * @param   delay
+     *          The number of ticks after the current tick in which the door changes.
+     * @return  The scheduled action.
+     * @throws  IllegalArgumentException
+     *          Throws an illegal argument exception if the given door is invalid.
+     *          | door == null
+     * @effect  The door is given the state after the delay.
+     *          | schedule(door.setOpened(opened), delay)
+     */
+    public Action scheduleDoor(final Door door, final boolean opened, long delay) throws IllegalArgumentException {
+        if (door == null)
+            throw new IllegalArgumentException("Invalid door!");
+        return schedule(new Runnable() {
+            @Override
+            public void run() {
+                door.setOpened(opened);
+            }
+        }, delay);
+    }
+
+    /**
+     * Schedules a plastic foil to be torn.
+     *
+     * @param   foil
+     *          The given foil.
+     * @param   delay
+     *          The number of ticks after the current tick in which the foil is torn.
+     * @return  The scheduled action.
+     * @throws  IllegalArgumentException
+     *          Throws an illegal argument exception if the given foil is invalid.
+     *          | foil == null
+     * @effect  The foil is torn after the delay.
+     *          | schedule(foil.tear(), delay)
+     */
+    public Action scheduleTear(final PlasticFoil foil, long delay) throws IllegalArgumentException {
+        if (foil == null)
+            throw new IllegalArgumentException("Invalid foil!");
+        return schedule(new Runnable() {
+            @Override
+            public void run() {
+                foil.tear();
+            }
+        }, delay);
+    }
+
+    /**
+     * Schedules a change of the temperature of a square.
+     *
+     * @param   square
+     *          The given square.
+     * @param   temp
+     *          The temperature the square is given.
+     * @param   delay
+     *          The number of ticks after the current tick in which the temperature changes.
+     * @return  The scheduled action.
+     * @throws  IllegalArgumentException
+     *          Throws an illegal argument exception if the given square is invalid.
+     *          | square == null
+     * @effect  The square is given the temperature after the delay.
+     *          | schedule(square.setTemp(temp), delay)
+     */
+    public Action scheduleTemp(final Square square, final int temp, long delay) throws IllegalArgumentException {
+        if (square == null)
+            throw new IllegalArgumentException("Invalid square!");
+        return schedule(new Runnable() {
+            @Override
+            public void run() {
+                square.setTemp(temp);
+            }
+        }, delay);
+    }
+
+    /**
+     * Schedules the temperature of a square to move towards a target by a fixed step every period, like a heat source
+     * warming up. The action stops once the target is reached.
+     *
+     * @param   square
+     *          The given square.
+     * @param   target
+     *          The temperature the square ends up with.
+     * @param   step
+     *          The change of the temperature every period.
+     * @param   period
+     *          The number of ticks between two changes.
+     * @return  The scheduled action.
+     * @throws  IllegalArgumentException
+     *          Throws an illegal argument exception if the given square is invalid.
+     *          | square == null
+     * @throws  IllegalArgumentException
+     *          Throws an illegal argument exception if the given step is invalid.
+     *          | step < 1
+     */
+    public Action scheduleRamp(final Square square, final int target, final int step, long period)
+            throws IllegalArgumentException {
+        if (square == null)
+            throw new IllegalArgumentException("Invalid square!");
+        if (step < 1)
+            throw new IllegalArgumentException("Invalid step!");
+        if (period < 1)
+            throw new IllegalArgumentException("Invalid period!");
+        final Action[] action = new Action[1];
+        action[0] = schedule(new Runnable() {
+            @Override
+            public void run() {
+                int temp = square.getTemp();
+                if (temp < target)
+                    temp = Math.min(target, temp + step);
+                else
+                    temp = Math.max(target, temp - step);
+                square.setTemp(temp);
+                if (temp == target)
+                    action[0].cancel();
+            }
+        }, period, period);
+        return action[0];
+    }
+
+    /**
+     * Advances the clock by a number of ticks and runs the changes that become due, tick by tick. If a change throws an
+     * exception, the clock stops at its tick and the exception is passed on; the changes of that tick which did not
+     * run yet are run first by the next call, the changes which did run are not run again.
+     *
+     * @param   ticks
+     *          The given number of ticks.
+     * @return  The number of changes that ran.
+     * @throws  IllegalArgumentException
+     *          Throws an illegal argument exception if the given number of ticks is negative.
+     *          | ticks < 0
+     */
+    public int advance(long ticks) throws IllegalArgumentException {
+        if (ticks < 0)
+            throw new IllegalArgumentException("Invalid number of ticks!");
+        long target = getTick() + ticks;
+        // The rest of a tick in which a change failed
+        int count = due.isEmpty() ? 0 : run();
+        // Stop at every tick with due changes, as they may schedule changes of their own
+        while (getTick() < target)
+            if (wheel.advanceUntil(target, due) > 0)
+                count += run();
+        return count;
+    }
+
+    /**
+     * Internal method to run the changes due in the current tick, in the order in which they were scheduled.
+     */
+    private int run() {
+        if (due.size() > 1)
+            Collections.sort(due, BY_ID);
+        long tick = getTick();
+        int count = 0;
+        try {
+            while (count < due.size()) {
+                // An action is counted as run before it runs, so a failing change is not run again
+                Action action = due.get(count++);
+                if (action.period > 0)
+                    wheel.reschedule(action.timer, tick + action.period);
+                action.change.run();
+            }
+        } finally {
+            due.subList(0, count).clear();
+        }
+        return count;
+    }
+
+}
@@ -0,0 +1,323 @@
+package be.kuleuven.cs.ogp.project;
+
+import be.kuleuven.cs.ogp.project.dungeons.ChunkManager;
+import be.kuleuven.cs.ogp.project.tools.HashTrie;
+import be.kuleuven.cs.ogp.project.tools.Point3D;
+import be.kuleuven.cs.som.annotate.Basic;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static be.kuleuven.cs.ogp.project.io.DungeonFormat.*;
+
+/**
+ * An immutable view of the squares of a dungeon at the moment the snapshot was taken, by their absolute position. The
+ * squares are stored in chunks of ChunkManager.CHUNK_SIZE squares along every axis. A snapshot shares the chunks that
+ * did not change with the previous snapshot of the dungeon, so taking one only costs time and memory for the chunks
+ * written since, and many snapshots can be kept at once.
+ *
+ * The state of a square is stored with the codes of the snapshot format: a type code, a border code for every
+ * direction, the temperature, the humidity, whether the floor is slippery and the avatar on the square. A snapshot can
+ * be read by any number of threads while the dungeon keeps changing.
+ *
+ * @author  Frederic Hannes
+ */
+public final class DungeonSnapshot {
+
+    /**
+     * The frozen state of the squares of a chunk, indexed by slot.
+     */
+    static final class Chunk {
+
+        /**
+         * The type codes of the squares plus one, 0 for an empty position.
+         */
+        final byte[] types = new byte[ChunkManager.CHUNK_VOLUME];
+
+        final byte[] flags = new byte[ChunkManager.CHUNK_VOLUME];
+
+        final byte[] borders = new byte[ChunkManager.CHUNK_VOLUME * BORDERS];
+
+        final int[] temps = new int[ChunkManager.CHUNK_VOLUME];
+
+        final double[] humidity = new double[ChunkManager.CHUNK_VOLUME];
+
+        /**
+         * The avatars on the squares, null if there are none in the chunk.
+         */
+        Avatar[] avatars = null;
+
+        /**
+         * The number of squares in the chunk.
+         */
+        int count = 0;
+
+    }
+
+    private final Dungeon<?> dungeon;
+
+    private final long version;
+
+    private final HashTrie<Chunk> chunks;
+
+    private final int size;
+
+    /**
+     * Creates a new snapshot.
+     *
+     * @param   dungeon
+     *          The dungeon the snapshot was taken of.
+     * @param   version
+     *          The number of the snapshot.
+     * @param   chunks
+     *          The frozen chunks, by chunk key.
+     * @param   size
+     *          The number of squares.
+     */
+    DungeonSnapshot(Dungeon<?> dungeon, long version, HashTrie<Chunk> chunks, int size) {
+        this.dungeon = dungeon;
+        this.version = version;
+        this.chunks = chunks;
+        this.size = size;
+    }
+
+    /**
+     * Returns the dungeon the snapshot was taken of.
+     */
+    @Basic
+    public Dungeon<?> getDungeon() {
+        return dungeon;
+    }
+
+    /**
+     * Returns the number of the snapshot. Later snapshots of a dungeon have higher numbers.
+     */
+    @Basic
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Returns the number of squares in the snapshot.
+     */
+    @Basic
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Returns true if a square was present at the given absolute position.
+     *
+     * @param   pos
+     *          The given position.
+     */
+    public boolean hasSquare(Point3D pos) {
+        return slot(pos, false) >= 0;
+    }
+
+    /**
+     * Returns the type code of the square at the given absolute position.
+     *
+     * @param   pos
+     *          The given position.
+     * @throws  IllegalArgumentException
+     *          Throws an illegal argument exception if no square was present at the given position.
+     *          | !hasSquare(pos)
+     */
+    public byte getType(Point3D pos) throws IllegalArgumentException {
+        int slot = slot(pos, true);
+        return (byte) (chunk(pos).types[slot] - 1);
+    }
+
+    /**
+     * Returns true if the square at the given absolute position is solid.
+     *
+     * @param   pos
+     *          The given position.
+     * @throws  IllegalArgumentException
+     *          Throws an illegal argument exception if no square was present at the given position.
+     *          | !hasSquare(pos)
+     */
+    public boolean isSolid(Point3D pos) throws IllegalArgumentException {
+        return getType(pos) == SQUARE_ROCK;
+    }
+
+    /**
+     * Returns the temperature of the square at the given absolute position.
+     *
+     * @param   pos
+     *          The given position.
+     * @throws  IllegalArgumentException
+     *          Throws an illegal argument exception if no square was present at the given position.
+     *          | !hasSquare(pos)
+     */
+    public int getTemp(Point3D pos) throws IllegalArgumentException {
+        int slot = slot(pos, true);
+        return chunk(pos).temps[slot];
+    }
+
+    /**
+     * Returns the humidity of the square at the given absolute position.
+     *
+     * @param   pos
+     *          The given position.
+     * @throws  IllegalArgumentException
+     *          Throws an illegal argument exception if no square was present at the given position.
+     *          | !hasSquare(pos)
+     */
+    public double getHumidity(Point3D pos) throws IllegalArgumentException {
+        int slot = slot(pos, true);
+        return chunk(pos).humidity[slot];
+    }
+
+    /**
+     * Returns true if the square at the given absolute position had a slippery floor.
+     *
+     * @param   pos
+     *          The given position.
+     * @throws  IllegalArgumentException
+     *          Throws an illegal argument exception if no square was present at the given position.
+     *          | !hasSquare(pos)
+     */
+    public boolean isSlipperyFloor(Point3D pos) throws IllegalArgumentException {
+        int slot = slot(pos, true);
+        return (chunk(pos).flags[slot] & FLAG_SLIPPERY) != 0;
+    }
+
+    /**
+     * Returns the border code of the square at the given absolute position in the given direction.
+     *
+     * @param   pos
+     *          The given position.
+     * @param   dir
+     *          The given direction.
+     * @throws  IllegalArgumentException
+     *          Throws an illegal argument exception if no square was present at the given position.
+     *          | !hasSquare(pos)
+     * @throws  IllegalArgumentException
+     *          Throws an illegal argument exception if the given direction is invalid.
+     *          | dir == null
+     */
+    public byte getBorder(Point3D pos, Direction dir) throws IllegalArgumentException {
+        if (dir == null)
+            throw new IllegalArgumentException("Invalid direction!");
+        int slot = slot(pos, true);
+        return chunk(pos).borders[slot * BORDERS + dir.ordinal()];
+    }
+
+    /**
+     * Returns true if the border of the square at the given absolute position in the given direction could be passed.
+     *
+     * @param   pos
+     *          The given position.
+     * @param   dir
+     *          The given direction.
+     * @effect  | code = getBorder(pos, dir)
+     *          | result == (code == BORDER_NONE) || (code == BORDER_DOOR_OPEN) || (code == BORDER_FOIL_TORN)
+     */
+    public boolean isOpen(Point3D pos, Direction dir) throws IllegalArgumentException {
+        byte code = getBorder(pos, dir);
+        return (code == BORDER_NONE) || (code == BORDER_DOOR_OPEN) || (code == BORDER_FOIL_TORN);
+    }
+
+    /**
+     * Returns the avatar on the square at the given absolute position, null if there was none.
+     *
+     * @param   pos
+     *          The given position.
+     * @throws  IllegalArgumentException
+     *          Throws an illegal argument exception if no square was present at the given position.
+     *          | !hasSquare(pos)
+     */
+    public Avatar getAvatar(Point3D pos) throws IllegalArgumentException {
+        int slot = slot(pos, true);
+        Chunk chunk = chunk(pos);
+        return (chunk.avatars == null) ? null : chunk.avatars[slot];
+    }
+
+    /**
+     * Returns the absolute positions of all squares in the snapshot, in no particular order.
+     */
+    public List<Point3D> getPositions() {
+        final List<Point3D> res = new ArrayList<>(size);
+        chunks.forEach(new HashTrie.Visitor<Chunk>() {
+            @Override
+            public void visit(long key, Chunk chunk) {
+                int x = Point3D.unpackX(key) << ChunkManager.CHUNK_BITS;
+                int y = Point3D.unpackY(key) << ChunkManager.CHUNK_BITS;
+                int z = Point3D.unpackZ(key) << ChunkManager.CHUNK_BITS;
+                for (int slot = 0; slot < ChunkManager.CHUNK_VOLUME; slot++)
+                    if (chunk.types[slot] != 0)
+                        res.add(new Point3D(x + (slot & (ChunkManager.CHUNK_SIZE - 1)),
+                                y + ((slot >> ChunkManager.CHUNK_BITS) & (ChunkManager.CHUNK_SIZE - 1)),
+                                z + (slot >> (2 * ChunkManager.CHUNK_BITS))));
+            }
+        });
+        return res;
+    }
+
+    /**
+     * Returns the key of the chunk holding a position, -1 if no chunk can hold it. Chunks hold the positions whose
+     * coordinates are positive and whose chunk coordinates can be packed.
+     *
+     * @param   x
+     *          The given x-coordinate.
+     * @param   y
+     *          The given y-coordinate.
+     * @param   z
+     *          The given z-coordinate.
+     */
+    static long chunkKey(int x, int y, int z) {
+        int cx = x >> ChunkManager.CHUNK_BITS;
+        int cy = y >> ChunkManager.CHUNK_BITS;
+        int cz = z >> ChunkManager.CHUNK_BITS;
+        return Point3D.isPackable(cx, cy, cz) ? Point3D.pack(cx, cy, cz) : -1;
+    }
+
+    /**
+     * Returns the slot of a position in its chunk.
+     *
+     * @param   x
+     *          The given x-coordinate.
+     * @param   y
+     *          The given y-coordinate.
+     * @param   z
+     *          The given z-coordinate.
+     */
+    static int slot(int x, int y, int z) {
+        int mask = ChunkManager.CHUNK_SIZE - 1;
+        return (x & mask) | ((y & mask) << ChunkManager.CHUNK_BITS) | ((z & mask) << (2 * ChunkManager.CHUNK_BITS));
+    }
+
+    /**
+     * Internal method to return the chunk holding a position, null if there is none.
+     */
+    private Chunk chunk(Point3D pos) {
+        if (pos == null)
+            return null;
+        long key = chunkKey(pos.getX(), pos.getY(), pos.getZ());
+        return (key < 0) ? null : chunks.get(key);
+    }
+
+    /**
+     * Internal method to return the slot of the square at a position in its chunk.
+     *
+     * @param   pos
+     *          The given position.
+     * @param   required
+     *          Whether an exception has to be thrown if there's no square at the position.
+     * @return  The slot of the square, -1 if there's no square at the position.
+     * @throws  IllegalArgumentException
+     *          Throws an illegal argument exception if the square is required and not present.
+     */
+    private int slot(Point3D pos, boolean required) throws IllegalArgumentException {
+        Chunk chunk = chunk(pos);
+        int slot = (chunk == null) ? -1 : slot(pos.getX(), pos.getY(), pos.getZ());
+        if ((slot >= 0) && (chunk.types[slot] == 0))
+            slot = -1;
+        if ((slot < 0) && required)
+            throw new IllegalArgumentException("No square at the given position!");
+        return slot;
+    }
+
+}
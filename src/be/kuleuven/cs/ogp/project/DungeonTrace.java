@@ -0,0 +1,292 @@
+package be.kuleuven.cs.ogp.project;
+
+import be.kuleuven.cs.som.annotate.Basic;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * The recorder of slow dungeon operations. An operation is timed from start() to commit(), and an event is recorded
+ * only if the operation took at least the threshold of its kind. The most recent events are kept in a ring of fixed
+ * size, older events are overwritten. Tracing is disabled by default, it is enabled from the start if the system
+ * property "be.kuleuven.cs.ogp.project.trace" is set to true. A disabled trace costs a single read of a volatile flag
+ * per operation, an operation that is not slow enough does not allocate.
+ *
+ * @author  Frederic Hannes
+ */
+public final class DungeonTrace {
+
+    /**
+     * The kinds of operations that are traced, with their default thresholds. Every event carries a count and a flag,
+     * their meaning depends on the kind.
+     */
+    public static enum Kind {
+
+        /**
+         * A space search: the count is the number of squares visited, the flag is set if teleports were followed.
+         */
+        TRAVERSAL(1000000),
+
+        /**
+         * A dungeon loaded from a snapshot: the count is the number of squares loaded.
+         */
+        BULK_LOAD(100000000),
+
+        /**
+         * The check whether a sub dungeon overlaps a dungeon that is already present: the count is the number of
+         * dungeons already present, the flag is set if an overlap was found.
+         */
+        OVERLAP_CHECK(1000000),
+
+        /**
+         * A collision in which an avatar was killed: the count is the number of avatars killed, the flag is set if the
+         * avatar entering the square was killed.
+         */
+        COLLISION_KILL(100000),
+
+        /**
+         * The computation of the squares at the end of the teleport chains starting at a teleport: the count is the
+         * number of teleports in the chains, the flag is set if the chains have cycles.
+         */
+        TELEPORT_CHAIN(1000000),
+
+        /**
+         * The solution of a cycle of teleports in a teleport chain: the count is the number of teleports in the cycle,
+         * the flag is set if an earlier solution of the cycle was reused.
+         */
+        TELEPORT_CYCLE(1000000);
+
+        /**
+         * The default threshold in nanoseconds.
+         */
+        private final long threshold;
+
+        private Kind(long threshold) {
+            this.threshold = threshold;
+        }
+
+    }
+
+    /**
+     * A slow operation.
+     */
+    public static final class Event {
+
+        private final Kind kind;
+
+        /**
+         * The time the operation ended at, in milliseconds since the epoch.
+         */
+        private final long time;
+
+        /**
+         * The duration of the operation in nanoseconds.
+         */
+        private final long duration;
+
+        private final String thread;
+
+        private final long count;
+
+        private final boolean flag;
+
+        private Event(Kind kind, long time, long duration, String thread, long count, boolean flag) {
+            this.kind = kind;
+            this.time = time;
+            this.duration = duration;
+            this.thread = thread;
+            this.count = count;
+            this.flag = flag;
+        }
+
+        /**
+         * Returns the kind of the operation.
+         */
+        @Basic
+        public Kind getKind() {
+            return kind;
+        }
+
+        /**
+         * Returns the time the operation ended at, in milliseconds since the epoch.
+         */
+        @Basic
+        public long getTime() {
+            return time;
+        }
+
+        /**
+         * Returns the duration of the operation in nanoseconds.
+         */
+        @Basic
+        public long getDuration() {
+            return duration;
+        }
+
+        /**
+         * Returns the name of the thread that ran the operation.
+         */
+        @Basic
+        public String getThread() {
+            return thread;
+        }
+
+        /**
+         * Returns the count of the event, its meaning depends on the kind of the event.
+         */
+        @Basic
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * Returns the flag of the event, its meaning depends on the kind of the event.
+         */
+        @Basic
+        public boolean getFlag() {
+            return flag;
+        }
+
+        @Override
+        public String toString() {
+            return kind + " " + (duration / 1000) + "us count=" + count + " flag=" + flag + " thread=" + thread;
+        }
+
+    }
+
+    /**
+     * The number of events kept.
+     */
+    public static final int CAPACITY = 1024;
+
+    private static volatile boolean enabled = Boolean.getBoolean("be.kuleuven.cs.ogp.project.trace");
+
+    private static final AtomicLongArray thresholds = new AtomicLongArray(Kind.values().length);
+
+    private static final AtomicReferenceArray<Event> events = new AtomicReferenceArray<>(CAPACITY);
+
+    /**
+     * The number of events recorded since the trace was cleared.
+     */
+    private static final AtomicLong recorded = new AtomicLong();
+
+    static {
+        for (Kind kind : Kind.values())
+            thresholds.set(kind.ordinal(), kind.threshold);
+    }
+
+    private DungeonTrace() {
+    }
+
+    /**
+     * Returns true if slow operations are being recorded.
+     */
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Sets whether slow operations are being recorded. The events recorded so far are kept.
+     *
+     * @param   enabled
+     *          The given flag.
+     * @post    Slow operations are recorded if the flag is set.
+     *          | new.isEnabled() == enabled
+     */
+    public static void setEnabled(boolean enabled) {
+        DungeonTrace.enabled = enabled;
+    }
+
+    /**
+     * Returns the threshold in nanoseconds an operation of the given kind must reach to be recorded.
+     *
+     * @param   kind
+     *          The given kind.
+     * @throws  IllegalArgumentException
+     *          Throws an illegal argument exception if the kind is invalid.
+     *          | kind == null
+     */
+    public static long getThreshold(Kind kind) throws IllegalArgumentException {
+        if (kind == null)
+            throw new IllegalArgumentException("Invalid kind!");
+        return thresholds.get(kind.ordinal());
+    }
+
+    /**
+     * Sets the threshold in nanoseconds an operation of the given kind must reach to be recorded.
+     *
+     * @param   kind
+     *          The given kind.
+     * @param   threshold
+     *          The given threshold, zero to record every operation of the kind.
+     * @throws  IllegalArgumentException
+     *          Throws an illegal argument exception if the kind is invalid or the threshold is negative.
+     *          | (kind == null) || (threshold < 0)
+     * @post    The threshold of the kind equals the given threshold.
+     *          | new.getThreshold(kind) == threshold
+     */
+    public static void setThreshold(Kind kind, long threshold) throws IllegalArgumentException {
+        if (kind == null)
+            throw new IllegalArgumentException("Invalid kind!");
+        if (threshold < 0)
+            throw new IllegalArgumentException("Invalid threshold!");
+        thresholds.set(kind.ordinal(), threshold);
+    }
+
+    /**
+     * Returns the events that are kept, the oldest event first. Events recorded during the call may be left out.
+     */
+    public static List<Event> getEvents() {
+        long end = recorded.get();
+        List<Event> res = new ArrayList<>();
+        for (long i = Math.max(0, end - CAPACITY); i < end; i++) {
+            Event event = events.get((int) (i % CAPACITY));
+            if (event != null)
+                res.add(event);
+        }
+        return res;
+    }
+
+    /**
+     * Removes all events that are kept. Events recorded during the call may be kept.
+     */
+    public static void clear() {
+        recorded.set(0);
+        for (int i = 0; i < CAPACITY; i++)
+            events.set(i, null);
+    }
+
+    /**
+     * Returns the time an operation starts at, or zero if the trace is disabled.
+     */
+    public static long start() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Ends an operation, it is recorded if it reached the threshold of its kind.
+     *
+     * @param   kind
+     *          The kind of the operation.
+     * @param   start
+     *          The time the operation started at, as returned by start().
+     * @param   count
+     *          The count of the event.
+     * @param   flag
+     *          The flag of the event.
+     */
+    public static void commit(Kind kind, long start, long count, boolean flag) {
+        if ((start == 0) || !enabled)
+            return;
+        long duration = System.nanoTime() - start;
+        if (duration < thresholds.get(kind.ordinal()))
+            return;
+        Event event = new Event(kind, System.currentTimeMillis(), duration, Thread.currentThread().getName(), count,
+                flag);
+        events.set((int) (recorded.getAndIncrement() % CAPACITY), event);
+    }
+
+}
@@ -0,0 +1,464 @@
+package be.kuleuven.cs.ogp.project;
+
+import be.kuleuven.cs.ogp.project.tools.Point3D;
+import be.kuleuven.cs.som.annotate.Basic;
+
+import java.util.Arrays;
+
+/**
+ * Computes what can be seen in a dungeon. Sight follows straight lines between the centres of squares, which are
+ * traced square by square with the voxel traversal of Amanatides and Woo. A line passes from a square to its neighbour
+ * only through an open border, and stops at a position without a square and at a solid square. A line which passes
+ * exactly through an edge or a corner of squares gets through if it can pass around it on any side, so sight is
+ * symmetric.
+ *
+ * A field of view holds all squares that can be seen from a square within a radius. The candidates are found by a
+ * flood through the open borders around the viewer, the squares in the shadow of a closed border or a solid square
+ * are left out by tracing a line to every candidate. The field of view of a square is kept until the layout of its
+ * dungeon changes.
+ *
+ * An instance keeps its own working memory, so tracing lines and computing fields of view does not allocate once it
+ * is warmed up, apart from the result of a field of view which is not yet known. The marks of the flood are sized to
+ * the radius that is queried, and given up again when a much smaller radius follows. An instance is not meant to be
+ * shared between threads; fields of view can be computed in parallel with an instance for every thread, handing each
+ * one a range of viewers, as Vision does.
+ *
+ * @author  Frederic Hannes
+ */
+public final class LineOfSight {
+
+    /**
+     * The largest radius of a field of view.
+     */
+    public static final int MAX_RADIUS = 64;
+
+    /**
+     * A field of view, the squares that can be seen from a square within a radius.
+     */
+    public static final class View {
+
+        /**
+         * The layout version of the dungeon the field of view was computed for.
+         */
+        private final long version;
+
+        private final int radius;
+
+        /**
+         * The packed positions of the visible squares, in ascending order.
+         */
+        private final long[] visible;
+
+        private View(long version, int radius, long[] visible) {
+            this.version = version;
+            this.radius = radius;
+            this.visible = visible;
+        }
+
+        /**
+         * Returns the radius of the field of view.
+         */
+        @Basic
+        public int getRadius() {
+            return radius;
+        }
+
+        /**
+         * Returns the number of visible squares, including the viewer.
+         */
+        public int getSize() {
+            return visible.length;
+        }
+
+        /**
+         * Returns the packed position of the visible square with the given index, in the order of the packed positions.
+         *
+         * @param   index
+         *          The given index.
+         * @throws  IndexOutOfBoundsException
+         *          Throws an index out of bounds exception if there's no square with the given index.
+         *          | (index < 0) || (index >= getSize())
+         */
+        public long getPacked(int index) throws IndexOutOfBoundsException {
+            return visible[index];
+        }
+
+        /**
+         * Returns true if the square at the given position is visible.
+         *
+         * @param   x
+         *          The given x-coordinate.
+         * @param   y
+         *          The given y-coordinate.
+         * @param   z
+         *          The given z-coordinate.
+         */
+        public boolean contains(int x, int y, int z) {
+            return Point3D.isPackable(x, y, z) && (Arrays.binarySearch(visible, Point3D.pack(x, y, z)) >= 0);
+        }
+
+        /**
+         * Returns true if the square at the given position is visible.
+         *
+         * @param   pos
+         *          The given position.
+         */
+        public boolean contains(Point3D pos) {
+            return (pos != null) && contains(pos.getX(), pos.getY(), pos.getZ());
+        }
+
+    }
+
+    /**
+     * The cursor tracing the lines, replaced when a line is traced in another dungeon.
+     */
+    private DungeonCursor cursor = null;
+
+    /**
+     * The end of the line that is being traced.
+     */
+    private int tx;
+    private int ty;
+    private int tz;
+
+    /**
+     * The lengths of the line that is being traced along every axis, and the number of borders it crossed along every
+     * axis.
+     */
+    private final long[] length = new long[3];
+    private final long[] crossed = new long[3];
+
+    /**
+     * The directions a step along every axis takes.
+     */
+    private final Direction[] step = new Direction[3];
+
+    /**
+     * The squares of the flood of a field of view.
+     */
+    private Square[] queue = new Square[64];
+
+    /**
+     * The packed positions of the visible squares of a field of view.
+     */
+    private long[] visible = new long[64];
+
+    /**
+     * The most marks that are kept for every mark a radius needs.
+     */
+    private static final int MAX_SLACK = 8;
+
+    /**
+     * The marks of the positions around the viewer reached by the flood, a position is marked if it holds the current
+     * stamp.
+     */
+    private int[] marks = new int[0];
+
+    private int stamp = 0;
+
+    /**
+     * Checks whether a square can be seen from another square.
+     *
+     * @param   from
+     *          The square that is seen from.
+     * @param   to
+     *          The square that is looked at.
+     * @return  False if a square is invalid, not part of a dungeon or if both squares are part of different dungeons.
+     *          | if ((from == null) || (to == null) || (from.getDungeon() == null) ||
+     *          |       (from.getDungeon() != to.getDungeon()))
+     *          |   result == false
+     * @return  True if the line between the centres of both squares only passes open borders into squares which are
+     *          not solid, except for the square that is looked at.
+     */
+    public boolean canSee(Square from, Square to) {
+        if ((from == null) || (to == null) || (from.getDungeon() == null) || (from.getDungeon() != to.getDungeon()))
+            return false;
+        Point3D pos = to.getPos();
+        if (pos == null)
+            return false;
+        cursorFor(from.getDungeon()).moveTo(from);
+        return trace(pos.getX(), pos.getY(), pos.getZ());
+    }
+
+    /**
+     * Checks whether a position in a dungeon can be seen from another position.
+     *
+     * @param   dungeon
+     *          The given dungeon.
+     * @param   from
+     *          The position that is seen from.
+     * @param   to
+     *          The position that is looked at.
+     * @throws  IllegalArgumentException
+     *          Throws an illegal argument exception if one of the arguments is invalid.
+     *          | (dungeon == null) || (from == null) || (to == null)
+     * @return  False if there's no square at one of both positions.
+     * @effect  Otherwise, it is checked whether the square at the second position can be seen from the first.
+     *          | canSee(dungeon.getSquare(from), dungeon.getSquare(to))
+     */
+    public boolean canSee(Dungeon<?> dungeon, Point3D from, Point3D to) throws IllegalArgumentException {
+        if ((dungeon == null) || (from == null) || (to == null))
+            throw new IllegalArgumentException("Invalid dungeon or position!");
+        if (!cursorFor(dungeon).moveTo(from.getX(), from.getY(), from.getZ()))
+            return false;
+        return dungeon.hasSquare(to) && trace(to.getX(), to.getY(), to.getZ());
+    }
+
+    /**
+     * Returns the field of view of a square, all squares that can be seen from it whose centres lie within the given
+     * distance of its centre. The field of view is computed once and kept until the layout of the dungeon changes.
+     *
+     * @param   viewer
+     *          The given square.
+     * @param   radius
+     *          The given radius.
+     * @throws  IllegalArgumentException
+     *          Throws an illegal argument exception if the square is invalid or not part of a dungeon, or if the radius
+     *          is negative or larger than MAX_RADIUS.
+     *          | (viewer == null) || (viewer.getDungeon() == null) || (radius < 0) || (radius > MAX_RADIUS)
+     * @return  The field of view, which holds every square of the dungeon within the radius that can be seen from the
+     *          viewer.
+     *          | for each square in viewer.getDungeon():
+     *          |   result.contains(square.getPos()) == (square.getPos().dist(viewer.getPos()) <= radius &&
+     *          |       canSee(viewer, square))
+     */
+    public View getFieldOfView(Square viewer, int radius) throws IllegalArgumentException {
+        if ((viewer == null) || (viewer.getDungeon() == null) || (viewer.getPos() == null))
+            throw new IllegalArgumentException("Invalid viewer!");
+        if ((radius < 0) || (radius > MAX_RADIUS))
+            throw new IllegalArgumentException("Invalid radius!");
+        Dungeon<?> dungeon = viewer.getDungeon();
+        long version = dungeon.getLayoutVersion();
+        View view = viewer.getView();
+        if ((view != null) && (view.version == version) && (view.radius == radius))
+            return view;
+        view = new View(version, radius, computeFieldOfView(viewer, radius));
+        viewer.setView(view);
+        return view;
+    }
+
+    /**
+     * Returns the fields of view of a range of squares, in the same order. The working memory is sized once for the
+     * whole range.
+     *
+     * @param   viewers
+     *          The given squares.
+     * @param   start
+     *          The index of the first square of the range.
+     * @param   end
+     *          The index after the last square of the range.
+     * @param   radius
+     *          The given radius.
+     * @param   res
+     *          The array the fields of view are stored in, at the index of their square.
+     * @throws  IllegalArgumentException
+     *          Throws an illegal argument exception if the arrays or the range are invalid, if one of the squares is
+     *          invalid or not part of a dungeon, or if the radius is negative or larger than MAX_RADIUS.
+     *          | (viewers == null) || (res == null) || (start < 0) || (start > end) || (end > viewers.length) ||
+     *          |   (end > res.length) || (radius < 0) || (radius > MAX_RADIUS)
+     * @effect  The field of view of every square of the range is stored at its index.
+     *          | for each i in start..end - 1:
+     *          |   res[i] = getFieldOfView(viewers[i], radius)
+     */
+    public void getFieldsOfView(Square[] viewers, int start, int end, int radius, View[] res)
+            throws IllegalArgumentException {
+        if ((viewers == null) || (res == null) || (start < 0) || (start > end) || (end > viewers.length) ||
+                (end > res.length))
+            throw new IllegalArgumentException("Invalid viewers!");
+        if ((radius < 0) || (radius > MAX_RADIUS))
+            throw new IllegalArgumentException("Invalid radius!");
+        for (int i = start; i < end; i++)
+            res[i] = getFieldOfView(viewers[i], radius);
+    }
+
+    /**
+     * Internal method to compute the packed positions of the squares in the field of view of a square.
+     */
+    private long[] computeFieldOfView(Square viewer, int radius) {
+        DungeonCursor cursor = cursorFor(viewer.getDungeon());
+        Point3D origin = viewer.getPos();
+        int ox = origin.getX();
+        int oy = origin.getY();
+        int oz = origin.getZ();
+        // The flood reaches one square beyond the radius, as the lines to the squares at the radius may pass there
+        int reach = radius + 1;
+        int side = 2 * reach + 1;
+        int volume = side * side * side;
+        // A large radius does not keep its marks once smaller ones are queried
+        if ((marks.length < volume) || (marks.length / MAX_SLACK > volume)) {
+            marks = new int[volume];
+            stamp = 0;
+        }
+        if (++stamp == 0) {
+            Arrays.fill(marks, 0);
+            stamp = 1;
+        }
+        long limit = (long) radius * radius;
+        int head = 0;
+        int tail = 0;
+        int count = 0;
+        queue[tail++] = viewer;
+        marks[((reach * side) + reach) * side + reach] = stamp;
+        while (head < tail) {
+            Square sq = queue[head];
+            queue[head++] = null;
+            cursor.moveTo(sq);
+            int x = cursor.getX();
+            int y = cursor.getY();
+            int z = cursor.getZ();
+            long dx = x - ox;
+            long dy = y - oy;
+            long dz = z - oz;
+            if (dx * dx + dy * dy + dz * dz <= limit) {
+                cursor.moveTo(viewer);
+                if (trace(x, y, z)) {
+                    if (count == visible.length)
+                        visible = Arrays.copyOf(visible, count * 2);
+                    visible[count++] = Point3D.pack(x, y, z);
+                }
+                cursor.moveTo(sq);
+            }
+            if ((sq != viewer) && sq.isSolid())
+                continue;
+            for (int i = 0; i < Direction.COUNT; i++) {
+                Direction dir = Direction.get(i);
+                int rx = x - ox + dir.getDX();
+                int ry = y - oy + dir.getDY();
+                int rz = z - oz + dir.getDZ();
+                if ((Math.abs(rx) > reach) || (Math.abs(ry) > reach) || (Math.abs(rz) > reach))
+                    continue;
+                int mark = (((rx + reach) * side) + ry + reach) * side + rz + reach;
+                if ((marks[mark] == stamp) || !cursor.isOpen(dir))
+                    continue;
+                Square neighbour = cursor.neighbour(dir);
+                if (neighbour == null)
+                    continue;
+                marks[mark] = stamp;
+                if (tail == queue.length) {
+                    System.arraycopy(queue, head, queue, 0, tail - head);
+                    tail -= head;
+                    head = 0;
+                    if (tail == queue.length)
+                        queue = Arrays.copyOf(queue, tail * 2);
+                }
+                queue[tail++] = neighbour;
+            }
+        }
+        Arrays.sort(visible, 0, count);
+        return Arrays.copyOf(visible, count);
+    }
+
+    /**
+     * Internal method to return the cursor for the given dungeon.
+     */
+    private DungeonCursor cursorFor(Dungeon<?> dungeon) {
+        if ((cursor == null) || (cursor.getDungeon() != dungeon))
+            cursor = new DungeonCursor(dungeon);
+        return cursor;
+    }
+
+    /**
+     * Internal method to trace the line from the square of the cursor to the given position.
+     */
+    private boolean trace(int x, int y, int z) {
+        tx = x;
+        ty = y;
+        tz = z;
+        setAxis(0, x - cursor.getX(), Direction.EAST, Direction.WEST);
+        setAxis(1, y - cursor.getY(), Direction.NORTH, Direction.SOUTH);
+        setAxis(2, z - cursor.getZ(), Direction.CEILING, Direction.FLOOR);
+        return walk();
+    }
+
+    /**
+     * Internal method to prepare the traversal along an axis.
+     */
+    private void setAxis(int axis, int delta, Direction positive, Direction negative) {
+        length[axis] = Math.abs(delta);
+        crossed[axis] = 0;
+        step[axis] = (delta >= 0) ? positive : negative;
+    }
+
+    /**
+     * Internal method to walk the line from the square of the cursor to the end of the line. Along an axis with
+     * length l, the line crosses its k-th border at t = (2k + 1) / 2l, the borders are crossed in the order of these
+     * times. Borders crossed at the same time are crossed in every order until one gets through.
+     */
+    private boolean walk() {
+        while ((cursor.getX() != tx) || (cursor.getY() != ty) || (cursor.getZ() != tz)) {
+            int first = -1;
+            int tied = 0;
+            for (int axis = 0; axis < 3; axis++) {
+                if (crossed[axis] == length[axis])
+                    continue;
+                int cmp = (first < 0) ? -1 : compare(axis, first);
+                if (cmp < 0) {
+                    first = axis;
+                    tied = 1 << axis;
+                } else if (cmp == 0) {
+                    tied |= 1 << axis;
+                }
+            }
+            if (Integer.bitCount(tied) > 1)
+                return cross(tied);
+            if (!advance(first))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Internal method to compare the times at which the next borders along two axes are crossed.
+     */
+    private int compare(int a, int b) {
+        // (2 crossed[a] + 1) / 2 length[a] against (2 crossed[b] + 1) / 2 length[b]
+        return Long.compare((2 * crossed[a] + 1) * length[b], (2 * crossed[b] + 1) * length[a]);
+    }
+
+    /**
+     * Internal method to cross the borders along the given axes, which are crossed at the same time, in any order that
+     * gets through, and to walk the rest of the line from there.
+     */
+    private boolean cross(int axes) {
+        Square start = cursor.getSquare();
+        for (int axis = 0; axis < 3; axis++) {
+            if ((axes & (1 << axis)) == 0)
+                continue;
+            if (advance(axis)) {
+                int rest = axes & ~(1 << axis);
+                if ((Integer.bitCount(rest) > 1) ? cross(rest) : (advance(Integer.numberOfTrailingZeros(rest)) &&
+                        walk()))
+                    return true;
+            }
+            // Go back to the start of the crossing and try the next order
+            cursor.moveTo(start);
+            for (int other = 0; other < 3; other++)
+                crossed[other] = crossedBefore(other, start);
+        }
+        return false;
+    }
+
+    /**
+     * Internal method to compute the number of borders crossed along an axis when the line reaches the given square.
+     */
+    private long crossedBefore(int axis, Square square) {
+        Point3D pos = square.getPos();
+        int coordinate = (axis == 0) ? pos.getX() : (axis == 1) ? pos.getY() : pos.getZ();
+        int end = (axis == 0) ? tx : (axis == 1) ? ty : tz;
+        return length[axis] - Math.abs(end - coordinate);
+    }
+
+    /**
+     * Internal method to take a single step along the given axis. The step fails if the border is closed, or if the
+     * square behind it does not exist or blocks the sight while it is not the end of the line.
+     */
+    private boolean advance(int axis) {
+        Direction dir = step[axis];
+        if (!cursor.isOpen(dir) || !cursor.moveTo(dir))
+            return false;
+        crossed[axis]++;
+        return !cursor.getSquare().isSolid() ||
+                ((cursor.getX() == tx) && (cursor.getY() == ty) && (cursor.getZ() == tz));
+    }
+
+}
@@ -0,0 +1,379 @@
+package be.kuleuven.cs.ogp.project;
+
+import be.kuleuven.cs.ogp.project.tools.RandomSource;
+import be.kuleuven.cs.som.annotate.Basic;
+
+import java.io.Closeable;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This class moves many avatars at once in ticks. The moves for a tick are collected first and then made at the same
+ * time: every avatar leaves its square before any avatar enters its target, so avatars can follow or swap with each
+ * other. Avatars which end up on the same square collide, one of them survives and the others are killed.
+ *
+ * A tick runs in three phases. The targets of the moves are resolved in parallel, following teleports. The collisions
+ * are then resolved in parallel, with the moves grouped by target square. Finally, the moves are made in the order in
+ * which they were submitted. Every random choice is derived from the seed, the tick and the submission index of the
+ * move, so a seed gives the same outcome every time, whatever the number of threads.
+ *
+ * The avatars and dungeons should not be changed by other threads while a tick is running.
+ *
+ * @invar   The number of threads is at least 1.
+ *          | getThreads() >= 1
+ *
+ * @author  Frederic Hannes
+ */
+public class Simulation implements Closeable {
+
+    /**
+     * The number of moves in a unit of work of the resolving phase.
+     */
+    private static final int CHUNK_SIZE = 1024;
+
+    private final long seed;
+
+    private final int threads;
+
+    /**
+     * The workers of the simulation, null if the simulation runs on the calling thread.
+     */
+    private final ExecutorService workers;
+
+    /**
+     * The number of ticks that have been run.
+     */
+    private long tick = 0;
+
+    /**
+     * The moves submitted for the next tick.
+     */
+    private final List<Avatar> avatars = new ArrayList<>();
+    private final List<Direction> directions = new ArrayList<>();
+
+    /**
+     * The avatars which have a move submitted for the next tick.
+     */
+    private final Set<Avatar> submitted = Collections.newSetFromMap(new IdentityHashMap<Avatar, Boolean>());
+
+    /**
+     * Creates a new simulation which runs on the calling thread.
+     *
+     * @param   seed
+     *          The given seed.
+     */
+    public Simulation(long seed) {
+        this(seed, 1);
+    }
+
+    /**
+     * Creates a new simulation.
+     *
+     * @param   seed
+     *          The given seed.
+     * @param   threads
+     *          The number of threads to run the simulation on.
+     * @throws  IllegalArgumentException
+     *          Throws an illegal argument exception if the given number of threads is invalid.
+     *          | threads < 1
+     */
+    public Simulation(long seed, int threads) throws IllegalArgumentException {
+        if (threads < 1)
+            throw new IllegalArgumentException("Invalid number of threads!");
+        this.seed = seed;
+        this.threads = threads;
+        if (threads == 1) {
+            this.workers = null;
+        } else {
+            this.workers = Executors.newFixedThreadPool(threads - 1, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable task) {
+                    Thread thread = new Thread(task, "simulation");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+    }
+
+    /**
+     * Returns the seed of the simulation.
+     */
+    @Basic
+    public long getSeed() {
+        return seed;
+    }
+
+    /**
+     * Returns the number of threads the simulation runs on.
+     */
+    @Basic
+    public int getThreads() {
+        return threads;
+    }
+
+    /**
+     * Returns the number of ticks that have been run.
+     */
+    @Basic
+    public long getTick() {
+        return tick;
+    }
+
+    /**
+     * Returns the number of moves submitted for the next tick.
+     */
+    public int getPending() {
+        return avatars.size();
+    }
+
+    /**
+     * Submits a move for the next tick.
+     *
+     * @param   avatar
+     *          The given avatar.
+     * @param   dir
+     *          The direction to move in.
+     * @throws  IllegalArgumentException
+     *          Throws an illegal argument exception if the given avatar is invalid.
+     *          | avatar == null
+     * @throws  IllegalArgumentException
+     *          Throws an illegal argument exception if the given direction is invalid.
+     *          | dir == null
+     * @throws  IllegalArgumentException
+     *          Throws an illegal argument exception if a move was already submitted for the given avatar.
+     */
+    public void submit(Avatar avatar, Direction dir) throws IllegalArgumentException {
+        if (avatar == null)
+            throw new IllegalArgumentException("Invalid avatar!");
+        if (dir == null)
+            throw new IllegalArgumentException("Invalid direction!");
+        if (!submitted.add(avatar))
+            throw new IllegalArgumentException("The avatar already moves this tick!");
+        avatars.add(avatar);
+        directions.add(dir);
+    }
+
+    /**
+     * Runs a tick, making all submitted moves at once. Moves of dead avatars, moves without a square in their direction
+     * and moves onto solid squares are dropped.
+     *
+     * @return  The number of avatars that moved and survived.
+     * @throws  IllegalStateException
+     *          Throws an illegal state exception if a move reaches teleports which can lead into a cycle of teleports
+     *          which can not be left. No moves are made in that case, the submitted moves are kept for the next tick.
+     */
+    public int tick() throws IllegalStateException {
+        final int count = avatars.size();
+        final Avatar[] movers = avatars.toArray(new Avatar[count]);
+        final Direction[] dirs = directions.toArray(new Direction[count]);
+        final long tickSeed = RandomSource.mix(seed + (tick + 1) * RandomSource.GOLDEN_GAMMA);
+        final Square[] from = new Square[count];
+        final Square[] to = new Square[count];
+        // Resolve the targets
+        final AtomicInteger nextChunk = new AtomicInteger();
+        run(new Runnable() {
+            @Override
+            public void run() {
+                int chunk;
+                while ((chunk = nextChunk.getAndIncrement()) * CHUNK_SIZE < count)
+                    for (int i = chunk * CHUNK_SIZE; i < Math.min(count, (chunk + 1) * CHUNK_SIZE); i++)
+                        resolve(i, movers[i], dirs[i], tickSeed, from, to);
+            }
+        });
+        // The moves are only taken once all of them could be resolved
+        avatars.clear();
+        directions.clear();
+        submitted.clear();
+        tick++;
+        // Group the moves by target
+        final Set<Avatar> leaving = Collections.newSetFromMap(new IdentityHashMap<Avatar, Boolean>());
+        for (int i = 0; i < count; i++)
+            if (to[i] != null)
+                leaving.add(movers[i]);
+        final int partitions = Math.min(threads * 4, Math.max(1, count / CHUNK_SIZE));
+        final int[] start = new int[partitions + 1];
+        final int[] order = new int[count];
+        for (int i = 0; i < count; i++)
+            if (to[i] != null)
+                start[partition(to[i], partitions) + 1]++;
+        for (int p = 0; p < partitions; p++)
+            start[p + 1] += start[p];
+        int[] fill = Arrays.copyOf(start, partitions);
+        for (int i = 0; i < count; i++)
+            if (to[i] != null)
+                order[fill[partition(to[i], partitions)]++] = i;
+        // Resolve the collisions
+        final boolean[] survives = new boolean[count];
+        final Avatar[] displaced = new Avatar[count];
+        final AtomicInteger nextPartition = new AtomicInteger();
+        run(new Runnable() {
+            @Override
+            public void run() {
+                int p;
+                while ((p = nextPartition.getAndIncrement()) < partitions)
+                    collide(order, start[p], start[p + 1], movers, to, leaving, tickSeed, survives, displaced);
+            }
+        });
+        return commit(movers, from, to, survives, displaced);
+    }
+
+    /**
+     * Internal method to determine the square a move ends on.
+     */
+    private static void resolve(int index, Avatar avatar, Direction dir, long tickSeed, Square[] from, Square[] to) {
+        Square square = avatar.getSquare();
+        if (!avatar.isAlive() || (square == null))
+            return;
+        Border adjacent = square.getBorder(dir).getAdjacent();
+        if (adjacent == null)
+            return;
+        Square sq = adjacent.getSquare();
+        if (sq instanceof TeleportInterface) {
+            Square dest = ((TeleportInterface) sq).teleportTerminal(RandomSource.forKey(tickSeed, index));
+            if (dest != null)
+                sq = dest;
+        }
+        if (sq.isSolid())
+            return;
+        from[index] = square;
+        to[index] = sq;
+    }
+
+    /**
+     * Internal method to resolve the collisions of the moves in a partition. The moves are ordered by their index, so
+     * the moves onto a square are grouped in the same order whichever thread resolves them.
+     */
+    private static void collide(int[] order, int begin, int end, Avatar[] movers, Square[] to, Set<Avatar> leaving,
+                                long tickSeed, boolean[] survives, Avatar[] displaced) {
+        Map<Square, List<Integer>> groups = new LinkedHashMap<>();
+        for (int k = begin; k < end; k++) {
+            int i = order[k];
+            List<Integer> group = groups.get(to[i]);
+            if (group == null) {
+                group = new ArrayList<>(1);
+                groups.put(to[i], group);
+            }
+            group.add(i);
+        }
+        for (Map.Entry<Square, List<Integer>> entry : groups.entrySet()) {
+            List<Integer> group = entry.getValue();
+            int first = group.get(0);
+            Avatar occupant = entry.getKey().getAvatar();
+            boolean stays = (occupant != null) && !leaving.contains(occupant);
+            int contenders = group.size() + (stays ? 1 : 0);
+            long random = RandomSource.mix(tickSeed ^ RandomSource.mix(first + 1));
+            int winner = (contenders == 1) ? 0 : RandomSource.scale(random, contenders);
+            for (int g = 0; g < group.size(); g++)
+                survives[group.get(g)] = (winner == g);
+            if (stays && (winner != group.size()))
+                displaced[first] = occupant;
+        }
+    }
+
+    /**
+     * Internal method to make the resolved moves in the order in which they were submitted.
+     */
+    private static int commit(Avatar[] movers, Square[] from, Square[] to, boolean[] survives, Avatar[] displaced) {
+        Map<DungeonJournal, List<Square>> journalFrom = new IdentityHashMap<>();
+        Map<DungeonJournal, List<Square>> journalTo = new IdentityHashMap<>();
+        int moved = 0;
+        for (int i = 0; i < movers.length; i++) {
+            if (to[i] == null)
+                continue;
+            if (displaced[i] != null) {
+                kill(displaced[i], to[i], to[i]);
+            }
+            if (!survives[i]) {
+                kill(movers[i], from[i], to[i]);
+            } else {
+                DungeonJournal journal = to[i].getJournal();
+                if (journal != null) {
+                    if (!journalFrom.containsKey(journal)) {
+                        journalFrom.put(journal, new ArrayList<Square>());
+                        journalTo.put(journal, new ArrayList<Square>());
+                    }
+                    journalFrom.get(journal).add(from[i]);
+                    journalTo.get(journal).add(to[i]);
+                }
+                from[i].vacate(movers[i]);
+                moved++;
+            }
+        }
+        for (DungeonJournal journal : journalFrom.keySet())
+            journal.logAvatarMoves(journalFrom.get(journal), journalTo.get(journal));
+        for (int i = 0; i < movers.length; i++) {
+            if ((to[i] == null) || !survives[i])
+                continue;
+            long start = DungeonTrace.start();
+            Avatar loser = movers[i].relocate(null, to[i]);
+            // The target is only occupied if an avatar was placed on it while the tick was running
+            if (loser != null) {
+                loser.kill();
+                DungeonTrace.commit(DungeonTrace.Kind.COLLISION_KILL, start, 1, loser == movers[i]);
+                to[i].publish(DungeonEvent.Type.AVATAR_KILLED, null, loser);
+                if (loser == movers[i]) {
+                    moved--;
+                    continue;
+                }
+            }
+            to[i].publish(DungeonEvent.Type.AVATAR_MOVED, null, movers[i]);
+        }
+        return moved;
+    }
+
+    /**
+     * Internal method to kill an avatar which loses a collision on the given square.
+     */
+    private static void kill(Avatar avatar, Square square, Square target) {
+        DungeonJournal journal = square.getJournal();
+        if (journal != null)
+            journal.logAvatarKilled(square, target);
+        square.vacate(avatar);
+        avatar.kill();
+        target.publish(DungeonEvent.Type.AVATAR_KILLED, null, avatar);
+    }
+
+    /**
+     * Internal method to run a phase on all threads, including the calling thread.
+     */
+    private void run(Runnable phase) {
+        if (workers == null) {
+            phase.run();
+            return;
+        }
+        List<Future<?>> futures = new ArrayList<>(threads - 1);
+        for (int t = 1; t < threads; t++)
+            futures.add(workers.submit(phase));
+        phase.run();
+        try {
+            for (Future<?> future : futures)
+                future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("The simulation was interrupted!");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * Internal method to assign a target square to a partition.
+     */
+    private static int partition(Square square, int partitions) {
+        return RandomSource.scale(RandomSource.mix(System.identityHashCode(square)), partitions);
+    }
+
+    /**
+     * Stops the threads of the simulation.
+     */
+    @Override
+    public void close() {
+        if (workers != null)
+            workers.shutdown();
+    }
+
+}
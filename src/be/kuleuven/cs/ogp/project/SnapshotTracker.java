@@ -0,0 +1,246 @@
+package be.kuleuven.cs.ogp.project;
+
+import be.kuleuven.cs.ogp.project.dungeons.ChunkManager;
+import be.kuleuven.cs.ogp.project.tools.HashTrie;
+import be.kuleuven.cs.ogp.project.tools.Point3D;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static be.kuleuven.cs.ogp.project.io.DungeonFormat.*;
+
+/**
+ * This class keeps track of the chunks of a dungeon that were written since its last snapshot. Every square of the
+ * dungeon knows the chunk it belongs to, and marks it as written whenever it changes; the first write to a chunk puts
+ * it in a queue. Taking a snapshot freezes the chunks in the queue and stores them in a persistent trie, which shares
+ * the frozen chunks that were not written with the previous snapshot.
+ *
+ * Squares are added and removed under the lock of their chunk only, so structural changes in different chunks run in
+ * parallel, and only snapshots are taken one at a time. A chunk that lost its last square is dropped and marked as
+ * removed, a square added to it afterwards starts a new chunk. Freezing a chunk also holds its lock, so it never sees
+ * half of a structural change; the state of the squares themselves is only consistent if no changes are made while a
+ * snapshot is taken.
+ *
+ * @author  Frederic Hannes
+ */
+final class SnapshotTracker {
+
+    /**
+     * A chunk of squares of the dungeon.
+     */
+    static final class Chunk {
+
+        private final SnapshotTracker tracker;
+
+        private final long key;
+
+        private final Square[] squares = new Square[ChunkManager.CHUNK_VOLUME];
+
+        private int count = 0;
+
+        /**
+         * Whether the chunk was dropped from the tracker.
+         */
+        private boolean removed = false;
+
+        /**
+         * Whether the chunk was written since it was last frozen.
+         */
+        private volatile boolean written = false;
+
+        private Chunk(SnapshotTracker tracker, long key) {
+            this.tracker = tracker;
+            this.key = key;
+        }
+
+        /**
+         * Marks the chunk as written. Marking a chunk that is already marked only costs a volatile read.
+         */
+        void written() {
+            if (!written) {
+                written = true;
+                tracker.written.add(this);
+            }
+        }
+
+    }
+
+    private final Dungeon<?> dungeon;
+
+    /**
+     * The chunks holding squares, by chunk key.
+     */
+    private final ConcurrentHashMap<Long, Chunk> chunks = new ConcurrentHashMap<>();
+
+    /**
+     * The chunks written since the last snapshot. A chunk can be in the queue more than once.
+     */
+    private final Queue<Chunk> written = new ConcurrentLinkedQueue<>();
+
+    /**
+     * The frozen chunks of the last snapshot.
+     */
+    private HashTrie<DungeonSnapshot.Chunk> frozen = HashTrie.empty();
+
+    private final AtomicInteger size = new AtomicInteger();
+
+    private long version = 0;
+
+    /**
+     * Creates a tracker for the squares of a dungeon. The squares it already holds are added with addSquares.
+     *
+     * @param   dungeon
+     *          The given dungeon, not part of another dungeon.
+     */
+    SnapshotTracker(Dungeon<?> dungeon) {
+        this.dungeon = dungeon;
+    }
+
+    /**
+     * Takes a snapshot of the dungeon, freezing the chunks written since the last snapshot.
+     */
+    synchronized DungeonSnapshot snapshot() {
+        Chunk chunk;
+        while ((chunk = written.poll()) != null) {
+            if (!chunk.written)
+                continue;
+            // Writes made while the chunk is frozen mark it again for the next snapshot
+            chunk.written = false;
+            synchronized (chunk) {
+                if (!chunk.removed)
+                    frozen = frozen.put(chunk.key, freeze(chunk));
+                else if (!chunks.containsKey(chunk.key))
+                    frozen = frozen.remove(chunk.key);
+            }
+        }
+        return new DungeonSnapshot(dungeon, ++version, frozen, size.get());
+    }
+
+    /**
+     * Starts tracking the squares of a dungeon that became part of the tracked dungeon.
+     *
+     * @param   dungeon
+     *          The given dungeon.
+     */
+    void addSquares(Dungeon<?> dungeon) {
+        List<Square> squares = new ArrayList<>();
+        dungeon.getAllSquares(squares);
+        for (Square square : squares)
+            add(square);
+    }
+
+    /**
+     * Starts tracking a square added to the dungeon. A square that was tracked at the same position before is
+     * replaced.
+     *
+     * @param   square
+     *          The given square.
+     */
+    void add(Square square) {
+        Point3D pos = square.getAbsolutePos();
+        long key = DungeonSnapshot.chunkKey(pos.getX(), pos.getY(), pos.getZ());
+        if (key < 0)
+            return;
+        int slot = DungeonSnapshot.slot(pos.getX(), pos.getY(), pos.getZ());
+        while (true) {
+            Chunk chunk = chunks.get(key);
+            if (chunk == null) {
+                Chunk created = new Chunk(this, key);
+                chunk = chunks.putIfAbsent(key, created);
+                if (chunk == null)
+                    chunk = created;
+            }
+            synchronized (chunk) {
+                // A chunk dropped in the meantime is replaced by a new one
+                if (chunk.removed)
+                    continue;
+                Square old = chunk.squares[slot];
+                if (old == null) {
+                    chunk.count++;
+                    size.incrementAndGet();
+                } else {
+                    old.setSnapshotChunk(null);
+                }
+                chunk.squares[slot] = square;
+                square.setSnapshotChunk(chunk);
+                chunk.written();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Stops tracking a square removed from the dungeon.
+     *
+     * @param   square
+     *          The given square.
+     */
+    void remove(Square square) {
+        Chunk chunk = square.getSnapshotChunk();
+        if ((chunk == null) || (chunk.tracker != this))
+            return;
+        synchronized (chunk) {
+            if (square.getSnapshotChunk() != chunk)
+                return;
+            for (int slot = 0; slot < chunk.squares.length; slot++)
+                if (chunk.squares[slot] == square) {
+                    chunk.squares[slot] = null;
+                    chunk.count--;
+                    size.decrementAndGet();
+                }
+            square.setSnapshotChunk(null);
+            if (chunk.count == 0) {
+                chunk.removed = true;
+                chunks.remove(chunk.key, chunk);
+            }
+            chunk.written();
+        }
+    }
+
+    /**
+     * Stops tracking all squares, when the dungeon becomes part of another dungeon.
+     */
+    void detach() {
+        for (Chunk chunk : chunks.values()) {
+            synchronized (chunk) {
+                for (Square square : chunk.squares)
+                    if (square != null)
+                        square.setSnapshotChunk(null);
+                chunk.removed = true;
+            }
+        }
+        chunks.clear();
+        written.clear();
+    }
+
+    /**
+     * Internal method to copy the state of the squares of a chunk, holding its lock.
+     */
+    private static DungeonSnapshot.Chunk freeze(Chunk chunk) {
+        DungeonSnapshot.Chunk res = new DungeonSnapshot.Chunk();
+        for (int slot = 0; slot < chunk.squares.length; slot++) {
+            Square square = chunk.squares[slot];
+            if (square == null)
+                continue;
+            res.types[slot] = (byte) (squareType(square) + 1);
+            res.flags[slot] = squareFlags(square);
+            for (Direction dir : Direction.values())
+                res.borders[slot * BORDERS + dir.ordinal()] = encodeBorder(square.getBorder(dir));
+            res.temps[slot] = square.getTemp();
+            res.humidity[slot] = square.getHumidity();
+            Avatar avatar = square.getAvatar();
+            if (avatar != null) {
+                if (res.avatars == null)
+                    res.avatars = new Avatar[chunk.squares.length];
+                res.avatars[slot] = avatar;
+            }
+            res.count++;
+        }
+        return res;
+    }
+
+}
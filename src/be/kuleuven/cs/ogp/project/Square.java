@@ -5,6 +5,7 @@ import be.kuleuven.cs.ogp.project.borders.NoBorder;
 import be.kuleuven.cs.ogp.project.borders.Wall;
 import be.kuleuven.cs.ogp.project.squares.Teleport;
 import be.kuleuven.cs.ogp.project.tools.Point3D;
+import be.kuleuven.cs.ogp.project.tools.RandomSource;
 import be.kuleuven.cs.ogp.project.tools.Tools;
 import be.kuleuven.cs.som.annotate.Basic;
 import be.kuleuven.cs.som.annotate.Model;
@@ -12,6 +13,8 @@ import be.kuleuven.cs.som.annotate.Raw;
 
 import javax.xml.transform.Result;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 
 /**
  * This class represents a square or tile in the game.
@@ -89,9 +92,28 @@ public class Square {
     private Point3D pos = null;
 
     /**
-     * The avatar that's positioned on the square.
+     * The avatar that's positioned on the square. The slot is only changed through compare-and-set, so avatars entering
+     * the square at once collide one by one.
      */
-    private Avatar avatar = null;
+    private volatile Avatar avatar = null;
+
+    /**
+     * The updater for the avatar slot of squares.
+     */
+    private static final AtomicReferenceFieldUpdater<Square, Avatar> AVATAR =
+            AtomicReferenceFieldUpdater.newUpdater(Square.class, Avatar.class, "avatar");
+
+    /**
+     * The number of random sources handed out for avatars coming onto the square, so repeated moves onto the square
+     * in the same tick draw different numbers.
+     */
+    private volatile long draws = 0;
+
+    /**
+     * The updater for the number of draws of squares.
+     */
+    private static final AtomicLongFieldUpdater<Square> DRAWS =
+            AtomicLongFieldUpdater.newUpdater(Square.class, "draws");
 
     /**
      * Stores the temperature of the square in degrees Celsius.
@@ -119,6 +141,16 @@ public class Square {
      */
     private Map<Direction, Border> borders = new HashMap<>();
 
+    /**
+     * The chunk the square belongs to in the snapshots of its dungeon, null if no snapshots are taken.
+     */
+    private volatile SnapshotTracker.Chunk snapshotChunk = null;
+
+    /**
+     * The field of view last computed from the square, null if none was computed.
+     */
+    private volatile LineOfSight.View view = null;
+
     /**
      * Creates a new instance of a square with a given temperature and humidity.
      *
@@ -190,6 +222,48 @@ public class Square {
         return dungeon;
     }
 
+    /**
+     * Returns the random source deciding the random outcomes on this square, the one of its dungeon if the square is
+     * part of a dungeon.
+     *
+     * @return  | if (getDungeon() != null)
+     *          |   result == getDungeon().getRandomSource()
+     *          | else result == Tools.getRandomSource()
+     */
+    public RandomSource getRandomSource() {
+        Dungeon<?> dungeon = this.dungeon;
+        return (dungeon != null) ? dungeon.getRandomSource() : Tools.getRandomSource();
+    }
+
+    /**
+     * Returns the random source for an avatar coming from the given square onto this square, derived from the seed of
+     * the random source of this square, the tick of its dungeon, the number of random sources handed out for this
+     * square before and the positions of both squares. The numbers drawn from it do not depend on the numbers other
+     * threads drew from the random source of the square, only on the order in which avatars come onto this square.
+     *
+     * @param   from
+     *          The square the avatar comes from, null if it is not on a square.
+     */
+    @Model
+    RandomSource getRandomSource(Square from) {
+        Dungeon<?> dungeon = this.dungeon;
+        long tick = (dungeon != null) ? dungeon.getTick() : 0;
+        long draw = DRAWS.getAndIncrement(this);
+        long key = RandomSource.mix(tick * RandomSource.GOLDEN_GAMMA + key(this));
+        return getRandomSource().derive(RandomSource.mix(key + draw * RandomSource.GOLDEN_GAMMA) ^ key(from));
+    }
+
+    /**
+     * Internal method to derive a key from the absolute position of a square, 0 for no square.
+     */
+    private static long key(Square square) {
+        Point3D pos = (square != null) ? square.getAbsolutePos() : null;
+        if (pos == null)
+            return 0;
+        return RandomSource.mix(pos.getX() * 0x9E3779B97F4A7C15L + pos.getY() * 0xC2B2AE3D27D4EB4FL +
+                pos.getZ() * 0x165667B19E3779F9L);
+    }
+
     /**
      * Sets the dungeon to which the square will be linked.
      *
@@ -215,38 +289,38 @@ public class Square {
 
     /**
      * Returns the relative position of the square in it's parent dungeon if it is assigned to one. If the square has
-     * not yet been assigned to a dungeon, null is returned. The returned object is a clone of the internal object to
-     * prevent the internal data from being modified.
+     * not yet been assigned to a dungeon, null is returned. Points are immutable, so the position is not copied.
      */
     public Point3D getPos() {
-        if (pos == null)
-            return null;
-        else
-            return (Point3D) pos.clone();
+        return pos;
     }
 
     /**
      * Returns the absolute position of the square on the playing field if it is assigned to one. If the square has not
-     * yet been assigned to a dungeon, null is returned. The returned object is a clone of the internal object to
-     * prevent the internal data from being modified.
+     * yet been assigned to a dungeon, null is returned.
      *
-     * @result  If the square has a parent dungeon, the absolute position is returned, recursively factoring in that
-     *          parent.
-     *          | if ((this.getDungeonAt() != null) && (this.getPos() != null))
-     *          |   result == this.getDungeonAt().getPos().add(this.getPos())
+     * @result  If the square has a parent dungeon, the absolute position is returned, recursively factoring in the
+     *          dungeons containing it.
+     *          | if ((this.getDungeon() != null) && (this.getDungeon().getAbsolutePos() != null))
+     *          |   result == this.getDungeon().getAbsolutePos().add(this.getPos())
+     * @result  If the dungeon of the square is not part of another dungeon, the position in that dungeon is returned.
+     *          | if ((this.getDungeon() != null) && (this.getDungeon().getAbsolutePos() == null))
+     *          |   result == this.getPos()
      * @result  If the square does not have a parent dungeon, null is returned.
-     *          | if ((this.getDungeonAt() == null) || (this.getPos() == null))
+     *          | if ((this.getDungeon() == null) || (this.getPos() == null))
      *          |   result == null;
      */
     public Point3D getAbsolutePos() {
-        if ((this.getDungeon() != null) && (this.getPos() != null))
-            return this.getDungeon().getPos().add(this.getPos());
-        else return null;
+        if ((this.getDungeon() == null) || (this.getPos() == null))
+            return null;
+        Point3D res = this.getPos();
+        for (Dungeon<?> dungeon = this.getDungeon(); dungeon.getPos() != null; dungeon = dungeon.getDungeon())
+            res = dungeon.getPos().add(res);
+        return res;
     }
 
     /**
-     * Sets the position of the square in it's dungeon. The saved position is cloned to prevent the internal data from
-     * being modified.
+     * Sets the position of the square in it's dungeon.
      *
      * @param   pos
      *          The given position.
@@ -255,7 +329,7 @@ public class Square {
      */
     @Model
     void setPos(Point3D pos) {
-        this.pos = (Point3D) pos.clone();
+        this.pos = pos;
     }
 
     /**
@@ -288,6 +362,10 @@ public class Square {
             this.temp = temp;
         else
             throw new IllegalArgumentException("Invalid temperature given!");
+        DungeonJournal journal = getJournal();
+        if (journal != null)
+            journal.logSetTemp(this);
+        publish(DungeonEvent.Type.CLIMATE_CHANGED, null, null);
     }
 
     /**
@@ -412,6 +490,10 @@ public class Square {
     public void setHumidity(double humidity) {
         assert(isValidHumidity(humidity) && canChangeHumidity());
         this.humidity = Tools.roundTo(humidity, 2);
+        DungeonJournal journal = getJournal();
+        if (journal != null)
+            journal.logSetHumidity(this);
+        publish(DungeonEvent.Type.CLIMATE_CHANGED, null, null);
     }
 
     /**
@@ -472,6 +554,7 @@ public class Square {
     @Basic
     public void setSlipperyFloor(boolean slipperyFloor) {
         this.slipperyFloor = slipperyFloor;
+        changed();
     }
 
     /**
@@ -547,6 +630,7 @@ public class Square {
             old.setSquare(null);
             border.setSquare(this);
             getBorders().put(dir, border);
+            changed();
             return old;
         }
         return null;
@@ -587,10 +671,16 @@ public class Square {
                     old = neighbour.updateBorder(newBorder, dir.opposite());
                     old.setAdjacent(null);
                 }
+                DungeonMetrics.borderReplaced();
             } else {
                 getBorders().put(dir, border);
                 border.setSquare(this);
             }
+            // Only a border which was actually set is recorded and reported
+            DungeonJournal journal = getJournal();
+            if (journal != null)
+                journal.logSetBorder(this, dir, border);
+            publish(DungeonEvent.Type.BORDER_CHANGED, dir, null);
         }
     }
 
@@ -639,17 +729,26 @@ public class Square {
         if (dir == null)
             throw new IllegalArgumentException("The given border direction is not valid!");
 
-        this.setBorder(new NoBorder(), dir);
-        square.setBorder(new NoBorder(), dir);
-
-        double newHumidity = (getHumidity() + square.getHumidity()) / 2;
-        this.setHumidity(newHumidity);
-        square.setHumidity(newHumidity);
-
-        double weight = 2 * (1 - MERGE_WEIGHT) * this.getHumidity() / (square.getHumidity() + this.getHumidity());
-        double newTemp = ((2 - weight) * square.getTemp() + weight * this.getTemp()) / 2;
-        square.setTemp((int) Math.round(newTemp));
-        this.setTemp((int) Math.round(newTemp));
+        DungeonJournal journal = getJournal();
+        boolean log = (journal != null) && journal.mute();
+        try {
+            this.setBorder(new NoBorder(), dir);
+            square.setBorder(new NoBorder(), dir);
+
+            double newHumidity = (getHumidity() + square.getHumidity()) / 2;
+            this.setHumidity(newHumidity);
+            square.setHumidity(newHumidity);
+
+            double weight = 2 * (1 - MERGE_WEIGHT) * this.getHumidity() / (square.getHumidity() + this.getHumidity());
+            double newTemp = ((2 - weight) * square.getTemp() + weight * this.getTemp()) / 2;
+            square.setTemp((int) Math.round(newTemp));
+            this.setTemp((int) Math.round(newTemp));
+        } finally {
+            if (log)
+                journal.unmute();
+        }
+        if (log)
+            journal.logMerge(this, square, dir);
     }
 
     /**
@@ -657,6 +756,122 @@ public class Square {
      */
     protected void linked() { }
 
+    /**
+     * Must be called by teleport squares after a destination has been added to them, so the change can be recorded in
+     * the journal of the dungeon and the teleport version of the dungeon changes.
+     *
+     * @param   dest
+     *          The destination square that was added.
+     * @param   weight
+     *          The weight that was added to the destination.
+     */
+    protected final void destinationAdded(Square dest, int weight) {
+        if (getDungeon() != null)
+            getDungeon().teleportChanged();
+        DungeonJournal journal = getJournal();
+        if (journal != null)
+            journal.logAddDest(this, dest, weight);
+    }
+
+    /**
+     * Internal method to report a change made to this square to the listeners of its dungeon. Nothing is reported if
+     * the square is not assigned to a dungeon.
+     *
+     * @param   type
+     *          The type of the change.
+     * @param   dir
+     *          The direction of the changed border, null if no border changed.
+     * @param   avatar
+     *          The avatar that moved or was killed, null if no avatar was involved.
+     */
+    @Model
+    void publish(DungeonEvent.Type type, Direction dir, Avatar avatar) {
+        changed();
+        if (getDungeon() != null)
+            getDungeon().publish(type, this, pos, dir, avatar);
+    }
+
+    /**
+     * Internal method to return the journal of the dungeon the square is assigned to.
+     *
+     * @return  The journal of the dungeon, or null if the square is not assigned to a dungeon or the dungeon has no
+     *          journal.
+     *          | if (getDungeon() == null)
+     *          |   result == null
+     *          | else result == getDungeon().getJournal()
+     */
+    @Model
+    DungeonJournal getJournal() {
+        return (getDungeon() == null) ? null : getDungeon().getJournal();
+    }
+
+    /**
+     * Internal method to return the avatar index of the dungeon the square is assigned to.
+     *
+     * @return  The avatar index of the outermost dungeon containing the square, or null if the square is not assigned
+     *          to a dungeon or no index was asked for.
+     *          | if (getDungeon() == null)
+     *          |   result == null
+     *          | else result == getDungeon().findAvatarIndex()
+     */
+    @Model
+    AvatarIndex findAvatarIndex() {
+        Dungeon<?> dungeon = getDungeon();
+        return (dungeon == null) ? null : dungeon.findAvatarIndex();
+    }
+
+    /**
+     * Returns the chunk the square belongs to in the snapshots of its dungeon, null if no snapshots are taken.
+     */
+    @Model
+    SnapshotTracker.Chunk getSnapshotChunk() {
+        return snapshotChunk;
+    }
+
+    /**
+     * Sets the chunk the square belongs to in the snapshots of its dungeon.
+     *
+     * @param   chunk
+     *          The given chunk, null if no snapshots are taken.
+     */
+    @Model
+    void setSnapshotChunk(SnapshotTracker.Chunk chunk) {
+        this.snapshotChunk = chunk;
+    }
+
+    /**
+     * Returns the field of view last computed from the square, null if none was computed.
+     */
+    @Model
+    LineOfSight.View getView() {
+        return view;
+    }
+
+    /**
+     * Sets the field of view last computed from the square.
+     *
+     * @param   view
+     *          The given field of view.
+     */
+    @Model
+    void setView(LineOfSight.View view) {
+        this.view = view;
+    }
+
+    /**
+     * Internal method to record that the state of the square changed, so the next snapshot of its dungeon copies the
+     * chunk it belongs to and a dungeon storing its squares outside of the heap writes it back.
+     */
+    @Model
+    void changed() {
+        SnapshotTracker.Chunk chunk = snapshotChunk;
+        if (chunk != null)
+            chunk.written();
+        Dungeon<?> dungeon = getDungeon();
+        if (dungeon != null)
+            dungeon.reportChanged(this);
+    }
+
     /**
      * Internal method to link 2 squares together.
      *
@@ -702,11 +917,10 @@ public class Square {
         Border border = this.getBorder(dir);
         Border border2 = square.getBorder(dir.opposite());
         if (!(border.getClass().getName().equals(border2.getClass().getName()))) {
-            if (this.canChangeBorder() && !square.canChangeBorder())
-                border = border2;
-            else if (!(this.canChangeBorder() && square.canChangeBorder()))
+            if (!this.canChangeBorder() && !square.canChangeBorder())
                 throw new IllegalArgumentException("Can't change the border of 2 new neighbouring squares!");
-            else if (!border2.overridden(border))
+            // The border of a square which can't change its borders is kept, otherwise the strongest border is kept
+            if (!square.canChangeBorder() || (this.canChangeBorder() && !border2.overridden(border)))
                 border = border2;
         }
         // Link the squares
@@ -721,6 +935,7 @@ public class Square {
         // Notify both squares that they're linked
         this.linked();
         square.linked();
+        DungeonMetrics.linked();
     }
 
     /**
@@ -736,8 +951,8 @@ public class Square {
                 border.getAdjacent().setAdjacent(null);
             border.setAdjacent(null);
         }
-        setDungeon(null);
-        setPos(null);
+        this.dungeon = null;
+        this.pos = null;
     }
 
     /**
@@ -786,8 +1001,11 @@ public class Square {
             return false;
         if ((square == null) || (square.isSolid()))
             return false;
+        long start = DungeonMetrics.start();
         List<Square> space = getDungeon().getTeleSpace(getPos());
-        return space.contains(square);
+        boolean res = space.contains(square);
+        DungeonMetrics.reachChecked(start);
+        return res;
     }
 
     /**
@@ -864,31 +1082,89 @@ public class Square {
     }
 
     /**
-     * Internal method to assign an avatar to a square.
+     * Internal method to assign an avatar to a square. If another avatar is positioned on the square, one of both
+     * avatars is killed.
      *
      * @param   avatar
-     *          The given avatar
-     * @throws  IllegalArgumentException
-     *          Throws an illegal argument exception if the given avatar is invalid.
-     *          | avatar == null
+     *          The given avatar, null to clear the square.
      * @throws  IllegalArgumentException
      *          Throws an illegal argument exception if the square is solid.
      *          | this.isSolid() == true
-     * @post    The new avatar equals the given avatar.
-     *          | new.getAvatar() == avatar
+     * @effect  If an avatar is given, it enters the square and the avatar that loses the collision is killed.
+     *          | if (avatar != null && occupy(avatar, avatar.getSquare()) != null)
+     *          |   occupy(avatar, avatar.getSquare()).kill()
+     * @post    If no avatar is given, no avatar is positioned on the square.
+     *          | if (avatar == null)
+     *          |   new.getAvatar() == null
      */
     protected void setAvatar(Avatar avatar) throws IllegalArgumentException {
         if (this.isSolid())
             throw new IllegalArgumentException("Can't position an avatar on a solid square!");
-        if (avatar == null)
-            this.avatar = null;
-        else if (this.avatar == null)
-            this.avatar = avatar;
-        else
-            if (Tools.randBool()) {
-                this.avatar.kill();
-                this.avatar = avatar;
-            } else avatar.kill();
+        if (avatar == null) {
+            Avatar occupant = this.avatar;
+            while ((occupant != null) && !vacate(occupant))
+                occupant = this.avatar;
+        } else {
+            long start = DungeonTrace.start();
+            Avatar loser = occupy(avatar, avatar.getSquare());
+            if (loser != null) {
+                loser.kill();
+                DungeonTrace.commit(DungeonTrace.Kind.COLLISION_KILL, start, 1, loser == avatar);
+            }
+        }
+    }
+
+    /**
+     * Internal method to let an avatar enter the square. If another avatar is positioned on the square, one of both
+     * survives at random. The outcome is decided atomically, so exactly one avatar is left on the square when several
+     * avatars enter it at once. The loser is not killed by this method. The outcome is drawn from the stream for the
+     * current tick, the number of draws for the square and both squares, so it does not depend on the timing of
+     * other threads.
+     *
+     * @param   avatar
+     *          The given avatar.
+     * @param   from
+     *          The square the avatar comes from, null if it is not on a square.
+     * @return  The avatar that lost the collision, either the given avatar or the avatar it replaced, or null if the
+     *          square was free.
+     */
+    @Model
+    Avatar occupy(Avatar avatar, Square from) {
+        RandomSource random = null;
+        while (true) {
+            Avatar occupant = this.avatar;
+            if (occupant == null) {
+                if (AVATAR.compareAndSet(this, null, avatar)) {
+                    changed();
+                    return null;
+                }
+            } else {
+                if (random == null)
+                    random = getRandomSource(from);
+                if (!random.nextBoolean())
+                    return avatar;
+                if (AVATAR.compareAndSet(this, occupant, avatar)) {
+                    changed();
+                    return occupant;
+                }
+            }
+        }
+    }
+
+    /**
+     * Internal method to let an avatar leave the square.
+     *
+     * @param   avatar
+     *          The given avatar.
+     * @return  True if the given avatar was positioned on the square, false if it has been replaced by another
+     *          avatar.
+     */
+    @Model
+    boolean vacate(Avatar avatar) {
+        if (!AVATAR.compareAndSet(this, avatar, null))
+            return false;
+        changed();
+        return true;
     }
 
 }
\ No newline at end of file
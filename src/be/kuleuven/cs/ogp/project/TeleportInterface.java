@@ -1,5 +1,7 @@
 package be.kuleuven.cs.ogp.project;
 
+import be.kuleuven.cs.ogp.project.tools.RandomSource;
+
 import java.util.List;
 
 /**
@@ -22,18 +24,59 @@ public interface TeleportInterface {
      */
     public void addDest(Square square);
 
+    /**
+     * Adds a destination with a weight, or adds the weight to the weight of the destination if it is already present.
+     *
+     * @param   square
+     *          The given square.
+     * @param   weight
+     *          The given weight.
+     * @pre     The given square must be valid, not solid, the current square must be in a dungeon and the given square
+     *          in the same one.
+     *          | (square != null) && (!square.isSolid()) && (this.getDungeonAt() != null) &&
+     *          |   this.getDungeonAt().equals(square.getDungeonAt()))
+     * @throws  IllegalArgumentException
+     *          Throws an illegal argument exception if the given weight is invalid.
+     *          | weight < 1
+     * @post    The weight of the given square is increased by the given weight.
+     *          | new.getWeight(square) == getWeight(square) + weight
+     */
+    public void addDest(Square square, int weight) throws IllegalArgumentException;
+
+    /**
+     * Returns the weight of a destination, 0 if the given square is not a destination.
+     *
+     * @param   square
+     *          The given square.
+     */
+    public int getWeight(Square square);
+
     /**
      * Returns a random destination square to teleport to.
      *
      * @return  If there's no destination squares, the method returns null.
      *          | if (getDest().size() == 0)
      *          |   result == null
-     * @return  If there's one or more destination squares, the method returns a random one.
-     *          | if (getDest().size() != 0)
-     *          |   result == getDest().get(Tools.random(getDest().size()))
+     * @return  If there's one or more destination squares, the method returns a random one, drawn with the weights of
+     *          the destinations.
      */
     public Square teleport();
 
+    /**
+     * Returns a random square reached by teleporting until a square is reached which is not a teleport, or a teleport
+     * without destinations.
+     *
+     * @param   random
+     *          The random source to draw the square with.
+     * @return  If there's no destination squares, the method returns null.
+     *          | if (getDest().size() == 0)
+     *          |   result == null
+     * @throws  IllegalStateException
+     *          Throws an illegal state exception if the chains starting at this teleport can reach a cycle of teleports
+     *          which can not be left.
+     */
+    public Square teleportTerminal(RandomSource random) throws IllegalStateException;
+
     /**
      * Returns the list containing all destination squares.
      */
@@ -0,0 +1,151 @@
+package be.kuleuven.cs.ogp.project;
+
+import be.kuleuven.cs.som.annotate.Basic;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This class computes the fields of view of many squares at once, in parallel. Every thread computes the fields of
+ * view of ranges of the squares with its own line of sight, which is kept between calls. As the lines of sight are
+ * shared by all calls, a vision computes the fields of view of one call at a time.
+ *
+ * The dungeons should not be changed by other threads while fields of view are being computed.
+ *
+ * @invar   The number of threads is at least 1.
+ *          | getThreads() >= 1
+ *
+ * @author  Frederic Hannes
+ */
+public class Vision implements Closeable {
+
+    /**
+     * The number of squares in a unit of work.
+     */
+    private static final int CHUNK_SIZE = 64;
+
+    private final int threads;
+
+    /**
+     * The workers, null if the fields of view are computed on the calling thread.
+     */
+    private final ExecutorService workers;
+
+    /**
+     * The lines of sight, one for every thread.
+     */
+    private final LineOfSight[] sights;
+
+    /**
+     * Creates a new vision.
+     *
+     * @param   threads
+     *          The number of threads to compute the fields of view on.
+     * @throws  IllegalArgumentException
+     *          Throws an illegal argument exception if the given number of threads is invalid.
+     *          | threads < 1
+     */
+    public Vision(int threads) throws IllegalArgumentException {
+        if (threads < 1)
+            throw new IllegalArgumentException("Invalid number of threads!");
+        this.threads = threads;
+        this.sights = new LineOfSight[threads];
+        for (int t = 0; t < threads; t++)
+            sights[t] = new LineOfSight();
+        if (threads == 1) {
+            this.workers = null;
+        } else {
+            this.workers = Executors.newFixedThreadPool(threads - 1, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable task) {
+                    Thread thread = new Thread(task, "vision");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+    }
+
+    /**
+     * Returns the number of threads the fields of view are computed on.
+     */
+    @Basic
+    public int getThreads() {
+        return threads;
+    }
+
+    /**
+     * Returns the fields of view of the given squares.
+     *
+     * @param   viewers
+     *          The given squares.
+     * @param   radius
+     *          The radius of the fields of view.
+     * @throws  IllegalArgumentException
+     *          Throws an illegal argument exception if the squares are invalid, if one of the squares is invalid or not
+     *          part of a dungeon, or if the radius is invalid.
+     *          | (viewers == null) || (radius < 0) || (radius > LineOfSight.MAX_RADIUS) ||
+     *          |   (for some viewer in viewers: (viewer == null) || (viewer.getDungeon() == null))
+     * @return  The field of view of every square, at the same index.
+     *          | for each i in 0..viewers.length - 1:
+     *          |   result[i] == new LineOfSight().getFieldOfView(viewers[i], radius)
+     */
+    public synchronized LineOfSight.View[] getFieldsOfView(final Square[] viewers, final int radius)
+            throws IllegalArgumentException {
+        if (viewers == null)
+            throw new IllegalArgumentException("Invalid viewers!");
+        if ((radius < 0) || (radius > LineOfSight.MAX_RADIUS))
+            throw new IllegalArgumentException("Invalid radius!");
+        final LineOfSight.View[] res = new LineOfSight.View[viewers.length];
+        final AtomicInteger slots = new AtomicInteger();
+        final AtomicInteger next = new AtomicInteger();
+        run(new Runnable() {
+            @Override
+            public void run() {
+                LineOfSight sight = sights[slots.getAndIncrement()];
+                int start;
+                while ((start = next.getAndAdd(CHUNK_SIZE)) < viewers.length)
+                    sight.getFieldsOfView(viewers, start, Math.min(start + CHUNK_SIZE, viewers.length), radius, res);
+            }
+        });
+        return res;
+    }
+
+    /**
+     * Internal method to run a task on all threads, including the calling thread.
+     */
+    private void run(Runnable task) {
+        if (workers == null) {
+            task.run();
+            return;
+        }
+        List<Future<?>> futures = new ArrayList<>(threads - 1);
+        for (int t = 1; t < threads; t++)
+            futures.add(workers.submit(task));
+        task.run();
+        try {
+            for (Future<?> future : futures)
+                future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("The vision was interrupted!");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * Stops the threads of the vision.
+     */
+    @Override
+    public void close() {
+        if (workers != null)
+            workers.shutdown();
+    }
+
+}
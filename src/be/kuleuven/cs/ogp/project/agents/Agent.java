@@ -0,0 +1,25 @@
+package be.kuleuven.cs.ogp.project.agents;
+
+import be.kuleuven.cs.ogp.project.Avatar;
+
+/**
+ * The interface for the behaviour of an avatar run by an agent runtime. An agent is written as a sequence of steps:
+ * every step senses and plans, then returns what the agent waits for before its next step, like moving or a door
+ * opening. Agents keep their own progress between steps.
+ *
+ * @author  Frederic Hannes
+ */
+public interface Agent {
+
+    /**
+     * Is called to run the next step of the agent.
+     *
+     * @param   avatar
+     *          The avatar controlled by the agent, which is alive.
+     * @param   tick
+     *          The tick in which the step runs.
+     * @return  What the agent waits for before its next step, null if the agent is done.
+     */
+    public Wait act(Avatar avatar, long tick);
+
+}
@@ -0,0 +1,297 @@
+package be.kuleuven.cs.ogp.project.agents;
+
+import be.kuleuven.cs.ogp.project.Avatar;
+import be.kuleuven.cs.ogp.project.Dungeon;
+import be.kuleuven.cs.ogp.project.DungeonEvent;
+import be.kuleuven.cs.ogp.project.DungeonListener;
+import be.kuleuven.cs.ogp.project.Simulation;
+import be.kuleuven.cs.ogp.project.tools.TimingWheel;
+import be.kuleuven.cs.som.annotate.Basic;
+
+import java.io.Closeable;
+import java.util.*;
+
+/**
+ * This class runs the agents of many avatars on the tick clock of a simulation. Every tick, the agents whose wait is
+ * over run their next step, in the order in which they were spawned, and the simulation then makes the moves they
+ * asked for. Agents waiting for a number of ticks are held in a timing wheel and cost nothing until they are due,
+ * unlike agents waiting for a condition, which is checked once every tick.
+ *
+ * The runtime owns its agents: an agent is cancelled as soon as its avatar is killed, when it is cancelled explicitly
+ * or when the runtime is closed. The runtime listens to the dungeons of its avatars for that, and delivers their
+ * events after every tick. An agent which throws an exception is cancelled and the exception is passed on to the
+ * caller of tick.
+ *
+ * @author  Frederic Hannes
+ */
+public class AgentRuntime implements Closeable {
+
+    /**
+     * An agent and its progress.
+     */
+    private static class Task {
+
+        private final long id;
+        private final Avatar avatar;
+        private final Agent agent;
+
+        /**
+         * The timer of the agent, for agents waiting for a number of ticks.
+         */
+        private TimingWheel.Timer<Task> timer;
+
+        private Wait.Condition condition;
+
+        private boolean cancelled = false;
+
+        private Task(long id, Avatar avatar, Agent agent) {
+            this.id = id;
+            this.avatar = avatar;
+            this.agent = agent;
+        }
+
+    }
+
+    /**
+     * Orders tasks by the order in which they were spawned.
+     */
+    private static final Comparator<Task> BY_ID = new Comparator<Task>() {
+        @Override
+        public int compare(Task t1, Task t2) {
+            return (t1.id < t2.id) ? -1 : (t1.id == t2.id) ? 0 : 1;
+        }
+    };
+
+    private final Simulation simulation;
+
+    /**
+     * The agents, by their avatar.
+     */
+    private final Map<Avatar, Task> tasks = new IdentityHashMap<>();
+
+    /**
+     * The agents which run in the next tick, because they were spawned or moved.
+     */
+    private List<Task> ready = new ArrayList<>();
+
+    /**
+     * The agents waiting for a number of ticks.
+     */
+    private final TimingWheel<Task> sleeping;
+
+    /**
+     * The agents waiting for a condition.
+     */
+    private List<Task> waiting = new ArrayList<>();
+
+    private long nextId = 0;
+
+    /**
+     * The outermost dungeons of the avatars of the agents, which the runtime listens to.
+     */
+    private final Set<Dungeon<?>> dungeons = Collections.newSetFromMap(new IdentityHashMap<Dungeon<?>, Boolean>());
+
+    /**
+     * Cancels the agents of the avatars which are killed.
+     */
+    private final DungeonListener listener = new DungeonListener() {
+        @Override
+        public void dungeonChanged(Dungeon<?> dungeon, List<DungeonEvent> events) {
+            for (DungeonEvent event : events)
+                if (event.getType() == DungeonEvent.Type.AVATAR_KILLED)
+                    cancel(event.getAvatar());
+        }
+    };
+
+    /**
+     * Creates a new agent runtime.
+     *
+     * @param   simulation
+     *          The simulation which makes the moves of the agents.
+     * @throws  IllegalArgumentException
+     *          Throws an illegal argument exception if the given simulation is invalid.
+     *          | simulation == null
+     */
+    public AgentRuntime(Simulation simulation) throws IllegalArgumentException {
+        if (simulation == null)
+            throw new IllegalArgumentException("Invalid simulation!");
+        this.simulation = simulation;
+        this.sleeping = new TimingWheel<>(simulation.getTick());
+    }
+
+    /**
+     * Returns the simulation which makes the moves of the agents.
+     */
+    @Basic
+    public Simulation getSimulation() {
+        return simulation;
+    }
+
+    /**
+     * Returns the number of agents which have not finished or been cancelled yet.
+     */
+    public int getAgents() {
+        return tasks.size();
+    }
+
+    /**
+     * Returns true if an agent runs for the given avatar.
+     *
+     * @param   avatar
+     *          The given avatar.
+     */
+    public boolean isRunning(Avatar avatar) {
+        return tasks.containsKey(avatar) && avatar.isAlive();
+    }
+
+    /**
+     * Starts an agent for an avatar. Its first step runs in the next tick.
+     *
+     * @param   avatar
+     *          The given avatar.
+     * @param   agent
+     *          The given agent.
+     * @throws  IllegalArgumentException
+     *          Throws an illegal argument exception if the given avatar is invalid or dead.
+     *          | (avatar == null) || !avatar.isAlive()
+     * @throws  IllegalArgumentException
+     *          Throws an illegal argument exception if the given agent is invalid.
+     *          | agent == null
+     * @throws  IllegalArgumentException
+     *          Throws an illegal argument exception if an agent already runs for the given avatar.
+     *          | isRunning(avatar)
+     */
+    public void spawn(Avatar avatar, Agent agent) throws IllegalArgumentException {
+        if ((avatar == null) || !avatar.isAlive())
+            throw new IllegalArgumentException("Invalid avatar!");
+        if (agent == null)
+            throw new IllegalArgumentException("Invalid agent!");
+        if (tasks.containsKey(avatar))
+            throw new IllegalArgumentException("An agent already runs for the given avatar!");
+        Task task = new Task(nextId++, avatar, agent);
+        tasks.put(avatar, task);
+        ready.add(task);
+        Dungeon<?> dungeon = avatar.getSquare().getDungeon();
+        if (dungeon != null) {
+            while (dungeon.getDungeon() != null)
+                dungeon = dungeon.getDungeon();
+            if (dungeons.add(dungeon))
+                dungeon.subscribe(listener);
+        }
+    }
+
+    /**
+     * Cancels the agent of an avatar. Does nothing if no agent runs for the avatar.
+     *
+     * @param   avatar
+     *          The given avatar.
+     */
+    public void cancel(Avatar avatar) {
+        Task task = tasks.remove(avatar);
+        if (task != null) {
+            task.cancelled = true;
+            if (task.timer != null)
+                task.timer.cancel();
+        }
+    }
+
+    /**
+     * Runs a tick: the agents which are due run their next step, after which the simulation runs a tick.
+     *
+     * @return  The number of agents which ran a step.
+     * @throws  RuntimeException
+     *          Passes on the first exception thrown by an agent, after the tick has been run.
+     */
+    public int tick() {
+        long now = simulation.getTick() + 1;
+        List<Task> due = ready;
+        ready = new ArrayList<>();
+        sleeping.advanceTo(now, due);
+        List<Task> stillWaiting = new ArrayList<>(waiting.size());
+        for (Task task : waiting) {
+            if (task.cancelled)
+                continue;
+            if (!task.avatar.isAlive() || task.condition.holds())
+                due.add(task);
+            else
+                stillWaiting.add(task);
+        }
+        waiting = stillWaiting;
+        Collections.sort(due, BY_ID);
+        int steps = 0;
+        RuntimeException failure = null;
+        for (Task task : due) {
+            if (task.cancelled)
+                continue;
+            if (!task.avatar.isAlive()) {
+                cancel(task.avatar);
+                continue;
+            }
+            try {
+                resume(task, now);
+            } catch (RuntimeException e) {
+                if (failure == null)
+                    failure = e;
+            }
+            steps++;
+        }
+        simulation.tick();
+        for (Dungeon<?> dungeon : new ArrayList<>(dungeons))
+            dungeon.flushEvents();
+        if (failure != null)
+            throw failure;
+        return steps;
+    }
+
+    /**
+     * Internal method to run the next step of an agent and queue it according to its wait.
+     */
+    private void resume(Task task, long now) {
+        Wait wait;
+        try {
+            wait = task.agent.act(task.avatar, now);
+        } catch (RuntimeException e) {
+            cancel(task.avatar);
+            throw e;
+        }
+        if ((wait == null) || task.cancelled) {
+            cancel(task.avatar);
+            return;
+        }
+        task.condition = null;
+        task.timer = null;
+        switch (wait.getKind()) {
+            case TICKS:
+                task.timer = sleeping.schedule(task, now + wait.getTicks());
+                break;
+            case MOVE:
+                try {
+                    simulation.submit(task.avatar, wait.getDirection());
+                } catch (RuntimeException e) {
+                    cancel(task.avatar);
+                    throw e;
+                }
+                ready.add(task);
+                break;
+            case CONDITION:
+                task.condition = wait.getCondition();
+                waiting.add(task);
+                break;
+        }
+    }
+
+    /**
+     * Cancels all agents and stops listening to the dungeons of their avatars.
+     */
+    @Override
+    public void close() {
+        for (Task task : new ArrayList<>(tasks.values()))
+            cancel(task.avatar);
+        ready.clear();
+        waiting.clear();
+        for (Dungeon<?> dungeon : dungeons)
+            dungeon.unsubscribe(listener);
+        dungeons.clear();
+    }
+
+}
@@ -0,0 +1,155 @@
+package be.kuleuven.cs.ogp.project.agents;
+
+import be.kuleuven.cs.ogp.project.Direction;
+import be.kuleuven.cs.ogp.project.borders.Door;
+import be.kuleuven.cs.som.annotate.Basic;
+
+/**
+ * This class represents what an agent waits for before its next step.
+ *
+ * @author  Frederic Hannes
+ */
+public class Wait {
+
+    /**
+     * The condition an agent can wait for.
+     */
+    public interface Condition {
+
+        /**
+         * Returns true if the agent can continue.
+         */
+        public boolean holds();
+
+    }
+
+    /**
+     * The kinds of waits.
+     */
+    public enum Kind {
+        TICKS, MOVE, CONDITION
+    }
+
+    private final Kind kind;
+
+    /**
+     * The number of ticks to wait.
+     */
+    private final long ticks;
+
+    /**
+     * The direction to move in.
+     */
+    private final Direction direction;
+
+    private final Condition condition;
+
+    /**
+     * Internal constructor for the factory methods.
+     */
+    private Wait(Kind kind, long ticks, Direction direction, Condition condition) {
+        this.kind = kind;
+        this.ticks = ticks;
+        this.direction = direction;
+        this.condition = condition;
+    }
+
+    /**
+     * Returns a wait for a number of ticks.
+     *
+     * @param   ticks
+     *          The given number of ticks.
+     * @throws  IllegalArgumentException
+     *          Throws an illegal argument exception if the given number of ticks is invalid.
+     *          | ticks < 1
+     */
+    public static Wait ticks(long ticks) throws IllegalArgumentException {
+        if (ticks < 1)
+            throw new IllegalArgumentException("Invalid number of ticks!");
+        return new Wait(Kind.TICKS, ticks, null, null);
+    }
+
+    /**
+     * Returns a wait for a move of the avatar. The move is made in the current tick, the agent continues in the next
+     * tick, after which it can check whether the avatar moved.
+     *
+     * @param   dir
+     *          The direction to move in.
+     * @throws  IllegalArgumentException
+     *          Throws an illegal argument exception if the given direction is invalid.
+     *          | dir == null
+     */
+    public static Wait move(Direction dir) throws IllegalArgumentException {
+        if (dir == null)
+            throw new IllegalArgumentException("Invalid direction!");
+        return new Wait(Kind.MOVE, 1, dir, null);
+    }
+
+    /**
+     * Returns a wait for a condition, which is checked once every tick.
+     *
+     * @param   condition
+     *          The given condition.
+     * @throws  IllegalArgumentException
+     *          Throws an illegal argument exception if the given condition is invalid.
+     *          | condition == null
+     */
+    public static Wait until(Condition condition) throws IllegalArgumentException {
+        if (condition == null)
+            throw new IllegalArgumentException("Invalid condition!");
+        return new Wait(Kind.CONDITION, 0, null, condition);
+    }
+
+    /**
+     * Returns a wait for a door to open.
+     *
+     * @param   door
+     *          The given door.
+     * @throws  IllegalArgumentException
+     *          Throws an illegal argument exception if the given door is invalid.
+     *          | door == null
+     */
+    public static Wait opened(final Door door) throws IllegalArgumentException {
+        if (door == null)
+            throw new IllegalArgumentException("Invalid door!");
+        return until(new Condition() {
+            @Override
+            public boolean holds() {
+                return door.isOpen();
+            }
+        });
+    }
+
+    /**
+     * Returns the kind of wait.
+     */
+    @Basic
+    public Kind getKind() {
+        return kind;
+    }
+
+    /**
+     * Returns the number of ticks to wait.
+     */
+    @Basic
+    public long getTicks() {
+        return ticks;
+    }
+
+    /**
+     * Returns the direction to move in, null if the wait is not a move.
+     */
+    @Basic
+    public Direction getDirection() {
+        return direction;
+    }
+
+    /**
+     * Returns the condition to wait for, null if the wait is not a condition.
+     */
+    @Basic
+    public Condition getCondition() {
+        return condition;
+    }
+
+}
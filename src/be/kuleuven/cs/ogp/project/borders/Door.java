@@ -2,6 +2,7 @@ package be.kuleuven.cs.ogp.project.borders;
 
 import be.kuleuven.cs.ogp.project.Border;
 import be.kuleuven.cs.ogp.project.Direction;
+import be.kuleuven.cs.ogp.project.DungeonEvent;
 import be.kuleuven.cs.ogp.project.Square;
 import be.kuleuven.cs.som.annotate.Basic;
 import be.kuleuven.cs.som.annotate.Raw;
@@ -92,6 +93,7 @@ public class Door extends Border {
         this.opened = opened;
         if (getAdjacent() != null)
             ((Door) getAdjacent()).opened = opened;
+        stateChanged(DungeonEvent.Type.DOOR_TOGGLED);
     }
 
     /**
@@ -2,6 +2,7 @@ package be.kuleuven.cs.ogp.project.borders;
 
 import be.kuleuven.cs.ogp.project.Border;
 import be.kuleuven.cs.ogp.project.Direction;
+import be.kuleuven.cs.ogp.project.DungeonEvent;
 import be.kuleuven.cs.ogp.project.Square;
 
 /**
@@ -59,6 +60,7 @@ public class PlasticFoil extends Border {
         torn = true;
         if (getAdjacent() != null)
             ((PlasticFoil) getAdjacent()).torn = true;
+        stateChanged(DungeonEvent.Type.FOIL_TORN);
     }
 
     /**
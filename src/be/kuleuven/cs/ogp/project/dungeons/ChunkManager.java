@@ -0,0 +1,450 @@
+package be.kuleuven.cs.ogp.project.dungeons;
+
+import be.kuleuven.cs.ogp.project.Square;
+import be.kuleuven.cs.ogp.project.tools.Point3D;
+import be.kuleuven.cs.som.annotate.Basic;
+
+import java.util.*;
+
+/**
+ * This class keeps the square objects of a dungeon in memory in cubic chunks. Chunks are paged in through a pager when
+ * one of their squares is requested and the least recently used chunks are paged out again once more than the maximum
+ * number of chunks is loaded. Chunks which are pinned or which hold an avatar are never paged out. Only chunks which
+ * changed since they were paged in or last written back are written back to the store, a change is reported with
+ * changed or by storing a square with set.
+ *
+ * A chunk manager is not thread safe, it has to be used by one thread at a time.
+ *
+ * @invar   The number of loaded chunks only exceeds the maximum when no loaded chunk can be paged out.
+ *
+ * @author  Frederic Hannes
+ */
+public class ChunkManager {
+
+    /**
+     * The number of bits of a coordinate used for the position inside of a chunk.
+     */
+    public static final int CHUNK_BITS = 3;
+
+    /**
+     * The size of a chunk along every axis.
+     */
+    public static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+
+    /**
+     * The number of squares in a chunk.
+     */
+    public static final int CHUNK_VOLUME = CHUNK_SIZE * CHUNK_SIZE * CHUNK_SIZE;
+
+    /**
+     * The smallest allowed maximum number of loaded chunks, enough to hold a square and all of its neighbours.
+     */
+    public static final int MIN_CHUNKS = 8;
+
+    /**
+     * The interface for the objects which move the squares of a chunk between the store and memory.
+     */
+    public interface Pager {
+
+        /**
+         * Creates the squares of a chunk. The chunk is already registered as loaded while this method runs, so the
+         * squares created earlier can be found with getLoaded.
+         *
+         * @param   key
+         *          The key of the chunk.
+         * @param   squares
+         *          The array to store the squares in, indexed by slot.
+         */
+        public void pageIn(long key, Square[] squares);
+
+        /**
+         * Writes the state of the squares of a loaded chunk back to the store.
+         *
+         * @param   key
+         *          The key of the chunk.
+         * @param   squares
+         *          The squares of the chunk, indexed by slot.
+         */
+        public void writeBack(long key, Square[] squares);
+
+        /**
+         * Releases the squares of a chunk that is being paged out. The chunk has already been written back.
+         *
+         * @param   key
+         *          The key of the chunk.
+         * @param   squares
+         *          The squares of the chunk, indexed by slot.
+         */
+        public void pageOut(long key, Square[] squares);
+
+    }
+
+    /**
+     * A chunk of squares kept in memory.
+     */
+    private static class Chunk {
+
+        /**
+         * The squares of the chunk, indexed by slot.
+         */
+        private final Square[] squares = new Square[CHUNK_VOLUME];
+
+        /**
+         * The number of pins placed on the chunk.
+         */
+        private int pins = 0;
+
+        /**
+         * Equals true if the chunk changed since it was paged in or last written back.
+         */
+        private boolean dirty = false;
+
+        /**
+         * Equals true if the chunk is known to hold no avatar, it is cleared whenever the chunk changes.
+         */
+        private boolean vacant = false;
+
+    }
+
+    /**
+     * The pager used to move chunks in and out of memory.
+     */
+    private final Pager pager;
+
+    /**
+     * The maximum number of chunks that are kept in memory.
+     */
+    private final int maxChunks;
+
+    /**
+     * The loaded chunks in least recently used order.
+     */
+    private final LinkedHashMap<Long, Chunk> chunks = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * The chunk that was used last and its key, to skip the map lookup for repeated accesses to a chunk.
+     */
+    private long lastKey = -1;
+    private Chunk lastChunk = null;
+
+    private long hits = 0;
+    private long misses = 0;
+    private long pageIns = 0;
+    private long evictions = 0;
+
+    /**
+     * Creates a new chunk manager.
+     *
+     * @param   maxChunks
+     *          The maximum number of chunks kept in memory.
+     * @param   pager
+     *          The pager used to move chunks in and out of memory.
+     * @throws  IllegalArgumentException
+     *          Throws an illegal argument exception if the pager is invalid or the maximum is smaller than MIN_CHUNKS.
+     */
+    public ChunkManager(int maxChunks, Pager pager) throws IllegalArgumentException {
+        if (pager == null)
+            throw new IllegalArgumentException("Invalid pager!");
+        if (maxChunks < MIN_CHUNKS)
+            throw new IllegalArgumentException("At least " + MIN_CHUNKS + " chunks have to fit in memory!");
+        this.pager = pager;
+        this.maxChunks = maxChunks;
+    }
+
+    /**
+     * Returns the key of the chunk holding the given coordinates.
+     */
+    public static long chunkKey(int x, int y, int z) {
+        return Point3D.pack(x >> CHUNK_BITS, y >> CHUNK_BITS, z >> CHUNK_BITS);
+    }
+
+    /**
+     * Returns the slot of the given coordinates inside of their chunk.
+     */
+    public static int slot(int x, int y, int z) {
+        return ((z & (CHUNK_SIZE - 1)) << (2 * CHUNK_BITS)) | ((y & (CHUNK_SIZE - 1)) << CHUNK_BITS) |
+                (x & (CHUNK_SIZE - 1));
+    }
+
+    /**
+     * Returns the x-coordinate of a slot of the chunk with the given key.
+     */
+    public static int slotX(long key, int slot) {
+        return (Point3D.unpackX(key) << CHUNK_BITS) | (slot & (CHUNK_SIZE - 1));
+    }
+
+    /**
+     * Returns the y-coordinate of a slot of the chunk with the given key.
+     */
+    public static int slotY(long key, int slot) {
+        return (Point3D.unpackY(key) << CHUNK_BITS) | ((slot >> CHUNK_BITS) & (CHUNK_SIZE - 1));
+    }
+
+    /**
+     * Returns the z-coordinate of a slot of the chunk with the given key.
+     */
+    public static int slotZ(long key, int slot) {
+        return (Point3D.unpackZ(key) << CHUNK_BITS) | (slot >> (2 * CHUNK_BITS));
+    }
+
+    /**
+     * Returns the maximum number of chunks kept in memory.
+     */
+    @Basic
+    public int getMaxChunks() {
+        return maxChunks;
+    }
+
+    /**
+     * Returns the number of chunks currently in memory.
+     */
+    public int getLoadedChunks() {
+        return chunks.size();
+    }
+
+    /**
+     * Returns true if the chunk holding the given coordinates is in memory.
+     */
+    public boolean isLoaded(int x, int y, int z) {
+        return chunks.containsKey(chunkKey(x, y, z));
+    }
+
+    /**
+     * Returns the number of square lookups which found their chunk in memory.
+     */
+    @Basic
+    public long getHits() {
+        return hits;
+    }
+
+    /**
+     * Returns the number of square lookups which had to page in their chunk.
+     */
+    @Basic
+    public long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Returns the fraction of square lookups which found their chunk in memory.
+     *
+     * @return  The hit rate, 0 if no lookups have been done yet.
+     *          | result == getHits() / (getHits() + getMisses())
+     */
+    public double getHitRate() {
+        long total = hits + misses;
+        return (total == 0) ? 0 : (double) hits / total;
+    }
+
+    /**
+     * Returns the number of chunks that have been paged in.
+     */
+    @Basic
+    public long getPageIns() {
+        return pageIns;
+    }
+
+    /**
+     * Returns the number of chunks that have been paged out.
+     */
+    @Basic
+    public long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * Resets the hit, miss, page in and eviction counters.
+     */
+    public void resetStatistics() {
+        hits = 0;
+        misses = 0;
+        pageIns = 0;
+        evictions = 0;
+    }
+
+    /**
+     * Internal method to return the chunk with the given key, paging it in if needed.
+     */
+    private Chunk chunk(long key) {
+        if ((key == lastKey) && (lastChunk != null)) {
+            hits++;
+            return lastChunk;
+        }
+        Chunk chunk = chunks.get(key);
+        if (chunk != null) {
+            hits++;
+        } else {
+            misses++;
+            pageIns++;
+            chunk = new Chunk();
+            chunks.put(key, chunk);
+            pager.pageIn(key, chunk.squares);
+            // Creating the squares is not a change
+            chunk.dirty = false;
+            evict(chunk);
+        }
+        lastKey = key;
+        lastChunk = chunk;
+        return chunk;
+    }
+
+    /**
+     * Returns the square at the given coordinates, paging in its chunk if needed.
+     *
+     * @return  The square, or null if there's no square at the given coordinates.
+     */
+    public Square get(int x, int y, int z) {
+        return chunk(chunkKey(x, y, z)).squares[slot(x, y, z)];
+    }
+
+    /**
+     * Returns the square at the given coordinates if its chunk is in memory, without paging anything in.
+     *
+     * @return  The square, or null if its chunk is not loaded or there's no square at the given coordinates.
+     */
+    public Square getLoaded(int x, int y, int z) {
+        Chunk chunk = loaded(chunkKey(x, y, z));
+        return (chunk == null) ? null : chunk.squares[slot(x, y, z)];
+    }
+
+    /**
+     * Internal method to return the chunk with the given key if it is in memory, without paging it in.
+     */
+    private Chunk loaded(long key) {
+        return ((key == lastKey) && (lastChunk != null)) ? lastChunk : chunks.get(key);
+    }
+
+    /**
+     * Records that the square at the given coordinates changed, so its chunk is written back before it is paged out.
+     * Nothing is paged in if the chunk is not in memory.
+     */
+    public void changed(int x, int y, int z) {
+        Chunk chunk = loaded(chunkKey(x, y, z));
+        if (chunk != null) {
+            chunk.dirty = true;
+            chunk.vacant = false;
+        }
+    }
+
+    /**
+     * Stores a square at the given coordinates, paging in its chunk first if needed.
+     *
+     * @param   square
+     *          The given square, null to clear the position.
+     */
+    public void set(int x, int y, int z, Square square) {
+        Chunk chunk = chunk(chunkKey(x, y, z));
+        chunk.squares[slot(x, y, z)] = square;
+        chunk.dirty = true;
+        chunk.vacant = false;
+    }
+
+    /**
+     * Pins the chunk holding the given coordinates in memory, paging it in if needed. A chunk stays pinned until it
+     * has been unpinned as many times as it was pinned.
+     */
+    public void pin(int x, int y, int z) {
+        chunk(chunkKey(x, y, z)).pins++;
+    }
+
+    /**
+     * Removes a pin from the chunk holding the given coordinates.
+     *
+     * @throws  IllegalStateException
+     *          Throws an illegal state exception if the chunk is not pinned.
+     */
+    public void unpin(int x, int y, int z) throws IllegalStateException {
+        Chunk chunk = chunks.get(chunkKey(x, y, z));
+        if ((chunk == null) || (chunk.pins == 0))
+            throw new IllegalStateException("The chunk is not pinned!");
+        chunk.pins--;
+    }
+
+    /**
+     * Writes all loaded chunks which changed back to the store.
+     */
+    public void flush() {
+        for (Map.Entry<Long, Chunk> entry : chunks.entrySet())
+            writeBack(entry.getKey(), entry.getValue());
+    }
+
+    /**
+     * Internal method to write a chunk back to the store if it changed.
+     */
+    private void writeBack(long key, Chunk chunk) {
+        if (chunk.dirty) {
+            pager.writeBack(key, chunk.squares);
+            chunk.dirty = false;
+        }
+    }
+
+    /**
+     * Returns a read-only map view of the squares currently in memory. Lookups in the view never page in chunks.
+     */
+    public Map<Point3D, Square> loadedView() {
+        return new AbstractMap<Point3D, Square>() {
+            @Override
+            public Square get(Object key) {
+                if (!(key instanceof Point3D))
+                    return null;
+                Point3D pos = (Point3D) key;
+                if (!Point3D.isPackable(pos.getX() >> CHUNK_BITS, pos.getY() >> CHUNK_BITS, pos.getZ() >> CHUNK_BITS))
+                    return null;
+                return getLoaded(pos.getX(), pos.getY(), pos.getZ());
+            }
+
+            @Override
+            public boolean containsKey(Object key) {
+                return get(key) != null;
+            }
+
+            @Override
+            public Set<Map.Entry<Point3D, Square>> entrySet() {
+                Set<Map.Entry<Point3D, Square>> res = new LinkedHashSet<>();
+                for (Map.Entry<Long, Chunk> entry : chunks.entrySet())
+                    for (int slot = 0; slot < CHUNK_VOLUME; slot++) {
+                        Square square = entry.getValue().squares[slot];
+                        if (square != null)
+                            res.add(new SimpleImmutableEntry<>(new Point3D(slotX(entry.getKey(), slot),
+                                    slotY(entry.getKey(), slot), slotZ(entry.getKey(), slot)), square));
+                    }
+                return Collections.unmodifiableSet(res);
+            }
+        };
+    }
+
+    /**
+     * Internal method to page out least recently used chunks until no more than the maximum number of chunks is
+     * loaded. The given chunk, pinned chunks and chunks holding an avatar are skipped.
+     */
+    private void evict(Chunk keep) {
+        Iterator<Map.Entry<Long, Chunk>> it = chunks.entrySet().iterator();
+        while ((chunks.size() > maxChunks) && it.hasNext()) {
+            Map.Entry<Long, Chunk> entry = it.next();
+            Chunk chunk = entry.getValue();
+            if ((chunk == keep) || (chunk.pins > 0) || hasAvatar(chunk))
+                continue;
+            it.remove();
+            if (chunk == lastChunk)
+                lastChunk = null;
+            writeBack(entry.getKey(), chunk);
+            pager.pageOut(entry.getKey(), chunk.squares);
+            evictions++;
+        }
+    }
+
+    /**
+     * Returns true if an avatar is positioned on one of the squares of the given chunk. A chunk found without avatars
+     * is not searched again until it changes.
+     */
+    private static boolean hasAvatar(Chunk chunk) {
+        if (chunk.vacant)
+            return false;
+        for (Square square : chunk.squares)
+            if ((square != null) && (square.getAvatar() != null))
+                return true;
+        chunk.vacant = true;
+        return false;
+    }
+
+}
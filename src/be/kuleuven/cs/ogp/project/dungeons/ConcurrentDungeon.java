@@ -0,0 +1,532 @@
+package be.kuleuven.cs.ogp.project.dungeons;
+
+import be.kuleuven.cs.ogp.project.Border;
+import be.kuleuven.cs.ogp.project.Direction;
+import be.kuleuven.cs.ogp.project.Dungeon;
+import be.kuleuven.cs.ogp.project.DungeonSnapshot;
+import be.kuleuven.cs.ogp.project.Square;
+import be.kuleuven.cs.ogp.project.tools.Point3D;
+import be.kuleuven.cs.som.annotate.Basic;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * This class represents a dungeon which can be used by several threads at once.
+ *
+ * The squares are kept in a concurrent map and guarded by a fixed number of lock stripes. Every chunk of
+ * ChunkManager.CHUNK_SIZE squares along each axis maps to one stripe. A change locks the stripes of the square it
+ * changes and of the neighbours it can link to, always in increasing stripe order, so changes spanning several chunks
+ * can not deadlock. Reads first run optimistically without locking and are only repeated under read locks if a change
+ * was made in the meantime to one of the stripes they touched.
+ *
+ * Squares of a concurrent dungeon must be changed through the dungeon (setBorder, setTemp, setHumidity, mergeWith or
+ * update), changes made directly on a square are not guarded.
+ *
+ * Structural changes only run in parallel as long as no listeners are subscribed, as events are published to a single
+ * buffer. The snapshot tracker only locks the chunks squares are added to or removed from, and the avatar index only
+ * locks the cubes avatars move through. A snapshot holds the read locks of all stripes while it is taken, so it never
+ * sees a change made through the dungeon half done.
+ *
+ * @author  Frederic Hannes
+ */
+public class ConcurrentDungeon<T extends Square> extends Dungeon<T> {
+
+    /**
+     * The number of lock stripes used by default.
+     */
+    public static final int DEFAULT_STRIPES = 64;
+
+    /**
+     * The stamp of a stripe which was not touched by a search.
+     */
+    private static final long UNTOUCHED = -2;
+
+    /**
+     * A lock stripe which supports optimistic reads. The version is odd while a writer holds the stripe.
+     */
+    private static class Stripe {
+
+        private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+        private final AtomicLong version = new AtomicLong();
+
+        /**
+         * Returns a stamp for an optimistic read, or -1 if a writer holds the stripe.
+         */
+        private long tryOptimisticRead() {
+            long stamp = version.get();
+            return ((stamp & 1) == 0) ? stamp : -1;
+        }
+
+        /**
+         * Returns true if no writer held the stripe since the given stamp was taken.
+         */
+        private boolean validate(long stamp) {
+            return (stamp >= 0) && (version.get() == stamp);
+        }
+
+        private void lockWrite() {
+            lock.writeLock().lock();
+            if (lock.getWriteHoldCount() == 1)
+                version.incrementAndGet();
+        }
+
+        private void unlockWrite() {
+            if (lock.getWriteHoldCount() == 1)
+                version.incrementAndGet();
+            lock.writeLock().unlock();
+        }
+
+    }
+
+    /**
+     * The stripes touched by an optimistic search of a thread, each with the stamp taken when it was first touched.
+     * The same object is reused for every search of the thread.
+     */
+    private final class Reads {
+
+        /**
+         * The stamp of every stripe, UNTOUCHED for the stripes which were not touched.
+         */
+        private final long[] stamps = new long[stripes.length];
+
+        /**
+         * The indices of the touched stripes.
+         */
+        private final int[] touched = new int[stripes.length];
+
+        private int count = 0;
+
+        /**
+         * Whether a search is running and whether it is still valid.
+         */
+        private boolean active = false;
+        private boolean valid = false;
+
+        private Reads() {
+            Arrays.fill(stamps, UNTOUCHED);
+        }
+
+        /**
+         * Starts a new search.
+         */
+        private void begin() {
+            active = true;
+            valid = true;
+        }
+
+        /**
+         * Takes a stamp of the given stripe if it was not touched yet.
+         */
+        private void touch(int index) {
+            if (stamps[index] != UNTOUCHED)
+                return;
+            long stamp = stripes[index].tryOptimisticRead();
+            if (stamp < 0)
+                valid = false;
+            stamps[index] = stamp;
+            touched[count++] = index;
+        }
+
+        /**
+         * Ends the search and returns true if no writer held any of the touched stripes since they were touched.
+         */
+        private boolean end() {
+            for (int i = 0; i < count; i++) {
+                int index = touched[i];
+                valid = valid && stripes[index].validate(stamps[index]);
+                stamps[index] = UNTOUCHED;
+            }
+            count = 0;
+            active = false;
+            return valid;
+        }
+
+    }
+
+    /**
+     * The lock stripes.
+     */
+    private final Stripe[] stripes;
+
+    /**
+     * The stripes touched by the running search of every thread.
+     */
+    private final ThreadLocal<Reads> reads = new ThreadLocal<Reads>() {
+        @Override
+        protected Reads initialValue() {
+            return new Reads();
+        }
+    };
+
+    /**
+     * The lock guarding the dimensions of the dungeon.
+     */
+    private final Object dimensionLock = new Object();
+
+    /**
+     * Creates a new concurrent dungeon with the default number of lock stripes.
+     *
+     * @effect  | this(DEFAULT_STRIPES)
+     */
+    public ConcurrentDungeon() {
+        this(DEFAULT_STRIPES);
+    }
+
+    /**
+     * Creates a new concurrent dungeon.
+     *
+     * @param   stripes
+     *          The number of lock stripes, a power of 2.
+     * @throws  IllegalArgumentException
+     *          Throws an illegal argument exception if the number of stripes is not a positive power of 2.
+     */
+    public ConcurrentDungeon(int stripes) throws IllegalArgumentException {
+        super(new ConcurrentHashMap<Point3D, T>());
+        if ((stripes <= 0) || ((stripes & (stripes - 1)) != 0))
+            throw new IllegalArgumentException("The number of stripes has to be a power of 2!");
+        this.stripes = new Stripe[stripes];
+        for (int i = 0; i < stripes; i++)
+            this.stripes[i] = new Stripe();
+    }
+
+    /**
+     * Returns the number of lock stripes.
+     */
+    @Basic
+    public int getStripeCount() {
+        return stripes.length;
+    }
+
+    /**
+     * Returns the index of the stripe guarding the given position.
+     */
+    public int stripe(Point3D pos) {
+        long h = ((long) (pos.getX() >> ChunkManager.CHUNK_BITS) * 0x9E3779B97F4A7C15L) ^
+                ((long) (pos.getY() >> ChunkManager.CHUNK_BITS) * 0xC2B2AE3D27D4EB4FL) ^
+                ((long) (pos.getZ() >> ChunkManager.CHUNK_BITS) * 0x165667B19E3779F9L);
+        return (int) (h ^ (h >>> 32)) & (stripes.length - 1);
+    }
+
+    /**
+     * Internal method to return the sorted, distinct stripes guarding a position and its neighbours.
+     */
+    private int[] stripesAround(Point3D pos) {
+        int[] res = new int[Direction.values().length + 1];
+        int count = 0;
+        res[count++] = stripe(pos);
+        for (Direction dir : Direction.values())
+            res[count++] = stripe(dir.move(pos));
+        Arrays.sort(res, 0, count);
+        int distinct = 0;
+        for (int i = 0; i < count; i++)
+            if ((distinct == 0) || (res[distinct - 1] != res[i]))
+                res[distinct++] = res[i];
+        return Arrays.copyOf(res, distinct);
+    }
+
+    private void lockWrite(int[] indices) {
+        for (int i : indices)
+            stripes[i].lockWrite();
+    }
+
+    private void unlockWrite(int[] indices) {
+        for (int i = indices.length - 1; i >= 0; i--)
+            stripes[indices[i]].unlockWrite();
+    }
+
+    /**
+     * Runs a change to the square at the given position and its borders while holding the stripes of the square and
+     * of its neighbours. Other changes to the same region wait until the action is done.
+     *
+     * @param   pos
+     *          The given position.
+     * @param   action
+     *          The change to make.
+     * @throws  IllegalArgumentException
+     *          Throws an illegal argument exception if the position or the action is invalid.
+     */
+    public void update(Point3D pos, Runnable action) throws IllegalArgumentException {
+        if (!isValidPos(pos) || (action == null))
+            throw new IllegalArgumentException("Invalid position or action!");
+        int[] locked = stripesAround(pos);
+        lockWrite(locked);
+        try {
+            action.run();
+        } finally {
+            unlockWrite(locked);
+        }
+    }
+
+    /**
+     * Adds a square to the dungeon while holding the stripes of the square and of its neighbours.
+     *
+     * @see     Dungeon#addSquare(Square, Point3D)
+     */
+    @Override
+    public void addSquare(T square, Point3D pos) throws IllegalArgumentException {
+        if (!isValidPos(pos))
+            throw new IllegalArgumentException("Invalid position!");
+        int[] locked = stripesAround(pos);
+        lockWrite(locked);
+        try {
+            super.addSquare(square, pos);
+        } finally {
+            unlockWrite(locked);
+        }
+    }
+
+    /**
+     * Removes a square from the dungeon while holding the stripes of the square and of its neighbours.
+     *
+     * @see     Dungeon#removeSquare(Point3D)
+     */
+    @Override
+    public T removeSquare(Point3D pos) throws IllegalArgumentException {
+        if (!isValidPos(pos))
+            throw new IllegalArgumentException("Invalid position!");
+        int[] locked = stripesAround(pos);
+        lockWrite(locked);
+        try {
+            return super.removeSquare(pos);
+        } finally {
+            unlockWrite(locked);
+        }
+    }
+
+    /**
+     * Increases the dimensions of the dungeon under the dimension lock, so concurrent additions never shrink them.
+     */
+    @Override
+    protected void fitDimensions(Point3D pos) throws IllegalArgumentException {
+        synchronized (dimensionLock) {
+            super.fitDimensions(pos);
+        }
+    }
+
+    /**
+     * Counts an occupied position under the dimension lock.
+     */
+    @Override
+    protected void occupy(Point3D pos) throws IllegalArgumentException {
+        synchronized (dimensionLock) {
+            super.occupy(pos);
+        }
+    }
+
+    /**
+     * Uncounts a vacated position under the dimension lock.
+     */
+    @Override
+    protected void vacate(Point3D pos) {
+        synchronized (dimensionLock) {
+            super.vacate(pos);
+        }
+    }
+
+    /**
+     * Shrinks the dimensions of the dungeon under the dimension lock, so they never drop below a concurrent addition.
+     */
+    @Override
+    protected void shrinkDimensions() {
+        synchronized (dimensionLock) {
+            super.shrinkDimensions();
+        }
+    }
+
+    /**
+     * Sets the border of the square at the given position in the given direction.
+     *
+     * @see     Square#setBorder(Border, Direction)
+     * @throws  IllegalArgumentException
+     *          Throws an illegal argument exception if there's no square at the given position.
+     */
+    public void setBorder(final Point3D pos, final Border border, final Direction dir) throws IllegalArgumentException {
+        update(pos, new Runnable() {
+            @Override
+            public void run() {
+                squareAt(pos).setBorder(border, dir);
+            }
+        });
+    }
+
+    /**
+     * Sets the temperature of the square at the given position.
+     *
+     * @see     Square#setTemp(int)
+     * @throws  IllegalArgumentException
+     *          Throws an illegal argument exception if there's no square at the given position.
+     */
+    public void setTemp(Point3D pos, int temp) throws IllegalArgumentException {
+        Stripe stripe = stripes[stripe(pos)];
+        stripe.lockWrite();
+        try {
+            squareAt(pos).setTemp(temp);
+        } finally {
+            stripe.unlockWrite();
+        }
+    }
+
+    /**
+     * Sets the humidity of the square at the given position.
+     *
+     * @see     Square#setHumidity(double)
+     * @throws  IllegalArgumentException
+     *          Throws an illegal argument exception if there's no square at the given position.
+     */
+    public void setHumidity(Point3D pos, double humidity) throws IllegalArgumentException {
+        Stripe stripe = stripes[stripe(pos)];
+        stripe.lockWrite();
+        try {
+            squareAt(pos).setHumidity(humidity);
+        } finally {
+            stripe.unlockWrite();
+        }
+    }
+
+    /**
+     * Merges the square at the given position with its neighbour in the given direction.
+     *
+     * @see     Square#mergeWith(Square, Direction)
+     * @throws  IllegalArgumentException
+     *          Throws an illegal argument exception if one of both squares does not exist.
+     */
+    public void mergeWith(final Point3D pos, final Direction dir) throws IllegalArgumentException {
+        if (dir == null)
+            throw new IllegalArgumentException("The given border direction is not valid!");
+        update(pos, new Runnable() {
+            @Override
+            public void run() {
+                squareAt(pos).mergeWith(squareAt(dir.move(pos)), dir);
+            }
+        });
+    }
+
+    /**
+     * Internal method to return the square at the given position.
+     *
+     * @throws  IllegalArgumentException
+     *          Throws an illegal argument exception if there's no square at the given position.
+     */
+    private T squareAt(Point3D pos) throws IllegalArgumentException {
+        T square = getSquare(pos);
+        if (square == null)
+            throw new IllegalArgumentException("There's no square at the given position!");
+        return square;
+    }
+
+    /**
+     * Returns the border of the square at the given position in the given direction. The border is read
+     * optimistically and only read again under a read lock if its stripe was changed in the meantime.
+     *
+     * @param   pos
+     *          The given position.
+     * @param   dir
+     *          The given direction.
+     * @return  The border, or null if there's no square at the given position.
+     */
+    public Border getBorder(Point3D pos, Direction dir) {
+        Stripe stripe = stripes[stripe(pos)];
+        long stamp = stripe.tryOptimisticRead();
+        Border res = null;
+        try {
+            Square square = getSquare(pos);
+            res = (square == null) ? null : square.getBorder(dir);
+        } catch (RuntimeException e) {
+            stamp = -1;
+        }
+        if (stripe.validate(stamp))
+            return res;
+        stripe.lock.readLock().lock();
+        try {
+            Square square = getSquare(pos);
+            return (square == null) ? null : square.getBorder(dir);
+        } finally {
+            stripe.lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the space at the given position. The space is searched optimistically and only searched again while
+     * holding the read locks of all stripes if a stripe it touched was changed in the meantime.
+     *
+     * @see     Dungeon#getSpace(Point3D)
+     */
+    @Override
+    public List<Square> getSpace(Point3D pos) {
+        return readAll(pos, false);
+    }
+
+    /**
+     * Returns the space at the given position including the spaces reached through teleports. The space is searched
+     * optimistically and only searched again while holding the read locks of all stripes if a stripe it touched was
+     * changed in the meantime.
+     *
+     * @see     Dungeon#getTeleSpace(Point3D)
+     */
+    @Override
+    public List<Square> getTeleSpace(Point3D pos) {
+        return readAll(pos, true);
+    }
+
+    /**
+     * Takes a snapshot of the dungeon while holding the read locks of all stripes, so no change made through the
+     * dungeon is in progress while the written chunks are frozen. Searches go on meanwhile, changes wait.
+     *
+     * @see     Dungeon#snapshot()
+     */
+    @Override
+    public DungeonSnapshot snapshot() {
+        for (Stripe stripe : stripes)
+            stripe.lock.readLock().lock();
+        try {
+            return super.snapshot();
+        } finally {
+            for (int i = stripes.length - 1; i >= 0; i--)
+                stripes[i].lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Takes a stamp of the stripe of every square an optimistic search reaches, before the search reads its borders.
+     */
+    @Override
+    protected void visiting(Square square) {
+        Reads reads = this.reads.get();
+        if (reads.active)
+            reads.touch(stripe(square.getPos()));
+    }
+
+    /**
+     * Internal method to search a space, optimistically first.
+     */
+    private List<Square> readAll(Point3D pos, boolean teleports) {
+        if (!isValidPos(pos))
+            throw new IllegalArgumentException("Invalid position!");
+        Reads reads = this.reads.get();
+        reads.begin();
+        // The stripe of the position guards the square the search starts from, even if it is removed in the meantime
+        reads.touch(stripe(pos));
+        List<Square> res = null;
+        try {
+            res = teleports ? super.getTeleSpace(pos) : super.getSpace(pos);
+        } catch (RuntimeException e) {
+            reads.valid = false;
+        }
+        if (reads.end())
+            return res;
+        for (Stripe stripe : stripes)
+            stripe.lock.readLock().lock();
+        try {
+            return teleports ? super.getTeleSpace(pos) : super.getSpace(pos);
+        } finally {
+            for (int i = stripes.length - 1; i >= 0; i--)
+                stripes[i].lock.readLock().unlock();
+        }
+    }
+
+}
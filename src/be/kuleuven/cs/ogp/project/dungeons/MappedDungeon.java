@@ -0,0 +1,451 @@
+package be.kuleuven.cs.ogp.project.dungeons;
+
+import be.kuleuven.cs.ogp.project.Direction;
+import be.kuleuven.cs.ogp.project.Dungeon;
+import be.kuleuven.cs.ogp.project.DungeonMetrics;
+import be.kuleuven.cs.ogp.project.DungeonTrace;
+import be.kuleuven.cs.ogp.project.Square;
+import be.kuleuven.cs.ogp.project.TeleportInterface;
+import be.kuleuven.cs.ogp.project.io.MappedSquareFile;
+import be.kuleuven.cs.ogp.project.tools.Point3D;
+import be.kuleuven.cs.som.annotate.Basic;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * This class represents a dungeon whose squares are stored in a memory mapped square file instead of on the heap.
+ * Square objects are only created when they are requested and are kept in memory in chunks by a chunk manager. Chunks
+ * that are paged out are written back to the file and their squares are detached from their neighbours, so a square
+ * object should not be held on to for longer than needed unless its chunk is pinned. Chunks holding an avatar are
+ * never paged out. Changes to the squares in memory are reported to the chunk manager, so only the chunks which
+ * changed are written back. Like its chunk manager, a mapped dungeon is not thread safe.
+ *
+ * Teleport squares can not be stored in a mapped dungeon, as their destinations are not part of the file.
+ *
+ * @invar   The dimensions of the dungeon equal those of its square file.
+ *          | (this.getXDim() == getFile().getXDim()) && (this.getYDim() == getFile().getYDim()) &&
+ *          |   (this.getZDim() == getFile().getZDim())
+ *
+ * @author  Frederic Hannes
+ */
+public class MappedDungeon extends Dungeon<Square> implements Closeable {
+
+    /**
+     * The storage of the dungeon.
+     */
+    private final Storage storage;
+
+    /**
+     * Creates a new mapped dungeon for the given square file.
+     *
+     * @param   file
+     *          The given square file.
+     * @param   maxChunks
+     *          The maximum number of chunks of squares kept in memory.
+     * @throws  IllegalArgumentException
+     *          Throws an illegal argument exception if the file is invalid or less than ChunkManager.MIN_CHUNKS chunks
+     *          are allowed in memory.
+     * @effect  The dimensions of the dungeon are fixed to those of the file.
+     *          | setXDimMax(file.getXDim())
+     *          | setYDimMax(file.getYDim())
+     *          | setZDimMax(file.getZDim())
+     */
+    public MappedDungeon(MappedSquareFile file, int maxChunks) throws IllegalArgumentException {
+        this(new Storage(file, maxChunks));
+    }
+
+    /**
+     * Internal constructor for a mapped dungeon with the given storage.
+     */
+    private MappedDungeon(Storage storage) {
+        super(storage);
+        this.storage = storage;
+        storage.manager = new ChunkManager(storage.maxChunks, new FilePager());
+        MappedSquareFile file = storage.file;
+        setXDimMax(file.getXDim());
+        setYDimMax(file.getYDim());
+        setZDimMax(file.getZDim());
+        fitDimensions(new Point3D(file.getXDim() - 1, file.getYDim() - 1, file.getZDim() - 1));
+    }
+
+    /**
+     * Returns the file the squares of the dungeon are stored in.
+     */
+    @Basic
+    public MappedSquareFile getFile() {
+        return storage.file;
+    }
+
+    /**
+     * Returns the chunk manager which keeps the squares of the dungeon in memory. It can be used to pin chunks and to
+     * read the paging statistics.
+     */
+    @Basic
+    public ChunkManager getChunkManager() {
+        return storage.manager;
+    }
+
+    /**
+     * Adds a square to the dungeon.
+     *
+     * @throws  IllegalArgumentException
+     *          Throws an illegal argument exception if the given square is a teleport.
+     *          | square instanceof TeleportInterface
+     * @effect  The square is added as in any other dungeon.
+     *          | super.addSquare(square, pos)
+     */
+    @Override
+    public void addSquare(Square square, Point3D pos) throws IllegalArgumentException {
+        if (square instanceof TeleportInterface)
+            throw new IllegalArgumentException("Teleport squares can not be stored in a mapped dungeon!");
+        super.addSquare(square, pos);
+    }
+
+    /**
+     * Creates a list containing all squares belonging to a space at a given position. The space is determined on the
+     * mapped records, only the squares in the result are created.
+     *
+     * @param   pos
+     *          The given position.
+     * @throws  IllegalArgumentException
+     *          Throws an illegal argument exception when the given position is invalid or does not match a square.
+     * @return  The list with the space.
+     */
+    @Override
+    public List<Square> getSpace(Point3D pos) throws IllegalArgumentException {
+        int[] space = getSpaceIndices(pos);
+        MappedSquareFile file = getFile();
+        List<Square> res = new ArrayList<>(space.length);
+        for (int index : space)
+            res.add(getSquare(new Point3D(file.indexX(index), file.indexY(index), file.indexZ(index))));
+        return res;
+    }
+
+    /**
+     * Returns the number of squares belonging to a space at a given position without creating any square objects.
+     *
+     * @param   pos
+     *          The given position.
+     * @throws  IllegalArgumentException
+     *          Throws an illegal argument exception when the given position is invalid or does not match a square.
+     */
+    public int getSpaceSize(Point3D pos) throws IllegalArgumentException {
+        return getSpaceIndices(pos).length;
+    }
+
+    /**
+     * Returns the record indices of all squares belonging to a space at a given position. The space is found with a
+     * breadth first search over the mapped records, after writing back the chunks in memory which changed.
+     *
+     * @param   pos
+     *          The given position.
+     * @throws  IllegalArgumentException
+     *          Throws an illegal argument exception when the given position is invalid.
+     *          | !isValidPos(pos)
+     * @throws  IllegalArgumentException
+     *          Throws an illegal argument exception when the given position does not match a square.
+     *          | !hasSquare(pos)
+     */
+    public int[] getSpaceIndices(Point3D pos) throws IllegalArgumentException {
+        if (!isValidPos(pos))
+            throw new IllegalArgumentException("Invalid position!");
+        if (!hasSquare(pos))
+            throw new IllegalArgumentException("There's no square at the given position!");
+        long started = DungeonMetrics.start();
+        long traced = DungeonTrace.start();
+        flush();
+        MappedSquareFile file = getFile();
+        BitSet visited = new BitSet();
+        int[] queue = new int[64];
+        int head = 0;
+        int tail = 0;
+        int start = file.index(pos.getX(), pos.getY(), pos.getZ());
+        visited.set(start);
+        queue[tail++] = start;
+        while (head < tail) {
+            int index = queue[head++];
+            int x = file.indexX(index);
+            int y = file.indexY(index);
+            int z = file.indexZ(index);
+            for (int i = 0; i < Direction.COUNT; i++) {
+                Direction dir = Direction.get(i);
+                if (!file.isOpen(index, dir))
+                    continue;
+                int nx = x + dir.getDX();
+                int ny = y + dir.getDY();
+                int nz = z + dir.getDZ();
+                if (!file.contains(nx, ny, nz))
+                    continue;
+                int next = file.index(nx, ny, nz);
+                if (visited.get(next) || !file.hasSquare(next))
+                    continue;
+                visited.set(next);
+                if (tail == queue.length)
+                    queue = Arrays.copyOf(queue, tail * 2);
+                queue[tail++] = next;
+            }
+        }
+        DungeonMetrics.traversed(started, tail);
+        DungeonTrace.commit(DungeonTrace.Kind.TRAVERSAL, traced, tail, false);
+        return Arrays.copyOf(queue, tail);
+    }
+
+    /**
+     * Reports the change of a square to the chunk manager, so its chunk is written back.
+     */
+    @Override
+    protected void squareChanged(Square square) {
+        Point3D pos = square.getPos();
+        if (pos != null)
+            storage.manager.changed(pos.getX(), pos.getY(), pos.getZ());
+    }
+
+    /**
+     * Gets the square at the given coordinates, without creating a point.
+     *
+     * @see     Dungeon#getSquare(int, int, int)
+     */
+    @Override
+    public Square getSquare(int x, int y, int z) {
+        return storage.get(x, y, z);
+    }
+
+    /**
+     * Returns false, the squares of a mapped dungeon are only linked to the neighbours which are in memory.
+     */
+    @Override
+    protected boolean isFullyLinked() {
+        return false;
+    }
+
+    /**
+     * Returns false, the dimensions of a mapped dungeon are fixed to those of its file.
+     */
+    @Override
+    protected boolean isShrinkable() {
+        return false;
+    }
+
+    /**
+     * Writes the state of all squares in memory back to the file.
+     */
+    public void flush() {
+        storage.manager.flush();
+    }
+
+    /**
+     * Writes the state of all squares in memory back to the file and closes it.
+     */
+    @Override
+    public void close() throws IOException {
+        flush();
+        getFile().close();
+    }
+
+    /**
+     * The pager which moves chunks between the mapped file and memory.
+     */
+    private class FilePager implements ChunkManager.Pager {
+
+        @Override
+        public void pageIn(long key, Square[] squares) {
+            MappedSquareFile file = getFile();
+            Map<Point3D, Square> loaded = storage.manager.loadedView();
+            for (int slot = 0; slot < squares.length; slot++) {
+                int x = ChunkManager.slotX(key, slot);
+                int y = ChunkManager.slotY(key, slot);
+                int z = ChunkManager.slotZ(key, slot);
+                if (!file.contains(x, y, z))
+                    continue;
+                int index = file.index(x, y, z);
+                if (!file.hasSquare(index))
+                    continue;
+                Square square = file.read(index);
+                attachSquare(square, new Point3D(x, y, z), loaded);
+                file.restoreBorders(index, square);
+                squares[slot] = square;
+            }
+        }
+
+        @Override
+        public void writeBack(long key, Square[] squares) {
+            MappedSquareFile file = getFile();
+            for (int slot = 0; slot < squares.length; slot++)
+                if (squares[slot] != null)
+                    file.write(file.index(ChunkManager.slotX(key, slot), ChunkManager.slotY(key, slot),
+                            ChunkManager.slotZ(key, slot)), squares[slot]);
+        }
+
+        @Override
+        public void pageOut(long key, Square[] squares) {
+            for (Square square : squares)
+                if (square != null)
+                    detachSquare(square);
+        }
+
+    }
+
+    /**
+     * The map which stores the squares of a mapped dungeon in its file and keeps the square objects in chunks.
+     */
+    private static class Storage extends AbstractMap<Point3D, Square> {
+
+        /**
+         * The file the squares are stored in.
+         */
+        private final MappedSquareFile file;
+
+        /**
+         * The maximum number of chunks kept in memory.
+         */
+        private final int maxChunks;
+
+        /**
+         * The chunk manager holding the square objects, created once the dungeon exists.
+         */
+        private ChunkManager manager;
+
+        /**
+         * The number of squares stored in the file.
+         */
+        private int size = 0;
+
+        /**
+         * Creates the storage for the given file.
+         */
+        private Storage(MappedSquareFile file, int maxChunks) throws IllegalArgumentException {
+            if (file == null)
+                throw new IllegalArgumentException("Invalid file!");
+            if (maxChunks < ChunkManager.MIN_CHUNKS)
+                throw new IllegalArgumentException("At least " + ChunkManager.MIN_CHUNKS +
+                        " chunks have to fit in memory!");
+            this.file = file;
+            this.maxChunks = maxChunks;
+            for (int i = 0; i < file.getCapacity(); i++)
+                if (file.hasSquare(i))
+                    size++;
+        }
+
+        /**
+         * Returns the record index of the given key, or -1 if it does not fall inside of the file.
+         */
+        private int index(Object key) {
+            if (!(key instanceof Point3D))
+                return -1;
+            Point3D pos = (Point3D) key;
+            return index(pos.getX(), pos.getY(), pos.getZ());
+        }
+
+        /**
+         * Returns the record index of the given coordinates, or -1 if they do not fall inside of the file.
+         */
+        private int index(int x, int y, int z) {
+            if (!file.contains(x, y, z))
+                return -1;
+            return file.index(x, y, z);
+        }
+
+        /**
+         * Returns the square at the given coordinates, null if there's none.
+         */
+        private Square get(int x, int y, int z) {
+            int index = index(x, y, z);
+            if ((index < 0) || !file.hasSquare(index))
+                return null;
+            return manager.get(x, y, z);
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            int index = index(key);
+            return (index >= 0) && file.hasSquare(index);
+        }
+
+        @Override
+        public Square get(Object key) {
+            if (!(key instanceof Point3D))
+                return null;
+            Point3D pos = (Point3D) key;
+            return get(pos.getX(), pos.getY(), pos.getZ());
+        }
+
+        @Override
+        public Square put(Point3D key, Square square) {
+            int index = index(key);
+            if (index < 0)
+                throw new IllegalArgumentException("Position outside of the mapped file!");
+            // Page the chunk in before the record exists, so the new square is not created a second time
+            Square old = manager.get(key.getX(), key.getY(), key.getZ());
+            if (!file.hasSquare(index))
+                size++;
+            file.write(index, square);
+            manager.set(key.getX(), key.getY(), key.getZ(), square);
+            return old;
+        }
+
+        @Override
+        public Square remove(Object key) {
+            int index = index(key);
+            if ((index < 0) || !file.hasSquare(index))
+                return null;
+            Point3D pos = (Point3D) key;
+            Square old = manager.getLoaded(pos.getX(), pos.getY(), pos.getZ());
+            if (old != null)
+                manager.set(pos.getX(), pos.getY(), pos.getZ(), null);
+            file.clear(index);
+            size--;
+            return old;
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public Set<Map.Entry<Point3D, Square>> entrySet() {
+            return new AbstractSet<Map.Entry<Point3D, Square>>() {
+                @Override
+                public int size() {
+                    return size;
+                }
+
+                @Override
+                public Iterator<Map.Entry<Point3D, Square>> iterator() {
+                    return new Iterator<Map.Entry<Point3D, Square>>() {
+                        private int next = advance(0);
+
+                        private int advance(int from) {
+                            while ((from < file.getCapacity()) && !file.hasSquare(from))
+                                from++;
+                            return from;
+                        }
+
+                        @Override
+                        public boolean hasNext() {
+                            return next < file.getCapacity();
+                        }
+
+                        @Override
+                        public Map.Entry<Point3D, Square> next() {
+                            if (!hasNext())
+                                throw new NoSuchElementException();
+                            Point3D pos = new Point3D(file.indexX(next), file.indexY(next), file.indexZ(next));
+                            next = advance(next + 1);
+                            return new SimpleImmutableEntry<>(pos, get(pos));
+                        }
+
+                        @Override
+                        public void remove() {
+                            throw new UnsupportedOperationException();
+                        }
+                    };
+                }
+            };
+        }
+
+    }
+
+}
@@ -0,0 +1,618 @@
+package be.kuleuven.cs.ogp.project.dungeons;
+
+import be.kuleuven.cs.ogp.project.Border;
+import be.kuleuven.cs.ogp.project.CompositeDungeon;
+import be.kuleuven.cs.ogp.project.Direction;
+import be.kuleuven.cs.ogp.project.Dungeon;
+import be.kuleuven.cs.ogp.project.DungeonSnapshot;
+import be.kuleuven.cs.ogp.project.Square;
+import be.kuleuven.cs.ogp.project.tools.HashTrie;
+import be.kuleuven.cs.ogp.project.tools.Point3D;
+import be.kuleuven.cs.ogp.project.tools.Tools;
+import be.kuleuven.cs.som.annotate.Basic;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import static be.kuleuven.cs.ogp.project.io.DungeonFormat.*;
+
+/**
+ * This class represents an immutable version of a dungeon. Every change returns a new version, which shares all of its
+ * structure with the old version except the path to the changed squares, so a change costs O(log n) time and memory
+ * and every version stays usable. This makes unlimited undo and branching cheap: keeping a version is keeping a
+ * reference.
+ *
+ * The squares are stored as immutable records in a hash array mapped trie by their packed position. A record holds
+ * the state of a square with the codes of the snapshot format; records share their border codes until a border
+ * changes. Squares are linked with their neighbours following the same rules as in a mutable dungeon. Teleport
+ * destinations and avatars are not part of a version.
+ *
+ * A version keeps the layout of the dungeon it was taken from: the type of the outermost dungeon and of every sub dungeon
+ * with its position in the dungeon containing it. Every record knows the dungeon holding its square, and as in a mutable
+ * dungeon squares are only linked with neighbours in the same dungeon. Squares added to a version are added to the
+ * outermost dungeon.
+ *
+ * @author  Frederic Hannes
+ */
+public final class PersistentDungeon {
+
+    /**
+     * The immutable record of a square.
+     */
+    public static final class SquareState {
+
+        private final byte type;
+
+        /**
+         * The border codes by direction, shared with other records and never changed.
+         */
+        private final byte[] borders;
+
+        private final int temp;
+
+        private final double humidity;
+
+        private final boolean slipperyFloor;
+
+        /**
+         * The index of the dungeon holding the square in the layout of the version.
+         */
+        private final int part;
+
+        private SquareState(byte type, byte[] borders, int temp, double humidity, boolean slipperyFloor, int part) {
+            this.type = type;
+            this.borders = borders;
+            this.temp = temp;
+            this.humidity = humidity;
+            this.slipperyFloor = slipperyFloor;
+            this.part = part;
+        }
+
+        /**
+         * Returns the type code of the square.
+         */
+        @Basic
+        public byte getType() {
+            return type;
+        }
+
+        /**
+         * Returns the border code of the square in the given direction.
+         *
+         * @param   dir
+         *          The given direction.
+         */
+        public byte getBorder(Direction dir) {
+            return borders[dir.ordinal()];
+        }
+
+        /**
+         * Returns the temperature of the square.
+         */
+        @Basic
+        public int getTemp() {
+            return temp;
+        }
+
+        /**
+         * Returns the humidity of the square.
+         */
+        @Basic
+        public double getHumidity() {
+            return humidity;
+        }
+
+        /**
+         * Returns true if the square has a slippery floor.
+         */
+        @Basic
+        public boolean isSlipperyFloor() {
+            return slipperyFloor;
+        }
+
+        /**
+         * Internal method to return a copy of the record with another border code.
+         */
+        private SquareState withBorder(Direction dir, byte code) {
+            if (borders[dir.ordinal()] == code)
+                return this;
+            byte[] copy = borders.clone();
+            copy[dir.ordinal()] = code;
+            return new SquareState(type, copy, temp, humidity, slipperyFloor, part);
+        }
+
+    }
+
+    /**
+     * The immutable record of a dungeon in the layout of a version.
+     */
+    private static final class Part {
+
+        /**
+         * The type code of the dungeon.
+         */
+        private final int type;
+
+        /**
+         * The index of the dungeon containing this dungeon, -1 for the outermost dungeon.
+         */
+        private final int parent;
+
+        /**
+         * The position of the dungeon in the dungeon containing it.
+         */
+        private final Point3D pos;
+
+        /**
+         * The absolute position of the dungeon.
+         */
+        private final Point3D origin;
+
+        private Part(int type, int parent, Point3D pos, Point3D origin) {
+            this.type = type;
+            this.parent = parent;
+            this.pos = pos;
+            this.origin = origin;
+        }
+
+    }
+
+    /**
+     * The layout of a version holding a single plain dungeon.
+     */
+    private static final Part[] PLAIN = { new Part(DUNGEON_PLAIN, -1, null, new Point3D(0, 0, 0)) };
+
+    private static final PersistentDungeon EMPTY = new PersistentDungeon(PLAIN, HashTrie.<SquareState>empty());
+
+    /**
+     * The dungeons of the version, the outermost dungeon first and every dungeon before the dungeons it contains. The
+     * array is never changed.
+     */
+    private final Part[] parts;
+
+    private final HashTrie<SquareState> squares;
+
+    private PersistentDungeon(Part[] parts, HashTrie<SquareState> squares) {
+        this.parts = parts;
+        this.squares = squares;
+    }
+
+    /**
+     * Returns the version of a dungeon without squares.
+     */
+    public static PersistentDungeon empty() {
+        return EMPTY;
+    }
+
+    /**
+     * Returns the version holding the squares of a snapshot, by their absolute position, in a single plain dungeon.
+     *
+     * @param   snapshot
+     *          The given snapshot.
+     * @throws  IllegalArgumentException
+     *          Throws an illegal argument exception if the given snapshot is invalid.
+     *          | snapshot == null
+     */
+    public static PersistentDungeon of(DungeonSnapshot snapshot) throws IllegalArgumentException {
+        if (snapshot == null)
+            throw new IllegalArgumentException("Invalid snapshot!");
+        return of(snapshot, PLAIN, new HashMap<Long, Integer>());
+    }
+
+    /**
+     * Returns the version holding the current squares of the outermost dungeon containing a dungeon and of its sub
+     * dungeons, by their absolute position, with the layout of those dungeons.
+     *
+     * @param   dungeon
+     *          The given dungeon.
+     * @throws  IllegalArgumentException
+     *          Throws an illegal argument exception if the given dungeon is invalid.
+     *          | dungeon == null
+     */
+    public static PersistentDungeon of(Dungeon<?> dungeon) throws IllegalArgumentException {
+        if (dungeon == null)
+            throw new IllegalArgumentException("Invalid dungeon!");
+        Dungeon<?> root = dungeon;
+        while (root.getDungeon() != null)
+            root = root.getDungeon();
+        List<Part> parts = new ArrayList<>();
+        Map<Long, Integer> owners = new HashMap<>();
+        addParts(root, -1, parts, owners);
+        return of(dungeon.snapshot(), parts.toArray(new Part[parts.size()]), owners);
+    }
+
+    /**
+     * Internal method to return the version holding the squares of a snapshot in the given layout, every square in the
+     * dungeon owning its packed position or in the outermost dungeon if no dungeon owns it.
+     */
+    private static PersistentDungeon of(DungeonSnapshot snapshot, Part[] parts, Map<Long, Integer> owners) {
+        HashTrie<SquareState> squares = HashTrie.empty();
+        for (Point3D pos : snapshot.getPositions()) {
+            byte[] borders = new byte[BORDERS];
+            for (Direction dir : Direction.values())
+                borders[dir.ordinal()] = snapshot.getBorder(pos, dir);
+            Integer part = owners.get(pos.pack());
+            squares = squares.put(pos.pack(), new SquareState(snapshot.getType(pos), borders, snapshot.getTemp(pos),
+                    snapshot.getHumidity(pos), snapshot.isSlipperyFloor(pos), (part == null) ? 0 : part));
+        }
+        return new PersistentDungeon(parts, squares);
+    }
+
+    /**
+     * Internal method to record a dungeon and its sub dungeons in a layout, with the dungeon owning the squares of the
+     * sub dungeons. The squares of the outermost dungeon need no owner.
+     */
+    private static void addParts(Dungeon<?> dungeon, int parent, List<Part> parts, Map<Long, Integer> owners) {
+        int index = parts.size();
+        if (parent < 0) {
+            parts.add(new Part(partType(dungeon), -1, null, PLAIN[0].origin));
+        } else {
+            parts.add(new Part(partType(dungeon), parent, dungeon.getPos(),
+                    parts.get(parent).origin.add(dungeon.getPos())));
+            for (Iterator<Square> it = dungeon.iterator(); it.hasNext(); )
+                owners.put(it.next().getAbsolutePos().pack(), index);
+        }
+        if (dungeon instanceof CompositeDungeon) {
+            for (Dungeon<?> sub : ((CompositeDungeon<?>) dungeon).getSubDungeons())
+                addParts(sub, index, parts, owners);
+        }
+    }
+
+    /**
+     * Internal method to return the type code for a dungeon in a layout. Dungeons without a type code of their own are
+     * recorded as the nearest type they extend.
+     */
+    private static int partType(Dungeon<?> dungeon) {
+        if (dungeon instanceof Level)
+            return DUNGEON_LEVEL;
+        if (dungeon instanceof Shaft)
+            return DUNGEON_SHAFT;
+        if (dungeon instanceof CompositeDungeon)
+            return DUNGEON_COMPOSITE;
+        return DUNGEON_PLAIN;
+    }
+
+    /**
+     * Returns the number of squares.
+     */
+    public int getSize() {
+        return squares.size();
+    }
+
+    /**
+     * Returns the record of the square at the given position, null if there's no square at the position.
+     *
+     * @param   pos
+     *          The given position.
+     */
+    public SquareState getSquare(Point3D pos) {
+        if ((pos == null) || !Point3D.isPackable(pos.getX(), pos.getY(), pos.getZ()))
+            return null;
+        return squares.get(pos.pack());
+    }
+
+    /**
+     * Returns true if a square is present at the given position.
+     *
+     * @param   pos
+     *          The given position.
+     * @return  | result == (getSquare(pos) != null)
+     */
+    public boolean hasSquare(Point3D pos) {
+        return getSquare(pos) != null;
+    }
+
+    /**
+     * Returns a version with a square added to the outermost dungeon. The state of the given square is recorded and the
+     * square is linked with its neighbours as it would be in a mutable dungeon; the square itself is not kept.
+     *
+     * @param   pos
+     *          The given position.
+     * @param   square
+     *          The given square.
+     * @throws  IllegalArgumentException
+     *          Throws an illegal argument exception if the given square is invalid or can not be recorded.
+     *          | (square == null) || (square.getDungeon() != null)
+     * @throws  IllegalArgumentException
+     *          Throws an illegal argument exception if the given position is invalid.
+     *          | !Dungeon.isValidPos(pos) || !Point3D.isPackable(pos.getX(), pos.getY(), pos.getZ())
+     * @throws  IllegalArgumentException
+     *          Throws an illegal argument exception if a square exists at the given position.
+     *          | hasSquare(pos)
+     * @throws  IllegalArgumentException
+     *          Throws an illegal argument exception if the borders of the square and a neighbour can't be linked.
+     */
+    public PersistentDungeon addSquare(Point3D pos, Square square) throws IllegalArgumentException {
+        if ((square == null) || (square.getDungeon() != null))
+            throw new IllegalArgumentException("Invalid square!");
+        if (!Dungeon.isValidPos(pos) || !Point3D.isPackable(pos.getX(), pos.getY(), pos.getZ()))
+            throw new IllegalArgumentException("Invalid position!");
+        if (hasSquare(pos))
+            throw new IllegalArgumentException("A square exists at the given position!");
+        byte type = squareType(square);
+        byte[] borders = new byte[BORDERS];
+        for (Direction dir : Direction.values())
+            borders[dir.ordinal()] = encodeBorder(square.getBorder(dir));
+        HashTrie<SquareState> res = squares;
+        for (Direction dir : Direction.values()) {
+            Point3D next = dir.move(pos);
+            SquareState neighbour = getNeighbour(next, 0);
+            if (neighbour == null)
+                continue;
+            byte own = borders[dir.ordinal()];
+            byte code = link(type, own, neighbour.type, neighbour.getBorder(dir.opposite()));
+            if (canChangeBorder(type))
+                borders[dir.ordinal()] = code;
+            if (canChangeBorder(neighbour.type))
+                res = res.put(next.pack(), neighbour.withBorder(dir.opposite(), code));
+        }
+        SquareState state = new SquareState(type, borders, square.getTemp(), square.getHumidity(),
+                square.isSlipperyFloor(), 0);
+        return new PersistentDungeon(parts, res.put(pos.pack(), state));
+    }
+
+    /**
+     * Returns a version without the square at a given position.
+     *
+     * @param   pos
+     *          The given position.
+     * @return  This version if there's no square at the given position.
+     *          | if (!hasSquare(pos))
+     *          |   result == this
+     * @throws  IllegalArgumentException
+     *          Throws an illegal argument exception if the given position is invalid. Squares of sub dungeons can be at
+     *          an absolute position which is not valid in a dungeon of its own.
+     *          | (pos == null) || (pos.getX() < 0) || (pos.getY() < 0) || (pos.getZ() < 0)
+     */
+    public PersistentDungeon removeSquare(Point3D pos) throws IllegalArgumentException {
+        if ((pos == null) || (pos.getX() < 0) || (pos.getY() < 0) || (pos.getZ() < 0))
+            throw new IllegalArgumentException("Invalid position!");
+        if (!hasSquare(pos))
+            return this;
+        return new PersistentDungeon(parts, squares.remove(pos.pack()));
+    }
+
+    /**
+     * Returns a version with a new temperature for the square at a given position.
+     *
+     * @param   pos
+     *          The given position.
+     * @param   temp
+     *          The given temperature.
+     * @throws  IllegalArgumentException
+     *          Throws an illegal argument exception if there's no square at the given position.
+     *          | !hasSquare(pos)
+     * @throws  IllegalArgumentException
+     *          Throws an illegal argument exception if the temperature of the square can't be changed.
+     *          | getSquare(pos).getType() == SQUARE_ROCK
+     * @throws  IllegalArgumentException
+     *          Throws an illegal argument exception when the given temperature is not valid.
+     *          | !Square.isValidTemp(temp)
+     */
+    public PersistentDungeon setTemp(Point3D pos, int temp) throws IllegalArgumentException {
+        SquareState state = getExisting(pos);
+        if (state.type == SQUARE_ROCK)
+            throw new IllegalArgumentException("Can't change temperature!");
+        if (!Square.isValidTemp(temp))
+            throw new IllegalArgumentException("Invalid temperature given!");
+        return replace(pos, new SquareState(state.type, state.borders, temp, state.humidity, state.slipperyFloor,
+                state.part));
+    }
+
+    /**
+     * Returns a version with a new humidity for the square at a given position.
+     *
+     * @param   pos
+     *          The given position.
+     * @param   humidity
+     *          The given humidity.
+     * @pre     The value for humidity must be valid and changing the humidity must be allowed.
+     *          | Square.isValidHumidity(humidity) && (getSquare(pos).getType() != SQUARE_ROCK)
+     * @throws  IllegalArgumentException
+     *          Throws an illegal argument exception if there's no square at the given position.
+     *          | !hasSquare(pos)
+     */
+    public PersistentDungeon setHumidity(Point3D pos, double humidity) throws IllegalArgumentException {
+        SquareState state = getExisting(pos);
+        assert(Square.isValidHumidity(humidity) && (state.type != SQUARE_ROCK));
+        return replace(pos, new SquareState(state.type, state.borders, state.temp, Tools.roundTo(humidity, 2),
+                state.slipperyFloor, state.part));
+    }
+
+    /**
+     * Returns a version in which the floor of the square at a given position is slippery or not.
+     *
+     * @param   pos
+     *          The given position.
+     * @param   slipperyFloor
+     *          Whether the floor is slippery.
+     * @throws  IllegalArgumentException
+     *          Throws an illegal argument exception if there's no square at the given position.
+     *          | !hasSquare(pos)
+     */
+    public PersistentDungeon setSlipperyFloor(Point3D pos, boolean slipperyFloor) throws IllegalArgumentException {
+        SquareState state = getExisting(pos);
+        if (state.slipperyFloor == slipperyFloor)
+            return this;
+        return replace(pos, new SquareState(state.type, state.borders, state.temp, state.humidity, slipperyFloor,
+                state.part));
+    }
+
+    /**
+     * Returns a version with a new border for the square at a given position. As in a mutable dungeon, the border is
+     * shared with the neighbour in the given direction in the same dungeon, and nothing changes if the border can't be
+     * linked to the square or to its neighbour. Nothing changes either if the borders of the square or of its neighbour can't be changed.
+     *
+     * @param   pos
+     *          The given position.
+     * @param   dir
+     *          The given direction.
+     * @param   border
+     *          The given border.
+     * @throws  IllegalArgumentException
+     *          Throws an illegal argument exception if there's no square at the given position.
+     *          | !hasSquare(pos)
+     * @throws  IllegalArgumentException
+     *          Throws an illegal argument exception if the given direction or border is invalid.
+     *          | (dir == null) || (border == null)
+     */
+    public PersistentDungeon setBorder(Point3D pos, Direction dir, Border border) throws IllegalArgumentException {
+        SquareState state = getExisting(pos);
+        if ((dir == null) || (border == null))
+            throw new IllegalArgumentException("Invalid direction or border!");
+        if (!canChangeBorder(state.type) || !canLink(border, state, dir))
+            return this;
+        Point3D next = dir.move(pos);
+        SquareState neighbour = getNeighbour(next, state.part);
+        if ((neighbour != null) && (!canChangeBorder(neighbour.type) || !canLink(border, neighbour, dir.opposite())))
+            return this;
+        byte code = encodeBorder(border);
+        HashTrie<SquareState> res = squares.put(pos.pack(), state.withBorder(dir, code));
+        if (neighbour != null)
+            res = res.put(next.pack(), neighbour.withBorder(dir.opposite(), code));
+        return (res == squares) ? this : new PersistentDungeon(parts, res);
+    }
+
+    /**
+     * Creates a mutable dungeon holding the squares of this version, in the layout of the version. Every square is
+     * added to its own dungeon at its position relative to that dungeon. The squares are added in the order of their
+     * position along the X, Y and Z axis, so the result does not depend on the history of the version.
+     *
+     * @return  A dungeon holding a square for every record of this version, at the absolute position of the record.
+     *          | for each square in the squares of result and its sub dungeons: hasSquare(square.getAbsolutePos())
+     */
+    public Dungeon<Square> toDungeon() {
+        final long[] keys = new long[squares.size()];
+        final SquareState[] states = new SquareState[keys.length];
+        squares.forEach(new HashTrie.Visitor<SquareState>() {
+            private int i = 0;
+
+            @Override
+            public void visit(long key, SquareState state) {
+                keys[i++] = key;
+            }
+        });
+        Arrays.sort(keys);
+        List<Dungeon<Square>> dungeons = new ArrayList<>(parts.length);
+        for (Part part : parts) {
+            Dungeon<Square> dungeon;
+            try {
+                dungeon = createDungeon(part.type);
+            } catch (IOException e) {
+                throw new IllegalStateException("Corrupt dungeon record: " + e.getMessage(), e);
+            }
+            if (part.parent >= 0)
+                ((CompositeDungeon<Square>) dungeons.get(part.parent)).addDungeon(dungeon, part.pos);
+            dungeons.add(dungeon);
+        }
+        Square[] created = new Square[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            SquareState state = squares.get(keys[i]);
+            states[i] = state;
+            try {
+                created[i] = createSquare(state.type, state.borders, 0);
+            } catch (IOException e) {
+                throw new IllegalStateException("Corrupt square record: " + e.getMessage(), e);
+            }
+            if (created[i].canChangeTemp())
+                created[i].setTemp(state.temp);
+            if (created[i].canChangeHumidity())
+                created[i].setHumidity(state.humidity);
+            dungeons.get(state.part).addSquare(created[i], Point3D.unpack(keys[i]).subtract(parts[state.part].origin));
+        }
+        for (int i = 0; i < keys.length; i++) {
+            applyBorderStates(created[i], states[i].borders, 0);
+            // Set after adding, the version already holds this floor
+            created[i].setSlipperyFloor(states[i].slipperyFloor);
+        }
+        return dungeons.get(0);
+    }
+
+    /**
+     * Internal method to return the record at a position, which has to be present.
+     */
+    private SquareState getExisting(Point3D pos) throws IllegalArgumentException {
+        SquareState state = getSquare(pos);
+        if (state == null)
+            throw new IllegalArgumentException("No square at the given position!");
+        return state;
+    }
+
+    /**
+     * Internal method to return a version with the record at a position replaced.
+     */
+    private PersistentDungeon replace(Point3D pos, SquareState state) {
+        return new PersistentDungeon(parts, squares.put(pos.pack(), state));
+    }
+
+    /**
+     * Internal method to return the record of the square at a position if it's held by the dungeon with the given
+     * index, null otherwise.
+     */
+    private SquareState getNeighbour(Point3D pos, int part) {
+        SquareState state = getSquare(pos);
+        return ((state != null) && (state.part == part)) ? state : null;
+    }
+
+    /**
+     * Internal method to check whether the borders of squares of the given type can be changed.
+     */
+    private static boolean canChangeBorder(byte type) {
+        return (type != SQUARE_ROCK) && (type != SQUARE_TRANSPARENT);
+    }
+
+    /**
+     * Internal method to check whether a border can be linked to the square of a record in a given direction, following
+     * the rules of Border.canLink for a square holding the borders of the record.
+     */
+    private static boolean canLink(Border border, SquareState state, Direction dir) {
+        try {
+            return border.canLink(createSquare(state.type, state.borders, 0), dir);
+        } catch (IOException e) {
+            throw new IllegalStateException("Corrupt square record: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Internal method to determine the border placed between a new square and its neighbour, following the rules of
+     * Square.link.
+     *
+     * @param   type
+     *          The type of the new square.
+     * @param   own
+     *          The border code of the new square towards the neighbour.
+     * @param   neighbourType
+     *          The type of the neighbour.
+     * @param   other
+     *          The border code of the neighbour towards the new square.
+     * @throws  IllegalArgumentException
+     *          Throws an illegal argument exception if neither border can be changed.
+     */
+    private static byte link(byte type, byte own, byte neighbourType, byte other) throws IllegalArgumentException {
+        Border border;
+        Border border2;
+        try {
+            border = decodeBorder(own);
+            border2 = decodeBorder(other);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Invalid border: " + e.getMessage(), e);
+        }
+        if (border.getClass() == border2.getClass())
+            return own;
+        boolean change = canChangeBorder(type);
+        boolean change2 = canChangeBorder(neighbourType);
+        if (change && !change2)
+            return other;
+        if (!change && change2)
+            return own;
+        if (!change)
+            throw new IllegalArgumentException("Can't change the border of 2 new neighbouring squares!");
+        return border2.overridden(border) ? own : other;
+    }
+
+}
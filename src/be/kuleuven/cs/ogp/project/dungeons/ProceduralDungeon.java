@@ -0,0 +1,810 @@
+package be.kuleuven.cs.ogp.project.dungeons;
+
+import be.kuleuven.cs.ogp.project.*;
+import be.kuleuven.cs.ogp.project.io.DungeonSink;
+import be.kuleuven.cs.ogp.project.tools.LongSet;
+import be.kuleuven.cs.ogp.project.tools.Point3D;
+import be.kuleuven.cs.som.annotate.Basic;
+
+import java.io.IOException;
+import java.util.*;
+
+import static be.kuleuven.cs.ogp.project.io.DungeonFormat.*;
+
+/**
+ * This class represents a dungeon whose squares are created by a generator the first time they are touched. The
+ * generator is a pure function of the position, so the squares of a chunk can be dropped and generated again later
+ * without any difference. The squares are kept in a chunk manager, which pages out the least recently used chunks once
+ * more chunks are loaded than allowed. Chunks that were not changed since they were generated are simply dropped. Of a
+ * changed chunk only the squares which differ from the generated ones are kept, and the chunk is generated again and
+ * patched with them when it is paged in, so memory follows the changes made to the dungeon rather than its size.
+ * Chunks holding an avatar are never paged out.
+ *
+ * Only the squares in memory are listed by the map of the dungeon, and the spaces of the dungeon are only searched
+ * within a radius around their start, so a search never generates the whole dungeon.
+ *
+ * Teleport squares can not be stored in a procedural dungeon, as their destinations are not generated.
+ *
+ * @invar   The dimensions of the dungeon equal those of its generator.
+ *          | (this.getXDim() == getGenerator().getXDim()) && (this.getYDim() == getGenerator().getYDim()) &&
+ *          |   (this.getZDim() == getGenerator().getZDim())
+ * @invar   The radius of a space search is positive.
+ *          | getSpaceRadius() > 0
+ *
+ * @author  Frederic Hannes
+ */
+public class ProceduralDungeon extends Dungeon<Square> {
+
+    /**
+     * The interface for the functions that generate the squares of a procedural dungeon.
+     */
+    public interface Generator {
+
+        /**
+         * Returns the size of the X dimension of the generated dungeon.
+         */
+        public int getXDim();
+
+        /**
+         * Returns the size of the Y dimension of the generated dungeon.
+         */
+        public int getYDim();
+
+        /**
+         * Returns the size of the Z dimension of the generated dungeon.
+         */
+        public int getZDim();
+
+        /**
+         * Passes the squares in a cube of the dungeon to the sink, with writeSquare. The squares may only depend on
+         * their position, so a cube is generated in the same way every time. The border codes of neighbouring squares
+         * have to agree with each other, even if they are generated in different cubes.
+         *
+         * @param   x
+         *          The x-coordinate of the first position of the cube, likewise y and z.
+         * @param   size
+         *          The number of positions of the cube along every axis.
+         * @param   sink
+         *          The sink to pass the squares to.
+         */
+        public void generate(int x, int y, int z, int size, DungeonSink sink) throws IOException;
+
+    }
+
+    /**
+     * The default radius of a space search.
+     */
+    public static final int DEFAULT_SPACE_RADIUS = 64;
+
+    /**
+     * The state of a space search, kept by every thread for its next search.
+     */
+    private static final class Search {
+
+        /**
+         * The number of reached positions above which the search state is dropped after a search, so a single large
+         * search does not slow down every following search by clearing a large table.
+         */
+        private static final int MAX_RETAINED = 1 << 12;
+
+        private LongSet visited = new LongSet(64);
+
+        private long[] queue = new long[64];
+
+        /**
+         * Whether the search state is in use, a search started while another one of the same thread runs gets a
+         * search state of its own.
+         */
+        private boolean busy = false;
+
+        /**
+         * Clears the search state after a search.
+         */
+        private void finish() {
+            if (visited.getCapacity() > 2 * MAX_RETAINED) {
+                visited = new LongSet(64);
+                queue = new long[64];
+            } else {
+                visited.clear();
+            }
+            busy = false;
+        }
+
+    }
+
+    /**
+     * The search state of every thread.
+     */
+    private static final ThreadLocal<Search> searches = new ThreadLocal<Search>() {
+        @Override
+        protected Search initialValue() {
+            return new Search();
+        }
+    };
+
+    /**
+     * The storage of the dungeon.
+     */
+    private final Storage storage;
+
+    /**
+     * The largest distance along any axis between the start of a space search and the squares it finds.
+     */
+    private int spaceRadius = DEFAULT_SPACE_RADIUS;
+
+    /**
+     * Creates a new procedural dungeon for the given generator.
+     *
+     * @param   generator
+     *          The given generator.
+     * @param   maxChunks
+     *          The maximum number of chunks of squares kept in memory.
+     * @throws  IllegalArgumentException
+     *          Throws an illegal argument exception if the generator is invalid, if its dimensions can not be packed,
+     *          or if less than ChunkManager.MIN_CHUNKS chunks are allowed in memory.
+     * @effect  The dimensions of the dungeon are fixed to those of the generator.
+     *          | setXDimMax(generator.getXDim())
+     *          | setYDimMax(generator.getYDim())
+     *          | setZDimMax(generator.getZDim())
+     */
+    public ProceduralDungeon(Generator generator, int maxChunks) throws IllegalArgumentException {
+        this(new Storage(generator, maxChunks));
+    }
+
+    /**
+     * Internal constructor for a procedural dungeon with the given storage.
+     */
+    private ProceduralDungeon(Storage storage) {
+        super(storage);
+        this.storage = storage;
+        storage.manager = new ChunkManager(storage.maxChunks, new GeneratorPager());
+        Generator generator = storage.generator;
+        setXDimMax(generator.getXDim());
+        setYDimMax(generator.getYDim());
+        setZDimMax(generator.getZDim());
+        fitDimensions(new Point3D(generator.getXDim() - 1, generator.getYDim() - 1, generator.getZDim() - 1));
+    }
+
+    /**
+     * Returns the generator of the squares of the dungeon.
+     */
+    @Basic
+    public Generator getGenerator() {
+        return storage.generator;
+    }
+
+    /**
+     * Returns the chunk manager which keeps the squares of the dungeon in memory. It can be used to pin chunks and to
+     * read the paging statistics.
+     */
+    @Basic
+    public ChunkManager getChunkManager() {
+        return storage.manager;
+    }
+
+    /**
+     * Returns the number of chunks which were changed since they were generated and whose state is kept while they are
+     * not in memory.
+     */
+    public int getChangedChunks() {
+        return storage.changed.size();
+    }
+
+    /**
+     * Returns the largest distance along any axis between the start of a space search and the squares it finds.
+     */
+    @Basic
+    public int getSpaceRadius() {
+        return spaceRadius;
+    }
+
+    /**
+     * Sets the largest distance along any axis between the start of a space search and the squares it finds.
+     *
+     * @param   spaceRadius
+     *          The given radius.
+     * @throws  IllegalArgumentException
+     *          Throws an illegal argument exception if the radius is invalid.
+     *          | spaceRadius < 1
+     * @post    The radius of a space search equals the given radius.
+     *          | new.getSpaceRadius() == spaceRadius
+     */
+    public void setSpaceRadius(int spaceRadius) throws IllegalArgumentException {
+        if (spaceRadius < 1)
+            throw new IllegalArgumentException("Invalid radius!");
+        this.spaceRadius = spaceRadius;
+    }
+
+    /**
+     * Adds a square to the dungeon.
+     *
+     * @throws  IllegalArgumentException
+     *          Throws an illegal argument exception if the given square is a teleport.
+     *          | square instanceof TeleportInterface
+     * @effect  The square is added as in any other dungeon.
+     *          | super.addSquare(square, pos)
+     */
+    @Override
+    public void addSquare(Square square, Point3D pos) throws IllegalArgumentException {
+        if (square instanceof TeleportInterface)
+            throw new IllegalArgumentException("Teleport squares can not be stored in a procedural dungeon!");
+        super.addSquare(square, pos);
+    }
+
+    /**
+     * Creates a list containing all squares belonging to a space at a given position, as far as they lie within the
+     * radius of a space search around the position. The squares are generated as the search reaches them.
+     *
+     * @param   pos
+     *          The given position.
+     * @throws  IllegalArgumentException
+     *          Throws an illegal argument exception when the given position is invalid.
+     *          | !isValidPos(pos)
+     * @throws  IllegalArgumentException
+     *          Throws an illegal argument exception when the given position does not match a square.
+     *          | !hasSquare(pos)
+     * @return  The list with the space, limited to the radius.
+     */
+    @Override
+    public List<Square> getSpace(Point3D pos) throws IllegalArgumentException {
+        if (!isValidPos(pos))
+            throw new IllegalArgumentException("Invalid position!");
+        if (!hasSquare(pos))
+            throw new IllegalArgumentException("There's no square at the given position!");
+        long started = DungeonMetrics.start();
+        long traced = DungeonTrace.start();
+        Search search = searches.get();
+        if (search.busy)
+            search = new Search();
+        search.busy = true;
+        try {
+            // The squares are found by their position, as chunks paged out during the search come back as new squares
+            LongSet visited = search.visited;
+            long[] queue = search.queue;
+            int head = 0;
+            int tail = 0;
+            List<Square> res = new ArrayList<>();
+            queue[tail++] = pos.pack();
+            visited.add(queue[0]);
+            while (head < tail) {
+                long packed = queue[head++];
+                int x = Point3D.unpackX(packed);
+                int y = Point3D.unpackY(packed);
+                int z = Point3D.unpackZ(packed);
+                Square square = storage.get(x, y, z);
+                res.add(square);
+                for (int i = 0; i < Direction.COUNT; i++) {
+                    Direction dir = Direction.get(i);
+                    int nx = x + dir.getDX();
+                    int ny = y + dir.getDY();
+                    int nz = z + dir.getDZ();
+                    if ((Math.abs(nx - pos.getX()) > spaceRadius) || (Math.abs(ny - pos.getY()) > spaceRadius) ||
+                            (Math.abs(nz - pos.getZ()) > spaceRadius) || !square.getBorder(dir).isOpen() ||
+                            (storage.get(nx, ny, nz) == null) || !visited.add(Point3D.pack(nx, ny, nz)))
+                        continue;
+                    if (tail == queue.length)
+                        search.queue = queue = Arrays.copyOf(queue, tail * 2);
+                    queue[tail++] = Point3D.pack(nx, ny, nz);
+                }
+            }
+            DungeonMetrics.traversed(started, tail);
+            DungeonTrace.commit(DungeonTrace.Kind.TRAVERSAL, traced, tail, false);
+            return res;
+        } finally {
+            search.finish();
+        }
+    }
+
+    /**
+     * Creates a list containing all squares belonging to a space at a given position. A procedural dungeon holds no
+     * teleports, so this is the space itself.
+     *
+     * @effect  | getSpace(pos)
+     */
+    @Override
+    public List<Square> getTeleSpace(Point3D pos) throws IllegalArgumentException {
+        return getSpace(pos);
+    }
+
+    /**
+     * Reports the change of a square to the chunk manager, so the changed squares of its chunk are compared with the
+     * generated ones before it is paged out.
+     */
+    @Override
+    protected void squareChanged(Square square) {
+        Point3D pos = square.getPos();
+        if ((pos != null) && storage.manager.isLoaded(pos.getX(), pos.getY(), pos.getZ())) {
+            storage.manager.changed(pos.getX(), pos.getY(), pos.getZ());
+            storage.touch(pos.getX(), pos.getY(), pos.getZ());
+        }
+    }
+
+    /**
+     * Gets the square at the given coordinates, without creating a point.
+     *
+     * @see     Dungeon#getSquare(int, int, int)
+     */
+    @Override
+    public Square getSquare(int x, int y, int z) {
+        return storage.get(x, y, z);
+    }
+
+    /**
+     * Returns false, the squares of a procedural dungeon are only linked to the neighbours which are in memory.
+     */
+    @Override
+    protected boolean isFullyLinked() {
+        return false;
+    }
+
+    /**
+     * Returns false, the dimensions of a procedural dungeon are fixed to those of its generator.
+     */
+    @Override
+    protected boolean isShrinkable() {
+        return false;
+    }
+
+    /**
+     * The pager which generates chunks and keeps the changes made to them.
+     */
+    private class GeneratorPager implements ChunkManager.Pager {
+
+        @Override
+        public void pageIn(long key, Square[] squares) {
+            ChunkSink sink = new ChunkSink(key, squares);
+            Delta delta = storage.changed.get(key);
+            try {
+                // The changed squares are skipped while generating and passed on from the changes afterwards
+                sink.skip = delta;
+                storage.generator.generate(sink.ox, sink.oy, sink.oz, ChunkManager.CHUNK_SIZE, sink);
+                sink.skip = null;
+                if (delta != null)
+                    delta.replay(key, sink);
+            } catch (IOException e) {
+                throw new IllegalStateException("Invalid chunk: " + e.getMessage(), e);
+            }
+            // Creating the squares is not a change
+            storage.clean(key);
+        }
+
+        @Override
+        public void writeBack(long key, Square[] squares) {
+            long[] dirty = storage.clean(key);
+            if (dirty == null)
+                return;
+            Record current = new Record();
+            for (int slot = 0; slot < ChunkManager.CHUNK_VOLUME; slot++)
+                if (isDirty(dirty, slot) && (squares[slot] != null))
+                    current.set(slot, squares[slot]);
+            Record generated = storage.generate(key, dirty);
+            Delta old = storage.changed.get(key);
+            // Squares which are back in their generated state are left out of the changes
+            int count = 0;
+            for (int slot = 0; slot < ChunkManager.CHUNK_VOLUME; slot++)
+                if (isDirty(dirty, slot) ? !current.equals(slot, generated) : ((old != null) && (old.find(slot) >= 0)))
+                    count++;
+            if (count == 0) {
+                storage.changed.remove(key);
+                return;
+            }
+            Delta delta = new Delta(count);
+            for (int slot = 0, i = 0; slot < ChunkManager.CHUNK_VOLUME; slot++) {
+                if (isDirty(dirty, slot)) {
+                    if (!current.equals(slot, generated))
+                        delta.set(i++, slot, current);
+                } else if (old != null) {
+                    int j = old.find(slot);
+                    if (j >= 0)
+                        delta.set(i++, old, j);
+                }
+            }
+            storage.changed.put(key, delta);
+        }
+
+        @Override
+        public void pageOut(long key, Square[] squares) {
+            storage.clean(key);
+            for (Square square : squares)
+                if (square != null)
+                    detachSquare(square);
+        }
+
+    }
+
+    /**
+     * The sink which creates the squares of a chunk that is paged in.
+     */
+    private class ChunkSink implements DungeonSink {
+
+        private final long key;
+
+        private final Square[] squares;
+
+        private final Map<Point3D, Square> loaded = storage.manager.loadedView();
+
+        /**
+         * The first position of the chunk.
+         */
+        private final int ox;
+        private final int oy;
+        private final int oz;
+
+        /**
+         * The changes whose squares are skipped, null if no squares are skipped.
+         */
+        private Delta skip = null;
+
+        private ChunkSink(long key, Square[] squares) {
+            this.key = key;
+            this.squares = squares;
+            this.ox = ChunkManager.slotX(key, 0);
+            this.oy = ChunkManager.slotY(key, 0);
+            this.oz = ChunkManager.slotZ(key, 0);
+        }
+
+        @Override
+        public void beginDungeon(int type, Point3D pos) throws IOException {
+            throw new IOException("A generator can not create dungeons!");
+        }
+
+        @Override
+        public void writeSquare(long pos, byte type, byte flags, int temp, double humidity, byte[] borders)
+                throws IOException {
+            int x = Point3D.unpackX(pos);
+            int y = Point3D.unpackY(pos);
+            int z = Point3D.unpackZ(pos);
+            if ((x - ox >= ChunkManager.CHUNK_SIZE) || (x < ox) || (y - oy >= ChunkManager.CHUNK_SIZE) ||
+                    (y < oy) || (z - oz >= ChunkManager.CHUNK_SIZE) || (z < oz))
+                throw new IOException("Square outside of the chunk!");
+            if ((type == SQUARE_TELEPORT) || !isValidPos(new Point3D(x, y, z)))
+                throw new IOException("Invalid square!");
+            int slot = ChunkManager.slot(x, y, z);
+            if ((skip != null) && (skip.find(slot) >= 0))
+                return;
+            Square square = create(type, flags, temp, humidity, borders);
+            attachSquare(square, Point3D.of(x, y, z), loaded);
+            applyBorderStates(square, borders, 0);
+            squares[slot] = square;
+        }
+
+        @Override
+        public void writeTeleport(long pos, long[] dest, int[] weights) throws IOException {
+            throw new IOException("A generator can not create teleports!");
+        }
+
+        @Override
+        public void endDungeon() throws IOException {
+            throw new IOException("A generator can not create dungeons!");
+        }
+
+    }
+
+    /**
+     * Internal method to create a square that is not part of a dungeon yet from its codes.
+     */
+    private static Square create(byte type, byte flags, int temp, double humidity, byte[] borders) throws IOException {
+        Square square = createSquare(type, borders, 0);
+        if (square.canChangeTemp())
+            square.setTemp(temp);
+        if (square.canChangeHumidity())
+            square.setHumidity(humidity);
+        square.setSlipperyFloor((flags & FLAG_SLIPPERY) != 0);
+        return square;
+    }
+
+    /**
+     * Internal method to check whether a slot is marked in a set of slots.
+     */
+    private static boolean isDirty(long[] slots, int slot) {
+        return (slots[slot >>> 6] & (1L << slot)) != 0;
+    }
+
+    /**
+     * The state of the squares of a chunk, in the codes of the snapshot format. A record is only used to compare the
+     * squares of a chunk with the generated ones, it is not kept.
+     */
+    private static final class Record {
+
+        /**
+         * The type codes of the squares plus one, 0 for an empty position.
+         */
+        private final byte[] types = new byte[ChunkManager.CHUNK_VOLUME];
+
+        private final byte[] flags = new byte[ChunkManager.CHUNK_VOLUME];
+
+        private final byte[] borders = new byte[ChunkManager.CHUNK_VOLUME * BORDERS];
+
+        private final int[] temps = new int[ChunkManager.CHUNK_VOLUME];
+
+        private final double[] humidity = new double[ChunkManager.CHUNK_VOLUME];
+
+        /**
+         * Records the state of the square in a slot.
+         */
+        private void set(int slot, Square square) {
+            types[slot] = (byte) (squareType(square) + 1);
+            // Avatars are not part of the state, a chunk holding an avatar is never paged out
+            flags[slot] = (byte) (squareFlags(square) & ~FLAG_AVATAR);
+            for (Direction dir : Direction.values())
+                borders[slot * BORDERS + dir.ordinal()] = encodeBorder(square.getBorder(dir));
+            // The climate of squares that can not change it follows from their neighbours in memory
+            if (square.canChangeTemp())
+                temps[slot] = square.getTemp();
+            if (square.canChangeHumidity())
+                humidity[slot] = square.getHumidity();
+        }
+
+        /**
+         * Returns true if the squares in a slot of both records are in the same state.
+         */
+        private boolean equals(int slot, Record other) {
+            if ((types[slot] != other.types[slot]) || (flags[slot] != other.flags[slot]) ||
+                    (temps[slot] != other.temps[slot]) || (humidity[slot] != other.humidity[slot]))
+                return false;
+            for (int i = slot * BORDERS; i < (slot + 1) * BORDERS; i++)
+                if (borders[i] != other.borders[i])
+                    return false;
+            return true;
+        }
+
+    }
+
+    /**
+     * The squares of a chunk which differ from the generated ones, in the codes of the snapshot format, ordered by
+     * their slot. A removed square is kept as an empty position.
+     */
+    private static final class Delta {
+
+        private final int[] slots;
+
+        /**
+         * The type codes of the squares plus one, 0 for an empty position.
+         */
+        private final byte[] types;
+
+        private final byte[] flags;
+
+        private final byte[] borders;
+
+        private final int[] temps;
+
+        private final double[] humidity;
+
+        private Delta(int size) {
+            slots = new int[size];
+            types = new byte[size];
+            flags = new byte[size];
+            borders = new byte[size * BORDERS];
+            temps = new int[size];
+            humidity = new double[size];
+        }
+
+        /**
+         * Returns the index of the change of a slot, a negative value if the slot did not change.
+         */
+        private int find(int slot) {
+            return Arrays.binarySearch(slots, slot);
+        }
+
+        /**
+         * Stores the state of a slot of a record as the change with the given index.
+         */
+        private void set(int i, int slot, Record record) {
+            slots[i] = slot;
+            types[i] = record.types[slot];
+            flags[i] = record.flags[slot];
+            System.arraycopy(record.borders, slot * BORDERS, borders, i * BORDERS, BORDERS);
+            temps[i] = record.temps[slot];
+            humidity[i] = record.humidity[slot];
+        }
+
+        /**
+         * Copies a change of another delta to the change with the given index.
+         */
+        private void set(int i, Delta other, int j) {
+            slots[i] = other.slots[j];
+            types[i] = other.types[j];
+            flags[i] = other.flags[j];
+            System.arraycopy(other.borders, j * BORDERS, borders, i * BORDERS, BORDERS);
+            temps[i] = other.temps[j];
+            humidity[i] = other.humidity[j];
+        }
+
+        /**
+         * Passes the changed squares of the chunk with the given key to the sink.
+         */
+        private void replay(long key, DungeonSink sink) throws IOException {
+            byte[] codes = new byte[BORDERS];
+            for (int i = 0; i < slots.length; i++) {
+                if (types[i] == 0)
+                    continue;
+                int slot = slots[i];
+                System.arraycopy(borders, i * BORDERS, codes, 0, BORDERS);
+                sink.writeSquare(Point3D.pack(ChunkManager.slotX(key, slot), ChunkManager.slotY(key, slot),
+                        ChunkManager.slotZ(key, slot)), (byte) (types[i] - 1), flags[i], temps[i], humidity[i],
+                        codes);
+            }
+        }
+
+    }
+
+    /**
+     * The map which generates the squares of a procedural dungeon and keeps the square objects in chunks.
+     */
+    private static class Storage extends AbstractMap<Point3D, Square> {
+
+        private final Generator generator;
+
+        /**
+         * The maximum number of chunks kept in memory.
+         */
+        private final int maxChunks;
+
+        /**
+         * The chunk manager holding the square objects, created once the dungeon exists.
+         */
+        private ChunkManager manager;
+
+        /**
+         * The changes made to the chunks since they were generated.
+         */
+        private final Map<Long, Delta> changed = new HashMap<>();
+
+        /**
+         * The slots of the loaded chunks whose squares changed since they were paged in or last written back, a bit
+         * per slot.
+         */
+        private final Map<Long, long[]> dirty = new HashMap<>();
+
+        /**
+         * The key and the dirty slots of the chunk marked last, as squares tend to change in the same chunk.
+         */
+        private long lastKey = 0;
+        private long[] lastDirty = null;
+
+        /**
+         * Creates the storage for the given generator.
+         */
+        private Storage(Generator generator, int maxChunks) throws IllegalArgumentException {
+            if (generator == null)
+                throw new IllegalArgumentException("Invalid generator!");
+            if (!Point3D.isPackable(generator.getXDim() - 1, generator.getYDim() - 1, generator.getZDim() - 1))
+                throw new IllegalArgumentException("Invalid generator dimensions!");
+            if (maxChunks < ChunkManager.MIN_CHUNKS)
+                throw new IllegalArgumentException("At least " + ChunkManager.MIN_CHUNKS +
+                        " chunks have to fit in memory!");
+            this.generator = generator;
+            this.maxChunks = maxChunks;
+        }
+
+        /**
+         * Marks the slot of the given coordinates as changed, the chunk holding them must be loaded.
+         */
+        private void touch(int x, int y, int z) {
+            long key = ChunkManager.chunkKey(x, y, z);
+            long[] slots = ((key == lastKey) && (lastDirty != null)) ? lastDirty : dirty.get(key);
+            if (slots == null) {
+                slots = new long[ChunkManager.CHUNK_VOLUME / 64];
+                dirty.put(key, slots);
+            }
+            lastKey = key;
+            lastDirty = slots;
+            int slot = ChunkManager.slot(x, y, z);
+            slots[slot >>> 6] |= 1L << slot;
+        }
+
+        /**
+         * Forgets the changed slots of the chunk with the given key and returns them, null if no slot changed.
+         */
+        private long[] clean(long key) {
+            if (key == lastKey)
+                lastDirty = null;
+            return dirty.remove(key);
+        }
+
+        /**
+         * Generates the chunk with the given key again and returns the state of the squares in the given slots.
+         */
+        private Record generate(long key, final long[] slots) {
+            final Record res = new Record();
+            try {
+                generator.generate(ChunkManager.slotX(key, 0), ChunkManager.slotY(key, 0), ChunkManager.slotZ(key, 0),
+                        ChunkManager.CHUNK_SIZE, new DungeonSink() {
+                    @Override
+                    public void beginDungeon(int type, Point3D pos) throws IOException {
+                        throw new IOException("A generator can not create dungeons!");
+                    }
+
+                    @Override
+                    public void writeSquare(long pos, byte type, byte flags, int temp, double humidity,
+                                            byte[] borders) throws IOException {
+                        int slot = ChunkManager.slot(Point3D.unpackX(pos), Point3D.unpackY(pos), Point3D.unpackZ(pos));
+                        if (isDirty(slots, slot))
+                            res.set(slot, create(type, flags, temp, humidity, borders));
+                    }
+
+                    @Override
+                    public void writeTeleport(long pos, long[] dest, int[] weights) throws IOException {
+                        throw new IOException("A generator can not create teleports!");
+                    }
+
+                    @Override
+                    public void endDungeon() throws IOException {
+                        throw new IOException("A generator can not create dungeons!");
+                    }
+                });
+            } catch (IOException e) {
+                throw new IllegalStateException("Invalid chunk: " + e.getMessage(), e);
+            }
+            return res;
+        }
+
+        /**
+         * Returns true if the given key is a position inside of the generated dungeon.
+         */
+        private boolean contains(Object key) {
+            if (!(key instanceof Point3D))
+                return false;
+            Point3D pos = (Point3D) key;
+            return contains(pos.getX(), pos.getY(), pos.getZ());
+        }
+
+        /**
+         * Returns true if the given coordinates lie inside of the generated dungeon.
+         */
+        private boolean contains(int x, int y, int z) {
+            return (x >= 0) && (x < generator.getXDim()) && (y >= 0) && (y < generator.getYDim()) && (z >= 0) &&
+                    (z < generator.getZDim());
+        }
+
+        /**
+         * Returns the square at the given coordinates, null if there's none.
+         */
+        private Square get(int x, int y, int z) {
+            return contains(x, y, z) ? manager.get(x, y, z) : null;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return get(key) != null;
+        }
+
+        @Override
+        public Square get(Object key) {
+            if (!(key instanceof Point3D))
+                return null;
+            Point3D pos = (Point3D) key;
+            return get(pos.getX(), pos.getY(), pos.getZ());
+        }
+
+        @Override
+        public Square put(Point3D key, Square square) {
+            if (!contains(key))
+                throw new IllegalArgumentException("Position outside of the generated dungeon!");
+            // Page the chunk in first, so the square at the position is generated before it is replaced
+            Square old = manager.get(key.getX(), key.getY(), key.getZ());
+            manager.set(key.getX(), key.getY(), key.getZ(), square);
+            touch(key.getX(), key.getY(), key.getZ());
+            return old;
+        }
+
+        @Override
+        public Square remove(Object key) {
+            Square old = get(key);
+            if (old != null) {
+                Point3D pos = (Point3D) key;
+                manager.set(pos.getX(), pos.getY(), pos.getZ(), null);
+                touch(pos.getX(), pos.getY(), pos.getZ());
+            }
+            return old;
+        }
+
+        @Override
+        public Set<Map.Entry<Point3D, Square>> entrySet() {
+            return manager.loadedView().entrySet();
+        }
+
+    }
+
+}
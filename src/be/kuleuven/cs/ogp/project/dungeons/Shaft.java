@@ -1,6 +1,7 @@
 package be.kuleuven.cs.ogp.project.dungeons;
 
 import be.kuleuven.cs.ogp.project.Dungeon;
+import be.kuleuven.cs.ogp.project.Square;
 
 /**
  * This class represents a shaft type dungeon.
@@ -12,7 +13,7 @@ import be.kuleuven.cs.ogp.project.Dungeon;
  *
  * @author Frederic Hannes
  */
-public class Shaft extends Dungeon {
+public class Shaft<T extends Square> extends Dungeon<T> {
 
     /**
      * Creates a new instance of a shaft dungeon.
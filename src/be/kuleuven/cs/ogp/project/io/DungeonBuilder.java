@@ -0,0 +1,219 @@
+package be.kuleuven.cs.ogp.project.io;
+
+import be.kuleuven.cs.ogp.project.Avatar;
+import be.kuleuven.cs.ogp.project.CompositeDungeon;
+import be.kuleuven.cs.ogp.project.Dungeon;
+import be.kuleuven.cs.ogp.project.Square;
+import be.kuleuven.cs.ogp.project.TeleportInterface;
+import be.kuleuven.cs.ogp.project.tools.Point3D;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+import static be.kuleuven.cs.ogp.project.io.DungeonFormat.*;
+
+/**
+ * This class builds dungeons in memory from the records of the snapshot format. Squares are created and added to
+ * their dungeon as soon as they are received; teleport destinations are resolved once all squares of their dungeon
+ * have been received.
+ *
+ * @author  Frederic Hannes
+ */
+public class DungeonBuilder implements DungeonSink {
+
+    /**
+     * The dungeon records which have been started but not yet ended, the innermost record is on top.
+     */
+    private final Deque<Record> open = new ArrayDeque<>();
+
+    /**
+     * The root dungeon, null if it has not been started.
+     */
+    private Dungeon<Square> root = null;
+
+    /**
+     * Returns the root dungeon, null if no dungeon has been started.
+     */
+    public Dungeon<Square> getDungeon() {
+        return root;
+    }
+
+    /**
+     * Returns true if all dungeon records have been ended.
+     */
+    public boolean isComplete() {
+        return (root != null) && open.isEmpty();
+    }
+
+    /**
+     * Starts a new dungeon record.
+     *
+     * @throws  IOException
+     *          Throws an IO exception if the type code is unknown, if a second root dungeon is started, or if the
+     *          dungeon can not be added to the innermost open dungeon.
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public void beginDungeon(int type, Point3D pos) throws IOException {
+        Dungeon<Square> dungeon = createDungeon(type);
+        Record parent = open.peek();
+        if (parent == null) {
+            if ((root != null) || (pos != null))
+                throw new IOException("Only the first dungeon is a root dungeon!");
+            root = dungeon;
+        } else {
+            if (!(parent.dungeon instanceof CompositeDungeon))
+                throw new IOException("Only composite dungeons can contain sub dungeons!");
+            if (pos == null)
+                throw new IOException("Sub dungeons need a position!");
+            closeSquares(parent);
+            try {
+                ((CompositeDungeon<Square>) parent.dungeon).addDungeon(dungeon, pos);
+            } catch (IllegalArgumentException e) {
+                throw new IOException("Invalid sub dungeon: " + e.getMessage(), e);
+            }
+        }
+        open.push(new Record(dungeon));
+    }
+
+    /**
+     * Creates a square and adds it to the innermost open dungeon.
+     *
+     * @throws  IOException
+     *          Throws an IO exception if a code is unknown, if no dungeon can receive squares or if the square can not
+     *          be added to the dungeon.
+     */
+    @Override
+    public void writeSquare(long pos, byte type, byte flags, int temp, double humidity, byte[] borders)
+            throws IOException {
+        addSquare(pos, type, flags, temp, humidity, borders, 0);
+    }
+
+    /**
+     * Creates a square and adds it to the innermost open dungeon.
+     *
+     * @param   borders
+     *          The border codes.
+     * @param   offset
+     *          The offset of the border codes of the square.
+     * @see     #writeSquare(long, byte, byte, int, double, byte[])
+     */
+    void addSquare(long pos, byte type, byte flags, int temp, double humidity, byte[] borders, int offset)
+            throws IOException {
+        Record record = open.peek();
+        if ((record == null) || record.squaresClosed)
+            throw new IOException("Squares must be given before the sub dungeons!");
+        Square sq = createSquare(type, borders, offset);
+        if (sq.canChangeTemp())
+            sq.setTemp(temp);
+        if (sq.canChangeHumidity())
+            sq.setHumidity(humidity);
+        try {
+            record.dungeon.addSquare(sq, Point3D.unpack(pos));
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Invalid square: " + e.getMessage(), e);
+        }
+        applyBorderStates(sq, borders, offset);
+        // Set after adding, the dungeon already accepted this floor when the snapshot was taken
+        sq.setSlipperyFloor((flags & FLAG_SLIPPERY) != 0);
+        if ((flags & FLAG_AVATAR) != 0)
+            new Avatar(sq);
+    }
+
+    /**
+     * Adds the destinations of a teleport to the innermost open dungeon. The destinations are resolved once all
+     * squares of the dungeon have been received.
+     *
+     * @throws  IOException
+     *          Throws an IO exception if no dungeon can receive teleports.
+     */
+    @Override
+    public void writeTeleport(long pos, long[] dest, int[] weights) throws IOException {
+        Record record = open.peek();
+        if ((record == null) || record.squaresClosed)
+            throw new IOException("Teleports must be given before the sub dungeons!");
+        if (weights.length != dest.length)
+            throw new IOException("Every teleport destination needs a weight!");
+        record.teleports.add(pos);
+        record.dest.add(dest.clone());
+        record.weights.add(weights.clone());
+    }
+
+    /**
+     * Ends the innermost open dungeon record.
+     *
+     * @throws  IOException
+     *          Throws an IO exception if there is no open dungeon, or if a teleport refers to a square that is not a
+     *          teleport or to a destination that does not exist.
+     */
+    @Override
+    public void endDungeon() throws IOException {
+        if (open.isEmpty())
+            throw new IOException("No dungeon to end!");
+        closeSquares(open.pop());
+    }
+
+    /**
+     * Internal method to resolve the teleports of a record once all of its squares have been received.
+     */
+    private void closeSquares(Record record) throws IOException {
+        if (record.squaresClosed)
+            return;
+        for (int i = 0; i < record.teleports.size(); i++) {
+            Square sq = record.dungeon.getSquare(Point3D.unpack(record.teleports.get(i)));
+            if (!(sq instanceof TeleportInterface))
+                throw new IOException("Teleport table refers to a square which is not a teleport!");
+            long[] dest = record.dest.get(i);
+            int[] weights = record.weights.get(i);
+            for (int j = 0; j < dest.length; j++) {
+                Square target = record.dungeon.getSquare(Point3D.unpack(dest[j]));
+                if (target == null)
+                    throw new IOException("Teleport destination does not exist!");
+                if (weights[j] < 1)
+                    throw new IOException("Invalid teleport weight!");
+                ((TeleportInterface) sq).addDest(target, weights[j]);
+            }
+        }
+        record.squaresClosed = true;
+        record.teleports = null;
+        record.dest = null;
+        record.weights = null;
+    }
+
+    /**
+     * The state of a dungeon record that is being built.
+     */
+    private static class Record {
+
+        private final Dungeon<Square> dungeon;
+
+        /**
+         * Set once the squares and teleports of the record have been received.
+         */
+        private boolean squaresClosed = false;
+
+        /**
+         * The packed positions of the teleports of the record.
+         */
+        private List<Long> teleports = new ArrayList<>();
+
+        /**
+         * The destinations of the teleports of the record.
+         */
+        private List<long[]> dest = new ArrayList<>();
+
+        /**
+         * The weights of the destinations of the teleports of the record.
+         */
+        private List<int[]> weights = new ArrayList<>();
+
+        private Record(Dungeon<Square> dungeon) {
+            this.dungeon = dungeon;
+        }
+
+    }
+
+}
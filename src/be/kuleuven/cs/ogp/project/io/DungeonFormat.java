@@ -0,0 +1,336 @@
+package be.kuleuven.cs.ogp.project.io;
+
+import be.kuleuven.cs.ogp.project.Border;
+import be.kuleuven.cs.ogp.project.CompositeDungeon;
+import be.kuleuven.cs.ogp.project.Direction;
+import be.kuleuven.cs.ogp.project.Dungeon;
+import be.kuleuven.cs.ogp.project.Square;
+import be.kuleuven.cs.ogp.project.borders.Door;
+import be.kuleuven.cs.ogp.project.borders.NoBorder;
+import be.kuleuven.cs.ogp.project.borders.PlasticFoil;
+import be.kuleuven.cs.ogp.project.borders.Wall;
+import be.kuleuven.cs.ogp.project.dungeons.Level;
+import be.kuleuven.cs.ogp.project.dungeons.Shaft;
+import be.kuleuven.cs.ogp.project.squares.Rock;
+import be.kuleuven.cs.ogp.project.squares.Teleport;
+import be.kuleuven.cs.ogp.project.squares.Transparent;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * This class holds the constants and codecs shared by the binary dungeon formats: snapshots, mapped square files and
+ * the mutation journal.
+ *
+ * A snapshot starts with a header (magic number, version, flags) followed by a tree of dungeon records. Every dungeon
+ * record holds its type, its position in the parent dungeon, its squares in chunks, a table of teleport destinations
+ * with their weights and finally its sub dungeons. Squares inside a chunk are stored column by column: delta encoded packed coordinates,
+ * square types, flags, temperatures, humidities and border codes.
+ *
+ * @author  Frederic Hannes
+ */
+public class DungeonFormat {
+
+    /**
+     * The magic number at the start of every snapshot ("OGPD").
+     */
+    public static final int MAGIC = 0x4F475044;
+
+    /**
+     * The version of the snapshot format.
+     */
+    public static final short VERSION = 2;
+
+    /**
+     * The maximum number of squares stored in a single chunk.
+     */
+    public static final int CHUNK_SIZE = 4096;
+
+    /**
+     * The size of the buffers placed in front of the underlying streams.
+     */
+    public static final int BUFFER_SIZE = 1 << 16;
+
+    /**
+     * The marker which closes the list of sub dungeons of a dungeon record.
+     */
+    public static final int END = 0xFF;
+
+    public static final int DUNGEON_PLAIN = 0;
+    public static final int DUNGEON_COMPOSITE = 1;
+    public static final int DUNGEON_LEVEL = 2;
+    public static final int DUNGEON_SHAFT = 3;
+
+    public static final byte SQUARE_PLAIN = 0;
+    public static final byte SQUARE_ROCK = 1;
+    public static final byte SQUARE_TRANSPARENT = 2;
+    public static final byte SQUARE_TELEPORT = 3;
+
+    public static final byte BORDER_NONE = 0;
+    public static final byte BORDER_WALL = 1;
+    public static final byte BORDER_WALL_SLIPPERY = 2;
+    public static final byte BORDER_DOOR_CLOSED = 3;
+    public static final byte BORDER_DOOR_OPEN = 4;
+    public static final byte BORDER_FOIL = 5;
+    public static final byte BORDER_FOIL_TORN = 6;
+
+    /**
+     * Set in the flags of a square if its floor is slippery.
+     */
+    public static final byte FLAG_SLIPPERY = 1;
+
+    /**
+     * Set in the flags of a square if an avatar is positioned on it.
+     */
+    public static final byte FLAG_AVATAR = 2;
+
+    /**
+     * The number of borders stored for every square.
+     */
+    public static final int BORDERS = Direction.values().length;
+
+    /**
+     * Returns the type code for a given dungeon.
+     *
+     * @param   dungeon
+     *          The given dungeon.
+     * @throws  IllegalArgumentException
+     *          Throws an illegal argument exception if the dungeon type can not be stored.
+     */
+    public static int dungeonType(Dungeon<?> dungeon) throws IllegalArgumentException {
+        Class<?> clazz = dungeon.getClass();
+        if (clazz == Dungeon.class)
+            return DUNGEON_PLAIN;
+        if (clazz == CompositeDungeon.class)
+            return DUNGEON_COMPOSITE;
+        if (clazz == Level.class)
+            return DUNGEON_LEVEL;
+        if (clazz == Shaft.class)
+            return DUNGEON_SHAFT;
+        throw new IllegalArgumentException("Unsupported dungeon type: " + clazz.getName() + "!");
+    }
+
+    /**
+     * Creates an empty dungeon for a given type code.
+     *
+     * @param   type
+     *          The given type code.
+     * @throws  IOException
+     *          Throws an IO exception if the type code is unknown.
+     */
+    public static Dungeon<Square> createDungeon(int type) throws IOException {
+        switch (type) {
+            case DUNGEON_PLAIN:
+                return new Dungeon<>();
+            case DUNGEON_COMPOSITE:
+                return new CompositeDungeon<>();
+            case DUNGEON_LEVEL:
+                return new Level<>();
+            case DUNGEON_SHAFT:
+                return new Shaft<>();
+            default:
+                throw new IOException("Unknown dungeon type " + type + "!");
+        }
+    }
+
+    /**
+     * Returns the type code for a given square.
+     *
+     * @param   square
+     *          The given square.
+     * @throws  IllegalArgumentException
+     *          Throws an illegal argument exception if the square type can not be stored.
+     */
+    public static byte squareType(Square square) throws IllegalArgumentException {
+        Class<?> clazz = square.getClass();
+        if (clazz == Square.class)
+            return SQUARE_PLAIN;
+        if (clazz == Rock.class)
+            return SQUARE_ROCK;
+        if (clazz == Transparent.class)
+            return SQUARE_TRANSPARENT;
+        if (clazz == Teleport.class)
+            return SQUARE_TELEPORT;
+        throw new IllegalArgumentException("Unsupported square type: " + clazz.getName() + "!");
+    }
+
+    /**
+     * Returns the flags for a given square.
+     *
+     * @param   square
+     *          The given square.
+     */
+    public static byte squareFlags(Square square) {
+        byte flags = 0;
+        if (square.isSlipperyFloor())
+            flags |= FLAG_SLIPPERY;
+        if (square.getAvatar() != null)
+            flags |= FLAG_AVATAR;
+        return flags;
+    }
+
+    /**
+     * Creates a square that is not yet part of a dungeon from its type and border codes. Borders are only applied to
+     * squares which allow their borders to be changed; the state of doors and foils is restored by applyBorderStates
+     * once the square has been linked.
+     *
+     * @param   type
+     *          The given type code.
+     * @param   borders
+     *          The given border codes.
+     * @param   offset
+     *          The offset of the border codes of the square.
+     * @throws  IOException
+     *          Throws an IO exception if a code is unknown.
+     */
+    public static Square createSquare(byte type, byte[] borders, int offset) throws IOException {
+        Square square;
+        switch (type) {
+            case SQUARE_PLAIN:
+                square = new Square();
+                break;
+            case SQUARE_ROCK:
+                return new Rock();
+            case SQUARE_TRANSPARENT:
+                Direction doorDir = Direction.FLOOR;
+                for (Direction dir : Direction.values())
+                    if (isDoor(borders[offset + dir.ordinal()])) {
+                        doorDir = dir;
+                        break;
+                    }
+                boolean twoDoors = (doorDir != Direction.FLOOR) &&
+                        isDoor(borders[offset + doorDir.opposite().ordinal()]);
+                return new Transparent(doorDir, twoDoors);
+            case SQUARE_TELEPORT:
+                square = new Teleport();
+                break;
+            default:
+                throw new IOException("Unknown square type " + type + "!");
+        }
+        for (Direction dir : Direction.values())
+            square.setBorder(decodeBorder(borders[offset + dir.ordinal()]), dir);
+        return square;
+    }
+
+    /**
+     * Restores the state of doors and plastic foils of a linked square from its border codes.
+     *
+     * @param   square
+     *          The given square.
+     * @param   borders
+     *          The given border codes.
+     * @param   offset
+     *          The offset of the border codes of the square.
+     */
+    public static void applyBorderStates(Square square, byte[] borders, int offset) {
+        for (Direction dir : Direction.values()) {
+            Border border = square.getBorder(dir);
+            byte code = borders[offset + dir.ordinal()];
+            // Borders already in the right state are left alone, so no change is published for them
+            if ((border instanceof Door) && (border.isOpen() != (code == BORDER_DOOR_OPEN)))
+                ((Door) border).setOpened(code == BORDER_DOOR_OPEN);
+            else if ((border instanceof PlasticFoil) && !border.isOpen() && (code == BORDER_FOIL_TORN))
+                ((PlasticFoil) border).tear();
+        }
+    }
+
+    /**
+     * Returns true if the given border code identifies a door.
+     */
+    public static boolean isDoor(byte code) {
+        return (code == BORDER_DOOR_CLOSED) || (code == BORDER_DOOR_OPEN);
+    }
+
+    /**
+     * Returns the code for a given border.
+     *
+     * @param   border
+     *          The given border.
+     * @throws  IllegalArgumentException
+     *          Throws an illegal argument exception if the border type can not be stored.
+     */
+    public static byte encodeBorder(Border border) throws IllegalArgumentException {
+        if ((border == null) || (border instanceof NoBorder))
+            return BORDER_NONE;
+        if (border instanceof Wall)
+            return border.isSlippery() ? BORDER_WALL_SLIPPERY : BORDER_WALL;
+        if (border instanceof Door)
+            return border.isOpen() ? BORDER_DOOR_OPEN : BORDER_DOOR_CLOSED;
+        if (border instanceof PlasticFoil)
+            return border.isOpen() ? BORDER_FOIL_TORN : BORDER_FOIL;
+        throw new IllegalArgumentException("Unsupported border type: " + border.getClass().getName() + "!");
+    }
+
+    /**
+     * Creates a border from a given code.
+     *
+     * @param   code
+     *          The given border code.
+     * @throws  IOException
+     *          Throws an IO exception if the code is unknown.
+     */
+    public static Border decodeBorder(byte code) throws IOException {
+        switch (code) {
+            case BORDER_NONE:
+                return new NoBorder();
+            case BORDER_WALL:
+                return new Wall(false);
+            case BORDER_WALL_SLIPPERY:
+                return new Wall(true);
+            case BORDER_DOOR_CLOSED:
+                return new Door(false);
+            case BORDER_DOOR_OPEN:
+                return new Door(true);
+            case BORDER_FOIL:
+                return new PlasticFoil();
+            case BORDER_FOIL_TORN:
+                PlasticFoil foil = new PlasticFoil();
+                foil.tear();
+                return foil;
+            default:
+                throw new IOException("Unknown border code " + code + "!");
+        }
+    }
+
+    /**
+     * Writes an unsigned variable length long value.
+     */
+    public static void writeVarLong(DataOutput out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    /**
+     * Reads an unsigned variable length long value.
+     */
+    public static long readVarLong(DataInput in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+                return value;
+        }
+        throw new IOException("Malformed variable length value!");
+    }
+
+    /**
+     * Writes a signed value using zig-zag encoding, small negative values take as few bytes as small positive ones.
+     */
+    public static void writeZigZag(DataOutput out, long value) throws IOException {
+        writeVarLong(out, (value << 1) ^ (value >> 63));
+    }
+
+    /**
+     * Reads a signed value written with writeZigZag.
+     */
+    public static long readZigZag(DataInput in) throws IOException {
+        long value = readVarLong(in);
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+}
@@ -0,0 +1,1014 @@
+package be.kuleuven.cs.ogp.project.io;
+
+import be.kuleuven.cs.ogp.project.Direction;
+import be.kuleuven.cs.ogp.project.Dungeon;
+import be.kuleuven.cs.ogp.project.Square;
+import be.kuleuven.cs.ogp.project.dungeons.ProceduralDungeon;
+import be.kuleuven.cs.ogp.project.tools.Point3D;
+import be.kuleuven.cs.ogp.project.tools.RandomSource;
+import be.kuleuven.cs.som.annotate.Basic;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import static be.kuleuven.cs.ogp.project.io.DungeonFormat.*;
+
+/**
+ * This class generates large dungeons from a seed, for load tests and benchmarks. The dungeon is a composite dungeon
+ * holding regions of different kinds, drawn by weight: caves, levels of rooms joined by corridors with doors, shafts,
+ * and towers of stacked levels next to a shaft. Regions hold rock, transparent squares and teleports, and squares with
+ * walls, doors and slippery floors.
+ *
+ * Every region is generated in chunks, in parallel. The content of a square only depends on the seed and its
+ * position, and every chunk looks two squares beyond its bounds, so neighbouring chunks agree on the borders they
+ * share without waiting for each other. Once all chunks of a dungeon are known, a stitching pass connects the teleports
+ * of all chunks to squares picked in other chunks. The records are passed to a sink in a fixed order, so the result
+ * does not depend on the number of threads, and only a bounded number of chunks is held in memory at once.
+ *
+ * @author  Frederic Hannes
+ */
+public class DungeonGenerator {
+
+    /**
+     * The kinds of regions.
+     */
+    public enum Region {
+
+        CAVE, LEVEL, SHAFT, TOWER
+
+    }
+
+    /**
+     * The number of squares along every axis of a cave chunk, so a chunk fills a chunk of the snapshot format.
+     */
+    private static final int CAVE_CHUNK = 16;
+
+    /**
+     * The number of chunks along every axis of a cave.
+     */
+    private static final int CAVE_CHUNKS = 4;
+
+    /**
+     * The number of squares along the X and Y axis of a level chunk.
+     */
+    private static final int LEVEL_CHUNK = 64;
+
+    /**
+     * The number of chunks along the X and Y axis of a level.
+     */
+    private static final int LEVEL_CHUNKS = 8;
+
+    /**
+     * The number of squares along the X and Y axis of the block holding a single room of a level.
+     */
+    private static final int ROOM_BLOCK = 16;
+
+    /**
+     * The number of squares in a shaft chunk.
+     */
+    private static final int SHAFT_CHUNK = CHUNK_SIZE;
+
+    /**
+     * The number of chunks of a shaft.
+     */
+    private static final int SHAFT_CHUNKS = 16;
+
+    /**
+     * The number of levels of a tower, every level is a single level chunk.
+     */
+    private static final int TOWER_FLOORS = 8;
+
+    /**
+     * The number of squares a chunk looks beyond its bounds.
+     */
+    private static final int MARGIN = 2;
+
+    /**
+     * The number of chunks generated ahead for every thread.
+     */
+    private static final int AHEAD = 4;
+
+    /**
+     * The base states of a position.
+     */
+    private static final byte EMPTY = -1;
+    private static final byte OPEN = 0;
+    private static final byte SOLID = 1;
+
+    /**
+     * The salts separating the random decisions made for a position.
+     */
+    private static final long SALT_BASE = 0x5851F42D4C957F2DL;
+    private static final long SALT_FACE = 0x14057B7EF767814FL;
+    private static final long SALT_TRANSPARENT = 0x2545F4914F6CDD1DL;
+    private static final long SALT_TELEPORT = 0x9FB21C651E98DF25L;
+    private static final long SALT_FLOOR = 0xD6E8FEB86659FD93L;
+    private static final long SALT_LANDING = 0xA0761D6478BD642FL;
+    private static final long SALT_TEMP = 0xE7037ED1A0B428DBL;
+    private static final long SALT_HUMIDITY = 0x8EBC6AF09C88C6E3L;
+
+    /**
+     * The number of squares picked in every chunk as teleport destination, apart from the first square of the chunk.
+     */
+    private static final int LANDINGS = 3;
+
+    /**
+     * The steps in every direction.
+     */
+    private static final int[] DX = new int[BORDERS];
+    private static final int[] DY = new int[BORDERS];
+    private static final int[] DZ = new int[BORDERS];
+
+    /**
+     * The directions along the X and Y axis, in which doors can be placed.
+     */
+    private static final Direction[] HORIZONTAL = { Direction.NORTH, Direction.EAST, Direction.SOUTH, Direction.WEST };
+
+    static {
+        for (Direction dir : Direction.values()) {
+            Point3D pos = dir.move(new Point3D(1, 1, 1));
+            DX[dir.ordinal()] = pos.getX() - 1;
+            DY[dir.ordinal()] = pos.getY() - 1;
+            DZ[dir.ordinal()] = pos.getZ() - 1;
+        }
+    }
+
+    private final long seed;
+
+    private final int threads;
+
+    /**
+     * The number of squares to generate.
+     */
+    private long target = 1 << 20;
+
+    /**
+     * The weights of the kinds of regions, by ordinal.
+     */
+    private final int[] weights = { 4, 3, 1, 2 };
+
+    /**
+     * Creates a new generator.
+     *
+     * @param   seed
+     *          The given seed.
+     * @param   threads
+     *          The number of threads to generate chunks on.
+     * @throws  IllegalArgumentException
+     *          Throws an illegal argument exception if the given number of threads is invalid.
+     *          | threads < 1
+     */
+    public DungeonGenerator(long seed, int threads) throws IllegalArgumentException {
+        if (threads < 1)
+            throw new IllegalArgumentException("Invalid number of threads!");
+        this.seed = seed;
+        this.threads = threads;
+    }
+
+    /**
+     * Returns the seed of the generator.
+     */
+    @Basic
+    public long getSeed() {
+        return seed;
+    }
+
+    /**
+     * Returns the number of threads chunks are generated on.
+     */
+    @Basic
+    public int getThreads() {
+        return threads;
+    }
+
+    /**
+     * Returns the number of squares to generate. Generation stops after the first chunk which reaches the target.
+     */
+    @Basic
+    public long getTarget() {
+        return target;
+    }
+
+    /**
+     * Sets the number of squares to generate.
+     *
+     * @param   target
+     *          The given number of squares.
+     * @throws  IllegalArgumentException
+     *          Throws an illegal argument exception if the given number is invalid.
+     *          | target < 1
+     */
+    public void setTarget(long target) throws IllegalArgumentException {
+        if (target < 1)
+            throw new IllegalArgumentException("Invalid target!");
+        this.target = target;
+    }
+
+    /**
+     * Returns the weight of a kind of region.
+     *
+     * @param   region
+     *          The given kind of region.
+     */
+    public int getWeight(Region region) {
+        return weights[region.ordinal()];
+    }
+
+    /**
+     * Sets the weight of a kind of region. Regions are drawn with a chance proportional to their weight.
+     *
+     * @param   region
+     *          The given kind of region.
+     * @param   weight
+     *          The given weight.
+     * @throws  IllegalArgumentException
+     *          Throws an illegal argument exception if the given kind of region is invalid or the given weight is
+     *          negative.
+     *          | (region == null) || (weight < 0)
+     */
+    public void setWeight(Region region, int weight) throws IllegalArgumentException {
+        if ((region == null) || (weight < 0))
+            throw new IllegalArgumentException("Invalid region or weight!");
+        weights[region.ordinal()] = weight;
+    }
+
+    /**
+     * Generates a dungeon in memory.
+     *
+     * @return  The generated dungeon.
+     * @effect  | generate(builder)
+     */
+    public Dungeon<Square> generate() {
+        DungeonBuilder builder = new DungeonBuilder();
+        try {
+            generate(builder);
+        } catch (IOException e) {
+            throw new IllegalStateException("Generated an invalid dungeon: " + e.getMessage(), e);
+        }
+        return builder.getDungeon();
+    }
+
+    /**
+     * Generates a dungeon into a file in the snapshot format.
+     *
+     * @param   file
+     *          The given file.
+     * @return  The number of squares generated.
+     */
+    public long generate(File file) throws IOException {
+        if (file == null)
+            throw new IllegalArgumentException("Invalid file!");
+        try (DungeonWriter writer = new DungeonWriter(new FileOutputStream(file))) {
+            return generate(writer);
+        }
+    }
+
+    /**
+     * Generates a dungeon into a sink. The root dungeon is a composite dungeon, holding the regions along the X axis.
+     *
+     * @param   sink
+     *          The given sink.
+     * @return  The number of squares generated.
+     * @throws  IllegalArgumentException
+     *          Throws an illegal argument exception if the given sink is invalid.
+     *          | sink == null
+     * @throws  IllegalStateException
+     *          Throws an illegal state exception if all kinds of regions have weight 0.
+     */
+    public long generate(DungeonSink sink) throws IOException {
+        if (sink == null)
+            throw new IllegalArgumentException("Invalid sink!");
+        int total = 0;
+        for (int weight : weights)
+            total += weight;
+        if (total == 0)
+            throw new IllegalStateException("No kind of region has a weight!");
+        ExecutorService workers = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable task) {
+                Thread thread = new Thread(task, "generator");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        try {
+            Emitter emitter = new Emitter(sink, workers);
+            sink.beginDungeon(DUNGEON_COMPOSITE, null);
+            int x = 0;
+            for (int i = 0; emitter.count < target; i++) {
+                Part region = createRegion(i, drawRegion(i, total), x);
+                emitter.emit(region);
+                x += region.width;
+            }
+            sink.endDungeon();
+            return emitter.count;
+        } finally {
+            workers.shutdownNow();
+        }
+    }
+
+    /**
+     * Returns a generator for a procedural dungeon holding a single region of the given kind, derived from the seed.
+     * The squares are generated in the same way as those of the regions of a generated dungeon, except that teleports
+     * are generated as plain squares, as their destinations are picked over the whole region.
+     *
+     * @param   region
+     *          The given kind of region.
+     * @param   size
+     *          The size of the region: the edge of a cave, the edge of a level or the height of a shaft.
+     * @throws  IllegalArgumentException
+     *          Throws an illegal argument exception if the kind of region is invalid or a tower, or if the size is
+     *          invalid.
+     *          | (region == null) || (region == Region.TOWER) || (size < 1) || (size > Point3D.PACKED_MAX)
+     */
+    public ProceduralDungeon.Generator getGenerator(Region region, int size) throws IllegalArgumentException {
+        if ((size < 1) || (size > Point3D.PACKED_MAX))
+            throw new IllegalArgumentException("Invalid size!");
+        long key = ~(long) (region == null ? 0 : region.ordinal());
+        final Layout layout;
+        if (region == Region.CAVE)
+            layout = new CaveLayout(salt(key), size);
+        else if (region == Region.LEVEL)
+            layout = new LevelLayout(salt(key), size);
+        else if (region == Region.SHAFT)
+            layout = new ShaftLayout(salt(key), size - 1);
+        else
+            throw new IllegalArgumentException("Invalid region!");
+        return new ProceduralDungeon.Generator() {
+            @Override
+            public int getXDim() {
+                return layout.xDim;
+            }
+
+            @Override
+            public int getYDim() {
+                return layout.yDim;
+            }
+
+            @Override
+            public int getZDim() {
+                return layout.zDim;
+            }
+
+            @Override
+            public void generate(int x, int y, int z, int size, DungeonSink sink) throws IOException {
+                if ((x >= layout.xDim) || (y >= layout.yDim) || (z >= layout.zDim))
+                    return;
+                Chunk chunk = layout.generate(x, y, z, Math.min(size, layout.xDim - x),
+                        Math.min(size, layout.yDim - y), Math.min(size, layout.zDim - z));
+                byte[] borders = new byte[BORDERS];
+                for (int i = 0; i < chunk.count; i++) {
+                    System.arraycopy(chunk.borders, i * BORDERS, borders, 0, BORDERS);
+                    byte type = (chunk.types[i] == SQUARE_TELEPORT) ? SQUARE_PLAIN : chunk.types[i];
+                    sink.writeSquare(chunk.pos[i], type, chunk.flags[i], chunk.temps[i], chunk.humidities[i],
+                            borders);
+                }
+            }
+        };
+    }
+
+    /**
+     * Internal method to draw the kind of a region by weight.
+     */
+    private Region drawRegion(int index, int total) {
+        int draw = RandomSource.forKey(seed, index).nextInt(total);
+        for (Region region : Region.values()) {
+            draw -= weights[region.ordinal()];
+            if (draw < 0)
+                return region;
+        }
+        throw new IllegalStateException("Weights changed while drawing!");
+    }
+
+    /**
+     * Internal method to create the dungeons of a region.
+     *
+     * @param   index
+     *          The index of the region.
+     * @param   region
+     *          The kind of the region.
+     * @param   x
+     *          The position of the region along the X axis of the root dungeon.
+     */
+    private Part createRegion(int index, Region region, int x) {
+        Point3D pos = new Point3D(x, 0, 0);
+        long key = (long) index << 8;
+        switch (region) {
+            case CAVE:
+                int edge = CAVE_CHUNK * CAVE_CHUNKS;
+                return new Part(DUNGEON_PLAIN, pos, new CaveLayout(salt(key), edge), CAVE_CHUNK, CAVE_CHUNK,
+                        CAVE_CHUNK, edge);
+            case LEVEL:
+                int size = LEVEL_CHUNK * LEVEL_CHUNKS;
+                return new Part(DUNGEON_LEVEL, pos, new LevelLayout(salt(key), size), LEVEL_CHUNK, LEVEL_CHUNK, 1,
+                        size);
+            case SHAFT:
+                return new Part(DUNGEON_SHAFT, pos, new ShaftLayout(salt(key), SHAFT_CHUNK * SHAFT_CHUNKS), 1, 1,
+                        SHAFT_CHUNK, 1);
+            default:
+                Part tower = new Part(DUNGEON_COMPOSITE, pos, null, 1, 1, 1, LEVEL_CHUNK + 1);
+                for (int floor = 0; floor < TOWER_FLOORS; floor++)
+                    tower.children.add(new Part(DUNGEON_LEVEL, new Point3D(0, 0, floor),
+                            new LevelLayout(salt(key + floor + 1), LEVEL_CHUNK), LEVEL_CHUNK, LEVEL_CHUNK, 1, 0));
+                tower.children.add(new Part(DUNGEON_SHAFT, new Point3D(LEVEL_CHUNK, 0, 0),
+                        new ShaftLayout(salt(key + TOWER_FLOORS + 1), TOWER_FLOORS * LEVEL_CHUNK), 1, 1, SHAFT_CHUNK,
+                        0));
+                return tower;
+        }
+    }
+
+    /**
+     * Internal method to derive the salt of the decisions made in a dungeon.
+     */
+    private long salt(long key) {
+        return RandomSource.mix(seed ^ RandomSource.mix(key + SALT_BASE));
+    }
+
+    /**
+     * Internal method to hash a position.
+     */
+    private static long hash(long salt, int x, int y, int z) {
+        return RandomSource.mix(salt + x * 0x9E3779B97F4A7C15L + y * 0xC2B2AE3D27D4EB4FL + z * 0x165667B19E3779F9L);
+    }
+
+    /**
+     * Internal method to turn a hash into a number between 0 and 1.
+     */
+    private static double unit(long hash) {
+        return (hash >>> 11) * 0x1.0p-53;
+    }
+
+    /**
+     * Internal method to return smooth noise between 0 and 1 at a position, interpolated between random values at
+     * the corners of a lattice. The position must not be negative.
+     *
+     * @param   salt
+     *          The salt of the noise.
+     * @param   spacing
+     *          The distance between the points of the lattice.
+     */
+    private static double noise(long salt, int x, int y, int z, int spacing) {
+        int lx = x / spacing;
+        int ly = y / spacing;
+        int lz = z / spacing;
+        double fx = smooth((x % spacing) / (double) spacing);
+        double fy = smooth((y % spacing) / (double) spacing);
+        double fz = smooth((z % spacing) / (double) spacing);
+        double res = 0;
+        for (int corner = 0; corner < 8; corner++) {
+            int cx = corner & 1;
+            int cy = (corner >> 1) & 1;
+            int cz = corner >> 2;
+            double weight = ((cx == 0) ? 1 - fx : fx) * ((cy == 0) ? 1 - fy : fy) * ((cz == 0) ? 1 - fz : fz);
+            if (weight != 0)
+                res += weight * unit(hash(salt, lx + cx, ly + cy, lz + cz));
+        }
+        return res;
+    }
+
+    private static double smooth(double t) {
+        return t * t * (3 - 2 * t);
+    }
+
+    /**
+     * Internal method to divide rounding towards negative infinity.
+     */
+    private static int floorDiv(int a, int b) {
+        return (a >= 0) ? a / b : -((b - 1 - a) / b);
+    }
+
+    /**
+     * A dungeon record to generate, with the layout of its squares and the chunks they are generated in.
+     */
+    private static final class Part {
+
+        private final int type;
+
+        private final Point3D pos;
+
+        private final Layout layout;
+
+        /**
+         * The number of squares of a chunk along every axis.
+         */
+        private final int cx, cy, cz;
+
+        /**
+         * The space taken by the dungeon along the X axis of its parent.
+         */
+        private final int width;
+
+        private final List<Part> children = new ArrayList<>();
+
+        /**
+         * The packed positions of the teleports and teleport destinations of the generated chunks.
+         */
+        private final List<Long> teleports = new ArrayList<>();
+        private final List<Long> landings = new ArrayList<>();
+
+        private Part(int type, Point3D pos, Layout layout, int cx, int cy, int cz, int width) {
+            this.type = type;
+            this.pos = pos;
+            this.layout = layout;
+            this.cx = cx;
+            this.cy = cy;
+            this.cz = cz;
+            this.width = width;
+        }
+
+        /**
+         * Adds the chunk tasks of this dungeon and its sub dungeons to a list, in the order they are emitted.
+         */
+        private void addTasks(List<Callable<Chunk>> tasks) {
+            if (layout != null)
+                for (int x = 0; x < layout.xDim; x += cx)
+                    for (int y = 0; y < layout.yDim; y += cy)
+                        for (int z = 0; z < layout.zDim; z += cz) {
+                            final int ox = x, oy = y, oz = z;
+                            tasks.add(new Callable<Chunk>() {
+                                @Override
+                                public Chunk call() {
+                                    return layout.generate(ox, oy, oz, Math.min(cx, layout.xDim - ox),
+                                            Math.min(cy, layout.yDim - oy), Math.min(cz, layout.zDim - oz));
+                                }
+                            });
+                        }
+            for (Part child : children)
+                child.addTasks(tasks);
+        }
+
+    }
+
+    /**
+     * The squares of a generated chunk, in ascending order of their packed position.
+     */
+    private static final class Chunk {
+
+        private int count = 0;
+
+        private final long[] pos;
+        private final byte[] types;
+        private final byte[] flags;
+        private final int[] temps;
+        private final double[] humidities;
+        private final byte[] borders;
+
+        private final List<Long> teleports = new ArrayList<>();
+        private final List<Long> landings = new ArrayList<>();
+
+        private Chunk(int capacity) {
+            pos = new long[capacity];
+            types = new byte[capacity];
+            flags = new byte[capacity];
+            temps = new int[capacity];
+            humidities = new double[capacity];
+            borders = new byte[capacity * BORDERS];
+        }
+
+    }
+
+    /**
+     * Passes the generated records to a sink in order, keeping a bounded number of chunks generated ahead.
+     */
+    private final class Emitter {
+
+        private final DungeonSink sink;
+
+        private final ExecutorService workers;
+
+        private final Deque<Future<Chunk>> pending = new ArrayDeque<>();
+
+        private List<Callable<Chunk>> tasks;
+
+        private int submitted;
+
+        /**
+         * The number of squares passed to the sink.
+         */
+        private long count = 0;
+
+        private final byte[] borders = new byte[BORDERS];
+
+        private Emitter(DungeonSink sink, ExecutorService workers) {
+            this.sink = sink;
+            this.workers = workers;
+        }
+
+        /**
+         * Generates a region and passes it to the sink, as a sub dungeon of the root dungeon.
+         */
+        private void emit(Part region) throws IOException {
+            tasks = new ArrayList<>();
+            region.addTasks(tasks);
+            submitted = 0;
+            try {
+                emitPart(region);
+            } finally {
+                for (Future<Chunk> future : pending)
+                    future.cancel(true);
+                pending.clear();
+            }
+        }
+
+        /**
+         * Internal method to pass a dungeon and its sub dungeons to the sink.
+         */
+        private void emitPart(Part part) throws IOException {
+            sink.beginDungeon(part.type, part.pos);
+            if (part.layout != null) {
+                int chunks = ((part.layout.xDim + part.cx - 1) / part.cx) * ((part.layout.yDim + part.cy - 1) /
+                        part.cy) * ((part.layout.zDim + part.cz - 1) / part.cz);
+                for (int i = 0; (i < chunks) && (count < target); i++)
+                    write(part, next());
+                stitch(part);
+            }
+            for (Part child : part.children)
+                if (count < target)
+                    emitPart(child);
+            sink.endDungeon();
+        }
+
+        /**
+         * Internal method to return the next generated chunk, submitting the chunks that follow it.
+         */
+        private Chunk next() throws IOException {
+            while ((submitted < tasks.size()) && (pending.size() < threads * AHEAD))
+                pending.add(workers.submit(tasks.get(submitted++)));
+            try {
+                return pending.poll().get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while generating!", e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof RuntimeException)
+                    throw (RuntimeException) e.getCause();
+                throw new IllegalStateException(e.getCause());
+            }
+        }
+
+        /**
+         * Internal method to pass the squares of a chunk to the sink.
+         */
+        private void write(Part part, Chunk chunk) throws IOException {
+            for (int i = 0; i < chunk.count; i++) {
+                System.arraycopy(chunk.borders, i * BORDERS, borders, 0, BORDERS);
+                sink.writeSquare(chunk.pos[i], chunk.types[i], chunk.flags[i], chunk.temps[i], chunk.humidities[i],
+                        borders);
+            }
+            part.teleports.addAll(chunk.teleports);
+            part.landings.addAll(chunk.landings);
+            count += chunk.count;
+        }
+
+        /**
+         * Internal method to connect the teleports of a dungeon to destinations picked in all of its chunks. A
+         * destination is never a teleport, so chains of teleports can always be left.
+         */
+        private void stitch(Part part) throws IOException {
+            if (part.landings.isEmpty())
+                return;
+            for (long teleport : part.teleports) {
+                RandomSource random = RandomSource.forKey(part.layout.salt, teleport);
+                long[] dest = new long[1 + random.nextInt(3)];
+                int[] weights = new int[dest.length];
+                for (int i = 0; i < dest.length; i++) {
+                    dest[i] = part.landings.get(random.nextInt(part.landings.size()));
+                    weights[i] = 1;
+                }
+                sink.writeTeleport(teleport, dest, weights);
+            }
+            part.teleports.clear();
+            part.landings.clear();
+        }
+
+    }
+
+    /**
+     * The layout of the squares of a dungeon. The state of every position is a function of the position only.
+     */
+    private abstract static class Layout {
+
+        /**
+         * The salt of all decisions made for the dungeon.
+         */
+        final long salt;
+
+        final int xDim, yDim, zDim;
+
+        /**
+         * The chance for an open square to become a transparent square, or a teleport.
+         */
+        final double transparentRate, teleportRate;
+
+        Layout(long salt, int xDim, int yDim, int zDim, double transparentRate, double teleportRate) {
+            this.salt = salt;
+            this.xDim = xDim;
+            this.yDim = yDim;
+            this.zDim = zDim;
+            this.transparentRate = transparentRate;
+            this.teleportRate = teleportRate;
+        }
+
+        /**
+         * Returns the base state of a valid position inside of the dungeon: EMPTY, OPEN or SOLID.
+         */
+        abstract byte base(int x, int y, int z);
+
+        /**
+         * Returns the border code between two open squares, the first at a position and the second next to it in a
+         * given direction along a positive axis.
+         */
+        abstract byte face(int x, int y, int z, Direction dir);
+
+        /**
+         * Returns the base state of any position.
+         */
+        final byte state(int x, int y, int z) {
+            if ((x < 0) || (y < 0) || (z < 0) || (x >= xDim) || (y >= yDim) || (z >= zDim) || ((x == y) && (y == z)))
+                return EMPTY;
+            return base(x, y, z);
+        }
+
+        /**
+         * Returns the border code between two open squares next to each other in any direction.
+         */
+        final byte openFace(int x, int y, int z, Direction dir) {
+            int i = dir.ordinal();
+            if (DX[i] + DY[i] + DZ[i] > 0)
+                return face(x, y, z, dir);
+            return face(x + DX[i], y + DY[i], z + DZ[i], dir.opposite());
+        }
+
+        /**
+         * Generates the squares of a chunk.
+         *
+         * @param   ox
+         *          The x-coordinate of the first square of the chunk, likewise oy and oz.
+         * @param   ex
+         *          The number of squares of the chunk along the X axis, likewise ey and ez.
+         */
+        final Chunk generate(int ox, int oy, int oz, int ex, int ey, int ez) {
+            int gx = ex + 2 * MARGIN, gy = ey + 2 * MARGIN, gz = ez + 2 * MARGIN;
+            int sx = gy * gz, sy = gz;
+            int[] step = new int[BORDERS];
+            for (int d = 0; d < BORDERS; d++)
+                step[d] = DX[d] * sx + DY[d] * sy + DZ[d];
+            // Base states and transparent candidates of the chunk and its margin
+            byte[] base = new byte[gx * gy * gz];
+            boolean[] candidate = new boolean[base.length];
+            for (int i = 0; i < gx; i++)
+                for (int j = 0; j < gy; j++)
+                    for (int k = 0; k < gz; k++) {
+                        int x = ox + i - MARGIN, y = oy + j - MARGIN, z = oz + k - MARGIN;
+                        int index = i * sx + j * sy + k;
+                        base[index] = state(x, y, z);
+                        candidate[index] = (base[index] == OPEN) &&
+                                (unit(hash(salt ^ SALT_TRANSPARENT, x, y, z)) < transparentRate);
+                    }
+            // Square types of the chunk and the first ring around it
+            byte[] types = new byte[base.length];
+            Arrays.fill(types, EMPTY);
+            for (int i = 1; i < gx - 1; i++)
+                for (int j = 1; j < gy - 1; j++)
+                    for (int k = 1; k < gz - 1; k++) {
+                        int index = i * sx + j * sy + k;
+                        if (base[index] == SOLID)
+                            types[index] = SQUARE_ROCK;
+                        else if (base[index] == OPEN)
+                            types[index] = openType(ox + i - MARGIN, oy + j - MARGIN, oz + k - MARGIN, index,
+                                    base, candidate, step);
+                    }
+            Chunk chunk = new Chunk(ex * ey * ez);
+            for (int i = MARGIN; i < gx - MARGIN; i++)
+                for (int j = MARGIN; j < gy - MARGIN; j++)
+                    for (int k = MARGIN; k < gz - MARGIN; k++) {
+                        int index = i * sx + j * sy + k;
+                        if (types[index] != EMPTY)
+                            addSquare(chunk, ox + i - MARGIN, oy + j - MARGIN, oz + k - MARGIN, index, types, step);
+                    }
+            return chunk;
+        }
+
+        /**
+         * Internal method to determine the type of an open square. A candidate becomes a transparent square if none
+         * of its neighbours is solid or a candidate, so it can always be linked.
+         */
+        private byte openType(int x, int y, int z, int index, byte[] base, boolean[] candidate, int[] step) {
+            if (candidate[index]) {
+                boolean free = true;
+                for (int d = 0; d < BORDERS; d++) {
+                    int next = index + step[d];
+                    if ((base[next] == SOLID) || candidate[next])
+                        free = false;
+                }
+                if (free)
+                    return SQUARE_TRANSPARENT;
+            }
+            if (unit(hash(salt ^ SALT_TELEPORT, x, y, z)) < teleportRate)
+                return SQUARE_TELEPORT;
+            return SQUARE_PLAIN;
+        }
+
+        /**
+         * Internal method to add a square of the chunk.
+         */
+        private void addSquare(Chunk chunk, int x, int y, int z, int index, byte[] types, int[] step) {
+            int i = chunk.count++;
+            byte type = types[index];
+            chunk.pos[i] = Point3D.pack(x, y, z);
+            chunk.types[i] = type;
+            for (Direction dir : Direction.values()) {
+                int d = dir.ordinal();
+                byte next = types[index + step[d]];
+                byte code;
+                if (type == SQUARE_ROCK)
+                    code = BORDER_WALL;
+                else if (type == SQUARE_TRANSPARENT)
+                    code = transparentFace(x, y, z, dir);
+                else if ((next == EMPTY) || (next == SQUARE_ROCK))
+                    code = BORDER_WALL;
+                else if (next == SQUARE_TRANSPARENT)
+                    code = transparentFace(x + DX[d], y + DY[d], z + DZ[d], dir.opposite());
+                else
+                    code = openFace(x, y, z, dir);
+                chunk.borders[i * BORDERS + d] = code;
+            }
+            if (type == SQUARE_ROCK)
+                return;
+            chunk.temps[i] = -50 + (int) (200 * noise(salt ^ SALT_TEMP, x, y, z, 32));
+            chunk.humidities[i] = Math.round(10000 * noise(salt ^ SALT_HUMIDITY, x, y, z, 16)) / 100.0;
+            long floor = hash(salt ^ SALT_FLOOR, x, y, z);
+            if ((type != SQUARE_TRANSPARENT) && (unit(floor) < 0.01))
+                chunk.flags[i] = FLAG_SLIPPERY;
+            if (type == SQUARE_TELEPORT)
+                chunk.teleports.add(chunk.pos[i]);
+            else if ((type == SQUARE_PLAIN) && (chunk.landings.isEmpty() || ((chunk.landings.size() <= LANDINGS) &&
+                    (unit(hash(salt ^ SALT_LANDING, x, y, z)) < 0.01))))
+                chunk.landings.add(chunk.pos[i]);
+        }
+
+        /**
+         * Internal method to return the border code of a transparent square in a given direction: closed doors in
+         * one or two opposite horizontal directions and no border elsewhere.
+         */
+        private byte transparentFace(int x, int y, int z, Direction dir) {
+            long hash = hash(salt ^ SALT_TRANSPARENT, x, y, z);
+            // The high bits of the hash decided whether the square is transparent
+            Direction door = HORIZONTAL[(int) hash & 3];
+            boolean twoDoors = ((hash >>> 2) & 1) != 0;
+            return ((dir == door) || (twoDoors && (dir == door.opposite()))) ? BORDER_DOOR_CLOSED : BORDER_NONE;
+        }
+
+    }
+
+    /**
+     * The layout of a cave: smooth noise decides which positions are open, which are rock and which are empty.
+     */
+    private static final class CaveLayout extends Layout {
+
+        private CaveLayout(long salt, int edge) {
+            super(salt, edge, edge, edge, 0.01, 0.002);
+        }
+
+        @Override
+        byte base(int x, int y, int z) {
+            double value = noise(salt, x, y, z, 8);
+            if (value >= 0.5)
+                return OPEN;
+            return (value >= 0.42) ? SOLID : EMPTY;
+        }
+
+        @Override
+        byte face(int x, int y, int z, Direction dir) {
+            long hash = hash(salt ^ SALT_FACE ^ dir.ordinal(), x, y, z);
+            double value = unit(hash);
+            if (value < 0.85)
+                return BORDER_NONE;
+            if ((value < 0.95) || (DZ[dir.ordinal()] != 0))
+                return ((hash & 7) == 0) ? BORDER_WALL_SLIPPERY : BORDER_WALL;
+            return ((hash & 1) == 0) ? BORDER_DOOR_CLOSED : BORDER_DOOR_OPEN;
+        }
+
+    }
+
+    /**
+     * The layout of a level: a grid of blocks which may hold a room around the centre of the block, and corridors
+     * between the centres of neighbouring rooms. Corridors enter rooms through doors, and most positions next to the
+     * rooms and corridors are rock.
+     */
+    private static final class LevelLayout extends Layout {
+
+        private LevelLayout(long salt, int size) {
+            super(salt, size, size, 1, 0.005, 0.002);
+        }
+
+        @Override
+        byte base(int x, int y, int z) {
+            if (isOpen(x, y))
+                return OPEN;
+            for (Direction dir : HORIZONTAL)
+                if (isOpen(x + DX[dir.ordinal()], y + DY[dir.ordinal()]))
+                    return (unit(hash(salt ^ SALT_BASE, x, y, z)) < 0.7) ? SOLID : EMPTY;
+            return EMPTY;
+        }
+
+        @Override
+        byte face(int x, int y, int z, Direction dir) {
+            boolean room = inRoom(x, y);
+            boolean room2 = inRoom(x + DX[dir.ordinal()], y + DY[dir.ordinal()]);
+            if (room == room2)
+                return BORDER_NONE;
+            return ((hash(salt ^ SALT_FACE, x, y, dir.ordinal()) & 1) == 0) ? BORDER_DOOR_CLOSED : BORDER_DOOR_OPEN;
+        }
+
+        /**
+         * Returns true if a position is part of a room or a corridor.
+         */
+        private boolean isOpen(int x, int y) {
+            if ((x < 0) || (y < 0) || (x >= xDim) || (y >= yDim))
+                return false;
+            return inRoom(x, y) || onCorridor(x, y);
+        }
+
+        /**
+         * Returns true if a position is part of the room of its block.
+         */
+        private boolean inRoom(int x, int y) {
+            if ((x < 0) || (y < 0) || (x >= xDim) || (y >= yDim))
+                return false;
+            long room = room(x / ROOM_BLOCK, y / ROOM_BLOCK);
+            if (room == 0)
+                return false;
+            int rx = x % ROOM_BLOCK, ry = y % ROOM_BLOCK;
+            // The room spans from 1 to 8 up to 8 to 14 inside its block along both axes
+            return (rx >= 1 + (room & 7)) && (rx <= 8 + ((room >>> 3) & 7) % 7) &&
+                    (ry >= 1 + ((room >>> 6) & 7)) && (ry <= 8 + ((room >>> 9) & 7) % 7);
+        }
+
+        /**
+         * Returns the random bits of the room of a block, 0 if the block has no room.
+         */
+        private long room(int bx, int by) {
+            long hash = hash(salt, bx, by, 0);
+            return (unit(hash) < 0.8) ? (hash | 1L << 12) : 0;
+        }
+
+        /**
+         * Returns true if a position is part of a corridor between the centres of two neighbouring rooms.
+         */
+        private boolean onCorridor(int x, int y) {
+            int half = ROOM_BLOCK / 2;
+            if ((y % ROOM_BLOCK == half) && corridor(floorDiv(x - half, ROOM_BLOCK), y / ROOM_BLOCK, true))
+                return true;
+            return (x % ROOM_BLOCK == half) && corridor(x / ROOM_BLOCK, floorDiv(y - half, ROOM_BLOCK), false);
+        }
+
+        /**
+         * Returns true if the room of a block is joined with the room of its neighbour along the X or the Y axis.
+         */
+        private boolean corridor(int bx, int by, boolean alongX) {
+            int nx = alongX ? bx + 1 : bx;
+            int ny = alongX ? by : by + 1;
+            if ((bx < 0) || (by < 0) || (nx * ROOM_BLOCK >= xDim) || (ny * ROOM_BLOCK >= yDim))
+                return false;
+            if ((room(bx, by) == 0) || (room(nx, ny) == 0))
+                return false;
+            return unit(hash(salt ^ SALT_LANDING, bx, by, alongX ? 1 : 2)) < 0.7;
+        }
+
+    }
+
+    /**
+     * The layout of a shaft: a column of squares above the origin, with some rock and walls between the squares.
+     */
+    private static final class ShaftLayout extends Layout {
+
+        private ShaftLayout(long salt, int height) {
+            super(salt, 1, 1, height + 1, 0, 0.002);
+        }
+
+        @Override
+        byte base(int x, int y, int z) {
+            return (unit(hash(salt, x, y, z)) < 0.02) ? SOLID : OPEN;
+        }
+
+        @Override
+        byte face(int x, int y, int z, Direction dir) {
+            return (unit(hash(salt ^ SALT_FACE, x, y, z)) < 0.1) ? BORDER_WALL : BORDER_NONE;
+        }
+
+    }
+
+}
@@ -0,0 +1,176 @@
+package be.kuleuven.cs.ogp.project.io;
+
+import be.kuleuven.cs.ogp.project.Dungeon;
+import be.kuleuven.cs.ogp.project.DungeonTrace;
+import be.kuleuven.cs.ogp.project.Square;
+import be.kuleuven.cs.ogp.project.tools.Point3D;
+
+import java.io.*;
+
+import static be.kuleuven.cs.ogp.project.io.DungeonFormat.*;
+
+/**
+ * This class reads dungeons from a stream in the binary snapshot format described in DungeonFormat.
+ *
+ * Squares are read one chunk at a time and passed to a sink straight away, so apart from the dungeon being built
+ * the reader only needs memory for a single chunk. Dungeons are built in memory by a DungeonBuilder, a DungeonWriter
+ * can be used as sink to copy a snapshot.
+ *
+ * @author  Frederic Hannes
+ */
+public class DungeonReader implements Closeable {
+
+    /**
+     * The stream the snapshot is read from.
+     */
+    private final DataInputStream in;
+
+    /**
+     * The columns of the chunk that is currently being read.
+     */
+    private final long[] chunkPos = new long[CHUNK_SIZE];
+    private final byte[] chunkTypes = new byte[CHUNK_SIZE];
+    private final byte[] chunkFlags = new byte[CHUNK_SIZE];
+    private final int[] chunkTemps = new int[CHUNK_SIZE];
+    private final double[] chunkHumidities = new double[CHUNK_SIZE];
+    private final byte[] chunkBorders = new byte[CHUNK_SIZE * BORDERS];
+
+    /**
+     * Creates a new reader and checks the snapshot header of the given stream.
+     *
+     * @param   in
+     *          The given stream.
+     * @throws  IllegalArgumentException
+     *          Throws an illegal argument exception if the given stream is invalid.
+     * @throws  IOException
+     *          Throws an IO exception if the stream does not start with a supported snapshot header.
+     */
+    public DungeonReader(InputStream in) throws IOException {
+        if (in == null)
+            throw new IllegalArgumentException("Invalid stream!");
+        this.in = new DataInputStream(new BufferedInputStream(in, BUFFER_SIZE));
+        if (this.in.readInt() != MAGIC)
+            throw new IOException("Not a dungeon snapshot!");
+        short version = this.in.readShort();
+        if (version != VERSION)
+            throw new IOException("Unsupported snapshot version " + version + "!");
+        this.in.readShort();
+    }
+
+    /**
+     * Reads the root dungeon of the snapshot, including all of its sub dungeons.
+     *
+     * @return  The dungeon stored in the snapshot.
+     * @throws  IOException
+     *          Throws an IO exception if the snapshot is malformed.
+     */
+    public Dungeon<Square> read() throws IOException {
+        DungeonBuilder builder = new DungeonBuilder();
+        read(builder);
+        return builder.getDungeon();
+    }
+
+    /**
+     * Reads the root dungeon of the snapshot, including all of its sub dungeons, into a sink.
+     *
+     * @param   sink
+     *          The given sink.
+     * @throws  IOException
+     *          Throws an IO exception if the snapshot is malformed.
+     */
+    public void read(DungeonSink sink) throws IOException {
+        if (sink == null)
+            throw new IllegalArgumentException("Invalid sink!");
+        long start = DungeonTrace.start();
+        int type = in.readUnsignedByte();
+        long squares = readDungeon(type, sink, true);
+        DungeonTrace.commit(DungeonTrace.Kind.BULK_LOAD, start, squares, false);
+    }
+
+    /**
+     * Internal method to read a dungeon record and its sub dungeons recursively.
+     *
+     * @param   type
+     *          The type code of the dungeon, which has already been read.
+     * @param   sink
+     *          The sink receiving the record.
+     * @param   root
+     *          Whether the record is the root dungeon, which has no position.
+     * @return  The number of squares read, including the squares of the sub dungeons.
+     */
+    private long readDungeon(int type, DungeonSink sink, boolean root) throws IOException {
+        Point3D pos = null;
+        if (!root)
+            pos = new Point3D((int) readZigZag(in), (int) readZigZag(in), (int) readZigZag(in));
+        sink.beginDungeon(type, pos);
+        long squares = 0;
+        int count;
+        while ((count = (int) readVarLong(in)) != 0) {
+            readChunk(sink, count);
+            squares += count;
+        }
+        long teleports = readVarLong(in);
+        for (long i = 0; i < teleports; i++) {
+            long teleport = readVarLong(in);
+            long[] dest = new long[(int) readVarLong(in)];
+            int[] weights = new int[dest.length];
+            for (int j = 0; j < dest.length; j++) {
+                dest[j] = readVarLong(in);
+                long weight = readVarLong(in);
+                if ((weight < 1) || (weight > Integer.MAX_VALUE))
+                    throw new IOException("Invalid teleport weight!");
+                weights[j] = (int) weight;
+            }
+            sink.writeTeleport(teleport, dest, weights);
+        }
+        int next;
+        while ((next = in.readUnsignedByte()) != END) {
+            if (type != DUNGEON_COMPOSITE)
+                throw new IOException("Only composite dungeons can contain sub dungeons!");
+            squares += readDungeon(next, sink, false);
+        }
+        sink.endDungeon();
+        return squares;
+    }
+
+    /**
+     * Internal method to read a chunk of squares and pass them to the given sink.
+     */
+    private void readChunk(DungeonSink sink, int count) throws IOException {
+        if (count > CHUNK_SIZE)
+            throw new IOException("Chunk too large!");
+        long prev = 0;
+        for (int i = 0; i < count; i++) {
+            prev += readZigZag(in);
+            chunkPos[i] = prev;
+        }
+        in.readFully(chunkTypes, 0, count);
+        in.readFully(chunkFlags, 0, count);
+        for (int i = 0; i < count; i++)
+            chunkTemps[i] = (int) readZigZag(in);
+        for (int i = 0; i < count; i++)
+            chunkHumidities[i] = in.readDouble();
+        in.readFully(chunkBorders, 0, count * BORDERS);
+        if (sink instanceof DungeonBuilder) {
+            DungeonBuilder builder = (DungeonBuilder) sink;
+            for (int i = 0; i < count; i++)
+                builder.addSquare(chunkPos[i], chunkTypes[i], chunkFlags[i], chunkTemps[i], chunkHumidities[i],
+                        chunkBorders, i * BORDERS);
+            return;
+        }
+        byte[] borders = new byte[BORDERS];
+        for (int i = 0; i < count; i++) {
+            System.arraycopy(chunkBorders, i * BORDERS, borders, 0, BORDERS);
+            sink.writeSquare(chunkPos[i], chunkTypes[i], chunkFlags[i], chunkTemps[i], chunkHumidities[i], borders);
+        }
+    }
+
+    /**
+     * Closes the reader and the underlying stream.
+     */
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+}
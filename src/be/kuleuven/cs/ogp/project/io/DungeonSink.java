@@ -0,0 +1,63 @@
+package be.kuleuven.cs.ogp.project.io;
+
+import be.kuleuven.cs.ogp.project.tools.Point3D;
+
+import java.io.IOException;
+
+/**
+ * A receiver of dungeon records in the order of the snapshot format: a record is started, its squares and teleports
+ * are added, then its sub dungeons follow and finally the record is ended. Squares and borders are given with the
+ * codes of the format.
+ *
+ * @author  Frederic Hannes
+ */
+public interface DungeonSink {
+
+    /**
+     * Starts a new dungeon record. The first record is the root dungeon, every following record is a sub dungeon of
+     * the innermost open record.
+     *
+     * @param   type
+     *          The type code of the dungeon, one of the DUNGEON_* constants of the format.
+     * @param   pos
+     *          The position of the dungeon in its parent dungeon, null for the root dungeon.
+     */
+    public void beginDungeon(int type, Point3D pos) throws IOException;
+
+    /**
+     * Adds a square to the innermost open dungeon record.
+     *
+     * @param   pos
+     *          The packed position of the square in its dungeon.
+     * @param   type
+     *          The type code of the square.
+     * @param   flags
+     *          The flags of the square.
+     * @param   temp
+     *          The temperature of the square.
+     * @param   humidity
+     *          The humidity of the square.
+     * @param   borders
+     *          The border codes of the square, indexed by direction ordinal.
+     */
+    public void writeSquare(long pos, byte type, byte flags, int temp, double humidity, byte[] borders)
+            throws IOException;
+
+    /**
+     * Adds the destinations of a teleport square to the innermost open dungeon record.
+     *
+     * @param   pos
+     *          The packed position of the teleport square.
+     * @param   dest
+     *          The packed positions of its destination squares.
+     * @param   weights
+     *          The weights of the destinations, at the same index.
+     */
+    public void writeTeleport(long pos, long[] dest, int[] weights) throws IOException;
+
+    /**
+     * Ends the innermost open dungeon record.
+     */
+    public void endDungeon() throws IOException;
+
+}
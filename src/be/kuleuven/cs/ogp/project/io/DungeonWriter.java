@@ -0,0 +1,369 @@
+package be.kuleuven.cs.ogp.project.io;
+
+import be.kuleuven.cs.ogp.project.CompositeDungeon;
+import be.kuleuven.cs.ogp.project.Direction;
+import be.kuleuven.cs.ogp.project.Dungeon;
+import be.kuleuven.cs.ogp.project.Square;
+import be.kuleuven.cs.ogp.project.TeleportInterface;
+import be.kuleuven.cs.ogp.project.tools.Point3D;
+
+import java.io.*;
+import java.util.*;
+
+import static be.kuleuven.cs.ogp.project.io.DungeonFormat.*;
+
+/**
+ * This class writes dungeons to a stream in the binary snapshot format described in DungeonFormat.
+ *
+ * Complete dungeons can be written with write(Dungeon). Generators which never create square objects can stream
+ * records directly with beginDungeon, writeSquare, writeTeleport and endDungeon. Squares are buffered one chunk at a
+ * time, so the memory used by the writer does not depend on the size of the dungeon. The squares of a complete
+ * dungeon are taken in the order of its iterator and sorted on their packed coordinates within every chunk.
+ *
+ * @author  Frederic Hannes
+ */
+public class DungeonWriter implements DungeonSink, Closeable {
+
+    /**
+     * The stream the snapshot is written to.
+     */
+    private final DataOutputStream out;
+
+    /**
+     * The dungeon records which have been started but not yet ended, the innermost record is on top.
+     */
+    private final Deque<Record> open = new ArrayDeque<>();
+
+    /**
+     * Set once the root dungeon has been started.
+     */
+    private boolean rootWritten = false;
+
+    /**
+     * The columns of the chunk that is currently being filled.
+     */
+    private final long[] chunkPos = new long[CHUNK_SIZE];
+    private final byte[] chunkTypes = new byte[CHUNK_SIZE];
+    private final byte[] chunkFlags = new byte[CHUNK_SIZE];
+    private final int[] chunkTemps = new int[CHUNK_SIZE];
+    private final double[] chunkHumidities = new double[CHUNK_SIZE];
+    private final byte[] chunkBorders = new byte[CHUNK_SIZE * BORDERS];
+
+    /**
+     * The number of squares in the current chunk.
+     */
+    private int chunkCount = 0;
+
+    /**
+     * The squares of a complete dungeon waiting to be sorted into the next chunk, with their packed positions.
+     */
+    private final long[] pendingKeys = new long[CHUNK_SIZE];
+    private final Square[] pending = new Square[CHUNK_SIZE];
+
+    /**
+     * The pending squares sorted on their packed positions.
+     */
+    private final long[] sortedKeys = new long[CHUNK_SIZE];
+    private final Square[] sorted = new Square[CHUNK_SIZE];
+
+    /**
+     * Scratch buffer for the border codes of a single square.
+     */
+    private final byte[] borders = new byte[BORDERS];
+
+    /**
+     * Creates a new writer and writes the snapshot header to the given stream.
+     *
+     * @param   out
+     *          The given stream.
+     * @throws  IllegalArgumentException
+     *          Throws an illegal argument exception if the given stream is invalid.
+     */
+    public DungeonWriter(OutputStream out) throws IOException {
+        if (out == null)
+            throw new IllegalArgumentException("Invalid stream!");
+        this.out = new DataOutputStream(new BufferedOutputStream(out, BUFFER_SIZE));
+        this.out.writeInt(MAGIC);
+        this.out.writeShort(VERSION);
+        this.out.writeShort(0);
+    }
+
+    /**
+     * Writes a complete dungeon, including all of its sub dungeons, as the root of the snapshot.
+     *
+     * @param   dungeon
+     *          The given dungeon.
+     * @throws  IllegalArgumentException
+     *          Throws an illegal argument exception if the given dungeon is invalid.
+     * @throws  IllegalArgumentException
+     *          Throws an illegal argument exception if the dungeon contains a dungeon, square or border type which can
+     *          not be stored.
+     */
+    public void write(Dungeon<?> dungeon) throws IOException {
+        if (dungeon == null)
+            throw new IllegalArgumentException("Invalid dungeon!");
+        writeDungeon(dungeon, null);
+    }
+
+    /**
+     * Internal method to write a dungeon and its sub dungeons recursively.
+     */
+    private void writeDungeon(Dungeon<?> dungeon, Point3D pos) throws IOException {
+        beginDungeon(dungeonType(dungeon), pos);
+        int count = 0;
+        for (Iterator<Square> it = dungeon.iterator(); it.hasNext(); ) {
+            Square sq = it.next();
+            pendingKeys[count] = sq.getPos().pack();
+            pending[count++] = sq;
+            if (count == CHUNK_SIZE) {
+                writePending(count);
+                count = 0;
+            }
+        }
+        writePending(count);
+        if (dungeon instanceof CompositeDungeon) {
+            for (Dungeon<?> sub : ((CompositeDungeon<?>) dungeon).getSubDungeons())
+                writeDungeon(sub, sub.getPos());
+        }
+        endDungeon();
+    }
+
+    /**
+     * Internal method to write the given number of pending squares, sorted on their packed coordinates so the deltas
+     * stay small.
+     */
+    private void writePending(int count) throws IOException {
+        System.arraycopy(pendingKeys, 0, sortedKeys, 0, count);
+        Arrays.sort(sortedKeys, 0, count);
+        // The positions of the squares of a dungeon are distinct, so every square finds its own place
+        for (int i = 0; i < count; i++)
+            sorted[Arrays.binarySearch(sortedKeys, 0, count, pendingKeys[i])] = pending[i];
+        for (int i = 0; i < count; i++) {
+            Square sq = sorted[i];
+            for (Direction dir : Direction.values())
+                borders[dir.ordinal()] = encodeBorder(sq.getBorder(dir));
+            writeSquare(sortedKeys[i], squareType(sq), squareFlags(sq), sq.getTemp(), sq.getHumidity(), borders);
+            if (sq instanceof TeleportInterface) {
+                TeleportInterface teleport = (TeleportInterface) sq;
+                List<Square> dest = teleport.getDest();
+                long[] packed = new long[dest.size()];
+                int[] weights = new int[packed.length];
+                for (int j = 0; j < packed.length; j++) {
+                    packed[j] = dest.get(j).getPos().pack();
+                    weights[j] = teleport.getWeight(dest.get(j));
+                }
+                writeTeleport(sortedKeys[i], packed, weights);
+            }
+        }
+        Arrays.fill(pending, 0, count, null);
+        Arrays.fill(sorted, 0, count, null);
+    }
+
+    /**
+     * Starts a new dungeon record. The first record is the root of the snapshot and has no position, every following
+     * record is a sub dungeon of the innermost open record.
+     *
+     * @param   type
+     *          The type code of the dungeon, one of the DUNGEON_* constants of the format.
+     * @param   pos
+     *          The position of the dungeon in its parent dungeon, null for the root dungeon.
+     * @throws  IllegalStateException
+     *          Throws an illegal state exception if a second root dungeon is started.
+     * @throws  IllegalArgumentException
+     *          Throws an illegal argument exception if a sub dungeon is started without a position, or a root dungeon
+     *          with one.
+     */
+    @Override
+    public void beginDungeon(int type, Point3D pos) throws IOException {
+        if (open.isEmpty() && rootWritten)
+            throw new IllegalStateException("The snapshot already contains a root dungeon!");
+        if (open.isEmpty() != (pos == null))
+            throw new IllegalArgumentException("Only sub dungeons have a position!");
+        if ((type < 0) || (type >= END))
+            throw new IllegalArgumentException("Invalid dungeon type!");
+        if (!open.isEmpty())
+            closeSquares(open.peek());
+        out.writeByte(type);
+        if (pos != null) {
+            writeZigZag(out, pos.getX());
+            writeZigZag(out, pos.getY());
+            writeZigZag(out, pos.getZ());
+        }
+        open.push(new Record());
+        rootWritten = true;
+    }
+
+    /**
+     * Adds a square to the innermost open dungeon record. Squares should be written in ascending order of their packed
+     * coordinates for the best compression, but any order is accepted.
+     *
+     * @param   pos
+     *          The packed position of the square in its dungeon.
+     * @param   type
+     *          The type code of the square.
+     * @param   flags
+     *          The flags of the square.
+     * @param   temp
+     *          The temperature of the square.
+     * @param   humidity
+     *          The humidity of the square.
+     * @param   borders
+     *          The border codes of the square, indexed by direction ordinal.
+     * @throws  IllegalStateException
+     *          Throws an illegal state exception if no dungeon record can receive squares.
+     */
+    @Override
+    public void writeSquare(long pos, byte type, byte flags, int temp, double humidity, byte[] borders)
+            throws IOException {
+        Record record = open.peek();
+        if ((record == null) || record.squaresClosed)
+            throw new IllegalStateException("Squares must be written before the sub dungeons!");
+        int i = chunkCount++;
+        chunkPos[i] = pos;
+        chunkTypes[i] = type;
+        chunkFlags[i] = flags;
+        chunkTemps[i] = temp;
+        chunkHumidities[i] = humidity;
+        System.arraycopy(borders, 0, chunkBorders, i * BORDERS, BORDERS);
+        if (chunkCount == CHUNK_SIZE)
+            flushChunk();
+    }
+
+    /**
+     * Adds the destinations of a teleport square to the innermost open dungeon record.
+     *
+     * @param   pos
+     *          The packed position of the teleport square.
+     * @param   dest
+     *          The packed positions of its destination squares, all located in the same dungeon.
+     * @param   weights
+     *          The weights of the destinations, at the same index.
+     * @throws  IllegalStateException
+     *          Throws an illegal state exception if no dungeon record can receive teleports.
+     * @throws  IllegalArgumentException
+     *          Throws an illegal argument exception if a destination has no weight or a weight is not positive.
+     */
+    @Override
+    public void writeTeleport(long pos, long[] dest, int[] weights) {
+        Record record = open.peek();
+        if ((record == null) || record.squaresClosed)
+            throw new IllegalStateException("Teleports must be written before the sub dungeons!");
+        if (weights.length != dest.length)
+            throw new IllegalArgumentException("Every teleport destination needs a weight!");
+        for (int weight : weights)
+            if (weight < 1)
+                throw new IllegalArgumentException("Invalid weight!");
+        record.teleports.add(pos);
+        record.dest.add(dest.clone());
+        record.weights.add(weights.clone());
+    }
+
+    /**
+     * Ends the innermost open dungeon record.
+     *
+     * @throws  IllegalStateException
+     *          Throws an illegal state exception if there is no open dungeon record.
+     */
+    @Override
+    public void endDungeon() throws IOException {
+        if (open.isEmpty())
+            throw new IllegalStateException("No dungeon to end!");
+        closeSquares(open.pop());
+        out.writeByte(END);
+    }
+
+    /**
+     * Internal method to terminate the square list of a record and write its teleport table.
+     */
+    private void closeSquares(Record record) throws IOException {
+        if (record.squaresClosed)
+            return;
+        flushChunk();
+        writeVarLong(out, 0);
+        writeVarLong(out, record.teleports.size());
+        for (int i = 0; i < record.teleports.size(); i++) {
+            long[] dest = record.dest.get(i);
+            int[] weights = record.weights.get(i);
+            writeVarLong(out, record.teleports.get(i));
+            writeVarLong(out, dest.length);
+            for (int j = 0; j < dest.length; j++) {
+                writeVarLong(out, dest[j]);
+                writeVarLong(out, weights[j]);
+            }
+        }
+        record.squaresClosed = true;
+        record.teleports = null;
+        record.dest = null;
+        record.weights = null;
+    }
+
+    /**
+     * Internal method to write the buffered chunk column by column.
+     */
+    private void flushChunk() throws IOException {
+        if (chunkCount == 0)
+            return;
+        writeVarLong(out, chunkCount);
+        long prev = 0;
+        for (int i = 0; i < chunkCount; i++) {
+            writeZigZag(out, chunkPos[i] - prev);
+            prev = chunkPos[i];
+        }
+        out.write(chunkTypes, 0, chunkCount);
+        out.write(chunkFlags, 0, chunkCount);
+        for (int i = 0; i < chunkCount; i++)
+            writeZigZag(out, chunkTemps[i]);
+        for (int i = 0; i < chunkCount; i++)
+            out.writeDouble(chunkHumidities[i]);
+        out.write(chunkBorders, 0, chunkCount * BORDERS);
+        chunkCount = 0;
+    }
+
+    /**
+     * Flushes the underlying stream.
+     */
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    /**
+     * Closes the writer and the underlying stream.
+     *
+     * @throws  IllegalStateException
+     *          Throws an illegal state exception if a dungeon record is still open.
+     */
+    @Override
+    public void close() throws IOException {
+        if (!open.isEmpty())
+            throw new IllegalStateException("Not all dungeons have been ended!");
+        out.close();
+    }
+
+    /**
+     * The state of a dungeon record that is being written.
+     */
+    private static class Record {
+
+        /**
+         * Set once the squares and teleports of the record have been written.
+         */
+        private boolean squaresClosed = false;
+
+        /**
+         * The packed positions of the teleports of the record.
+         */
+        private List<Long> teleports = new ArrayList<>();
+
+        /**
+         * The destinations of the teleports of the record.
+         */
+        private List<long[]> dest = new ArrayList<>();
+
+        /**
+         * The weights of the destinations of the teleports of the record.
+         */
+        private List<int[]> weights = new ArrayList<>();
+
+    }
+
+}
@@ -0,0 +1,380 @@
+package be.kuleuven.cs.ogp.project.io;
+
+import be.kuleuven.cs.ogp.project.Direction;
+import be.kuleuven.cs.ogp.project.Square;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import static be.kuleuven.cs.ogp.project.io.DungeonFormat.*;
+
+/**
+ * This class gives random access to a file holding a fixed size record for every position of a dungeon region. The
+ * file is memory mapped, so records can be read and written without creating objects and the operating system decides
+ * which pages stay in memory.
+ *
+ * Every record is RECORD_SIZE bytes: the square type (0 for an empty position, else the snapshot type code plus one),
+ * the square flags, six border codes, the temperature and the humidity. The codes are those of the snapshot format.
+ *
+ * @author  Frederic Hannes
+ */
+public class MappedSquareFile implements Closeable {
+
+    /**
+     * The magic number at the start of every mapped square file ("OGPM").
+     */
+    private static final int FILE_MAGIC = 0x4F47504D;
+
+    /**
+     * The size of a single record in bytes.
+     */
+    public static final int RECORD_SIZE = 32;
+
+    /**
+     * The size of the file header, a multiple of the record size so records never straddle a segment.
+     */
+    private static final int HEADER_SIZE = RECORD_SIZE;
+
+    /**
+     * The number of bits used for the offset inside of a mapped segment.
+     */
+    private static final int SEGMENT_BITS = 30;
+
+    private static final int OFFSET_TYPE = 0;
+    private static final int OFFSET_FLAGS = 1;
+    private static final int OFFSET_BORDERS = 2;
+    private static final int OFFSET_TEMP = 8;
+    private static final int OFFSET_HUMIDITY = 12;
+
+    /**
+     * The file the records are stored in.
+     */
+    private final RandomAccessFile file;
+
+    /**
+     * The mapped segments of the file.
+     */
+    private final MappedByteBuffer[] segments;
+
+    private final int xDim;
+    private final int yDim;
+    private final int zDim;
+
+    /**
+     * Internal constructor for a mapped square file.
+     */
+    private MappedSquareFile(RandomAccessFile file, int xDim, int yDim, int zDim) throws IOException {
+        this.file = file;
+        this.xDim = xDim;
+        this.yDim = yDim;
+        this.zDim = zDim;
+        long size = HEADER_SIZE + (long) xDim * yDim * zDim * RECORD_SIZE;
+        long segmentSize = 1L << SEGMENT_BITS;
+        segments = new MappedByteBuffer[(int) ((size + segmentSize - 1) >>> SEGMENT_BITS)];
+        FileChannel channel = file.getChannel();
+        for (int i = 0; i < segments.length; i++) {
+            long start = (long) i << SEGMENT_BITS;
+            segments[i] = channel.map(FileChannel.MapMode.READ_WRITE, start, Math.min(segmentSize, size - start));
+        }
+    }
+
+    /**
+     * Creates a new mapped square file for a region with the given dimensions. All positions start out empty.
+     *
+     * @param   path
+     *          The given file.
+     * @param   xDim
+     *          The size of the X dimension of the region.
+     * @param   yDim
+     *          The size of the Y dimension of the region.
+     * @param   zDim
+     *          The size of the Z dimension of the region.
+     * @throws  IllegalArgumentException
+     *          Throws an illegal argument exception if the dimensions are invalid or the region holds more than
+     *          Integer.MAX_VALUE positions.
+     */
+    public static MappedSquareFile create(File path, int xDim, int yDim, int zDim) throws IOException {
+        if ((xDim <= 0) || (yDim <= 0) || (zDim <= 0) || ((long) xDim * yDim * zDim > Integer.MAX_VALUE))
+            throw new IllegalArgumentException("Invalid dimensions!");
+        RandomAccessFile file = new RandomAccessFile(path, "rw");
+        try {
+            file.setLength(0);
+            file.setLength(HEADER_SIZE + (long) xDim * yDim * zDim * RECORD_SIZE);
+            file.writeInt(FILE_MAGIC);
+            file.writeShort(VERSION);
+            file.writeShort(RECORD_SIZE);
+            file.writeInt(xDim);
+            file.writeInt(yDim);
+            file.writeInt(zDim);
+            return new MappedSquareFile(file, xDim, yDim, zDim);
+        } catch (IOException e) {
+            file.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Opens an existing mapped square file.
+     *
+     * @param   path
+     *          The given file.
+     * @throws  IOException
+     *          Throws an IO exception if the file is not a supported mapped square file.
+     */
+    public static MappedSquareFile open(File path) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(path, "rw");
+        try {
+            if ((file.readInt() != FILE_MAGIC) || (file.readShort() != VERSION) || (file.readShort() != RECORD_SIZE))
+                throw new IOException("Not a mapped square file!");
+            int xDim = file.readInt();
+            int yDim = file.readInt();
+            int zDim = file.readInt();
+            if ((xDim <= 0) || (yDim <= 0) || (zDim <= 0) || ((long) xDim * yDim * zDim > Integer.MAX_VALUE) ||
+                    (file.length() < HEADER_SIZE + (long) xDim * yDim * zDim * RECORD_SIZE))
+                throw new IOException("Corrupt mapped square file!");
+            return new MappedSquareFile(file, xDim, yDim, zDim);
+        } catch (IOException e) {
+            file.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the size of the X dimension of the region.
+     */
+    public int getXDim() {
+        return xDim;
+    }
+
+    /**
+     * Returns the size of the Y dimension of the region.
+     */
+    public int getYDim() {
+        return yDim;
+    }
+
+    /**
+     * Returns the size of the Z dimension of the region.
+     */
+    public int getZDim() {
+        return zDim;
+    }
+
+    /**
+     * Returns the number of positions in the region.
+     */
+    public int getCapacity() {
+        return xDim * yDim * zDim;
+    }
+
+    /**
+     * Checks whether the given coordinates fall inside of the region.
+     */
+    public boolean contains(int x, int y, int z) {
+        return (x >= 0) && (x < xDim) && (y >= 0) && (y < yDim) && (z >= 0) && (z < zDim);
+    }
+
+    /**
+     * Returns the record index of the given coordinates, which have to fall inside of the region.
+     */
+    public int index(int x, int y, int z) {
+        return (z * yDim + y) * xDim + x;
+    }
+
+    /**
+     * Returns the x-coordinate of a record index.
+     */
+    public int indexX(int index) {
+        return index % xDim;
+    }
+
+    /**
+     * Returns the y-coordinate of a record index.
+     */
+    public int indexY(int index) {
+        return (index / xDim) % yDim;
+    }
+
+    /**
+     * Returns the z-coordinate of a record index.
+     */
+    public int indexZ(int index) {
+        return index / xDim / yDim;
+    }
+
+    /**
+     * Returns the segment holding the record with the given index.
+     */
+    private ByteBuffer segment(int index) {
+        return segments[(int) ((HEADER_SIZE + (long) index * RECORD_SIZE) >>> SEGMENT_BITS)];
+    }
+
+    /**
+     * Returns the offset of the record with the given index inside of its segment.
+     */
+    private int offset(int index) {
+        return (int) ((HEADER_SIZE + (long) index * RECORD_SIZE) & ((1L << SEGMENT_BITS) - 1));
+    }
+
+    /**
+     * Returns true if a square is stored at the given record index.
+     */
+    public boolean hasSquare(int index) {
+        return segment(index).get(offset(index) + OFFSET_TYPE) != 0;
+    }
+
+    /**
+     * Returns the snapshot type code of the square at the given record index, or -1 for an empty position.
+     */
+    public byte getType(int index) {
+        return (byte) (segment(index).get(offset(index) + OFFSET_TYPE) - 1);
+    }
+
+    /**
+     * Returns the snapshot flags of the square at the given record index.
+     */
+    public byte getFlags(int index) {
+        return segment(index).get(offset(index) + OFFSET_FLAGS);
+    }
+
+    /**
+     * Returns the border code of the square at the given record index in the given direction.
+     */
+    public byte getBorder(int index, Direction dir) {
+        return segment(index).get(offset(index) + OFFSET_BORDERS + dir.ordinal());
+    }
+
+    /**
+     * Returns true if the border of the square at the given record index in the given direction can be passed.
+     */
+    public boolean isOpen(int index, Direction dir) {
+        byte code = getBorder(index, dir);
+        return (code == BORDER_NONE) || (code == BORDER_DOOR_OPEN) || (code == BORDER_FOIL_TORN);
+    }
+
+    /**
+     * Returns true if the square at the given record index is solid.
+     */
+    public boolean isSolid(int index) {
+        return getType(index) == SQUARE_ROCK;
+    }
+
+    /**
+     * Returns the temperature of the square at the given record index.
+     */
+    public int getTemp(int index) {
+        return segment(index).getInt(offset(index) + OFFSET_TEMP);
+    }
+
+    /**
+     * Returns the humidity of the square at the given record index.
+     */
+    public double getHumidity(int index) {
+        return segment(index).getDouble(offset(index) + OFFSET_HUMIDITY);
+    }
+
+    /**
+     * Stores the state of a square at the given record index.
+     *
+     * @param   index
+     *          The given record index.
+     * @param   square
+     *          The given square.
+     * @throws  IllegalArgumentException
+     *          Throws an illegal argument exception if the square or one of its borders can not be stored.
+     */
+    public void write(int index, Square square) throws IllegalArgumentException {
+        byte type = squareType(square);
+        if (type == SQUARE_TELEPORT)
+            throw new IllegalArgumentException("Teleport squares can not be stored in a mapped square file!");
+        ByteBuffer segment = segment(index);
+        int offset = offset(index);
+        for (Direction dir : Direction.values())
+            segment.put(offset + OFFSET_BORDERS + dir.ordinal(), encodeBorder(square.getBorder(dir)));
+        segment.put(offset + OFFSET_FLAGS, square.isSlipperyFloor() ? FLAG_SLIPPERY : 0);
+        segment.putInt(offset + OFFSET_TEMP, square.getTemp());
+        segment.putDouble(offset + OFFSET_HUMIDITY, square.getHumidity());
+        segment.put(offset + OFFSET_TYPE, (byte) (type + 1));
+    }
+
+    /**
+     * Marks the position at the given record index as empty.
+     */
+    public void clear(int index) {
+        ByteBuffer segment = segment(index);
+        int offset = offset(index);
+        for (int i = 0; i < RECORD_SIZE; i++)
+            segment.put(offset + i, (byte) 0);
+    }
+
+    /**
+     * Creates a square that is not yet part of a dungeon from the record at the given index. The state of doors and
+     * foils has to be restored with restoreBorders once the square has been linked to its neighbours.
+     *
+     * @param   index
+     *          The given record index.
+     * @throws  IllegalArgumentException
+     *          Throws an illegal argument exception if the position is empty or the record is corrupt.
+     */
+    public Square read(int index) throws IllegalArgumentException {
+        if (!hasSquare(index))
+            throw new IllegalArgumentException("No square stored at the given index!");
+        byte[] borders = borders(index);
+        try {
+            Square square = createSquare(getType(index), borders, 0);
+            if (square.canChangeTemp())
+                square.setTemp(getTemp(index));
+            if (square.canChangeHumidity())
+                square.setHumidity(getHumidity(index));
+            square.setSlipperyFloor((getFlags(index) & FLAG_SLIPPERY) != 0);
+            return square;
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Corrupt record: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Restores the state of the doors and foils of a linked square from the record at the given index.
+     *
+     * @param   index
+     *          The given record index.
+     * @param   square
+     *          The given square, which was created by read.
+     */
+    public void restoreBorders(int index, Square square) {
+        applyBorderStates(square, borders(index), 0);
+    }
+
+    /**
+     * Internal method to copy the border codes of a record.
+     */
+    private byte[] borders(int index) {
+        byte[] borders = new byte[BORDERS];
+        for (Direction dir : Direction.values())
+            borders[dir.ordinal()] = getBorder(index, dir);
+        return borders;
+    }
+
+    /**
+     * Writes all changes made to the mapped records to the storage device.
+     */
+    public void force() {
+        for (MappedByteBuffer segment : segments)
+            segment.force();
+    }
+
+    /**
+     * Writes all changes to the storage device and closes the file.
+     */
+    @Override
+    public void close() throws IOException {
+        force();
+        file.close();
+    }
+
+}
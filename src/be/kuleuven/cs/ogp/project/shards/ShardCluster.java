@@ -0,0 +1,175 @@
+package be.kuleuven.cs.ogp.project.shards;
+
+import be.kuleuven.cs.ogp.project.io.DungeonGenerator;
+import be.kuleuven.cs.ogp.project.tools.Point3D;
+import be.kuleuven.cs.som.annotate.Basic;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class runs the shards of a generated region in processes of their own on the local machine, and drives them
+ * through their standard input and output. The shards exchange their halos with each other directly, the cluster only
+ * passes commands and waits for their answers.
+ *
+ * @invar   The number of shards is at least 1.
+ *          | getShards() >= 1
+ *
+ * @author  Frederic Hannes
+ */
+public class ShardCluster implements Closeable {
+
+    private final int xDim;
+
+    private final List<Process> processes = new ArrayList<>();
+
+    private final List<BufferedReader> readers = new ArrayList<>();
+
+    private final List<PrintStream> writers = new ArrayList<>();
+
+    /**
+     * Starts the shards of a generated region and connects them to each other.
+     *
+     * @param   region
+     *          The kind of region.
+     * @param   size
+     *          The size of the region.
+     * @param   seed
+     *          The seed of the region and of the walks of the avatars.
+     * @param   shards
+     *          The number of shards.
+     * @throws  IllegalArgumentException
+     *          Throws an illegal argument exception if the region can not be generated or can not be cut into the
+     *          given number of shards.
+     * @throws  IOException
+     *          Throws an IO exception if a shard can not be started or connected.
+     */
+    public ShardCluster(DungeonGenerator.Region region, int size, long seed, int shards)
+            throws IllegalArgumentException, IOException {
+        this.xDim = new DungeonGenerator(seed, 1).getGenerator(region, size).getXDim();
+        if ((shards < 1) || (shards > xDim))
+            throw new IllegalArgumentException("Invalid number of shards!");
+        try {
+            String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+            for (int i = 0; i < shards; i++) {
+                ProcessBuilder builder = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                        ShardWorker.class.getName(), region.name(), Integer.toString(size), Long.toString(seed),
+                        Integer.toString(i), Integer.toString(shards));
+                builder.redirectError(ProcessBuilder.Redirect.INHERIT);
+                Process process = builder.start();
+                processes.add(process);
+                readers.add(new BufferedReader(new InputStreamReader(process.getInputStream(), "UTF-8")));
+                writers.add(new PrintStream(process.getOutputStream(), true, "UTF-8"));
+            }
+            List<Integer> ports = new ArrayList<>();
+            for (int i = 0; i < shards; i++)
+                ports.add(Integer.parseInt(answer(i, "PORT")));
+            for (int i = 0; i < shards; i++)
+                writers.get(i).println("CONNECT " + ((i > 0) ? ports.get(i - 1) : -1));
+            for (int i = 0; i < shards; i++)
+                answer(i, "OK");
+        } catch (IOException | RuntimeException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the number of shards.
+     */
+    @Basic
+    public int getShards() {
+        return processes.size();
+    }
+
+    /**
+     * Places a new avatar on a square, in the shard that owns it.
+     *
+     * @param   id
+     *          The number of the avatar.
+     * @param   pos
+     *          The position of the square.
+     * @throws  IllegalArgumentException
+     *          Throws an illegal argument exception if the position lies outside of the region, or if the shard
+     *          refuses the avatar.
+     */
+    public void spawn(long id, Point3D pos) throws IllegalArgumentException, IOException {
+        int owner = ShardWorker.getOwner(xDim, pos.getX(), getShards());
+        writers.get(owner).println("SPAWN " + id + " " + pos.getX() + " " + pos.getY() + " " + pos.getZ());
+        answer(owner, "OK");
+    }
+
+    /**
+     * Runs a tick in all shards at once.
+     *
+     * @return  The number of living avatars over all shards after the tick.
+     */
+    public int tick() throws IOException {
+        for (PrintStream writer : writers)
+            writer.println("TICK");
+        int res = 0;
+        for (int i = 0; i < getShards(); i++)
+            res += Integer.parseInt(answer(i, "OK").split(" ")[1]);
+        return res;
+    }
+
+    /**
+     * Returns the position of the avatar with the given number, null if no shard holds the avatar.
+     */
+    public Point3D getAvatarPos(long id) throws IOException {
+        Point3D res = null;
+        for (int i = 0; i < getShards(); i++) {
+            writers.get(i).println("AVATAR " + id);
+            String[] pos = answer(i, "OK").split(" ");
+            if (pos.length == 3)
+                res = new Point3D(Integer.parseInt(pos[0]), Integer.parseInt(pos[1]), Integer.parseInt(pos[2]));
+        }
+        return res;
+    }
+
+    /**
+     * Internal method to read the answer of a shard.
+     *
+     * @param   shard
+     *          The number of the shard.
+     * @param   expected
+     *          The word the answer should start with.
+     * @return  The rest of the answer.
+     * @throws  IllegalArgumentException
+     *          Throws an illegal argument exception if the shard answered with an error.
+     * @throws  IOException
+     *          Throws an IO exception if the shard stopped or gave an unexpected answer.
+     */
+    private String answer(int shard, String expected) throws IllegalArgumentException, IOException {
+        String line = readers.get(shard).readLine();
+        if (line == null)
+            throw new EOFException("Shard " + shard + " stopped!");
+        if (line.startsWith("ERROR"))
+            throw new IllegalArgumentException(line.substring("ERROR".length()).trim());
+        if (!line.startsWith(expected))
+            throw new IOException("Invalid answer from shard " + shard + "!");
+        return line.substring(expected.length()).trim();
+    }
+
+    /**
+     * Stops all shards.
+     */
+    @Override
+    public void close() throws IOException {
+        for (PrintStream writer : writers)
+            writer.println("QUIT");
+        for (Process process : processes) {
+            try {
+                process.waitFor();
+            } catch (InterruptedException e) {
+                process.destroy();
+                Thread.currentThread().interrupt();
+            }
+        }
+        processes.clear();
+        readers.clear();
+        writers.clear();
+    }
+
+}
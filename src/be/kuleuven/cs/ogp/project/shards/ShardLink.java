@@ -0,0 +1,173 @@
+package be.kuleuven.cs.ogp.project.shards;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+/**
+ * The connection between two neighbouring shards. Messages are sent as frames of a length followed by the payload.
+ * The link keeps one direct buffer for outgoing and one for incoming frames, which are reused for every frame and only
+ * grow when a frame does not fit, so a frame is written straight from the buffer it was built in and read straight
+ * into the buffer it is parsed from. The channel is non-blocking, so both neighbours can send and receive at once
+ * without waiting for each other. A link never reads beyond the end of a frame, the next frame stays in the socket.
+ *
+ * @author  Frederic Hannes
+ */
+final class ShardLink implements Closeable {
+
+    /**
+     * The initial size of the buffers.
+     */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /**
+     * The number of bytes of the length of a frame.
+     */
+    private static final int HEADER = 4;
+
+    private final SocketChannel channel;
+
+    private ByteBuffer out = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+    private ByteBuffer in = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+    /**
+     * Whether the outgoing frame has been completed and is being sent.
+     */
+    private boolean sending = false;
+
+    /**
+     * Whether the incoming frame has been received completely.
+     */
+    private boolean received = false;
+
+    /**
+     * Creates a link over the given connected channel.
+     */
+    ShardLink(SocketChannel channel) throws IOException {
+        this.channel = channel;
+        channel.configureBlocking(false);
+        channel.socket().setTcpNoDelay(true);
+        in.limit(HEADER);
+    }
+
+    /**
+     * Returns the channel of the link.
+     */
+    SocketChannel getChannel() {
+        return channel;
+    }
+
+    /**
+     * Starts a new outgoing frame and returns the buffer to write its payload to.
+     *
+     * @throws  IllegalStateException
+     *          Throws an illegal state exception if the previous frame has not been sent yet.
+     */
+    ByteBuffer begin() throws IllegalStateException {
+        if (sending)
+            throw new IllegalStateException("The previous frame has not been sent yet!");
+        out.clear();
+        out.position(HEADER);
+        return out;
+    }
+
+    /**
+     * Makes room for the given number of bytes in the outgoing frame and returns the buffer to write them to.
+     */
+    ByteBuffer reserve(int bytes) {
+        if (out.remaining() < bytes) {
+            ByteBuffer larger = ByteBuffer.allocateDirect(Math.max(out.capacity() * 2, out.position() + bytes));
+            out.flip();
+            larger.put(out);
+            out = larger;
+        }
+        return out;
+    }
+
+    /**
+     * Completes the outgoing frame, it is sent by the following calls to send.
+     */
+    void finish() {
+        out.putInt(0, out.position() - HEADER);
+        out.flip();
+        sending = true;
+    }
+
+    /**
+     * Sends as much of the outgoing frame as the channel accepts without blocking.
+     *
+     * @return  True if the frame has been sent completely.
+     */
+    boolean send() throws IOException {
+        if (sending) {
+            channel.write(out);
+            sending = out.hasRemaining();
+        }
+        return !sending;
+    }
+
+    /**
+     * Returns true if the outgoing frame has been sent completely.
+     */
+    boolean isSent() {
+        return !sending;
+    }
+
+    /**
+     * Receives as much of the incoming frame as is available without blocking.
+     *
+     * @return  True if the frame has been received completely.
+     * @throws  EOFException
+     *          Throws an end of file exception if the neighbour closed the connection.
+     */
+    boolean receive() throws IOException {
+        while (!received) {
+            if (channel.read(in) < 0)
+                throw new EOFException("The neighbouring shard closed the connection!");
+            if (in.hasRemaining())
+                return false;
+            if (in.position() == HEADER) {
+                int length = in.getInt(0);
+                if (length < 0)
+                    throw new IOException("Invalid frame length!");
+                if (in.capacity() < HEADER + length) {
+                    ByteBuffer larger = ByteBuffer.allocateDirect(Math.max(in.capacity() * 2, HEADER + length));
+                    larger.putInt(length);
+                    in = larger;
+                }
+                in.limit(HEADER + length);
+                received = !in.hasRemaining();
+            } else {
+                received = true;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the payload of the incoming frame, which has been received completely. The frame is released once
+     * release is called.
+     */
+    ByteBuffer payload() {
+        in.position(HEADER);
+        return in;
+    }
+
+    /**
+     * Releases the incoming frame, so the next frame can be received.
+     */
+    void release() {
+        in.clear();
+        in.limit(HEADER);
+        received = false;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+}
@@ -0,0 +1,815 @@
+package be.kuleuven.cs.ogp.project.shards;
+
+import be.kuleuven.cs.ogp.project.*;
+import be.kuleuven.cs.ogp.project.dungeons.ChunkManager;
+import be.kuleuven.cs.ogp.project.dungeons.ProceduralDungeon;
+import be.kuleuven.cs.ogp.project.io.DungeonBuilder;
+import be.kuleuven.cs.ogp.project.io.DungeonFormat;
+import be.kuleuven.cs.ogp.project.io.DungeonGenerator;
+import be.kuleuven.cs.ogp.project.io.DungeonSink;
+import be.kuleuven.cs.ogp.project.tools.Point3D;
+import be.kuleuven.cs.ogp.project.tools.RandomSource;
+import be.kuleuven.cs.som.annotate.Basic;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * This class runs one shard of a generated dungeon. The dungeon is cut into slabs along the X axis, one for every
+ * shard, and a shard only builds the squares of its own slab and of the column of squares on either side of it, the
+ * halo. The halo squares belong to the neighbouring shards: a shard reads them, but only their owner changes them.
+ *
+ * A tick runs in three steps. The temperatures of the owned squares are evened out with their neighbours across open
+ * borders, and the avatars of the shard walk in a random direction. Then every shard sends the state of its outer
+ * columns and the avatars that walked into a halo square to its neighbours, in one frame for each neighbour. Finally,
+ * the halo squares take over the state and the borders of the squares of their owners, and the avatars that were
+ * handed over enter their squares, colliding with the avatars on them. The neighbours of the squares and the borders
+ * of the columns that are exchanged are kept in arrays, which are only looked up again when the layout of the dungeon
+ * has changed.
+ *
+ * The neighbours are connected over sockets on the local machine. A shard can run in a thread of its own, or in a
+ * process of its own through the main method, which is controlled through its standard input and output.
+ *
+ * @invar   The shard is one of the shards of its dungeon.
+ *          | (getIndex() >= 0) && (getIndex() < getShards())
+ * @invar   The slab of the shard is not empty.
+ *          | getLow() < getHigh()
+ *
+ * @author  Frederic Hannes
+ */
+public class ShardWorker implements Closeable {
+
+    /**
+     * The number of bytes of a square in a frame: its position, temperature, humidity, flags and border codes.
+     */
+    private static final int SQUARE_BYTES = 8 + 4 + 8 + 1 + DungeonFormat.BORDERS;
+
+    /**
+     * The number of bytes of a handed over avatar in a frame: its number and the position of its square.
+     */
+    private static final int MOVE_BYTES = 8 + 8;
+
+    private static final int LEFT = 0;
+    private static final int RIGHT = 1;
+
+    private final long seed;
+
+    private final int index;
+
+    private final int shards;
+
+    private final int low;
+
+    private final int high;
+
+    private final Dungeon<Square> dungeon;
+
+    /**
+     * The squares of the shard, sorted by position.
+     */
+    private final Square[] owned;
+
+    /**
+     * The outer columns of the slab, which are sent to the left and right neighbours, sorted by position.
+     */
+    private final Square[][] edges = new Square[2][];
+
+    /**
+     * The halo columns of the slab, which mirror the outer columns of the left and right neighbours, sorted by
+     * position.
+     */
+    private final Square[][] halos = new Square[2][];
+
+    /**
+     * The squares taking part in the climate: the owned squares followed by the halo squares.
+     */
+    private final Square[] climate;
+
+    /**
+     * The temperatures of the squares taking part in the climate at the start of a tick.
+     */
+    private final int[] temps;
+
+    /**
+     * The neighbours of the owned squares across open borders which can change their temperature, as indices into
+     * the climate squares. The neighbours of the owned square at index i are found from neighbours[first[i]] up to
+     * neighbours[first[i + 1]].
+     */
+    private final int[] first;
+    private int[] neighbours = new int[0];
+
+    /**
+     * The borders of the outer and halo columns on the left and right, the borders of a square follow each other in
+     * the order of their directions.
+     */
+    private final Border[][] edgeBorders = new Border[2][];
+    private final Border[][] haloBorders = new Border[2][];
+
+    /**
+     * The layout version of the dungeon the neighbours and borders were looked up for, -1 if they have not been looked
+     * up yet.
+     */
+    private long layoutVersion = -1;
+
+    /**
+     * The living avatars of the shard by number.
+     */
+    private final TreeMap<Long, Avatar> avatars = new TreeMap<>();
+
+    /**
+     * The avatars handed over to the left and right neighbours in the current tick, as pairs of a number and a packed
+     * position.
+     */
+    private final long[][] moves = new long[2][8];
+    private final int[] moveCounts = new int[2];
+
+    /**
+     * The connections to the left and right neighbours, null if there is no neighbour.
+     */
+    private final ShardLink[] links = new ShardLink[2];
+
+    private ServerSocketChannel server = null;
+
+    private Selector selector = null;
+
+    /**
+     * The number of ticks that have been run.
+     */
+    private long tick = 0;
+
+    /**
+     * Creates a shard of the dungeon of the given generator and builds the squares of its slab and halo.
+     *
+     * @param   generator
+     *          The generator of the dungeon.
+     * @param   seed
+     *          The seed of the random walks of the avatars.
+     * @param   index
+     *          The number of the shard, counted from the lowest X coordinates.
+     * @param   shards
+     *          The number of shards of the dungeon.
+     * @throws  IllegalArgumentException
+     *          Throws an illegal argument exception if the generator is invalid, if the number of shards is less than
+     *          one or larger than the X dimension of the dungeon, or if the number of the shard is invalid.
+     *          | (generator == null) || (shards < 1) || (shards > generator.getXDim()) || (index < 0) ||
+     *          |   (index >= shards)
+     * @throws  IllegalStateException
+     *          Throws an illegal state exception if the generator fails.
+     */
+    public ShardWorker(ProceduralDungeon.Generator generator, long seed, int index, int shards)
+            throws IllegalArgumentException, IllegalStateException {
+        if (generator == null)
+            throw new IllegalArgumentException("Invalid generator!");
+        if ((shards < 1) || (shards > generator.getXDim()))
+            throw new IllegalArgumentException("Invalid number of shards!");
+        if ((index < 0) || (index >= shards))
+            throw new IllegalArgumentException("Invalid shard!");
+        this.seed = seed;
+        this.index = index;
+        this.shards = shards;
+        this.low = getSlabStart(generator.getXDim(), index, shards);
+        this.high = getSlabStart(generator.getXDim(), index + 1, shards);
+        Slab slab = new Slab(Math.max(low - 1, 0), Math.min(high + 1, generator.getXDim()));
+        try {
+            slab.build(generator);
+        } catch (IOException e) {
+            throw new IllegalStateException("The generator failed!", e);
+        }
+        this.dungeon = slab.builder.getDungeon();
+        this.owned = slab.resolve(low, high);
+        this.edges[LEFT] = slab.resolve(low, low + 1);
+        this.edges[RIGHT] = slab.resolve(high - 1, high);
+        this.halos[LEFT] = slab.resolve(low - 1, low);
+        this.halos[RIGHT] = slab.resolve(high, high + 1);
+        this.climate = new Square[owned.length + halos[LEFT].length + halos[RIGHT].length];
+        System.arraycopy(owned, 0, climate, 0, owned.length);
+        System.arraycopy(halos[LEFT], 0, climate, owned.length, halos[LEFT].length);
+        System.arraycopy(halos[RIGHT], 0, climate, owned.length + halos[LEFT].length, halos[RIGHT].length);
+        this.temps = new int[climate.length];
+        this.first = new int[owned.length + 1];
+        for (int side = LEFT; side <= RIGHT; side++) {
+            edgeBorders[side] = new Border[edges[side].length * DungeonFormat.BORDERS];
+            haloBorders[side] = new Border[halos[side].length * DungeonFormat.BORDERS];
+        }
+    }
+
+    /**
+     * Returns the lowest X coordinate of the slab of a shard.
+     *
+     * @param   xDim
+     *          The X dimension of the dungeon.
+     * @param   index
+     *          The number of the shard, the number of shards for the end of the last slab.
+     * @param   shards
+     *          The number of shards.
+     */
+    public static int getSlabStart(int xDim, int index, int shards) {
+        return (int) ((long) xDim * index / shards);
+    }
+
+    /**
+     * Returns the number of the shard which owns the squares with the given X coordinate.
+     *
+     * @param   xDim
+     *          The X dimension of the dungeon.
+     * @param   x
+     *          The given X coordinate.
+     * @param   shards
+     *          The number of shards.
+     * @throws  IllegalArgumentException
+     *          Throws an illegal argument exception if the X coordinate lies outside of the dungeon.
+     *          | (x < 0) || (x >= xDim)
+     */
+    public static int getOwner(int xDim, int x, int shards) throws IllegalArgumentException {
+        if ((x < 0) || (x >= xDim))
+            throw new IllegalArgumentException("Invalid coordinate!");
+        int res = (int) (((long) x * shards + shards - 1) / xDim);
+        while (getSlabStart(xDim, res, shards) > x)
+            res--;
+        while (getSlabStart(xDim, res + 1, shards) <= x)
+            res++;
+        return res;
+    }
+
+    /**
+     * Returns the number of the shard.
+     */
+    @Basic
+    public int getIndex() {
+        return index;
+    }
+
+    /**
+     * Returns the number of shards of the dungeon.
+     */
+    @Basic
+    public int getShards() {
+        return shards;
+    }
+
+    /**
+     * Returns the lowest X coordinate of the slab of the shard.
+     */
+    @Basic
+    public int getLow() {
+        return low;
+    }
+
+    /**
+     * Returns the X coordinate just beyond the slab of the shard.
+     */
+    @Basic
+    public int getHigh() {
+        return high;
+    }
+
+    /**
+     * Returns the dungeon of the shard, which holds the squares of its slab and halo.
+     */
+    @Basic
+    public Dungeon<Square> getDungeon() {
+        return dungeon;
+    }
+
+    /**
+     * Returns the number of ticks that have been run.
+     */
+    @Basic
+    public long getTick() {
+        return tick;
+    }
+
+    /**
+     * Returns the number of living avatars of the shard.
+     */
+    public int getAvatarCount() {
+        return avatars.size();
+    }
+
+    /**
+     * Returns the position of the avatar with the given number, null if the avatar is not in the shard.
+     */
+    public Point3D getAvatarPos(long id) {
+        Avatar avatar = avatars.get(id);
+        Square square = (avatar != null) ? avatar.getSquare() : null;
+        return (square != null) ? square.getPos() : null;
+    }
+
+    /**
+     * Returns true if the shard owns the given position.
+     */
+    public boolean owns(Point3D pos) {
+        return (pos != null) && (pos.getX() >= low) && (pos.getX() < high);
+    }
+
+    /**
+     * Places a new avatar on a square of the shard.
+     *
+     * @param   id
+     *          The number of the avatar, unique over all shards.
+     * @param   pos
+     *          The position of the square.
+     * @throws  IllegalArgumentException
+     *          Throws an illegal argument exception if the shard already has an avatar with the given number, if the
+     *          shard does not own the given position, or if there is no square at the given position which can hold
+     *          an avatar.
+     */
+    public void spawn(long id, Point3D pos) throws IllegalArgumentException {
+        if (avatars.containsKey(id))
+            throw new IllegalArgumentException("Invalid avatar!");
+        if (!owns(pos))
+            throw new IllegalArgumentException("Invalid position!");
+        Square square = dungeon.getSquare(pos);
+        if ((square == null) || square.isSolid())
+            throw new IllegalArgumentException("Invalid position!");
+        enter(id, square);
+    }
+
+    /**
+     * Opens the socket the right neighbour connects to.
+     *
+     * @return  The port of the socket, -1 if the shard has no right neighbour.
+     */
+    public int listen() throws IOException {
+        if (index == shards - 1)
+            return -1;
+        if (server == null) {
+            server = ServerSocketChannel.open();
+            server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 1);
+        }
+        return server.socket().getLocalPort();
+    }
+
+    /**
+     * Connects the shard to its neighbours. The shard connects to the left neighbour on the given port and waits for
+     * the right neighbour to connect, so the shards should call this method at the same time.
+     *
+     * @param   port
+     *          The port the left neighbour listens on, ignored for the first shard.
+     * @throws  IllegalStateException
+     *          Throws an illegal state exception if the shard is already connected, or if it has a right neighbour and
+     *          is not listening.
+     */
+    public void connect(int port) throws IOException, IllegalStateException {
+        if (selector != null)
+            throw new IllegalStateException("The shard is already connected!");
+        if ((index < shards - 1) && (server == null))
+            throw new IllegalStateException("The shard is not listening!");
+        selector = Selector.open();
+        if (index > 0)
+            register(LEFT, SocketChannel.open(new InetSocketAddress(InetAddress.getLoopbackAddress(), port)));
+        if (index < shards - 1) {
+            register(RIGHT, server.accept());
+            server.close();
+            server = null;
+        }
+    }
+
+    /**
+     * Internal method to add the link to a neighbour.
+     */
+    private void register(int side, SocketChannel channel) throws IOException {
+        links[side] = new ShardLink(channel);
+        channel.register(selector, 0, links[side]);
+    }
+
+    /**
+     * Runs a tick of the shard. All shards of the dungeon must run their ticks in step.
+     *
+     * @throws  IllegalStateException
+     *          Throws an illegal state exception if the shard is not connected.
+     * @throws  IOException
+     *          Throws an IO exception if the exchange with a neighbour fails.
+     */
+    public void tick() throws IOException, IllegalStateException {
+        if (selector == null)
+            throw new IllegalStateException("The shard is not connected!");
+        long version = dungeon.getLayoutVersion();
+        if (version != layoutVersion) {
+            findNeighbours();
+            findBorders();
+            layoutVersion = version;
+        }
+        spreadClimate();
+        walkAvatars();
+        for (int side = LEFT; side <= RIGHT; side++)
+            if (links[side] != null)
+                writeFrame(side);
+        exchange();
+        for (int side = LEFT; side <= RIGHT; side++)
+            if (links[side] != null)
+                readFrame(side);
+        removeDead();
+        tick++;
+    }
+
+    /**
+     * Internal method to even out the temperatures of the owned squares with their neighbours across open borders.
+     * All new temperatures are computed from the temperatures at the start of the tick, the neighbours are read from
+     * arrays.
+     */
+    private void spreadClimate() {
+        for (int i = 0; i < climate.length; i++)
+            temps[i] = climate[i].getTemp();
+        for (int i = 0; i < owned.length; i++) {
+            int count = first[i + 1] - first[i];
+            if (count == 0)
+                continue;
+            long sum = 0;
+            for (int j = first[i]; j < first[i + 1]; j++)
+                sum += temps[neighbours[j]];
+            int temp = temps[i] + (int) ((sum / count - temps[i]) / 2);
+            if (temp != temps[i])
+                owned[i].setTemp(temp);
+        }
+    }
+
+    /**
+     * Internal method to look up the neighbours of the owned squares which take part in their climate.
+     */
+    private void findNeighbours() {
+        Map<Square, Integer> indices = new IdentityHashMap<>(2 * climate.length);
+        for (int i = 0; i < climate.length; i++)
+            indices.put(climate[i], i);
+        int count = 0;
+        for (int i = 0; i < owned.length; i++) {
+            first[i] = count;
+            if (!owned[i].canChangeTemp())
+                continue;
+            for (Direction dir : Direction.values()) {
+                Border border = owned[i].getBorder(dir);
+                Border adjacent = border.getAdjacent();
+                if (!border.isOpen() || (adjacent == null) || !adjacent.getSquare().canChangeTemp())
+                    continue;
+                Integer index = indices.get(adjacent.getSquare());
+                if (index == null)
+                    continue;
+                if (count == neighbours.length)
+                    neighbours = Arrays.copyOf(neighbours, Math.max(2 * count, 1024));
+                neighbours[count++] = index;
+            }
+        }
+        first[owned.length] = count;
+    }
+
+    /**
+     * Internal method to look up the borders of the outer and halo columns.
+     */
+    private void findBorders() {
+        for (int side = LEFT; side <= RIGHT; side++) {
+            for (int i = 0; i < edges[side].length; i++)
+                for (int j = 0; j < DungeonFormat.BORDERS; j++)
+                    edgeBorders[side][i * DungeonFormat.BORDERS + j] = edges[side][i].getBorder(Direction.get(j));
+            for (int i = 0; i < halos[side].length; i++)
+                for (int j = 0; j < DungeonFormat.BORDERS; j++)
+                    haloBorders[side][i * DungeonFormat.BORDERS + j] = halos[side][i].getBorder(Direction.get(j));
+        }
+    }
+
+    /**
+     * Internal method to let the avatars walk in a random direction through an open border, in the order of their
+     * numbers. The avatars that reach a halo square are handed over to its owner.
+     */
+    private void walkAvatars() {
+        moveCounts[LEFT] = moveCounts[RIGHT] = 0;
+        Iterator<Map.Entry<Long, Avatar>> it = avatars.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Long, Avatar> entry = it.next();
+            Avatar avatar = entry.getValue();
+            if (!avatar.isAlive()) {
+                it.remove();
+                continue;
+            }
+            long id = entry.getKey();
+            Direction dir = Direction.get(RandomSource.forKey(seed + tick, id).nextInt(Direction.COUNT));
+            if (!avatar.getSquare().getBorder(dir).isOpen())
+                continue;
+            try {
+                avatar.move(dir);
+            } catch (IllegalArgumentException e) {
+                continue;
+            }
+            Square square = avatar.getSquare();
+            if ((square == null) || (square.getPos().getX() >= low) && (square.getPos().getX() < high))
+                continue;
+            int side = (square.getPos().getX() < low) ? LEFT : RIGHT;
+            avatar.leave();
+            it.remove();
+            addMove(side, id, square.getPos().pack());
+        }
+    }
+
+    /**
+     * Internal method to record an avatar handed over to a neighbour.
+     */
+    private void addMove(int side, long id, long pos) {
+        int at = 2 * moveCounts[side];
+        if (at + 2 > moves[side].length)
+            moves[side] = Arrays.copyOf(moves[side], 2 * moves[side].length);
+        moves[side][at] = id;
+        moves[side][at + 1] = pos;
+        moveCounts[side]++;
+    }
+
+    /**
+     * Internal method to build the frame for a neighbour: the tick, the state of the outer column of the slab on its
+     * side and the avatars handed over to it.
+     */
+    private void writeFrame(int side) {
+        ShardLink link = links[side];
+        Square[] edge = edges[side];
+        Border[] borders = edgeBorders[side];
+        link.begin();
+        ByteBuffer out = link.reserve(8 + 4 + edge.length * SQUARE_BYTES + 4 + moveCounts[side] * MOVE_BYTES);
+        out.putLong(tick);
+        out.putInt(edge.length);
+        for (int i = 0; i < edge.length; i++) {
+            out.putLong(edge[i].getPos().pack());
+            out.putInt(edge[i].getTemp());
+            out.putDouble(edge[i].getHumidity());
+            out.put(DungeonFormat.squareFlags(edge[i]));
+            for (int j = i * DungeonFormat.BORDERS; j < (i + 1) * DungeonFormat.BORDERS; j++)
+                out.put(DungeonFormat.encodeBorder(borders[j]));
+        }
+        out.putInt(moveCounts[side]);
+        for (int i = 0; i < 2 * moveCounts[side]; i++)
+            out.putLong(moves[side][i]);
+        link.finish();
+    }
+
+    /**
+     * Internal method to send the frames to and receive the frames from all neighbours at once.
+     */
+    private void exchange() throws IOException {
+        while (true) {
+            boolean done = true;
+            for (ShardLink link : links) {
+                if (link == null)
+                    continue;
+                boolean sent = link.send();
+                boolean received = link.receive();
+                link.getChannel().keyFor(selector).interestOps(
+                        (sent ? 0 : SelectionKey.OP_WRITE) | (received ? 0 : SelectionKey.OP_READ));
+                done &= sent && received;
+            }
+            if (done)
+                return;
+            selector.select();
+            selector.selectedKeys().clear();
+        }
+    }
+
+    /**
+     * Internal method to apply the frame of a neighbour to the halo on its side.
+     *
+     * @throws  IOException
+     *          Throws an IO exception if the frame does not belong to this tick or does not match the halo.
+     */
+    private void readFrame(int side) throws IOException {
+        ShardLink link = links[side];
+        ByteBuffer in = link.payload();
+        byte[] borders = new byte[DungeonFormat.BORDERS];
+        if (in.getLong() != tick)
+            throw new IOException("The shards are out of step!");
+        Square[] halo = halos[side];
+        Border[] current = haloBorders[side];
+        if (in.getInt() != halo.length)
+            throw new IOException("Invalid halo!");
+        for (int i = 0; i < halo.length; i++) {
+            Square square = halo[i];
+            if (in.getLong() != square.getPos().pack())
+                throw new IOException("Invalid halo!");
+            int temp = in.getInt();
+            double humidity = in.getDouble();
+            byte flags = in.get();
+            in.get(borders);
+            if (square.canChangeTemp() && (square.getTemp() != temp))
+                square.setTemp(temp);
+            if (square.canChangeHumidity() && (square.getHumidity() != humidity))
+                square.setHumidity(humidity);
+            boolean slippery = (flags & DungeonFormat.FLAG_SLIPPERY) != 0;
+            if (square.isSlipperyFloor() != slippery)
+                square.setSlipperyFloor(slippery);
+            for (int j = 0; j < DungeonFormat.BORDERS; j++)
+                if (DungeonFormat.encodeBorder(current[i * DungeonFormat.BORDERS + j]) != borders[j]) {
+                    applyBorders(square, borders);
+                    break;
+                }
+        }
+        int count = in.getInt();
+        for (int i = 0; i < count; i++) {
+            long id = in.getLong();
+            Point3D pos = Point3D.unpack(in.getLong());
+            Square square = dungeon.getSquare(pos);
+            if (!owns(pos) || (square == null) || square.isSolid())
+                throw new IOException("Invalid avatar move!");
+            enter(id, square);
+        }
+        link.release();
+    }
+
+    /**
+     * Internal method to let the borders of a halo square take over the border codes of its owner. Doors and plastic
+     * foils of the right kind only change their state, other borders are replaced by a border of the right type.
+     *
+     * @throws  IOException
+     *          Throws an IO exception if a border code is unknown.
+     */
+    private static void applyBorders(Square square, byte[] borders) throws IOException {
+        DungeonFormat.applyBorderStates(square, borders, 0);
+        for (int j = 0; j < DungeonFormat.BORDERS; j++) {
+            Direction dir = Direction.get(j);
+            // A replaced border can be shared with the next halo square, so the live border is compared
+            if (DungeonFormat.encodeBorder(square.getBorder(dir)) != borders[j])
+                square.setBorder(DungeonFormat.decodeBorder(borders[j]), dir);
+        }
+    }
+
+    /**
+     * Internal method to place an avatar with the given number on a square.
+     */
+    private void enter(long id, Square square) {
+        Avatar avatar = new Avatar(square);
+        if (avatar.isAlive())
+            avatars.put(id, avatar);
+    }
+
+    /**
+     * Internal method to forget the avatars killed in collisions.
+     */
+    private void removeDead() {
+        Iterator<Avatar> it = avatars.values().iterator();
+        while (it.hasNext())
+            if (!it.next().isAlive())
+                it.remove();
+    }
+
+    /**
+     * Closes the connections to the neighbours.
+     */
+    @Override
+    public void close() throws IOException {
+        for (int side = LEFT; side <= RIGHT; side++)
+            if (links[side] != null) {
+                links[side].close();
+                links[side] = null;
+            }
+        if (server != null)
+            server.close();
+        if (selector != null)
+            selector.close();
+    }
+
+    /**
+     * Runs a shard in a process of its own. The arguments are the kind of region, its size, the seed of the region
+     * and of the walks, the number of the shard and the number of shards. The shard prints the port its right
+     * neighbour connects to and then reads commands from its standard input, one per line:
+     *
+     *      CONNECT port        connects to the neighbours, the port of the left neighbour
+     *      SPAWN id x y z      places an avatar
+     *      TICK                runs a tick
+     *      AVATAR id           prints the position of an avatar
+     *      QUIT                closes the shard
+     *
+     * Every command is answered with a line starting with OK, followed by the result, or with ERROR and a message.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 5)
+            throw new IllegalArgumentException("Usage: ShardWorker region size seed index shards");
+        long seed = Long.parseLong(args[2]);
+        ProceduralDungeon.Generator generator = new DungeonGenerator(seed, 1).getGenerator(
+                DungeonGenerator.Region.valueOf(args[0]), Integer.parseInt(args[1]));
+        BufferedReader in = new BufferedReader(new InputStreamReader(System.in, "UTF-8"));
+        PrintStream out = System.out;
+        try (ShardWorker worker = new ShardWorker(generator, seed, Integer.parseInt(args[3]),
+                Integer.parseInt(args[4]))) {
+            out.println("PORT " + worker.listen());
+            out.flush();
+            String line;
+            while ((line = in.readLine()) != null) {
+                String[] cmd = line.trim().split(" +");
+                try {
+                    if (cmd[0].equals("QUIT")) {
+                        out.println("OK");
+                        break;
+                    } else if (cmd[0].equals("CONNECT")) {
+                        worker.connect(Integer.parseInt(cmd[1]));
+                        out.println("OK");
+                    } else if (cmd[0].equals("SPAWN")) {
+                        worker.spawn(Long.parseLong(cmd[1]), new Point3D(Integer.parseInt(cmd[2]),
+                                Integer.parseInt(cmd[3]), Integer.parseInt(cmd[4])));
+                        out.println("OK");
+                    } else if (cmd[0].equals("TICK")) {
+                        worker.tick();
+                        out.println("OK " + worker.getTick() + " " + worker.getAvatarCount());
+                    } else if (cmd[0].equals("AVATAR")) {
+                        Point3D pos = worker.getAvatarPos(Long.parseLong(cmd[1]));
+                        out.println((pos != null) ? "OK " + pos.getX() + " " + pos.getY() + " " + pos.getZ() : "OK");
+                    } else {
+                        out.println("ERROR Unknown command!");
+                    }
+                } catch (IllegalArgumentException | IllegalStateException | IndexOutOfBoundsException e) {
+                    out.println("ERROR " + e.getMessage());
+                }
+                out.flush();
+            }
+        }
+    }
+
+    /**
+     * The squares of a slab and its halo, built from the squares passed by a generator.
+     */
+    private static class Slab implements DungeonSink {
+
+        /**
+         * The X coordinates of the squares that are kept.
+         */
+        private final int from, to;
+
+        private final DungeonBuilder builder = new DungeonBuilder();
+
+        /**
+         * The positions of the squares that are kept.
+         */
+        private long[] positions = new long[1024];
+        private int size = 0;
+
+        private Slab(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        /**
+         * Passes all cubes of the generator that overlap the slab to the sink.
+         */
+        private void build(ProceduralDungeon.Generator generator) throws IOException {
+            int cube = ChunkManager.CHUNK_SIZE;
+            beginDungeon(DungeonFormat.DUNGEON_PLAIN, null);
+            for (int x = from; x < to; x += cube)
+                for (int y = 0; y < generator.getYDim(); y += cube)
+                    for (int z = 0; z < generator.getZDim(); z += cube)
+                        generator.generate(x, y, z, cube, this);
+            endDungeon();
+            Arrays.sort(positions, 0, size);
+        }
+
+        /**
+         * Returns the squares of the built dungeon with an X coordinate in the given range, sorted by position.
+         */
+        private Square[] resolve(int lowX, int highX) {
+            int count = 0;
+            for (int i = 0; i < size; i++) {
+                int x = Point3D.unpackX(positions[i]);
+                if ((x >= lowX) && (x < highX))
+                    count++;
+            }
+            Square[] res = new Square[count];
+            count = 0;
+            for (int i = 0; i < size; i++) {
+                int x = Point3D.unpackX(positions[i]);
+                if ((x >= lowX) && (x < highX))
+                    res[count++] = builder.getDungeon().getSquare(Point3D.unpack(positions[i]));
+            }
+            return res;
+        }
+
+        @Override
+        public void beginDungeon(int type, Point3D pos) throws IOException {
+            builder.beginDungeon(type, pos);
+        }
+
+        @Override
+        public void writeSquare(long pos, byte type, byte flags, int temp, double humidity, byte[] borders)
+                throws IOException {
+            if (Point3D.unpackX(pos) >= to)
+                return;
+            builder.writeSquare(pos, type, flags, temp, humidity, borders);
+            if (size == positions.length)
+                positions = Arrays.copyOf(positions, 2 * size);
+            positions[size++] = pos;
+        }
+
+        @Override
+        public void writeTeleport(long pos, long[] dest, int[] weights) throws IOException {
+            throw new IOException("A slab has no teleports!");
+        }
+
+        @Override
+        public void endDungeon() throws IOException {
+            builder.endDungeon();
+        }
+
+    }
+
+}
@@ -68,16 +68,16 @@ public class Rock extends Square {
     }
 
     /**
-     * Is called when the square is linked to a neighbour.
+     * Is called when the square is linked to a neighbour. The neighbours are read through the borders linking them.
      */
     @Override
     protected void linked() {
         double humidity = 0;
         int count = 0;
-        for (Direction dir : Direction.values()) {
-            Border border = getBorder(dir);
-            if (border.getAdjacent() != null) {
-                humidity += border.getAdjacent().getSquare().getHumidity();
+        for (int i = 0; i < Direction.COUNT; i++) {
+            Border adjacent = getBorder(Direction.get(i)).getAdjacent();
+            if (adjacent != null) {
+                humidity += adjacent.getSquare().getHumidity();
                 count++;
             }
         }
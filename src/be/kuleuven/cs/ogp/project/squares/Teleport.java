@@ -1,24 +1,153 @@
 package be.kuleuven.cs.ogp.project.squares;
 
+import be.kuleuven.cs.ogp.project.DungeonTrace;
 import be.kuleuven.cs.ogp.project.Square;
 import be.kuleuven.cs.ogp.project.TeleportInterface;
-import be.kuleuven.cs.ogp.project.tools.Tools;
+import be.kuleuven.cs.ogp.project.tools.AliasTable;
+import be.kuleuven.cs.ogp.project.tools.RandomSource;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
- * This class represents a teleportation square.
+ * This class represents a teleportation square. Destinations are drawn with their weights from an alias table, which
+ * is rebuilt when a destination is added. Chains of teleports are collapsed into a terminal distribution, so a whole
+ * chain is followed with a single draw. The distribution is only rebuilt when a destination is added to one of the
+ * teleports in the chain, not when other teleports of the dungeon change. Every cycle of teleports in the chains is
+ * solved once and the solution is shared by all chains running through the cycle, until one of its teleports changes.
  *
  * @author Frederic Hannes
  */
 public class Teleport extends Square implements TeleportInterface {
 
+    /**
+     * The number of changes made to the destinations of this teleport, used to tell whether a terminal distribution
+     * which depends on them is still valid.
+     */
+    private final AtomicLong version = new AtomicLong();
+
     /**
      * A list containing all teleport destinations.
      */
     private List<Square> dest = new ArrayList<>();
 
+    /**
+     * The weights of the destinations.
+     */
+    private List<Integer> weights = new ArrayList<>();
+
+    /**
+     * The table to draw destinations from, null if it has to be rebuilt.
+     */
+    private volatile AliasTable table = null;
+
+    /**
+     * The squares at the end of the chains starting at this teleport, null if they have not been computed yet.
+     */
+    private volatile Terminals terminals = null;
+
+    /**
+     * The last solution of the cycle of teleports this teleport is part of, null if it has not been solved yet.
+     */
+    private volatile Cycle cycle = null;
+
+    /**
+     * The squares at the end of the chains starting at a teleport and the table to draw them from.
+     */
+    private static class Terminals {
+
+        /**
+         * The teleport version of the dungeon in which the squares were last known to be valid, -1 if unknown.
+         */
+        private volatile long stamp;
+
+        /**
+         * The teleports in the chains, with destinations.
+         */
+        private final TeleportInterface[] chain;
+
+        /**
+         * The versions of the teleports in the chains when the squares were computed.
+         */
+        private final long[] versions;
+
+        private final Square[] squares;
+
+        private final AliasTable table;
+
+        private Terminals(long stamp, TeleportInterface[] chain, long[] versions, Square[] squares, AliasTable table) {
+            this.stamp = stamp;
+            this.chain = chain;
+            this.versions = versions;
+            this.squares = squares;
+            this.table = table;
+        }
+
+        /**
+         * Checks whether the squares are still valid in the given teleport version of the dungeon. If the version
+         * changed, the squares are still valid when none of the teleports in the chains changed.
+         */
+        private boolean isValid(long stamp) {
+            if ((stamp >= 0) && (this.stamp == stamp))
+                return true;
+            for (int i = 0; i < chain.length; i++)
+                if (!(chain[i] instanceof Teleport) || (((Teleport) chain[i]).version.get() != versions[i]))
+                    return false;
+            this.stamp = stamp;
+            return true;
+        }
+
+    }
+
+    /**
+     * The solution of a cycle of teleports: the teleports which can all be reached from each other, with the expected
+     * number of visits to every teleport of the cycle after entering it at any of them.
+     */
+    private static class Cycle {
+
+        private final TeleportInterface[] members;
+
+        /**
+         * The positions of the teleports in the cycle.
+         */
+        private final Map<TeleportInterface, Integer> position;
+
+        /**
+         * The versions of the teleports in the cycle when it was solved.
+         */
+        private final long[] versions;
+
+        /**
+         * The expected number of visits to the teleport at the column after entering the cycle at the teleport at the
+         * row, the inverse of I - Q with Q the transition probabilities between the teleports of the cycle.
+         */
+        private final double[][] visits;
+
+        private Cycle(TeleportInterface[] members, Map<TeleportInterface, Integer> position, long[] versions,
+                      double[][] visits) {
+            this.members = members;
+            this.position = position;
+            this.versions = versions;
+            this.visits = visits;
+        }
+
+        /**
+         * Checks whether this is the solution of the given teleports with the given versions. The transitions between
+         * the teleports of a cycle only depend on their own destinations.
+         */
+        private boolean isSolution(TeleportInterface[] members, Map<TeleportInterface, Long> versions) {
+            if (members.length != this.members.length)
+                return false;
+            for (TeleportInterface member : members) {
+                Integer i = position.get(member);
+                if ((i == null) || (this.versions[i] < 0) || (this.versions[i] != versions.get(member)))
+                    return false;
+            }
+            return true;
+        }
+
+    }
+
     /**
      *
      * @param   square
@@ -31,9 +160,54 @@ public class Teleport extends Square implements TeleportInterface {
      *          | getDest().contains(square) == true
      */
     public void addDest(Square square) {
+        addDest(square, 1);
+    }
+
+    /**
+     * Adds a destination with a weight, or adds the weight to the weight of the destination if it is already present.
+     *
+     * @param   square
+     *          The given square.
+     * @param   weight
+     *          The given weight.
+     * @pre     The given square must be valid, not solid, the current square must be in a dungeon and the given square
+     *          in the same one.
+     *          | (square != null) && (!square.isSolid()) && (this.getDungeonAt() != null) &&
+     *          |   this.getDungeonAt().equals(square.getDungeonAt()))
+     * @throws  IllegalArgumentException
+     *          Throws an illegal argument exception if the given weight is invalid.
+     *          | weight < 1
+     * @post    The given square is now part of the destination squares.
+     *          | getDest().contains(square) == true
+     * @post    The weight of the given square is increased by the given weight.
+     *          | new.getWeight(square) == getWeight(square) + weight
+     */
+    public void addDest(Square square, int weight) throws IllegalArgumentException {
         assert((square != null) && (!square.isSolid()) && (this.getDungeon() != null) &&
                 this.getDungeon().equals(square.getDungeon()));
-        getDest().add(square);
+        if (weight < 1)
+            throw new IllegalArgumentException("Invalid weight!");
+        int index = dest.indexOf(square);
+        if (index < 0) {
+            dest.add(square);
+            weights.add(weight);
+        } else {
+            weights.set(index, weights.get(index) + weight);
+        }
+        table = null;
+        version.incrementAndGet();
+        destinationAdded(square, weight);
+    }
+
+    /**
+     * Returns the weight of a destination, 0 if the given square is not a destination.
+     *
+     * @param   square
+     *          The given square.
+     */
+    public int getWeight(Square square) {
+        int index = dest.indexOf(square);
+        return (index < 0) ? 0 : weights.get(index);
     }
 
     /**
@@ -42,21 +216,338 @@ public class Teleport extends Square implements TeleportInterface {
      * @return  If there's no destination squares, the method returns null.
      *          | if (getDest().size() == 0)
      *          |   result == null
-     * @return  If there's one or more destination squares, the method returns a random one.
-     *          | if (getDest().size() != 0)
-     *          |   result == getDest().get(Tools.random(getDest().size()))
+     * @return  If there's one or more destination squares, the method returns a random one, drawn with the weights of
+     *          the destinations.
      */
     public Square teleport() {
         if (getDest().size() == 0)
             return null;
-        return getDest().get(Tools.random(getDest().size()));
+        AliasTable res = table;
+        if (res == null) {
+            res = new AliasTable(toWeights(weights));
+            table = res;
+        }
+        return dest.get(res.sample(getRandomSource()));
+    }
+
+    /**
+     * Returns a random square reached by teleporting until a square is reached which is not a teleport, or a teleport
+     * without destinations. The distribution of the squares at the end of the chains is computed once and rebuilt when
+     * the destinations of a teleport in the chains change.
+     *
+     * @param   random
+     *          The random source to draw the square with.
+     * @return  If there's no destination squares, the method returns null.
+     *          | if (getDest().size() == 0)
+     *          |   result == null
+     * @throws  IllegalStateException
+     *          Throws an illegal state exception if the chains starting at this teleport can reach a cycle of teleports
+     *          which can not be left.
+     */
+    public Square teleportTerminal(RandomSource random) throws IllegalStateException {
+        if (getDest().size() == 0)
+            return null;
+        // The teleport version is read before the teleports in the chains are checked, so a later change is noticed
+        long stamp = (getDungeon() == null) ? -1 : getDungeon().getTeleportVersion();
+        Terminals res = terminals;
+        if ((res == null) || !res.isValid(stamp)) {
+            res = buildTerminals(stamp);
+            terminals = res;
+        }
+        return res.squares[res.table.sample(random)];
     }
 
     /**
-     * Returns the list containing all destination squares.
+     * Returns the list containing all destination squares, every square once. The list is an unmodifiable view of the
+     * destinations, which are only added through addDest.
      */
     public List<Square> getDest() {
-        return dest;
+        return Collections.unmodifiableList(dest);
+    }
+
+    /**
+     * Internal method to compute the probabilities of ending up on every square at the end of the chains starting at
+     * this teleport. The teleports in the chains are split into the cycles of teleports which can all be reached from
+     * each other, and the probabilities are pushed down the chains from cycle to cycle in topological order. A cycle is
+     * treated as an absorbing Markov chain, which is solved once and shared through the teleports of the cycle.
+     */
+    private Terminals buildTerminals(long stamp) throws IllegalStateException {
+        long start = DungeonTrace.start();
+        // Number the teleports with destinations that can be reached, and split them in cycles
+        Map<TeleportInterface, Integer> index = new IdentityHashMap<>();
+        Map<TeleportInterface, Long> versions = new IdentityHashMap<>();
+        List<TeleportInterface[]> cycles = new ArrayList<>();
+        visit(this, index, versions, cycles);
+        int n = index.size();
+        TeleportInterface[] chain = new TeleportInterface[n];
+        for (Map.Entry<TeleportInterface, Integer> entry : index.entrySet())
+            chain[entry.getValue()] = entry.getKey();
+        long[] chainVersions = new long[n];
+        int[][] weights = new int[n][];
+        for (int i = 0; i < n; i++) {
+            chainVersions[i] = versions.get(chain[i]);
+            weights[i] = weightsOf(chain[i]);
+        }
+        int[] cycleOf = new int[n];
+        for (int c = 0; c < cycles.size(); c++)
+            for (TeleportInterface member : cycles.get(c))
+                cycleOf[index.get(member)] = c;
+        Map<Square, Integer> terminalIndex = new IdentityHashMap<>();
+        List<Square> terminalList = new ArrayList<>();
+        List<Double> terminalWeights = new ArrayList<>();
+        boolean cyclic = false;
+        double[] reach = new double[n];
+        reach[index.get(this)] = 1;
+        // The cycles are found in reverse topological order, ending with the cycle of this teleport
+        for (int c = cycles.size() - 1; c >= 0; c--) {
+            TeleportInterface[] members = cycles.get(c);
+            if ((members.length == 1) && !members[0].getDest().contains((Square) members[0])) {
+                int i = index.get(members[0]);
+                spread(chain[i], weights[i], reach[i], index, terminalIndex, terminalList, terminalWeights, reach);
+                continue;
+            }
+            cyclic = true;
+            checkExits(members, c, cycleOf, index);
+            Cycle solution = solve(members, weights, index, versions);
+            // Probabilities spread to teleports of the cycle itself are already part of the expected visits
+            double[] entered = new double[members.length];
+            for (int i = 0; i < members.length; i++)
+                entered[solution.position.get(members[i])] = reach[index.get(members[i])];
+            for (int j = 0; j < members.length; j++) {
+                double expected = 0;
+                for (int i = 0; i < members.length; i++)
+                    expected += entered[i] * solution.visits[i][j];
+                int k = index.get(solution.members[j]);
+                spread(chain[k], weights[k], Math.max(0, expected), index, terminalIndex, terminalList,
+                        terminalWeights, reach);
+            }
+        }
+        double[] probabilities = new double[terminalList.size()];
+        for (int i = 0; i < probabilities.length; i++)
+            probabilities[i] = terminalWeights.get(i);
+        DungeonTrace.commit(DungeonTrace.Kind.TELEPORT_CHAIN, start, n, cyclic);
+        return new Terminals(stamp, chain, chainVersions, terminalList.toArray(new Square[terminalList.size()]),
+                new AliasTable(probabilities));
+    }
+
+    /**
+     * Internal method to number the teleports reachable from a teleport, and to split them in cycles of teleports
+     * which can all be reached from each other with the algorithm of Tarjan. The cycles are added in reverse
+     * topological order, a teleport which is not part of a cycle forms a cycle on its own. The version of every
+     * teleport is read before its destinations, so a destination added while the chains are followed is noticed.
+     */
+    private static void visit(TeleportInterface teleport, Map<TeleportInterface, Integer> index,
+                              Map<TeleportInterface, Long> versions, List<TeleportInterface[]> cycles) {
+        List<Integer> low = new ArrayList<>();
+        Deque<TeleportInterface> open = new ArrayDeque<>();
+        Set<TeleportInterface> onStack = Collections.newSetFromMap(new IdentityHashMap<TeleportInterface, Boolean>());
+        Deque<TeleportInterface> stack = new ArrayDeque<>();
+        Deque<Integer> next = new ArrayDeque<>();
+        enter(teleport, index, versions, low, open, onStack, stack, next);
+        while (!stack.isEmpty()) {
+            TeleportInterface current = stack.peek();
+            int i = next.pop();
+            List<Square> dest = current.getDest();
+            if (i < dest.size()) {
+                next.push(i + 1);
+                Square square = dest.get(i);
+                if (!isChained(square))
+                    continue;
+                TeleportInterface target = (TeleportInterface) square;
+                Integer number = index.get(target);
+                if (number == null) {
+                    enter(target, index, versions, low, open, onStack, stack, next);
+                } else if (onStack.contains(target)) {
+                    int own = index.get(current);
+                    low.set(own, Math.min(low.get(own), number));
+                }
+            } else {
+                stack.pop();
+                int own = index.get(current);
+                if (!stack.isEmpty()) {
+                    int parent = index.get(stack.peek());
+                    low.set(parent, Math.min(low.get(parent), low.get(own)));
+                }
+                if (low.get(own) == own) {
+                    List<TeleportInterface> members = new ArrayList<>();
+                    TeleportInterface member;
+                    do {
+                        member = open.pop();
+                        onStack.remove(member);
+                        members.add(member);
+                    } while (member != current);
+                    cycles.add(members.toArray(new TeleportInterface[members.size()]));
+                }
+            }
+        }
+    }
+
+    /**
+     * Internal method to number a teleport and to start following its destinations.
+     */
+    private static void enter(TeleportInterface teleport, Map<TeleportInterface, Integer> index,
+                              Map<TeleportInterface, Long> versions, List<Integer> low, Deque<TeleportInterface> open,
+                              Set<TeleportInterface> onStack, Deque<TeleportInterface> stack, Deque<Integer> next) {
+        int number = index.size();
+        index.put(teleport, number);
+        versions.put(teleport, versionOf(teleport));
+        low.add(number);
+        open.push(teleport);
+        onStack.add(teleport);
+        stack.push(teleport);
+        next.push(0);
+    }
+
+    /**
+     * Internal method to check whether a chain continues on a square.
+     */
+    private static boolean isChained(Square square) {
+        return (square instanceof TeleportInterface) && !((TeleportInterface) square).getDest().isEmpty();
+    }
+
+    /**
+     * Internal method to return the version of the destinations of a teleport, -1 if the teleport keeps no version.
+     */
+    private static long versionOf(TeleportInterface teleport) {
+        return (teleport instanceof Teleport) ? ((Teleport) teleport).version.get() : -1;
+    }
+
+    /**
+     * Internal method to return the weights of the destinations of a teleport, in the order of its destinations.
+     */
+    private static int[] weightsOf(TeleportInterface teleport) {
+        List<Square> dest = teleport.getDest();
+        int[] res = new int[dest.size()];
+        for (int i = 0; i < res.length; i++)
+            res[i] = (teleport instanceof Teleport) ? ((Teleport) teleport).weights.get(i) :
+                    teleport.getWeight(dest.get(i));
+        return res;
+    }
+
+    /**
+     * Internal method to pass the probability of reaching a teleport on to its destinations, adding it to the
+     * probabilities of the teleports in the chain or of the squares at the end of the chains.
+     */
+    private static void spread(TeleportInterface teleport, int[] weights, double probability,
+                               Map<TeleportInterface, Integer> index, Map<Square, Integer> terminalIndex,
+                               List<Square> terminalList, List<Double> terminalWeights, double[] reach) {
+        if (probability == 0)
+            return;
+        long total = 0;
+        for (int weight : weights)
+            total += weight;
+        List<Square> dest = teleport.getDest();
+        for (int i = 0; i < weights.length; i++) {
+            Square square = dest.get(i);
+            double p = probability * weights[i] / total;
+            if (isChained(square)) {
+                if (reach != null)
+                    reach[index.get(square)] += p;
+                continue;
+            }
+            Integer t = terminalIndex.get(square);
+            if (t == null) {
+                terminalIndex.put(square, terminalList.size());
+                terminalList.add(square);
+                terminalWeights.add(p);
+            } else {
+                terminalWeights.set(t, terminalWeights.get(t) + p);
+            }
+        }
+    }
+
+    /**
+     * Internal method to return the solution of a cycle of teleports, solving (I - Q) N = I with Gauss-Jordan
+     * elimination, Q holding the transition probabilities between the teleports of the cycle. The solution is kept by
+     * the teleports of the cycle and reused as long as none of them changes.
+     */
+    private static Cycle solve(TeleportInterface[] members, int[][] weights, Map<TeleportInterface, Integer> index,
+                               Map<TeleportInterface, Long> versions) {
+        long start = DungeonTrace.start();
+        for (TeleportInterface member : members) {
+            Cycle cycle = (member instanceof Teleport) ? ((Teleport) member).cycle : null;
+            if ((cycle != null) && cycle.isSolution(members, versions)) {
+                DungeonTrace.commit(DungeonTrace.Kind.TELEPORT_CYCLE, start, members.length, true);
+                return cycle;
+            }
+        }
+        int n = members.length;
+        Map<TeleportInterface, Integer> position = new IdentityHashMap<>();
+        long[] cycleVersions = new long[n];
+        for (int i = 0; i < n; i++) {
+            position.put(members[i], i);
+            cycleVersions[i] = versions.get(members[i]);
+        }
+        double[][] a = new double[n][2 * n];
+        for (int i = 0; i < n; i++) {
+            a[i][i] = 1;
+            a[i][n + i] = 1;
+        }
+        for (int i = 0; i < n; i++) {
+            int[] w = weights[index.get(members[i])];
+            long total = 0;
+            for (int weight : w)
+                total += weight;
+            List<Square> dest = members[i].getDest();
+            for (int k = 0; k < w.length; k++) {
+                Integer j = position.get(dest.get(k));
+                if (j != null)
+                    a[i][j] -= (double) w[k] / total;
+            }
+        }
+        for (int col = 0; col < n; col++) {
+            int pivot = col;
+            for (int row = col + 1; row < n; row++)
+                if (Math.abs(a[row][col]) > Math.abs(a[pivot][col]))
+                    pivot = row;
+            double[] swap = a[col];
+            a[col] = a[pivot];
+            a[pivot] = swap;
+            for (int row = 0; row < n; row++) {
+                if ((row == col) || (a[row][col] == 0))
+                    continue;
+                double factor = a[row][col] / a[col][col];
+                for (int k = col; k < 2 * n; k++)
+                    a[row][k] -= factor * a[col][k];
+            }
+        }
+        double[][] visits = new double[n][n];
+        for (int i = 0; i < n; i++)
+            for (int j = 0; j < n; j++)
+                visits[i][j] = a[i][n + j] / a[i][i];
+        Cycle res = new Cycle(members, position, cycleVersions, visits);
+        for (TeleportInterface member : members)
+            if (member instanceof Teleport)
+                ((Teleport) member).cycle = res;
+        DungeonTrace.commit(DungeonTrace.Kind.TELEPORT_CYCLE, start, n, false);
+        return res;
+    }
+
+    /**
+     * Internal method to check that a cycle of teleports can be left, to a square at the end of the chains or to a
+     * teleport outside of the cycle.
+     *
+     * @throws  IllegalStateException
+     *          Throws an illegal state exception if the cycle of teleports can not be left.
+     */
+    private static void checkExits(TeleportInterface[] members, int cycle, int[] cycleOf,
+                                   Map<TeleportInterface, Integer> index) throws IllegalStateException {
+        for (TeleportInterface member : members)
+            for (Square square : member.getDest())
+                if (!isChained(square) || (cycleOf[index.get(square)] != cycle))
+                    return;
+        throw new IllegalStateException("The teleport at " + ((Square) members[0]).getPos() +
+                " is part of a cycle of teleports which can not be left!");
+    }
+
+    /**
+     * Internal method to convert a list of weights to an array.
+     */
+    private static double[] toWeights(List<Integer> weights) {
+        double[] res = new double[weights.size()];
+        for (int i = 0; i < res.length; i++)
+            res[i] = weights.get(i);
+        return res;
     }
 
 }
@@ -0,0 +1,105 @@
+package be.kuleuven.cs.ogp.project.tools;
+
+/**
+ * A table for drawing indices with given weights in constant time, using Walker's alias method. Every column of the
+ * table holds an index and an alias; a draw picks a column uniformly and then returns either its index or its alias.
+ * The table is built in linear time with Vose's method.
+ *
+ * @author  Frederic Hannes
+ */
+public class AliasTable {
+
+    /**
+     * The probability of returning the index of a column instead of its alias, in 2^-32 units.
+     */
+    private final long[] threshold;
+
+    private final int[] alias;
+
+    /**
+     * Creates a new alias table.
+     *
+     * @param   weights
+     *          The weights of the indices.
+     * @throws  IllegalArgumentException
+     *          Throws an illegal argument exception if the given weights are invalid.
+     *          | (weights == null) || (weights.length == 0)
+     * @throws  IllegalArgumentException
+     *          Throws an illegal argument exception if a weight is negative or if all weights are zero.
+     */
+    public AliasTable(double[] weights) throws IllegalArgumentException {
+        if ((weights == null) || (weights.length == 0))
+            throw new IllegalArgumentException("Invalid weights!");
+        int n = weights.length;
+        double total = 0;
+        for (double weight : weights) {
+            if (!(weight >= 0) || Double.isInfinite(weight))
+                throw new IllegalArgumentException("Invalid weight!");
+            total += weight;
+        }
+        if (total <= 0)
+            throw new IllegalArgumentException("Invalid weights!");
+        threshold = new long[n];
+        alias = new int[n];
+        double[] scaled = new double[n];
+        int[] small = new int[n];
+        int[] large = new int[n];
+        int smallCount = 0;
+        int largeCount = 0;
+        for (int i = 0; i < n; i++) {
+            scaled[i] = weights[i] * n / total;
+            if (scaled[i] < 1)
+                small[smallCount++] = i;
+            else
+                large[largeCount++] = i;
+        }
+        while ((smallCount > 0) && (largeCount > 0)) {
+            int s = small[--smallCount];
+            int l = large[largeCount - 1];
+            threshold[s] = (long) (scaled[s] * (1L << 32));
+            alias[s] = l;
+            scaled[l] -= 1 - scaled[s];
+            if (scaled[l] < 1) {
+                largeCount--;
+                small[smallCount++] = l;
+            }
+        }
+        // The columns left over are full, up to rounding errors
+        while (largeCount > 0)
+            threshold[large[--largeCount]] = 1L << 32;
+        while (smallCount > 0)
+            threshold[small[--smallCount]] = 1L << 32;
+    }
+
+    /**
+     * Returns the number of indices in the table.
+     */
+    public int size() {
+        return alias.length;
+    }
+
+    /**
+     * Draws an index from a random value.
+     *
+     * @param   random
+     *          The given random value, all bits being random.
+     * @return  An index from 0 to size()-1, drawn with the probabilities given by the weights.
+     */
+    public int sample(long random) {
+        // The high bits pick the column, the low bits decide between its index and its alias
+        int column = RandomSource.scale(random, alias.length);
+        return ((random & 0xFFFFFFFFL) < threshold[column]) ? column : alias[column];
+    }
+
+    /**
+     * Draws an index from a random source.
+     *
+     * @param   random
+     *          The given random source.
+     * @return  An index from 0 to size()-1, drawn with the probabilities given by the weights.
+     */
+    public int sample(RandomSource random) {
+        return sample(random.nextLong());
+    }
+
+}
@@ -0,0 +1,265 @@
+package be.kuleuven.cs.ogp.project.tools;
+
+/**
+ * An immutable map from long keys to values, stored in a hash array mapped trie. Adding or removing a key returns a
+ * new map which shares all nodes with the old one except those on the path to the key, so both maps stay usable and a
+ * change costs O(log n) time and memory.
+ *
+ * Every node of the trie has up to 32 children, chosen by 5 bits of the hash of the key, and only stores the children
+ * that are present. The keys are hashed with a bijective mix function, so two keys never have the same hash and the
+ * trie needs no collision lists.
+ *
+ * @author  Frederic Hannes
+ */
+public final class HashTrie<V> {
+
+    /**
+     * Visits the entries of a trie.
+     */
+    public interface Visitor<V> {
+
+        /**
+         * Visits an entry.
+         *
+         * @param   key
+         *          The key of the entry.
+         * @param   value
+         *          The value of the entry.
+         */
+        public void visit(long key, V value);
+
+    }
+
+    /**
+     * The number of bits of the hash used by every level of the trie.
+     */
+    private static final int BITS = 5;
+
+    private static final int MASK = (1 << BITS) - 1;
+
+    /**
+     * An entry of the trie.
+     */
+    private static final class Leaf {
+
+        private final long key;
+
+        private final long hash;
+
+        private final Object value;
+
+        private Leaf(long key, long hash, Object value) {
+            this.key = key;
+            this.hash = hash;
+            this.value = value;
+        }
+
+    }
+
+    /**
+     * A node of the trie, holding the children for the bits set in its bitmap in the order of those bits. Every child
+     * is either a leaf or a node.
+     */
+    private static final class Node {
+
+        private final int bitmap;
+
+        private final Object[] children;
+
+        private Node(int bitmap, Object[] children) {
+            this.bitmap = bitmap;
+            this.children = children;
+        }
+
+    }
+
+    private static final HashTrie<Object> EMPTY = new HashTrie<>(new Node(0, new Object[0]), 0);
+
+    private final Node root;
+
+    private final int size;
+
+    private HashTrie(Node root, int size) {
+        this.root = root;
+        this.size = size;
+    }
+
+    /**
+     * Returns the empty trie.
+     */
+    @SuppressWarnings("unchecked")
+    public static <V> HashTrie<V> empty() {
+        return (HashTrie<V>) EMPTY;
+    }
+
+    /**
+     * Returns the number of entries in the trie.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the value stored for a key, null if the key is not present.
+     *
+     * @param   key
+     *          The given key.
+     */
+    @SuppressWarnings("unchecked")
+    public V get(long key) {
+        long hash = RandomSource.mix(key);
+        Node node = root;
+        for (int shift = 0; ; shift += BITS) {
+            int bit = 1 << ((hash >>> shift) & MASK);
+            if ((node.bitmap & bit) == 0)
+                return null;
+            Object child = node.children[Integer.bitCount(node.bitmap & (bit - 1))];
+            if (child instanceof Leaf)
+                return (((Leaf) child).key == key) ? (V) ((Leaf) child).value : null;
+            node = (Node) child;
+        }
+    }
+
+    /**
+     * Returns true if the given key is present.
+     *
+     * @param   key
+     *          The given key.
+     */
+    public boolean containsKey(long key) {
+        return get(key) != null;
+    }
+
+    /**
+     * Returns a trie with the given value stored for a key.
+     *
+     * @param   key
+     *          The given key.
+     * @param   value
+     *          The given value.
+     * @return  This trie if the given value is already stored for the key.
+     *          | if (get(key) == value)
+     *          |   result == this
+     * @return  A trie holding the entries of this trie, with the given value for the key.
+     *          | result.get(key) == value
+     * @throws  IllegalArgumentException
+     *          Throws an illegal argument exception if the given value is invalid.
+     *          | value == null
+     */
+    public HashTrie<V> put(long key, V value) throws IllegalArgumentException {
+        if (value == null)
+            throw new IllegalArgumentException("Invalid value!");
+        boolean present = containsKey(key);
+        Node res = put(root, 0, new Leaf(key, RandomSource.mix(key), value));
+        return (res == root) ? this : new HashTrie<V>(res, present ? size : size + 1);
+    }
+
+    /**
+     * Returns a trie without the given key.
+     *
+     * @param   key
+     *          The given key.
+     * @return  This trie if the key is not present.
+     *          | if (!containsKey(key))
+     *          |   result == this
+     * @return  A trie holding the entries of this trie except the one for the key.
+     *          | !result.containsKey(key)
+     */
+    public HashTrie<V> remove(long key) {
+        if (!containsKey(key))
+            return this;
+        Object res = remove(root, 0, key, RandomSource.mix(key));
+        if (res instanceof Leaf)
+            res = new Node(1 << (((Leaf) res).hash & MASK), new Object[] { res });
+        return new HashTrie<V>((Node) res, size - 1);
+    }
+
+    /**
+     * Visits every entry of the trie, in the order of the hashes of the keys.
+     *
+     * @param   visitor
+     *          The given visitor.
+     */
+    public void forEach(Visitor<? super V> visitor) {
+        forEach(root, visitor);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void forEach(Node node, Visitor<? super V> visitor) {
+        for (Object child : node.children)
+            if (child instanceof Leaf)
+                visitor.visit(((Leaf) child).key, (V) ((Leaf) child).value);
+            else
+                forEach((Node) child, visitor);
+    }
+
+    /**
+     * Internal method to store a leaf below a node.
+     *
+     * @return  The node replacing the given node, the given node itself if nothing changed.
+     */
+    private static Node put(Node node, int shift, Leaf leaf) {
+        int bit = 1 << ((leaf.hash >>> shift) & MASK);
+        int index = Integer.bitCount(node.bitmap & (bit - 1));
+        if ((node.bitmap & bit) == 0) {
+            Object[] children = new Object[node.children.length + 1];
+            System.arraycopy(node.children, 0, children, 0, index);
+            children[index] = leaf;
+            System.arraycopy(node.children, index, children, index + 1, node.children.length - index);
+            return new Node(node.bitmap | bit, children);
+        }
+        Object child = node.children[index];
+        Object replacement;
+        if (child instanceof Leaf) {
+            Leaf old = (Leaf) child;
+            if (old.key == leaf.key)
+                replacement = (old.value == leaf.value) ? old : leaf;
+            else
+                replacement = merge(shift + BITS, old, leaf);
+        } else {
+            replacement = put((Node) child, shift + BITS, leaf);
+        }
+        if (replacement == child)
+            return node;
+        Object[] children = node.children.clone();
+        children[index] = replacement;
+        return new Node(node.bitmap, children);
+    }
+
+    /**
+     * Internal method to create the node holding two leaves whose hashes are equal up to the given shift.
+     */
+    private static Node merge(int shift, Leaf l1, Leaf l2) {
+        int i1 = (int) (l1.hash >>> shift) & MASK;
+        int i2 = (int) (l2.hash >>> shift) & MASK;
+        if (i1 == i2)
+            return new Node(1 << i1, new Object[] { merge(shift + BITS, l1, l2) });
+        return new Node((1 << i1) | (1 << i2), (i1 < i2) ? new Object[] { l1, l2 } : new Object[] { l2, l1 });
+    }
+
+    /**
+     * Internal method to remove a key which is present below a node.
+     *
+     * @return  The node replacing the given node, or the only leaf left below it, which then moves up the trie.
+     */
+    private static Object remove(Node node, int shift, long key, long hash) {
+        int bit = 1 << ((hash >>> shift) & MASK);
+        int index = Integer.bitCount(node.bitmap & (bit - 1));
+        Object child = node.children[index];
+        Object replacement = (child instanceof Leaf) ? null : remove((Node) child, shift + BITS, key, hash);
+        if (replacement == null) {
+            if ((node.children.length == 2) && (node.children[1 - index] instanceof Leaf))
+                return node.children[1 - index];
+            Object[] children = new Object[node.children.length - 1];
+            System.arraycopy(node.children, 0, children, 0, index);
+            System.arraycopy(node.children, index + 1, children, index, children.length - index);
+            return new Node(node.bitmap & ~bit, children);
+        }
+        if ((replacement instanceof Leaf) && (node.children.length == 1))
+            return replacement;
+        Object[] children = node.children.clone();
+        children[index] = replacement;
+        return new Node(node.bitmap, children);
+    }
+
+}
@@ -0,0 +1,153 @@
+package be.kuleuven.cs.ogp.project.tools;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of non negative values, like latencies in nanoseconds, which can be recorded by many threads at once.
+ * Values are counted in buckets whose width grows with the value: every power of two is split into 32 buckets of equal
+ * width, so a value is known up to about 3% of it, over the whole range of long values. Recording a value never
+ * allocates.
+ *
+ * @invar   The number of recorded values is never negative.
+ *          | getCount() >= 0
+ *
+ * @author  Frederic Hannes
+ */
+public final class Histogram {
+
+    /**
+     * The number of bits of a value that are kept.
+     */
+    private static final int SUB_BITS = 5;
+
+    /**
+     * The number of buckets every power of two is split into.
+     */
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+    /**
+     * The number of buckets needed for the largest long value.
+     */
+    private static final int BUCKETS = bucket(Long.MAX_VALUE) + 1;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+
+    private final AtomicLong count = new AtomicLong();
+
+    private final AtomicLong total = new AtomicLong();
+
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Records a value. Negative values are recorded as zero.
+     *
+     * @param   value
+     *          The value to record.
+     * @post    The number of recorded values is increased by one.
+     *          | new.getCount() == getCount() + 1
+     */
+    public void record(long value) {
+        if (value < 0)
+            value = 0;
+        buckets.getAndIncrement(bucket(value));
+        count.getAndIncrement();
+        total.getAndAdd(value);
+        long current = max.get();
+        while ((value > current) && !max.compareAndSet(current, value))
+            current = max.get();
+    }
+
+    /**
+     * Returns the number of recorded values.
+     */
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * Returns the largest recorded value, zero if no values were recorded.
+     */
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * Returns the mean of the recorded values, zero if no values were recorded.
+     */
+    public double getMean() {
+        long n = count.get();
+        return (n == 0) ? 0 : (double) total.get() / n;
+    }
+
+    /**
+     * Returns the value below which the given percentage of the recorded values falls. The value is the upper end of
+     * the bucket holding the percentile, but never more than the largest recorded value.
+     *
+     * @param   percentile
+     *          The given percentage.
+     * @throws  IllegalArgumentException
+     *          Throws an illegal argument exception if the percentage does not fall between 0 and 100.
+     *          | (percentile < 0) || (percentile > 100)
+     * @return  Zero if no values were recorded.
+     *          | if (getCount() == 0)
+     *          |   result == 0
+     */
+    public long getPercentile(double percentile) throws IllegalArgumentException {
+        if (!(percentile >= 0) || (percentile > 100))
+            throw new IllegalArgumentException("Invalid percentile!");
+        long n = 0;
+        long[] counts = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++)
+            n += (counts[i] = buckets.get(i));
+        if (n == 0)
+            return 0;
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * n));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank)
+                return Math.min(upper(i), getMax());
+        }
+        return getMax();
+    }
+
+    /**
+     * Resets the histogram. Values recorded during the call may be lost.
+     *
+     * @post    No values are recorded if the histogram is not changed during the call.
+     *          | new.getCount() == 0
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++)
+            buckets.set(i, 0);
+        count.set(0);
+        total.set(0);
+        max.set(0);
+    }
+
+    /**
+     * Internal method to find the bucket of a value. Values below twice the number of sub buckets have a bucket of
+     * their own, for larger values the bits below the highest SUB_BITS + 1 bits are dropped.
+     */
+    private static int bucket(long value) {
+        int shift = Math.max(0, 64 - Long.numberOfLeadingZeros(value) - SUB_BITS - 1);
+        return shift * SUB_BUCKETS + (int) (value >>> shift);
+    }
+
+    /**
+     * Internal method to find the largest value of a bucket.
+     */
+    private static long upper(int bucket) {
+        int shift = Math.max(0, bucket / SUB_BUCKETS - 1);
+        long sub = bucket - shift * SUB_BUCKETS;
+        return ((sub + 1) << shift) - 1;
+    }
+
+    @Override
+    public String toString() {
+        return "count=" + getCount() + " mean=" + getMean() + " p50=" + getPercentile(50) + " p99=" +
+                getPercentile(99) + " max=" + getMax();
+    }
+
+}
@@ -0,0 +1,135 @@
+package be.kuleuven.cs.ogp.project.tools;
+
+import java.util.Arrays;
+
+/**
+ * A set of long values, like packed positions, stored in a hash table with open addressing. The values are kept in a
+ * primitive array, so adding a value never allocates unless the table grows. The keys are hashed with the mix function
+ * of RandomSource, so values that lie close together are spread over the table.
+ *
+ * @invar   The number of values is not negative.
+ *          | size() >= 0
+ *
+ * @author  Frederic Hannes
+ */
+public final class LongSet {
+
+    /**
+     * The value marking a free place of the table. The value itself is kept apart.
+     */
+    private static final long FREE = Long.MIN_VALUE;
+
+    private long[] table;
+
+    private int size = 0;
+
+    /**
+     * Equals true if the set holds the value that marks free places.
+     */
+    private boolean hasFree = false;
+
+    /**
+     * Creates a new empty set.
+     *
+     * @param   capacity
+     *          The number of values the set can hold before it has to grow.
+     */
+    public LongSet(int capacity) {
+        table = new long[Integer.highestOneBit(Math.max(4, capacity) * 2 - 1) * 2];
+        Arrays.fill(table, FREE);
+    }
+
+    /**
+     * Returns the number of values in the set.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the number of places of the table, which a clear has to visit.
+     */
+    public int getCapacity() {
+        return table.length;
+    }
+
+    /**
+     * Returns true if the set holds the given value.
+     *
+     * @param   value
+     *          The given value.
+     */
+    public boolean contains(long value) {
+        if (value == FREE)
+            return hasFree;
+        int mask = table.length - 1;
+        for (int i = (int) RandomSource.mix(value) & mask; ; i = (i + 1) & mask) {
+            if (table[i] == value)
+                return true;
+            if (table[i] == FREE)
+                return false;
+        }
+    }
+
+    /**
+     * Adds a value to the set.
+     *
+     * @param   value
+     *          The given value.
+     * @post    The set holds the given value.
+     *          | new.contains(value)
+     * @return  True if the value was not in the set yet.
+     *          | result == !contains(value)
+     */
+    public boolean add(long value) {
+        if (value == FREE) {
+            if (hasFree)
+                return false;
+            hasFree = true;
+            size++;
+            return true;
+        }
+        int mask = table.length - 1;
+        int i = (int) RandomSource.mix(value) & mask;
+        while (table[i] != FREE) {
+            if (table[i] == value)
+                return false;
+            i = (i + 1) & mask;
+        }
+        table[i] = value;
+        if (2 * ++size > table.length)
+            grow();
+        return true;
+    }
+
+    /**
+     * Removes all values from the set, keeping its table.
+     *
+     * @post    The set is empty.
+     *          | new.size() == 0
+     */
+    public void clear() {
+        Arrays.fill(table, FREE);
+        size = 0;
+        hasFree = false;
+    }
+
+    /**
+     * Internal method to double the size of the table.
+     */
+    private void grow() {
+        long[] old = table;
+        table = new long[old.length * 2];
+        Arrays.fill(table, FREE);
+        int mask = table.length - 1;
+        for (long value : old) {
+            if (value == FREE)
+                continue;
+            int i = (int) RandomSource.mix(value) & mask;
+            while (table[i] != FREE)
+                i = (i + 1) & mask;
+            table[i] = value;
+        }
+    }
+
+}
@@ -4,32 +4,79 @@ import be.kuleuven.cs.ogp.project.Square;
 import be.kuleuven.cs.som.annotate.Basic;
 
 /**
- * This class holds a 3 dimensional coordinate set.
+ * This class holds a 3 dimensional coordinate set. Points are immutable, so they can be shared freely and used as keys
+ * in any map; a point that has to change is replaced by a new point. Points with small coordinates are interned by
+ * of(), which returns the same point for the same coordinates.
  *
  * @author	Frederic Hannes
  */
-public class Point3D {
+public final class Point3D {
 
-	private int x;
-	private int y;
-	private int z;
+    /**
+     * The number of bits used for every coordinate in a packed point.
+     */
+    public static final int PACKED_BITS = 21;
+
+    /**
+     * The largest coordinate that can be stored in a packed point.
+     */
+    public static final int PACKED_MAX = (1 << PACKED_BITS) - 1;
+
+    /**
+     * The number of bits of the coordinates of the interned points, points with coordinates from 0 up to
+     * 2^INTERN_BITS - 1 are interned.
+     */
+    private static final int INTERN_BITS = 5;
+
+    private static final int INTERN_MAX = (1 << INTERN_BITS) - 1;
+
+    /**
+     * The interned points, created when they are first asked for. Points are immutable, so a point published without
+     * synchronisation is seen complete; two threads may intern equal points, which is harmless.
+     */
+    private static final Point3D[] interned = new Point3D[1 << (3 * INTERN_BITS)];
+
+	private final int x;
+	private final int y;
+	private final int z;
 
 	/**
 	 * Initializes this 3 dimensional point with given x, y and z values.
 	 *
-	 * @effect	The given x-coordinate is set as the new x-coordinate.
-	 * 			| setX(x)
-	 * @effect	The given y-coordinate is set as the new y-coordinate.
-	 * 			| setY(y)
-	 * @effect	The given z-coordinate is set as the new z-coordinate.
-	 * 			| setZ(z)
+	 * @post	The given coordinates are the coordinates of the point.
+	 * 			| (new.getX() == x) && (new.getY() == y) && (new.getZ() == z)
 	 */
 	public Point3D(int x, int y, int z) {
-		setX(x);
-		setY(y);
-		setZ(z);
+		this.x = x;
+		this.y = y;
+		this.z = z;
 	}
 
+    /**
+     * Returns a point with the given coordinates. Points with small coordinates are interned, so asking for them does
+     * not allocate.
+     *
+     * @param   x
+     *          The given x-coordinate.
+     * @param   y
+     *          The given y-coordinate.
+     * @param   z
+     *          The given z-coordinate.
+     * @return  A point with the given coordinates.
+     *          | result.equals(new Point3D(x, y, z))
+     */
+    public static Point3D of(int x, int y, int z) {
+        if (((x | y | z) & ~INTERN_MAX) != 0)
+            return new Point3D(x, y, z);
+        int index = (((x << INTERN_BITS) | y) << INTERN_BITS) | z;
+        Point3D res = interned[index];
+        if (res == null) {
+            res = new Point3D(x, y, z);
+            interned[index] = res;
+        }
+        return res;
+    }
+
 	/**
 	 * Return the x-coordinate stored in the object.
 	 */
@@ -38,19 +85,6 @@ public class Point3D {
 		return x;
 	}
 
-	/**
-	 * Set the x-coordinate for this object to the given x-coordinate.
-	 *
-	 * @param	x
-	 * 			The given x-coordinate.
-	 * @post	The new x-coordinate equals the given x-coordinate.
-	 * 			| new.getX() == x
-	 */
-	@Basic
-	public void setX(int x) {
-		this.x = x;
-	}
-
 	/**
 	 * Return the y-coordinate stored in the object.
 	 */
@@ -59,19 +93,6 @@ public class Point3D {
 		return y;
 	}
 
-	/**
-	 * Set the y-coordinate for this object to the given y-coordinate.
-	 *
-	 * @param	y
-	 * 			The given y-coordinate.
-	 * @post	The new y-coordinate equals the given y-coordinate.
-	 * 			| new.getY() == y
-	 */
-	@Basic
-	public void setY(int y) {
-		this.y = y;
-	}
-
 	/**
 	 * Return the z-coordinate stored in the object.
 	 */
@@ -80,19 +101,6 @@ public class Point3D {
 		return z;
 	}
 
-	/**
-	 * Set the z-coordinate for this object to the given z-coordinate.
-	 *
-	 * @param	z
-	 * 			The given z-coordinate.
-	 * @post	The new z-coordinate equals the given z-coordinate.
-	 * 			| new.getZ() == z
-	 */
-	@Basic
-	public void setZ(int z) {
-		this.z = z;
-	}
-
     /**
      * Calculates the distance between the current point and a given point.
      *
@@ -122,18 +130,11 @@ public class Point3D {
      * @param   pos
      *          The given point.
      * @return  The added points.
-     *          | res = pos.clone()
-     *          | res.setX(this.getX() + res.getX())
-     *          | res.setY(this.getY() + res.getY())
-     *          | res.setZ(this.getZ() + res.getZ())
-     *          | result == res
+     *          | result.equals(new Point3D(this.getX() + pos.getX(), this.getY() + pos.getY(),
+     *          |   this.getZ() + pos.getZ()))
      */
     public Point3D add(Point3D pos) {
-        Point3D res = (Point3D) pos.clone();
-        res.setX(this.getX() + res.getX());
-        res.setY(this.getY() + res.getY());
-        res.setZ(this.getZ() + res.getZ());
-        return res;
+        return translate(pos.getX(), pos.getY(), pos.getZ());
     }
 
     /**
@@ -142,44 +143,173 @@ public class Point3D {
      * @param   pos
      *          The given point.
      * @return  The subtracted points.
-     *          | res = pos.clone()
-     *          | res.setX(this.getX() - res.getX())
-     *          | res.setY(this.getY() - res.getY())
-     *          | res.setZ(this.getZ() - res.getZ())
-     *          | result == res
+     *          | result.equals(new Point3D(this.getX() - pos.getX(), this.getY() - pos.getY(),
+     *          |   this.getZ() - pos.getZ()))
      */
     public Point3D subtract(Point3D pos) {
-        Point3D res = (Point3D) pos.clone();
-        res.setX(this.getX() - res.getX());
-        res.setY(this.getY() - res.getY());
-        res.setZ(this.getZ() - res.getZ());
-        return res;
+        return translate(-pos.getX(), -pos.getY(), -pos.getZ());
+    }
+
+    /**
+     * Returns a point moved over the given distances from the current point.
+     *
+     * @param   dx
+     *          The given distance along the x-axis.
+     * @param   dy
+     *          The given distance along the y-axis.
+     * @param   dz
+     *          The given distance along the z-axis.
+     * @return  The moved point.
+     *          | result.equals(new Point3D(getX() + dx, getY() + dy, getZ() + dz))
+     */
+    public Point3D translate(int dx, int dy, int dz) {
+        return of(getX() + dx, getY() + dy, getZ() + dz);
     }
 
     /**
-     * Creates and returns a copy of this object.
+     * Returns a point with the given x-coordinate and the other coordinates of the current point.
      *
-     * @return  Returns a clone of the object.
-     *          | result == new Point3D(getX(), getY(), getZ())
+     * @param   x
+     *          The given x-coordinate.
+     * @return  The new point.
+     *          | result.equals(new Point3D(x, getY(), getZ()))
      */
+    public Point3D withX(int x) {
+        return of(x, getY(), getZ());
+    }
+
+    /**
+     * Returns a point with the given y-coordinate and the other coordinates of the current point.
+     *
+     * @param   y
+     *          The given y-coordinate.
+     * @return  The new point.
+     *          | result.equals(new Point3D(getX(), y, getZ()))
+     */
+    public Point3D withY(int y) {
+        return of(getX(), y, getZ());
+    }
+
+    /**
+     * Returns a point with the given z-coordinate and the other coordinates of the current point.
+     *
+     * @param   z
+     *          The given z-coordinate.
+     * @return  The new point.
+     *          | result.equals(new Point3D(getX(), getY(), z))
+     */
+    public Point3D withZ(int z) {
+        return of(getX(), getY(), z);
+    }
+
+    /**
+     * Checks whether the given coordinates can be packed into a single long value.
+     *
+     * @param   x
+     *          The given x-coordinate.
+     * @param   y
+     *          The given y-coordinate.
+     * @param   z
+     *          The given z-coordinate.
+     * @return  True if every coordinate is positive and fits in PACKED_BITS bits.
+     *          | result == (x >= 0) && (x <= PACKED_MAX) && (y >= 0) && (y <= PACKED_MAX) && (z >= 0) &&
+     *          |   (z <= PACKED_MAX)
+     */
+    public static boolean isPackable(int x, int y, int z) {
+        return (x >= 0) && (x <= PACKED_MAX) && (y >= 0) && (y <= PACKED_MAX) && (z >= 0) && (z <= PACKED_MAX);
+    }
+
+    /**
+     * Packs the given coordinates into a single long value. Packed values sort in X, Y, Z order.
+     *
+     * @param   x
+     *          The given x-coordinate.
+     * @param   y
+     *          The given y-coordinate.
+     * @param   z
+     *          The given z-coordinate.
+     * @throws  IllegalArgumentException
+     *          Throws an illegal argument exception if the coordinates can not be packed.
+     *          | !isPackable(x, y, z)
+     * @return  The packed coordinates.
+     *          | result == (x << (2 * PACKED_BITS)) | (y << PACKED_BITS) | z
+     */
+    public static long pack(int x, int y, int z) throws IllegalArgumentException {
+        if (!isPackable(x, y, z))
+            throw new IllegalArgumentException("Coordinates can not be packed!");
+        return ((long) x << (2 * PACKED_BITS)) | ((long) y << PACKED_BITS) | z;
+    }
+
+    /**
+     * Packs the coordinates of this point into a single long value.
+     *
+     * @return  The packed coordinates.
+     *          | result == pack(getX(), getY(), getZ())
+     */
+    public long pack() throws IllegalArgumentException {
+        return pack(getX(), getY(), getZ());
+    }
+
+    /**
+     * Returns the x-coordinate stored in a packed long value.
+     */
+    public static int unpackX(long packed) {
+        return (int) ((packed >>> (2 * PACKED_BITS)) & PACKED_MAX);
+    }
+
+    /**
+     * Returns the y-coordinate stored in a packed long value.
+     */
+    public static int unpackY(long packed) {
+        return (int) ((packed >>> PACKED_BITS) & PACKED_MAX);
+    }
+
+    /**
+     * Returns the z-coordinate stored in a packed long value.
+     */
+    public static int unpackZ(long packed) {
+        return (int) (packed & PACKED_MAX);
+    }
+
+    /**
+     * Creates a point from a packed long value.
+     *
+     * @param   packed
+     *          The given packed coordinates.
+     * @return  The unpacked point.
+     *          | result.equals(new Point3D(unpackX(packed), unpackY(packed), unpackZ(packed)))
+     */
+    public static Point3D unpack(long packed) {
+        return of(unpackX(packed), unpackY(packed), unpackZ(packed));
+    }
+
+    /**
+     * Returns this point. Points are immutable, so they no longer have to be copied; this method is kept for code
+     * written against the mutable points.
+     *
+     * @return  This point.
+     *          | result == this
+     * @deprecated Points are immutable, use the point itself.
+     */
+    @Deprecated
     @Override
     public Object clone() {
-        return new Point3D(getX(), getY(), getZ());
+        return this;
     }
 
     /**
      * Indicates whether some other object is "equal to" this one.
      *
-     * @throws  IllegalArgumentException
-     *          Throws an illegal argument exception if the given object is not of the same class.
-     *          | !(obj instanceof Point3D)
-     * @return  Returns true if the points have equal coordinates.
-     *          | result == ((this.getX() == obj.getX()) && (this.getY() == obj.getY()) && (this.getZ() == obj.getZ()))
+     * @return  Returns true if the given object is a point with equal coordinates.
+     *          | result == ((obj instanceof Point3D) && (this.getX() == obj.getX()) && (this.getY() == obj.getY()) &&
+     *          |   (this.getZ() == obj.getZ()))
      */
     @Override
-    public boolean equals(Object obj) throws IllegalArgumentException {
+    public boolean equals(Object obj) {
+        if (this == obj)
+            return true;
         if (!(obj instanceof Point3D))
-            throw new IllegalArgumentException("Object of foreign class!");
+            return false;
         Point3D p = (Point3D) obj;
         return (this.getX() == p.getX()) && (this.getY() == p.getY()) && (this.getZ() == p.getZ());
     }
@@ -187,15 +317,15 @@ public class Point3D {
     /**
      * Returns a hash code value for the object.
      *
-     * @note    Algorithm from Effective Java by Joshua Bloch.
+     * @note    The coordinates are mixed with a multiplicative hash, so neighbouring points on a grid do not collide.
      */
     @Override
     public int hashCode() {
-        int res = 17;
-        res = 37 * res + (getX() ^ (getX() >> 32));
-        res = 37 * res + (getY() ^ (getY() >> 32));
-        res = 37 * res + (getZ() ^ (getZ() >> 32));
-        return res;
+        long res = getX();
+        res = res * 0x9E3779B97F4A7C15L + getY();
+        res = res * 0x9E3779B97F4A7C15L + getZ();
+        res *= 0x9E3779B97F4A7C15L;
+        return (int) (res ^ (res >>> 32));
     }
 
     /**
@@ -0,0 +1,191 @@
+package be.kuleuven.cs.ogp.project.tools;
+
+import be.kuleuven.cs.som.annotate.Basic;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A seeded source of random numbers, using the SplitMix64 generator. A source can be split into an independent source,
+ * and streams can be derived from a seed and a key without any shared state, so simulations give the same outcome
+ * whatever the number of threads they run on. A source can be used by several threads at once: every number is
+ * drawn with a single atomic addition, but the numbers a thread receives then depend on the timing of the others.
+ * Outcomes which must not depend on that timing draw from a stream derived from the seed of the source instead.
+ *
+ * @author  Frederic Hannes
+ */
+public class RandomSource {
+
+    /**
+     * The default increment of the generator, the golden ratio in fixed point.
+     */
+    public static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+
+    /**
+     * The seed the source was created with.
+     */
+    private final long seed;
+
+    /**
+     * The state of the generator.
+     */
+    private final AtomicLong state;
+
+    /**
+     * The increment of the state for every number, an odd number.
+     */
+    private final long gamma;
+
+    /**
+     * Creates a new random source.
+     *
+     * @param   seed
+     *          The given seed.
+     */
+    public RandomSource(long seed) {
+        this(seed, GOLDEN_GAMMA);
+    }
+
+    /**
+     * Internal constructor for split sources.
+     */
+    private RandomSource(long seed, long gamma) {
+        this.seed = seed;
+        this.state = new AtomicLong(seed);
+        this.gamma = gamma;
+    }
+
+    /**
+     * Returns a random source seeded from the clock.
+     */
+    public static RandomSource unseeded() {
+        return new RandomSource(mix(System.nanoTime() ^ System.currentTimeMillis() * GOLDEN_GAMMA));
+    }
+
+    /**
+     * Returns the seed the source was created with.
+     */
+    @Basic
+    public long getSeed() {
+        return seed;
+    }
+
+    /**
+     * Returns the increment of the generator.
+     */
+    @Basic
+    public long getGamma() {
+        return gamma;
+    }
+
+    /**
+     * Returns a random long value.
+     */
+    public long nextLong() {
+        return mix(state.addAndGet(gamma));
+    }
+
+    /**
+     * Returns a random integer value from 0 to bound-1, every value being equally likely.
+     *
+     * @param   bound
+     *          The given bound.
+     * @throws  IllegalArgumentException
+     *          Throws an illegal argument exception if the given bound is invalid.
+     *          | bound < 1
+     */
+    public int nextInt(int bound) throws IllegalArgumentException {
+        if (bound < 1)
+            throw new IllegalArgumentException("Invalid bound!");
+        // Reject the values of the last incomplete range of the 32-bit values
+        long limit = (1L << 32) - ((1L << 32) % bound);
+        long value;
+        do {
+            value = nextLong() >>> 32;
+        } while (value >= limit);
+        return (int) (value % bound);
+    }
+
+    /**
+     * Returns a random boolean value.
+     */
+    public boolean nextBoolean() {
+        return nextLong() < 0;
+    }
+
+    /**
+     * Returns a random double value from 0 (inclusive) to 1 (exclusive).
+     */
+    public double nextDouble() {
+        return (nextLong() >>> 11) * 0x1.0p-53;
+    }
+
+    /**
+     * Returns a new random source whose numbers are independent of those of this source, for use by another thread or
+     * object.
+     */
+    public RandomSource split() {
+        return new RandomSource(nextLong(), mixGamma(nextLong()));
+    }
+
+    /**
+     * Returns the random source for a key derived from a seed. Sources for different keys are independent, and the
+     * source for a key does not depend on the sources used before.
+     *
+     * @param   seed
+     *          The given seed.
+     * @param   key
+     *          The given key, like the number of an avatar or a tick.
+     */
+    public static RandomSource forKey(long seed, long key) {
+        return new RandomSource(mix(seed + mix(key + GOLDEN_GAMMA)));
+    }
+
+    /**
+     * Returns the random source for a key derived from the seed of this source. The numbers drawn from this source
+     * before do not matter.
+     *
+     * @param   key
+     *          The given key.
+     * @return  | result == forKey(getSeed(), key)
+     */
+    public RandomSource derive(long key) {
+        return forKey(seed, key);
+    }
+
+    /**
+     * Scrambles a value with the SplitMix64 finaliser, the random value for a counter.
+     *
+     * @param   z
+     *          The given value.
+     */
+    public static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * Maps a random value onto the range 0 to bound-1 by multiplying it with the bound. This is not exactly uniform,
+     * but has no bias worth mentioning for small bounds.
+     *
+     * @param   random
+     *          The given random value.
+     * @param   bound
+     *          The given bound.
+     */
+    public static int scale(long random, int bound) {
+        return (int) (((random >>> 32) * bound) >>> 32);
+    }
+
+    /**
+     * Internal method to derive a valid increment, an odd number with enough changing bits.
+     */
+    private static long mixGamma(long z) {
+        z = (z ^ (z >>> 33)) * 0xFF51AFD7ED558CCDL;
+        z = (z ^ (z >>> 33)) * 0xC4CEB9FE1A85EC53L;
+        z = (z ^ (z >>> 33)) | 1L;
+        int n = Long.bitCount(z ^ (z >>> 1));
+        return (n < 24) ? z ^ 0xAAAAAAAAAAAAAAAAL : z;
+    }
+
+}
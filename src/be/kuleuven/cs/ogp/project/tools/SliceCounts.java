@@ -0,0 +1,125 @@
+package be.kuleuven.cs.ogp.project.tools;
+
+import java.util.TreeMap;
+
+/**
+ * The number of items in every slice along an axis, a slice being all positions with the same coordinate. Only the
+ * occupied slices are kept, ordered by their coordinate, so the lowest and highest occupied slice are found in
+ * logarithmic time.
+ *
+ * @invar   The count of a slice is never negative.
+ *          | for each coordinate: getCount(coordinate) >= 0
+ *
+ * @author  Frederic Hannes
+ */
+public final class SliceCounts {
+
+    /**
+     * The count of every occupied slice by its coordinate. The counts are kept in arrays, so they can be changed
+     * without allocating.
+     */
+    private final TreeMap<Integer, int[]> slices = new TreeMap<>();
+
+    /**
+     * Adds an item to the slice at the given coordinate.
+     *
+     * @param   coordinate
+     *          The given coordinate.
+     * @post    The count of the slice is increased by one.
+     *          | new.getCount(coordinate) == getCount(coordinate) + 1
+     */
+    public void add(int coordinate) {
+        int[] count = slices.get(coordinate);
+        if (count == null)
+            slices.put(coordinate, new int[] { 1 });
+        else
+            count[0]++;
+    }
+
+    /**
+     * Removes an item from the slice at the given coordinate.
+     *
+     * @param   coordinate
+     *          The given coordinate.
+     * @throws  IllegalArgumentException
+     *          Throws an illegal argument exception if the slice is empty.
+     *          | getCount(coordinate) == 0
+     * @post    The count of the slice is decreased by one.
+     *          | new.getCount(coordinate) == getCount(coordinate) - 1
+     * @return  True if the slice is empty now.
+     *          | result == (new.getCount(coordinate) == 0)
+     */
+    public boolean remove(int coordinate) throws IllegalArgumentException {
+        int[] count = slices.get(coordinate);
+        if (count == null)
+            throw new IllegalArgumentException("Invalid coordinate!");
+        if (--count[0] > 0)
+            return false;
+        slices.remove(coordinate);
+        return true;
+    }
+
+    /**
+     * Returns the number of items in the slice at the given coordinate.
+     *
+     * @param   coordinate
+     *          The given coordinate.
+     */
+    public int getCount(int coordinate) {
+        int[] count = slices.get(coordinate);
+        return (count == null) ? 0 : count[0];
+    }
+
+    /**
+     * Returns the number of occupied slices.
+     */
+    public int getSlices() {
+        return slices.size();
+    }
+
+    /**
+     * Returns true if no slice is occupied.
+     *
+     * @return  | result == (getSlices() == 0)
+     */
+    public boolean isEmpty() {
+        return slices.isEmpty();
+    }
+
+    /**
+     * Returns the coordinate of the lowest occupied slice.
+     *
+     * @throws  IllegalStateException
+     *          Throws an illegal state exception if no slice is occupied.
+     *          | isEmpty()
+     */
+    public int getLowest() throws IllegalStateException {
+        if (slices.isEmpty())
+            throw new IllegalStateException("No slice is occupied!");
+        return slices.firstKey();
+    }
+
+    /**
+     * Returns the coordinate of the highest occupied slice.
+     *
+     * @throws  IllegalStateException
+     *          Throws an illegal state exception if no slice is occupied.
+     *          | isEmpty()
+     */
+    public int getHighest() throws IllegalStateException {
+        if (slices.isEmpty())
+            throw new IllegalStateException("No slice is occupied!");
+        return slices.lastKey();
+    }
+
+    /**
+     * Returns the size of the extent holding every occupied slice, starting at coordinate zero.
+     *
+     * @return  Zero if no slice is occupied, the highest occupied coordinate plus one otherwise.
+     *          | result == (isEmpty() ? 0 : getHighest() + 1)
+     */
+    public long getExtent() {
+        return isEmpty() ? 0 : (long) getHighest() + 1;
+    }
+
+}
@@ -0,0 +1,92 @@
+package be.kuleuven.cs.ogp.project.tools;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A counter that can be increased by many threads at once. The count is spread over a number of cells, a thread always
+ * adds to the cell picked by its id, so threads rarely contend for the same cell. Every cell is placed on a cache line
+ * of its own. Adding to the counter never allocates.
+ *
+ * @invar   The counter has at least one cell.
+ *          | getCells() > 0
+ *
+ * @author  Frederic Hannes
+ */
+public final class StripedCounter {
+
+    /**
+     * The number of longs in a cache line, the cells are spaced this far apart.
+     */
+    private static final int PADDING = 8;
+
+    /**
+     * The number of cells of every counter, the first power of two at least twice the number of processors.
+     */
+    private static final int CELLS = Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors()) * 4
+            - 1);
+
+    private final AtomicLongArray cells = new AtomicLongArray(CELLS * PADDING);
+
+    /**
+     * Returns the number of cells the count is spread over.
+     */
+    public int getCells() {
+        return CELLS;
+    }
+
+    /**
+     * Increases the counter by one.
+     *
+     * @effect  One is added to the counter.
+     *          | add(1)
+     */
+    public void increment() {
+        add(1);
+    }
+
+    /**
+     * Adds a value to the counter.
+     *
+     * @param   value
+     *          The value to add.
+     * @post    The value is added to the count.
+     *          | new.sum() == sum() + value
+     */
+    public void add(long value) {
+        cells.getAndAdd(cell(), value);
+    }
+
+    /**
+     * Returns the sum of all cells. The sum is not a snapshot if the counter is changed during the call.
+     */
+    public long sum() {
+        long sum = 0;
+        for (int i = 0; i < CELLS; i++)
+            sum += cells.get(i * PADDING);
+        return sum;
+    }
+
+    /**
+     * Resets the counter to zero. Values added during the call may be lost.
+     *
+     * @post    The count is zero if the counter is not changed during the call.
+     *          | new.sum() == 0
+     */
+    public void reset() {
+        for (int i = 0; i < CELLS; i++)
+            cells.set(i * PADDING, 0);
+    }
+
+    /**
+     * Internal method to find the index of the cell of the current thread.
+     */
+    private static int cell() {
+        return ((int) RandomSource.mix(Thread.currentThread().getId()) & (CELLS - 1)) * PADDING;
+    }
+
+    @Override
+    public String toString() {
+        return Long.toString(sum());
+    }
+
+}
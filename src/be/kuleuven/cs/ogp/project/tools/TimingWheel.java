@@ -0,0 +1,340 @@
+package be.kuleuven.cs.ogp.project.tools;
+
+import be.kuleuven.cs.som.annotate.Basic;
+
+import java.util.List;
+
+/**
+ * A hierarchical timing wheel, which holds items until the tick they are due in. Every level of the wheel has 64
+ * slots; a slot of the lowest level holds the items due in a single tick, a slot of a higher level holds the items due
+ * in a range of 64 times as many ticks as a slot of the level below it. Items are moved down a level when the clock
+ * reaches their range. Scheduling and cancelling an item take constant time, and the clock skips ranges of ticks in
+ * which no items are due.
+ *
+ * @invar   The number of pending items is never negative.
+ *          | getSize() >= 0
+ *
+ * @author  Frederic Hannes
+ */
+public class TimingWheel<T> {
+
+    /**
+     * An item held by a timing wheel.
+     */
+    public static final class Timer<T> {
+
+        private final T item;
+
+        /**
+         * The tick the item is due in.
+         */
+        private long due;
+
+        /**
+         * The wheel holding the item, null if the item is not pending.
+         */
+        private TimingWheel<T> wheel;
+
+        /**
+         * The neighbours of the timer in its slot.
+         */
+        private Timer<T> prev;
+        private Timer<T> next;
+
+        private Timer(T item) {
+            this.item = item;
+        }
+
+        /**
+         * Returns the item of the timer.
+         */
+        @Basic
+        public T getItem() {
+            return item;
+        }
+
+        /**
+         * Returns the tick the item is due in.
+         */
+        @Basic
+        public long getDue() {
+            return due;
+        }
+
+        /**
+         * Returns true if the item has not been returned by the wheel or cancelled yet.
+         */
+        public boolean isPending() {
+            return wheel != null;
+        }
+
+        /**
+         * Removes the item from its wheel.
+         *
+         * @return  True if the item was pending.
+         */
+        public boolean cancel() {
+            if (wheel == null)
+                return false;
+            wheel.remove(this);
+            return true;
+        }
+
+    }
+
+    /**
+     * The number of bits of a tick covered by a level.
+     */
+    private static final int BITS = 6;
+
+    private static final int SLOTS = 1 << BITS;
+
+    /**
+     * The number of levels, enough to cover every positive tick.
+     */
+    private static final int LEVELS = (63 + BITS - 1) / BITS;
+
+    /**
+     * The first timer of every slot of every level. Only timers of this wheel are stored, see first.
+     */
+    private final Timer<?>[][] slots = new Timer<?>[LEVELS][SLOTS];
+
+    /**
+     * The slots holding timers, one bit per slot.
+     */
+    private final long[] occupied = new long[LEVELS];
+
+    private long tick;
+
+    private int size = 0;
+
+    /**
+     * Creates a new timing wheel.
+     *
+     * @param   tick
+     *          The current tick.
+     * @throws  IllegalArgumentException
+     *          Throws an illegal argument exception if the given tick is negative.
+     *          | tick < 0
+     */
+    public TimingWheel(long tick) throws IllegalArgumentException {
+        if (tick < 0)
+            throw new IllegalArgumentException("Invalid tick!");
+        this.tick = tick;
+    }
+
+    /**
+     * Returns the current tick.
+     */
+    @Basic
+    public long getTick() {
+        return tick;
+    }
+
+    /**
+     * Returns the number of pending items.
+     */
+    @Basic
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Adds an item to the wheel.
+     *
+     * @param   item
+     *          The given item.
+     * @param   due
+     *          The tick the item is due in. Items due in the current tick or before are due in the next tick.
+     * @return  The timer holding the item.
+     */
+    public Timer<T> schedule(T item, long due) {
+        Timer<T> timer = new Timer<>(item);
+        reschedule(timer, due);
+        return timer;
+    }
+
+    /**
+     * Adds the item of a timer to the wheel again, replacing its previous due tick if it is still pending.
+     *
+     * @param   timer
+     *          The given timer.
+     * @param   due
+     *          The tick the item is due in. Items due in the current tick or before are due in the next tick.
+     * @throws  IllegalArgumentException
+     *          Throws an illegal argument exception if the given timer belongs to another wheel.
+     *          | (timer.isPending()) && (timer.wheel != this)
+     */
+    public void reschedule(Timer<T> timer, long due) throws IllegalArgumentException {
+        if ((timer.wheel != null) && (timer.wheel != this))
+            throw new IllegalArgumentException("The timer belongs to another wheel!");
+        if (timer.wheel != null)
+            remove(timer);
+        timer.due = Math.max(due, tick + 1);
+        timer.wheel = this;
+        insert(timer);
+        size++;
+    }
+
+    /**
+     * Advances the clock by a single tick.
+     *
+     * @param   due
+     *          The list to add the items due in the new tick to.
+     * @return  The number of items that were due.
+     */
+    public int advance(List<? super T> due) {
+        tick++;
+        int top = Math.min(LEVELS - 1, Long.numberOfTrailingZeros(tick) / BITS);
+        for (int level = top; level > 0; level--)
+            cascade(level, (int) (tick >>> (level * BITS)) & (SLOTS - 1));
+        return expire((int) tick & (SLOTS - 1), due);
+    }
+
+    /**
+     * Advances the clock to the first tick in which items are due, without passing the given tick. Ranges of ticks in
+     * which no items are due are skipped.
+     *
+     * @param   target
+     *          The given tick.
+     * @param   due
+     *          The list to add the items that were due to.
+     * @return  The number of items that were due, 0 if the clock reached the given tick without any items being due.
+     */
+    public int advanceUntil(long target, List<? super T> due) {
+        while (tick < target) {
+            long next = (size == 0) ? Long.MAX_VALUE : next();
+            if (next > target) {
+                tick = target;
+                return 0;
+            }
+            tick = next - 1;
+            int count = advance(due);
+            if (count > 0)
+                return count;
+        }
+        return 0;
+    }
+
+    /**
+     * Advances the clock to the given tick.
+     *
+     * @param   target
+     *          The given tick.
+     * @param   due
+     *          The list to add the items that were due to, in the order of the ticks they were due in.
+     * @return  The number of items that were due.
+     */
+    public int advanceTo(long target, List<? super T> due) {
+        int count = 0;
+        while (tick < target)
+            count += advanceUntil(target, due);
+        return count;
+    }
+
+    /**
+     * Internal method to determine the first tick after the current one in which the wheel has to do work.
+     */
+    private long next() {
+        long res = Long.MAX_VALUE;
+        for (int level = 0; level < LEVELS; level++) {
+            int shift = level * BITS;
+            int current = (int) (tick >>> shift) & (SLOTS - 1);
+            if (current == SLOTS - 1)
+                continue;
+            long later = occupied[level] & (-1L << (current + 1));
+            if (later == 0)
+                continue;
+            long upper = (shift + BITS >= 64) ? 0 : (tick >>> (shift + BITS)) << (shift + BITS);
+            res = Math.min(res, upper | ((long) Long.numberOfTrailingZeros(later) << shift));
+        }
+        return res;
+    }
+
+    /**
+     * Internal method to return the first timer of a slot, null if the slot is empty. The slots only hold timers of
+     * this wheel, so the cast is safe.
+     */
+    @SuppressWarnings("unchecked")
+    private Timer<T> first(int level, int slot) {
+        return (Timer<T>) slots[level][slot];
+    }
+
+    /**
+     * Internal method to put a timer in the slot for its due tick.
+     */
+    private void insert(Timer<T> timer) {
+        long diff = timer.due ^ tick;
+        int level = (diff == 0) ? 0 : (63 - Long.numberOfLeadingZeros(diff)) / BITS;
+        int slot = (int) (timer.due >>> (level * BITS)) & (SLOTS - 1);
+        Timer<T> first = first(level, slot);
+        if (first == null) {
+            timer.prev = timer;
+            timer.next = timer;
+            slots[level][slot] = timer;
+            occupied[level] |= 1L << slot;
+        } else {
+            timer.prev = first.prev;
+            timer.next = first;
+            first.prev.next = timer;
+            first.prev = timer;
+        }
+    }
+
+    /**
+     * Internal method to remove a pending timer from the wheel.
+     */
+    private void remove(Timer<T> timer) {
+        long diff = timer.due ^ tick;
+        int level = (diff == 0) ? 0 : (63 - Long.numberOfLeadingZeros(diff)) / BITS;
+        int slot = (int) (timer.due >>> (level * BITS)) & (SLOTS - 1);
+        unlink(timer, level, slot);
+        timer.wheel = null;
+        size--;
+    }
+
+    /**
+     * Internal method to unlink a timer from its slot.
+     */
+    private void unlink(Timer<T> timer, int level, int slot) {
+        if (timer.next == timer) {
+            slots[level][slot] = null;
+            occupied[level] &= ~(1L << slot);
+        } else {
+            timer.prev.next = timer.next;
+            timer.next.prev = timer.prev;
+            if (first(level, slot) == timer)
+                slots[level][slot] = timer.next;
+        }
+        timer.prev = null;
+        timer.next = null;
+    }
+
+    /**
+     * Internal method to move the timers of a slot to the lower levels, now that the clock has reached their range.
+     */
+    private void cascade(int level, int slot) {
+        Timer<T> timer;
+        while ((timer = first(level, slot)) != null) {
+            unlink(timer, level, slot);
+            insert(timer);
+        }
+    }
+
+    /**
+     * Internal method to remove the timers of a slot of the lowest level, which are due in the current tick.
+     */
+    private int expire(int slot, List<? super T> due) {
+        int count = 0;
+        Timer<T> timer;
+        while ((timer = first(0, slot)) != null) {
+            unlink(timer, 0, slot);
+            timer.wheel = null;
+            size--;
+            due.add(timer.item);
+            count++;
+        }
+        return count;
+    }
+
+}
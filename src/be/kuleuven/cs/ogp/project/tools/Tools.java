@@ -7,6 +7,33 @@ package be.kuleuven.cs.ogp.project.tools;
  */
 public class Tools {
 
+    /**
+     * The random source used when no other source is given.
+     */
+    private static volatile RandomSource random = RandomSource.unseeded();
+
+    /**
+     * Returns the random source used when no other source is given.
+     */
+    public static RandomSource getRandomSource() {
+        return random;
+    }
+
+    /**
+     * Sets the random source used when no other source is given, for instance to make a run reproducible.
+     *
+     * @param   source
+     *          The given random source.
+     * @throws  IllegalArgumentException
+     *          Throws an illegal argument exception if the given random source is invalid.
+     *          | source == null
+     */
+    public static void setRandomSource(RandomSource source) throws IllegalArgumentException {
+        if (source == null)
+            throw new IllegalArgumentException("Invalid random source!");
+        random = source;
+    }
+
 	/**
 	 * Rounds a given number to a specific number of decimal digits.
 	 *
@@ -25,9 +52,10 @@ public class Tools {
 	 * Generates a random boolean value.
 	 *
 	 * @return	The boolean value.
+	 * 			| result == getRandomSource().nextBoolean()
 	 */
 	public static boolean randBool() {
-		return Math.round(Math.random()) == 1;
+		return random.nextBoolean();
 	}
 
     /**
@@ -35,11 +63,14 @@ public class Tools {
      *
      * @param   range
      *          The given range.
-     * @return  A random number from 0 to range-1.
-     *          | result == Math.round(Math.random() * (range - 1))
+     * @return  A random number from 0 to range-1, every number being equally likely.
+     *          | result == getRandomSource().nextInt(range)
+     * @throws  IllegalArgumentException
+     *          Throws an illegal argument exception if the given range is invalid.
+     *          | range < 1
      */
-    public static int random(int range) {
-        return (int) Math.round(Math.random() * (range - 1));
+    public static int random(int range) throws IllegalArgumentException {
+        return random.nextInt(range);
     }
 
     /**
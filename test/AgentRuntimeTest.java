@@ -0,0 +1,84 @@
+import static org.junit.Assert.fail;
+
+import be.kuleuven.cs.ogp.project.*;
+import be.kuleuven.cs.ogp.project.agents.Agent;
+import be.kuleuven.cs.ogp.project.agents.AgentRuntime;
+import be.kuleuven.cs.ogp.project.agents.Wait;
+import be.kuleuven.cs.ogp.project.tools.Point3D;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * This class is a unit test for agents run on the tick clock of a simulation.
+ *
+ * @author Frederic Hannes
+ */
+public class AgentRuntimeTest {
+
+    /**
+     * Returns an agent which logs its steps and then waits for the given numbers of ticks, one after the other.
+     */
+    private static Agent sleeper(final String name, final List<String> log, final long... waits) {
+        return new Agent() {
+            private int step = 0;
+
+            @Override
+            public Wait act(Avatar avatar, long tick) {
+                log.add(tick + name);
+                return (step < waits.length) ? Wait.ticks(waits[step++]) : null;
+            }
+        };
+    }
+
+    private static Dungeon<Square> createRow(int length) {
+        Dungeon<Square> dungeon = new Dungeon<>();
+        for (int x = 0; x < length; x++)
+            dungeon.addSquare(new Square(), new Point3D(x, 1, 0));
+        return dungeon;
+    }
+
+    @Test
+    public void testSleep_Order() {
+        Dungeon<Square> dungeon = createRow(3);
+        List<String> log = new ArrayList<>();
+        try (Simulation simulation = new Simulation(1); AgentRuntime runtime = new AgentRuntime(simulation)) {
+            runtime.spawn(new Avatar(dungeon.getSquare(new Point3D(0, 1, 0))), sleeper("A", log, 3));
+            runtime.spawn(new Avatar(dungeon.getSquare(new Point3D(1, 1, 0))), sleeper("B", log, 1));
+            runtime.spawn(new Avatar(dungeon.getSquare(new Point3D(2, 1, 0))), sleeper("C", log, 3));
+            for (int i = 0; i < 5; i++)
+                runtime.tick();
+            if (runtime.getAgents() != 0)
+                fail("Finished agents are kept!");
+        }
+        if (!log.equals(Arrays.asList("1A", "1B", "1C", "2B", "4A", "4C")))
+            fail("Sleeping agents do not wake up in order: " + log + "!");
+    }
+
+    @Test
+    public void testCancel_OnKill() {
+        Dungeon<Square> dungeon = createRow(2);
+        final Avatar sleeper = new Avatar(dungeon.getSquare(new Point3D(1, 1, 0)));
+        final Avatar mover = new Avatar(dungeon.getSquare(new Point3D(0, 1, 0)));
+        List<String> log = new ArrayList<>();
+        try (Simulation simulation = new Simulation(3); AgentRuntime runtime = new AgentRuntime(simulation)) {
+            runtime.spawn(sleeper, sleeper("S", log, 1000));
+            runtime.spawn(mover, new Agent() {
+                @Override
+                public Wait act(Avatar avatar, long tick) {
+                    return (tick == 1) ? Wait.move(Direction.EAST) : Wait.ticks(1000);
+                }
+            });
+            runtime.tick();
+            Avatar dead = sleeper.isAlive() ? mover : sleeper;
+            Avatar alive = sleeper.isAlive() ? sleeper : mover;
+            if (dead.isAlive() || !alive.isAlive())
+                fail("The avatars did not collide!");
+            if ((runtime.getAgents() != 1) || runtime.isRunning(dead) || !runtime.isRunning(alive))
+                fail("The agent of a killed avatar is not cancelled at once!");
+        }
+    }
+
+}
@@ -0,0 +1,138 @@
+import static org.junit.Assert.fail;
+
+import be.kuleuven.cs.ogp.project.*;
+import be.kuleuven.cs.ogp.project.tools.Point3D;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * This class is a unit test for the avatar index of a dungeon.
+ *
+ * @author Frederic Hannes
+ */
+public class AvatarIndexTest {
+
+    private static Dungeon<Square> line(int length) {
+        Dungeon<Square> dungeon = new Dungeon<>();
+        for (int x = 0; x < length; x++)
+            dungeon.addSquare(new Square(), new Point3D(x, 1, 0));
+        return dungeon;
+    }
+
+    @Test
+    public void testGetNearest() {
+        Dungeon<Square> dungeon = line(40);
+        Avatar far = new Avatar(dungeon.getSquare(new Point3D(30, 1, 0)));
+        AvatarIndex index = dungeon.getAvatarIndex();
+        Avatar near = new Avatar(dungeon.getSquare(new Point3D(3, 1, 0)));
+        Avatar nearer = new Avatar(dungeon.getSquare(new Point3D(6, 1, 0)));
+        List<Avatar> res = index.getNearest(new Point3D(5, 1, 0), 2, 100);
+        if (!res.equals(Arrays.asList(nearer, near)))
+            fail("The nearest avatars are not found!");
+        if (!index.getNearest(new Point3D(5, 1, 0), 5, 20).equals(Arrays.asList(nearer, near)))
+            fail("Avatars out of range are returned!");
+        if (index.getNearest(new Point3D(39, 1, 0), 1, 100).get(0) != far)
+            fail("Avatars present before the index was built are not found!");
+    }
+
+    @Test
+    public void testUpdate() {
+        Dungeon<Square> dungeon = line(40);
+        AvatarIndex index = dungeon.getAvatarIndex();
+        Avatar avatar = new Avatar(dungeon.getSquare(new Point3D(10, 1, 0)));
+        avatar.move(Direction.EAST);
+        if (!index.getInBox(new Point3D(10, 1, 0), new Point3D(10, 1, 0)).isEmpty())
+            fail("A moved avatar is found at its old position!");
+        avatar.setSquare(dungeon.getSquare(new Point3D(35, 1, 0)));
+        if (!index.getWithin(new Point3D(36, 1, 0), 1).contains(avatar))
+            fail("A moved avatar is not found at its new position!");
+        new Avatar(dungeon.getSquare(new Point3D(35, 1, 0)));
+        if (index.size() != 1)
+            fail("A killed avatar is left in the index!");
+    }
+
+    @Test
+    public void testUpdate_EmptyCells() {
+        Dungeon<Square> dungeon = line(100);
+        AvatarIndex index = dungeon.getAvatarIndex();
+        Avatar walker = new Avatar(dungeon.getSquare(new Point3D(0, 1, 0)));
+        Avatar still = new Avatar(dungeon.getSquare(new Point3D(99, 1, 0)));
+        for (int x = 1; x < 90; x++)
+            walker.move(Direction.EAST);
+        if (index.getCellCount() != 2)
+            fail("Cubes left by the avatars are kept!");
+        still.leave();
+        if ((index.getCellCount() != 1) || (index.getNearest(new Point3D(0, 1, 0), 2, 1000).size() != 1))
+            fail("The cube of a removed avatar is kept!");
+        walker.leave();
+        if ((index.getCellCount() != 0) || !index.getWithin(new Point3D(50, 1, 0), 1000).isEmpty())
+            fail("An empty index holds cubes!");
+        Avatar avatar = new Avatar(dungeon.getSquare(new Point3D(3, 1, 0)));
+        if (index.getNearest(new Point3D(0, 1, 0), 1, 10).get(0) != avatar)
+            fail("An avatar is not found after the cubes were removed!");
+    }
+
+    @Test
+    public void testUpdate_Threads() throws InterruptedException {
+        final int rows = 8;
+        final int length = 5 * AvatarIndex.CELL_SIZE;
+        final Dungeon<Square> dungeon = new Dungeon<>();
+        for (int y = 1; y <= rows; y++)
+            for (int x = 0; x < length; x++)
+                dungeon.addSquare(new Square(), new Point3D(x, y, 0));
+        AvatarIndex index = dungeon.getAvatarIndex();
+        final AtomicReference<Throwable> error = new AtomicReference<>();
+        final List<Avatar> avatars = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int y = 1; y <= rows; y++) {
+            final Avatar avatar = new Avatar(dungeon.getSquare(new Point3D(0, y, 0)));
+            avatars.add(avatar);
+            threads.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 200; i++) {
+                        Direction dir = ((i / (length - 1)) % 2 == 0) ? Direction.EAST : Direction.WEST;
+                        avatar.move(dir);
+                    }
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.setUncaughtExceptionHandler(new Thread.UncaughtExceptionHandler() {
+                @Override
+                public void uncaughtException(Thread thread, Throwable e) {
+                    error.set(e);
+                }
+            });
+            thread.start();
+        }
+        for (Thread thread : threads)
+            thread.join();
+        if (error.get() != null)
+            fail(error.get().toString());
+        for (Avatar avatar : avatars) {
+            Point3D pos = avatar.getSquare().getPos();
+            if (!index.getInBox(pos, pos).equals(Arrays.asList(avatar)))
+                fail("An avatar is not indexed at its square!");
+        }
+        if ((index.size() != rows) || (index.getCellCount() != rows / AvatarIndex.CELL_SIZE + 1))
+            fail("The index holds avatars or cubes which are not there!");
+    }
+
+    @Test
+    public void testGetAvatarIndex_SubDungeon() {
+        CompositeDungeon<Square> root = new CompositeDungeon<>();
+        Dungeon<Square> dungeon = line(10);
+        Avatar avatar = new Avatar(dungeon.getSquare(new Point3D(2, 1, 0)));
+        root.addDungeon(dungeon, new Point3D(20, 4, 1));
+        if (dungeon.getAvatarIndex() != root.getAvatarIndex())
+            fail("Sub dungeons do not share the index of their parent!");
+        if (!root.getAvatarIndex().getInBox(new Point3D(22, 5, 1), new Point3D(22, 5, 1)).contains(avatar))
+            fail("Avatars are not indexed by their absolute position!");
+    }
+
+}
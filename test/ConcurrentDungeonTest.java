@@ -0,0 +1,179 @@
+import static org.junit.Assert.fail;
+
+import be.kuleuven.cs.ogp.project.*;
+import be.kuleuven.cs.ogp.project.borders.Door;
+import be.kuleuven.cs.ogp.project.borders.NoBorder;
+import be.kuleuven.cs.ogp.project.dungeons.ChunkManager;
+import be.kuleuven.cs.ogp.project.dungeons.ConcurrentDungeon;
+import be.kuleuven.cs.ogp.project.tools.Point3D;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * This class is a unit test for dungeons which are used by several threads at once.
+ *
+ * @author Frederic Hannes
+ */
+public class ConcurrentDungeonTest {
+
+    /**
+     * The length of each half of the row of squares, which spans several chunks.
+     */
+    private static final int HALF = 3 * ChunkManager.CHUNK_SIZE;
+
+    /**
+     * A writer moves a closed door back and forth along a row of squares, opening the old door before closing the new
+     * one. The readers must always find exactly one closed door, a search that sees none has read a torn row.
+     */
+    @Test
+    public void testSpace_WritersAndReaders() throws InterruptedException {
+        final ConcurrentDungeon<Square> dungeon = new ConcurrentDungeon<>();
+        for (int x = 0; x < 2 * HALF; x++)
+            dungeon.addSquare(new Square(), new Point3D(x, 1, 0));
+        dungeon.setBorder(new Point3D(0, 1, 0), new Door(false), Direction.EAST);
+        final AtomicBoolean done = new AtomicBoolean();
+        final AtomicReference<Throwable> error = new AtomicReference<>();
+        List<Thread> threads = new ArrayList<>();
+        threads.add(new Thread(new Runnable() {
+            @Override
+            public void run() {
+                int door = 0, step = 1;
+                for (int i = 0; (i < 20000) && (error.get() == null); i++) {
+                    if ((door + step < 0) || (door + step > 2 * HALF - 2))
+                        step = -step;
+                    final Point3D pos = new Point3D(door + Math.max(step, 0), 1, 0);
+                    final Direction open = (step > 0) ? Direction.WEST : Direction.EAST;
+                    dungeon.update(pos, new Runnable() {
+                        @Override
+                        public void run() {
+                            dungeon.getSquare(pos).setBorder(new NoBorder(), open);
+                            dungeon.getSquare(pos).setBorder(new Door(false), open.opposite());
+                        }
+                    });
+                    door += step;
+                }
+                done.set(true);
+            }
+        }));
+        threads.add(new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; !done.get() && (error.get() == null); i++) {
+                    Point3D pos = new Point3D(i % HALF, 5, 0);
+                    if (dungeon.getSquare(pos) == null)
+                        dungeon.addSquare(new Square(), pos);
+                    else
+                        dungeon.removeSquare(pos);
+                }
+            }
+        }));
+        for (int t = 0; t < 2; t++)
+            threads.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    while (!done.get() && (error.get() == null))
+                        if (dungeon.getSpace(new Point3D(0, 1, 0)).size() == 2 * HALF)
+                            error.set(new AssertionError("A space is read while it is being changed!"));
+                }
+            }));
+        for (Thread thread : threads) {
+            thread.setUncaughtExceptionHandler(new Thread.UncaughtExceptionHandler() {
+                @Override
+                public void uncaughtException(Thread thread, Throwable e) {
+                    error.set(e);
+                }
+            });
+            thread.start();
+        }
+        for (Thread thread : threads)
+            thread.join();
+        if (error.get() != null)
+            fail(error.get().toString());
+    }
+
+    /**
+     * A writer keeps the temperatures of two neighbouring squares equal, changing them one after the other, while
+     * squares are added and removed in other chunks. Every snapshot must find both temperatures equal.
+     */
+    @Test
+    public void testSnapshot_WritersAndAdders() throws InterruptedException {
+        final ConcurrentDungeon<Square> dungeon = new ConcurrentDungeon<>();
+        for (int x = 0; x < 2 * HALF; x++)
+            dungeon.addSquare(new Square(), new Point3D(x, 1, 0));
+        final Point3D first = new Point3D(0, 1, 0);
+        final Point3D second = new Point3D(1, 1, 0);
+        final AtomicBoolean done = new AtomicBoolean();
+        final AtomicReference<Throwable> error = new AtomicReference<>();
+        List<Thread> threads = new ArrayList<>();
+        threads.add(new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; (i < 20000) && (error.get() == null); i++) {
+                    final int temp = 10 + 10 * (i % 2);
+                    dungeon.update(second, new Runnable() {
+                        @Override
+                        public void run() {
+                            dungeon.getSquare(first).setTemp(temp);
+                            dungeon.getSquare(second).setTemp(temp);
+                        }
+                    });
+                }
+                done.set(true);
+            }
+        }));
+        for (int t = 0; t < 2; t++) {
+            final int y = 5 + 2 * t;
+            threads.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; !done.get() && (error.get() == null); i++) {
+                        Point3D pos = new Point3D(i % (2 * HALF), y, 0);
+                        if (dungeon.getSquare(pos) == null)
+                            dungeon.addSquare(new Square(), pos);
+                        else
+                            dungeon.removeSquare(pos);
+                    }
+                }
+            }));
+        }
+        threads.add(new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (!done.get() && (error.get() == null)) {
+                    DungeonSnapshot snapshot = dungeon.snapshot();
+                    if (snapshot.getTemp(first) != snapshot.getTemp(second))
+                        error.set(new AssertionError("A snapshot is taken while a change is made!"));
+                }
+            }
+        }));
+        for (Thread thread : threads) {
+            thread.setUncaughtExceptionHandler(new Thread.UncaughtExceptionHandler() {
+                @Override
+                public void uncaughtException(Thread thread, Throwable e) {
+                    error.set(e);
+                }
+            });
+            thread.start();
+        }
+        for (Thread thread : threads)
+            thread.join();
+        if (error.get() != null)
+            fail(error.get().toString());
+        DungeonSnapshot snapshot = dungeon.snapshot();
+        int size = 0;
+        for (int x = 0; x < 2 * HALF; x++)
+            for (int y = 1; y <= 7; y++)
+                if (dungeon.getSquare(new Point3D(x, y, 0)) != null) {
+                    size++;
+                    if (!snapshot.hasSquare(new Point3D(x, y, 0)))
+                        fail("An added square is missing from a snapshot!");
+                }
+        if (snapshot.getSize() != size)
+            fail("A snapshot holds removed squares!");
+    }
+
+}
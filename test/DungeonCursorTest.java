@@ -0,0 +1,54 @@
+import static org.junit.Assert.fail;
+
+import be.kuleuven.cs.ogp.project.*;
+import be.kuleuven.cs.ogp.project.borders.Wall;
+import be.kuleuven.cs.ogp.project.squares.Teleport;
+import be.kuleuven.cs.ogp.project.tools.Point3D;
+import org.junit.Test;
+
+import java.util.List;
+
+/**
+ * This class is a unit test for dungeon cursors and the space searches using them.
+ *
+ * @author Frederic Hannes
+ */
+public class DungeonCursorTest {
+
+    @Test
+    public void testCursor() {
+        Dungeon<Square> dungeon = new Dungeon<>();
+        Square first = new Square();
+        Square second = new Square();
+        dungeon.addSquare(first, new Point3D(1, 1, 0));
+        dungeon.addSquare(second, new Point3D(2, 1, 0));
+        DungeonCursor cursor = new DungeonCursor(first);
+        if ((cursor.neighbour(Direction.EAST) != second) || (cursor.neighbour(Direction.WEST) != null))
+            fail("Neighbours are not found!");
+        if (cursor.border(Direction.EAST) != first.getBorder(Direction.EAST))
+            fail("Borders are not found!");
+        if (!cursor.moveTo(Direction.EAST) || (cursor.getSquare() != second) || (cursor.getX() != 2))
+            fail("The cursor does not move onto its neighbour!");
+        if (cursor.moveTo(Direction.NORTH) || (cursor.getY() != 2))
+            fail("The cursor does not move onto an empty position!");
+        if (!cursor.moveTo(Point3D.pack(1, 1, 0)) || (cursor.getSquare() != first))
+            fail("The cursor does not move onto a packed position!");
+    }
+
+    @Test
+    public void testGetSpace() {
+        Dungeon<Square> dungeon = new Dungeon<>();
+        for (int x = 0; x < 5; x++)
+            dungeon.addSquare(new Square(), new Point3D(x, 1, 0));
+        dungeon.getSquare(new Point3D(2, 1, 0)).setBorder(new Wall(false), Direction.EAST);
+        Teleport teleport = new Teleport();
+        dungeon.addSquare(teleport, new Point3D(0, 2, 0));
+        teleport.addDest(dungeon.getSquare(new Point3D(4, 1, 0)));
+        List<Square> space = dungeon.getSpace(new Point3D(0, 1, 0));
+        if ((space.size() != 4) || space.contains(dungeon.getSquare(new Point3D(3, 1, 0))))
+            fail("A space reaches through a wall!");
+        if (dungeon.getTeleSpace(new Point3D(0, 1, 0)).size() != 6)
+            fail("A space does not follow its teleports!");
+    }
+
+}
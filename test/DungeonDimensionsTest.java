@@ -0,0 +1,37 @@
+import static org.junit.Assert.fail;
+
+import be.kuleuven.cs.ogp.project.*;
+import be.kuleuven.cs.ogp.project.tools.Point3D;
+import org.junit.Test;
+
+/**
+ * This class is a unit test for the dimensions of dungeons as squares are added and removed.
+ *
+ * @author Frederic Hannes
+ */
+public class DungeonDimensionsTest {
+
+    @Test
+    public void testShrink() {
+        Dungeon<Square> dungeon = new Dungeon<>();
+        dungeon.addSquare(new Square(), new Point3D(1, 0, 0));
+        dungeon.addSquare(new Square(), new Point3D(2, 3, 0));
+        dungeon.addSquare(new Square(), new Point3D(9, 3, 4));
+        if ((dungeon.getXDim() != 10) || (dungeon.getYDim() != 4) || (dungeon.getZDim() != 5))
+            fail("The dimensions do not hold all squares!");
+        dungeon.removeSquare(new Point3D(9, 3, 4));
+        if ((dungeon.getXDim() != 3) || (dungeon.getYDim() != 4) || (dungeon.getZDim() != 1))
+            fail("The dimensions are not shrunk after a removal!");
+        if (dungeon.insideDimensions(new Point3D(5, 1, 0)))
+            fail("A removed region is still inside the dimensions!");
+        dungeon.removeSquare(new Point3D(2, 3, 0));
+        dungeon.removeSquare(new Point3D(1, 0, 0));
+        dungeon.compact();
+        if ((dungeon.getXDim() != 0) || (dungeon.getYDim() != 0) || (dungeon.getZDim() != 0))
+            fail("The dimensions of an empty dungeon are not shrunk!");
+        dungeon.addSquare(new Square(), new Point3D(0, 2, 1));
+        if ((dungeon.getXDim() != 1) || (dungeon.getYDim() != 3) || (dungeon.getZDim() != 2))
+            fail("The dimensions do not grow after compacting!");
+    }
+
+}
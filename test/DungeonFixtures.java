@@ -0,0 +1,63 @@
+import be.kuleuven.cs.ogp.project.*;
+import be.kuleuven.cs.ogp.project.borders.Door;
+import be.kuleuven.cs.ogp.project.borders.PlasticFoil;
+import be.kuleuven.cs.ogp.project.dungeons.Level;
+import be.kuleuven.cs.ogp.project.io.DungeonReader;
+import be.kuleuven.cs.ogp.project.io.DungeonWriter;
+import be.kuleuven.cs.ogp.project.squares.Rock;
+import be.kuleuven.cs.ogp.project.squares.Teleport;
+import be.kuleuven.cs.ogp.project.tools.Point3D;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+/**
+ * This class holds the dungeon and the helpers shared by the unit tests of the dungeon snapshots and journals.
+ *
+ * @author Frederic Hannes
+ */
+final class DungeonFixtures {
+
+    private DungeonFixtures() {
+    }
+
+    static byte[] write(Dungeon<?> dungeon) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (DungeonWriter writer = new DungeonWriter(out)) {
+            writer.write(dungeon);
+        }
+        return out.toByteArray();
+    }
+
+    static Dungeon<Square> read(byte[] data) throws IOException {
+        try (DungeonReader reader = new DungeonReader(new ByteArrayInputStream(data))) {
+            return reader.read();
+        }
+    }
+
+    /**
+     * Creates a dungeon with a level at (0, 0, 5), a teleport at (1, 2, 3) leading to a square with a door and a plastic
+     * foil at (1, 3, 3), and a row of plain squares from (0, 1, 0) to (3, 1, 0).
+     */
+    static CompositeDungeon<Square> createDungeon() {
+        CompositeDungeon<Square> root = new CompositeDungeon<>();
+        Level<Square> level = new Level<>();
+        root.addDungeon(level, new Point3D(0, 0, 5));
+        for (int x = 0; x < 4; x++)
+            for (int y = 0; y < 4; y++)
+                if ((x != 0) || (y != 0))
+                    level.addSquare(((x + y) % 3 == 0) ? new Rock() : new Square(x * 10, y * 20), new Point3D(x, y, 0));
+        Teleport teleport = new Teleport();
+        root.addSquare(teleport, new Point3D(1, 2, 3));
+        Square square = new Square(25, 50);
+        root.addSquare(square, new Point3D(1, 3, 3));
+        square.setBorder(new Door(true), Direction.EAST);
+        square.setBorder(new PlasticFoil(), Direction.WEST);
+        teleport.addDest(square);
+        for (int x = 0; x < 4; x++)
+            root.addSquare(new Square(x * 10, x * 20), new Point3D(x, 1, 0));
+        return root;
+    }
+
+}
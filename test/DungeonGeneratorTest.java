@@ -0,0 +1,54 @@
+import static org.junit.Assert.fail;
+
+import be.kuleuven.cs.ogp.project.*;
+import be.kuleuven.cs.ogp.project.io.DungeonGenerator;
+import be.kuleuven.cs.ogp.project.io.DungeonReader;
+import be.kuleuven.cs.ogp.project.io.DungeonWriter;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * This class is a unit test for the procedural dungeon generator.
+ *
+ * @author Frederic Hannes
+ */
+public class DungeonGeneratorTest {
+
+    private static byte[] generate(int threads, long target) throws IOException {
+        DungeonGenerator generator = new DungeonGenerator(42, threads);
+        generator.setTarget(target);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (DungeonWriter writer = new DungeonWriter(out)) {
+            generator.generate(writer);
+        }
+        return out.toByteArray();
+    }
+
+    @Test
+    public void testGenerate_Deterministic() throws IOException {
+        if (!Arrays.equals(generate(1, 50000), generate(3, 50000)))
+            fail("The generated dungeon depends on the number of threads!");
+    }
+
+    @Test
+    public void testGenerate_Builder() throws IOException {
+        DungeonGenerator generator = new DungeonGenerator(7, 2);
+        generator.setTarget(20000);
+        for (DungeonGenerator.Region region : DungeonGenerator.Region.values())
+            generator.setWeight(region, 1);
+        Dungeon<Square> dungeon = generator.generate();
+        int size = dungeon.snapshot().getSize();
+        if ((size < 20000) || (size > 20000 + 4096))
+            fail("The generated dungeon does not have the target size!");
+        byte[] data = generate(2, 20000);
+        try (DungeonReader reader = new DungeonReader(new ByteArrayInputStream(data))) {
+            if (reader.read().snapshot().getSize() < 20000)
+                fail("The generated snapshot can not be read!");
+        }
+    }
+
+}
@@ -0,0 +1,97 @@
+import static org.junit.Assert.fail;
+
+import be.kuleuven.cs.ogp.project.*;
+import be.kuleuven.cs.ogp.project.borders.Door;
+import be.kuleuven.cs.ogp.project.borders.PlasticFoil;
+import be.kuleuven.cs.ogp.project.dungeons.Level;
+import be.kuleuven.cs.ogp.project.dungeons.Shaft;
+import be.kuleuven.cs.ogp.project.squares.Rock;
+import be.kuleuven.cs.ogp.project.squares.Teleport;
+import be.kuleuven.cs.ogp.project.tools.Point3D;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * This class is a unit test for the binary dungeon snapshot reader and writer.
+ *
+ * @author Frederic Hannes
+ */
+public class DungeonIOTest {
+
+    @Test
+    public void testRoundTrip_Identical() throws IOException {
+        byte[] data = DungeonFixtures.write(DungeonFixtures.createDungeon());
+        if (!Arrays.equals(data, DungeonFixtures.write(DungeonFixtures.read(data))))
+            fail("The dungeon changed after being written and read!");
+    }
+
+    @Test
+    public void testRoundTrip_Squares() throws IOException {
+        Dungeon<Square> d = DungeonFixtures.read(DungeonFixtures.write(DungeonFixtures.createDungeon()));
+        Square sq = d.getSquare(new Point3D(1, 3, 3));
+        if ((sq == null) || (sq.getTemp() != 25) || (sq.getHumidity() != 50))
+            fail("The square was not restored properly!");
+        if (!(sq.getBorder(Direction.EAST) instanceof Door) || !sq.getBorder(Direction.EAST).isOpen())
+            fail("The door was not restored properly!");
+        if (!(sq.getBorder(Direction.WEST) instanceof PlasticFoil) || sq.getBorder(Direction.WEST).isOpen())
+            fail("The plastic foil was not restored properly!");
+    }
+
+    @Test
+    public void testRoundTrip_Teleports() throws IOException {
+        Dungeon<Square> d = DungeonFixtures.read(DungeonFixtures.write(DungeonFixtures.createDungeon()));
+        Square teleport = d.getSquare(new Point3D(1, 2, 3));
+        if (!(teleport instanceof Teleport) || !((Teleport) teleport).getDest().contains(d.getSquare(new Point3D(1, 3, 3))))
+            fail("The teleport was not restored properly!");
+    }
+
+    @Test
+    public void testRoundTrip_SubDungeons() throws IOException {
+        Dungeon<Square> d = DungeonFixtures.read(DungeonFixtures.write(DungeonFixtures.createDungeon()));
+        Dungeon sub = ((CompositeDungeon<Square>) d).getDungeonAt(new Point3D(1, 1, 5));
+        if (!(sub instanceof Level) || !sub.getPos().equals(new Point3D(0, 0, 5)))
+            fail("The sub dungeon was not restored properly!");
+        if (!(sub.getSquare(new Point3D(1, 2, 0)) instanceof Rock))
+            fail("The squares of the sub dungeon were not restored properly!");
+    }
+
+    @Test
+    public void testRoundTrip_Weights() throws IOException {
+        CompositeDungeon<Square> root = DungeonFixtures.createDungeon();
+        Teleport teleport = (Teleport) root.getSquare(new Point3D(1, 2, 3));
+        Square heavy = root.getSquare(new Point3D(2, 1, 0));
+        teleport.addDest(heavy, 1000000);
+        byte[] data = DungeonFixtures.write(root);
+        Dungeon<Square> d = DungeonFixtures.read(data);
+        Teleport read = (Teleport) d.getSquare(new Point3D(1, 2, 3));
+        if ((read.getDest().size() != 2) || (read.getWeight(d.getSquare(new Point3D(2, 1, 0))) != 1000000)
+                || (read.getWeight(d.getSquare(new Point3D(1, 3, 3))) != 1))
+            fail("The weights of the teleport were not restored properly!");
+        if (data.length > 1024)
+            fail("A weighted destination was written more than once!");
+    }
+
+    @Test
+    public void testRoundTrip_Chunks() throws IOException {
+        CompositeDungeon<Square> root = DungeonFixtures.createDungeon();
+        Shaft<Square> shaft = new Shaft<>();
+        root.addDungeon(shaft, new Point3D(5, 5, 0));
+        for (int z = 1; z <= 10000; z++)
+            shaft.addSquare(new Square(z % 100, z % 50), new Point3D(0, 0, z));
+        byte[] data = DungeonFixtures.write(root);
+        Dungeon<Square> d = DungeonFixtures.read(data);
+        if (!Arrays.equals(data, DungeonFixtures.write(d)))
+            fail("The dungeon changed after being written and read!");
+        Dungeon sub = ((CompositeDungeon<Square>) d).getDungeonAt(new Point3D(5, 5, 9999));
+        if (!(sub instanceof Shaft) || (sub.getSquare(new Point3D(0, 0, 9999)).getTemp() != 99))
+            fail("The squares of the shaft were not restored properly!");
+    }
+
+    @Test(expected = IOException.class)
+    public void testRead_InvalidHeader() throws IOException {
+        DungeonFixtures.read(new byte[] { 1, 2, 3, 4, 5, 6, 7, 8 });
+    }
+
+}
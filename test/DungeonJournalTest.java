@@ -0,0 +1,92 @@
+import static org.junit.Assert.fail;
+
+import be.kuleuven.cs.ogp.project.*;
+import be.kuleuven.cs.ogp.project.borders.Door;
+import be.kuleuven.cs.ogp.project.squares.Teleport;
+import be.kuleuven.cs.ogp.project.tools.Point3D;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * This class is a unit test for the dungeon mutation journal.
+ *
+ * @author Frederic Hannes
+ */
+public class DungeonJournalTest {
+
+    private static File createDir() throws IOException {
+        File dir = File.createTempFile("journal", "");
+        if (!dir.delete() || !dir.mkdir())
+            throw new IOException("Can't create directory!");
+        dir.deleteOnExit();
+        return dir;
+    }
+
+    @Test
+    public void testRecover_AllChanges() throws IOException {
+        CompositeDungeon<Square> root = DungeonFixtures.createDungeon();
+        File dir = createDir();
+        try (DungeonJournal journal = new DungeonJournal(root, dir)) {
+            root.getSquare(new Point3D(1, 1, 0)).setBorder(new Door(false), Direction.EAST);
+            ((Door) root.getSquare(new Point3D(1, 1, 0)).getBorder(Direction.EAST)).setOpened(true);
+            root.getSquare(new Point3D(0, 1, 0)).mergeWith(root.getSquare(new Point3D(1, 1, 0)), Direction.EAST);
+            Teleport teleport = new Teleport();
+            root.addSquare(teleport, new Point3D(0, 2, 0));
+            teleport.addDest(root.getSquare(new Point3D(3, 1, 0)));
+            new Avatar(root.getSquare(new Point3D(2, 1, 0))).move(Direction.EAST);
+            root.removeSquare(new Point3D(0, 1, 0));
+            Dungeon<Square> sub = new Dungeon<>();
+            sub.addSquare(new Square(5, 5), new Point3D(0, 1, 0));
+            root.addDungeon(sub, new Point3D(10, 0, 0));
+            sub.getSquare(new Point3D(0, 1, 0)).setTemp(40);
+        }
+        if (!Arrays.equals(DungeonFixtures.write(root), DungeonFixtures.write(DungeonJournal.recover(dir))))
+            fail("Recovered dungeon differs from the journaled dungeon!");
+    }
+
+    @Test
+    public void testRecover_PointInTime() throws IOException {
+        CompositeDungeon<Square> root = DungeonFixtures.createDungeon();
+        File dir = createDir();
+        byte[] expected;
+        long sequence;
+        try (DungeonJournal journal = new DungeonJournal(root, dir)) {
+            root.getSquare(new Point3D(2, 1, 0)).setTemp(100);
+            expected = DungeonFixtures.write(root);
+            sequence = journal.getSequence();
+            root.getSquare(new Point3D(2, 1, 0)).setTemp(200);
+            root.removeSquare(new Point3D(3, 1, 0));
+        }
+        if (!Arrays.equals(expected, DungeonFixtures.write(DungeonJournal.recover(dir, sequence, Long.MAX_VALUE))))
+            fail("Dungeon not recovered to the given change!");
+    }
+
+    @Test
+    public void testCheckpoint_ContinuesSequence() throws IOException {
+        CompositeDungeon<Square> root = DungeonFixtures.createDungeon();
+        File dir = createDir();
+        try (DungeonJournal journal = new DungeonJournal(root, dir)) {
+            root.getSquare(new Point3D(2, 1, 0)).setTemp(100);
+            journal.checkpoint();
+            if (journal.getCheckpointSequence() != journal.getSequence())
+                fail("Checkpoint does not include all changes!");
+            root.getSquare(new Point3D(3, 1, 0)).setTemp(300);
+            if (journal.getSequence() != journal.getCheckpointSequence() + 1)
+                fail("Sequence numbers do not continue after a checkpoint!");
+        }
+        if (!Arrays.equals(DungeonFixtures.write(root), DungeonFixtures.write(DungeonJournal.recover(dir))))
+            fail("Recovered dungeon differs from the journaled dungeon!");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testJournal_SubDungeon() throws IOException {
+        CompositeDungeon<Square> root = DungeonFixtures.createDungeon();
+        Dungeon<Square> sub = new Dungeon<>();
+        root.addDungeon(sub, new Point3D(10, 0, 0));
+        new DungeonJournal(sub, createDir());
+    }
+
+}
@@ -0,0 +1,71 @@
+import static org.junit.Assert.fail;
+
+import be.kuleuven.cs.ogp.project.*;
+import be.kuleuven.cs.ogp.project.dungeons.Level;
+import be.kuleuven.cs.ogp.project.tools.Histogram;
+import be.kuleuven.cs.ogp.project.tools.Point3D;
+import org.junit.Test;
+
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+
+/**
+ * This class is a unit test for the metrics of the dungeons.
+ *
+ * @author Frederic Hannes
+ */
+public class DungeonMetricsTest {
+
+    @Test
+    public void testCounters() throws Exception {
+        DungeonMetrics.reset();
+        DungeonMetrics.setEnabled(true);
+        try {
+            CompositeDungeon<Square> root = new CompositeDungeon<>();
+            Level<Square> level = new Level<>();
+            root.addDungeon(level, new Point3D(0, 0, 1));
+            for (int x = 0; x < 4; x++)
+                for (int y = 1; y <= 4; y++)
+                    level.addSquare(new Square(), new Point3D(x, y, 0));
+            level.removeSquare(new Point3D(3, 4, 0));
+            level.getSpace(new Point3D(1, 1, 0));
+            root.getDungeonAt(new Point3D(1, 1, 1));
+            if ((DungeonMetrics.getCounter("SquaresAdded").sum() != 16) ||
+                    (DungeonMetrics.getCounter("SquaresRemoved").sum() != 1))
+                fail("Added or removed squares are not counted!");
+            if (DungeonMetrics.getCounter("Links").sum() != 24)
+                fail("Links are not counted!");
+            if ((DungeonMetrics.getCounter("Traversals").sum() != 1) ||
+                    (DungeonMetrics.getCounter("SquaresVisited").sum() != 15))
+                fail("Traversals are not counted!");
+            if ((DungeonMetrics.getHistogram("SpaceLatency").getCount() != 1) ||
+                    (DungeonMetrics.getHistogram("DungeonAtLatency").getCount() < 1))
+                fail("Latencies are not recorded!");
+            ObjectName name = DungeonMetrics.registerMBean();
+            Object added = ManagementFactory.getPlatformMBeanServer().getAttribute(name, "SquaresAdded");
+            if (!Long.valueOf(16).equals(added))
+                fail("The counters are not published!");
+        } finally {
+            DungeonMetrics.setEnabled(false);
+            DungeonMetrics.reset();
+        }
+        new Level<Square>().addSquare(new Square(), new Point3D(0, 1, 0));
+        if (DungeonMetrics.getCounter("SquaresAdded").sum() != 0)
+            fail("Squares are counted while the metrics are disabled!");
+    }
+
+    @Test
+    public void testHistogram() {
+        Histogram histogram = new Histogram();
+        for (int i = 1; i <= 1000; i++)
+            histogram.record(i * 1000L);
+        long median = histogram.getPercentile(50);
+        if ((median < 500000) || (median > 500000 * 1.04))
+            fail("The median is not accurate!");
+        if ((histogram.getPercentile(100) != 1000000) || (histogram.getMax() != 1000000))
+            fail("The maximum is not accurate!");
+        if (histogram.getCount() != 1000)
+            fail("The values are not counted!");
+    }
+
+}
@@ -0,0 +1,103 @@
+import static org.junit.Assert.fail;
+
+import be.kuleuven.cs.ogp.project.*;
+import be.kuleuven.cs.ogp.project.borders.Door;
+import be.kuleuven.cs.ogp.project.tools.Point3D;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * This class is a unit test for the timed changes of a dungeon.
+ *
+ * @author Frederic Hannes
+ */
+public class DungeonSchedulerTest {
+
+    /**
+     * Returns a change which logs the given name and the tick it runs in.
+     */
+    private static Runnable logger(final DungeonScheduler scheduler, final String name, final List<String> log) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                log.add(scheduler.getTick() + name);
+            }
+        };
+    }
+
+    @Test
+    public void testSameTick_Order() {
+        DungeonScheduler scheduler = new Dungeon<Square>().getScheduler();
+        List<String> log = new ArrayList<>();
+        scheduler.schedule(logger(scheduler, "A", log), 5000);
+        scheduler.schedule(logger(scheduler, "B", log), 3);
+        scheduler.schedule(logger(scheduler, "C", log), 5000);
+        scheduler.advance(10);
+        scheduler.schedule(logger(scheduler, "D", log), 4990);
+        scheduler.schedule(logger(scheduler, "E", log), 4990);
+        if (scheduler.advance(5000) != 4)
+            fail("Not every change ran!");
+        if (!log.equals(Arrays.asList("3B", "5000A", "5000C", "5000D", "5000E")))
+            fail("The changes of a tick do not run in the order they were scheduled: " + log + "!");
+    }
+
+    @Test
+    public void testFailingChange() {
+        final DungeonScheduler scheduler = new Dungeon<Square>().getScheduler();
+        final List<String> log = new ArrayList<>();
+        scheduler.schedule(logger(scheduler, "A", log), 1, 2);
+        scheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                log.add(scheduler.getTick() + "F");
+                throw new IllegalStateException("Failing change!");
+            }
+        }, 1);
+        scheduler.schedule(logger(scheduler, "B", log), 1);
+        try {
+            scheduler.advance(1);
+            fail("The exception of a change is lost!");
+        } catch (IllegalStateException e) {
+            // The change failed
+        }
+        if (scheduler.advance(2) != 2)
+            fail("The rest of a failed tick does not run!");
+        if (!log.equals(Arrays.asList("1A", "1F", "1B", "3A")))
+            fail("A change runs twice after a failing change: " + log + "!");
+    }
+
+    @Test
+    public void testCascade_LongDelay() {
+        Dungeon<Square> dungeon = new Dungeon<>();
+        dungeon.addSquare(new Square(), new Point3D(1, 1, 0));
+        dungeon.addSquare(new Square(), new Point3D(2, 1, 0));
+        Door door = new Door(false);
+        dungeon.getSquare(new Point3D(1, 1, 0)).setBorder(door, Direction.EAST);
+        DungeonScheduler scheduler = dungeon.getScheduler();
+        scheduler.scheduleDoor(door, true, 300000);
+        scheduler.advance(299999);
+        if (door.isOpen())
+            fail("The door is opened too soon!");
+        scheduler.advance(1);
+        if (!door.isOpen() || (scheduler.getPending() != 0))
+            fail("The door is not opened in time!");
+    }
+
+    @Test
+    public void testCancel() {
+        DungeonScheduler scheduler = new Dungeon<Square>().getScheduler();
+        List<String> log = new ArrayList<>();
+        DungeonScheduler.Action once = scheduler.schedule(logger(scheduler, "A", log), 100);
+        DungeonScheduler.Action repeated = scheduler.schedule(logger(scheduler, "B", log), 2, 2);
+        scheduler.advance(5);
+        if (!once.cancel() || !repeated.cancel() || once.isPending() || repeated.isPending())
+            fail("The actions are not cancelled!");
+        scheduler.advance(200);
+        if (!log.equals(Arrays.asList("2B", "4B")) || (scheduler.getPending() != 0))
+            fail("A cancelled action ran: " + log + "!");
+    }
+
+}
@@ -0,0 +1,58 @@
+import static org.junit.Assert.fail;
+
+import be.kuleuven.cs.ogp.project.*;
+import be.kuleuven.cs.ogp.project.borders.Door;
+import be.kuleuven.cs.ogp.project.io.DungeonFormat;
+import be.kuleuven.cs.ogp.project.tools.Point3D;
+import org.junit.Test;
+
+/**
+ * This class is a unit test for the snapshots of a dungeon.
+ *
+ * @author Frederic Hannes
+ */
+public class DungeonSnapshotTest {
+
+    private static Dungeon<Square> grid(int size) {
+        Dungeon<Square> dungeon = new Dungeon<>();
+        for (int x = 0; x < size; x++)
+            for (int y = 1; y <= size; y++)
+                dungeon.addSquare(new Square(), new Point3D(x, y, 0));
+        return dungeon;
+    }
+
+    @Test
+    public void testSnapshot_Unchanged() {
+        Dungeon<Square> dungeon = grid(20);
+        DungeonSnapshot snapshot = dungeon.snapshot();
+        Point3D pos = new Point3D(3, 4, 0);
+        dungeon.getSquare(pos).setTemp(120);
+        Avatar avatar = new Avatar(dungeon.getSquare(pos));
+        dungeon.removeSquare(new Point3D(15, 15, 0));
+        if ((snapshot.getTemp(pos) == 120) || (snapshot.getAvatar(pos) != null))
+            fail("A snapshot changes with its dungeon!");
+        if (!snapshot.hasSquare(new Point3D(15, 15, 0)) || (snapshot.getSize() != 400))
+            fail("A snapshot loses the squares removed from its dungeon!");
+        DungeonSnapshot next = dungeon.snapshot();
+        if ((next.getTemp(pos) != 120) || (next.getAvatar(pos) != avatar) || next.hasSquare(new Point3D(15, 15, 0)))
+            fail("A new snapshot does not hold the changes!");
+        if (next.getVersion() <= snapshot.getVersion())
+            fail("Snapshots are not numbered in order!");
+    }
+
+    @Test
+    public void testSnapshot_Borders() {
+        Dungeon<Square> dungeon = grid(20);
+        Point3D pos = new Point3D(10, 10, 0);
+        Door door = new Door(false);
+        dungeon.getSquare(pos).setBorder(door, Direction.NORTH);
+        DungeonSnapshot closed = dungeon.snapshot();
+        ((Door) dungeon.getSquare(pos).getBorder(Direction.NORTH)).setOpened(true);
+        DungeonSnapshot opened = dungeon.snapshot();
+        if (closed.getBorder(pos, Direction.NORTH) != DungeonFormat.BORDER_DOOR_CLOSED)
+            fail("A snapshot changes with the borders of its dungeon!");
+        if (!opened.isOpen(pos, Direction.NORTH))
+            fail("A new snapshot does not hold the state of a door!");
+    }
+
+}
@@ -0,0 +1,43 @@
+import static org.junit.Assert.fail;
+
+import be.kuleuven.cs.ogp.project.*;
+import be.kuleuven.cs.ogp.project.dungeons.Level;
+import be.kuleuven.cs.ogp.project.tools.Point3D;
+import org.junit.Test;
+
+import java.util.List;
+
+/**
+ * This class is a unit test for the trace of slow dungeon operations.
+ *
+ * @author Frederic Hannes
+ */
+public class DungeonTraceTest {
+
+    @Test
+    public void testThresholds() {
+        Level<Square> level = new Level<>();
+        for (int x = 0; x < 4; x++)
+            level.addSquare(new Square(), new Point3D(x, 1, 0));
+        level.getSpace(new Point3D(0, 1, 0));
+        long threshold = DungeonTrace.getThreshold(DungeonTrace.Kind.TRAVERSAL);
+        DungeonTrace.clear();
+        DungeonTrace.setEnabled(true);
+        try {
+            level.getSpace(new Point3D(0, 1, 0));
+            if (!DungeonTrace.getEvents().isEmpty())
+                fail("A fast traversal is recorded!");
+            DungeonTrace.setThreshold(DungeonTrace.Kind.TRAVERSAL, 0);
+            level.getTeleSpace(new Point3D(0, 1, 0));
+            List<DungeonTrace.Event> events = DungeonTrace.getEvents();
+            if ((events.size() != 1) || (events.get(0).getKind() != DungeonTrace.Kind.TRAVERSAL) ||
+                    (events.get(0).getCount() != 4) || !events.get(0).getFlag())
+                fail("A slow traversal is not recorded!");
+        } finally {
+            DungeonTrace.setEnabled(false);
+            DungeonTrace.setThreshold(DungeonTrace.Kind.TRAVERSAL, threshold);
+            DungeonTrace.clear();
+        }
+    }
+
+}
@@ -0,0 +1,109 @@
+import static org.junit.Assert.fail;
+
+import be.kuleuven.cs.ogp.project.*;
+import be.kuleuven.cs.ogp.project.borders.Door;
+import be.kuleuven.cs.ogp.project.squares.Rock;
+import be.kuleuven.cs.ogp.project.tools.Point3D;
+import org.junit.Test;
+
+/**
+ * This class is a unit test for lines of sight and fields of view.
+ *
+ * @author Frederic Hannes
+ */
+public class LineOfSightTest {
+
+    @Test
+    public void testCanSee() {
+        Dungeon<Square> dungeon = new Dungeon<>();
+        for (int x = 1; x <= 3; x++)
+            for (int y = 1; y <= 3; y++)
+                dungeon.addSquare((x == 2) && (y == 2) ? new Rock() : new Square(), new Point3D(x, y, 0));
+        LineOfSight sight = new LineOfSight();
+        Square corner = dungeon.getSquare(new Point3D(1, 1, 0));
+        Square opposite = dungeon.getSquare(new Point3D(3, 3, 0));
+        Square side = dungeon.getSquare(new Point3D(3, 1, 0));
+        if (sight.canSee(corner, opposite) || sight.canSee(opposite, corner))
+            fail("A rock does not block the sight!");
+        if (!sight.canSee(corner, side) || !sight.canSee(side, corner))
+            fail("A square along an open row is not seen!");
+        if (sight.canSee(corner, dungeon.getSquare(new Point3D(2, 2, 0))))
+            fail("The walls of a rock do not block the sight!");
+        if (sight.canSee(corner, dungeon.getSquare(new Point3D(3, 2, 0))) !=
+                sight.canSee(dungeon.getSquare(new Point3D(3, 2, 0)), corner))
+            fail("The sight is not symmetric!");
+    }
+
+    @Test
+    public void testFieldOfView() {
+        Dungeon<Square> dungeon = new Dungeon<>();
+        for (int x = 0; x < 5; x++)
+            dungeon.addSquare(new Square(), new Point3D(x, 1, 0));
+        Square square = dungeon.getSquare(new Point3D(2, 1, 0));
+        square.setBorder(new Door(false), Direction.EAST);
+        Door door = (Door) square.getBorder(Direction.EAST);
+        LineOfSight sight = new LineOfSight();
+        Square viewer = dungeon.getSquare(new Point3D(0, 1, 0));
+        LineOfSight.View view = sight.getFieldOfView(viewer, 8);
+        if ((view.getSize() != 3) || view.contains(3, 1, 0))
+            fail("A closed door does not block the sight!");
+        if (sight.getFieldOfView(viewer, 8) != view)
+            fail("A field of view is not kept!");
+        door.setOpened(true);
+        view = sight.getFieldOfView(viewer, 8);
+        if ((view.getSize() != 5) || !view.contains(new Point3D(4, 1, 0)))
+            fail("A field of view is not updated when a door opens!");
+        if (sight.getFieldOfView(viewer, 3).contains(4, 1, 0))
+            fail("A field of view reaches beyond its radius!");
+        try (Vision vision = new Vision(2)) {
+            LineOfSight.View[] views = vision.getFieldsOfView(new Square[] { viewer, dungeon.getSquare(
+                    new Point3D(4, 1, 0)) }, 8);
+            if ((views[0].getSize() != 5) || (views[1].getSize() != 5))
+                fail("Fields of view are not computed in parallel!");
+        }
+    }
+
+    @Test
+    public void testFieldsOfView_Radii() {
+        Square[] viewers = viewers(walls());
+        Square[] others = viewers(walls());
+        LineOfSight sight = new LineOfSight();
+        LineOfSight.View[] views = new LineOfSight.View[viewers.length];
+        // The marks grow for the largest radius and shrink again for the smallest one
+        for (int radius : new int[] { LineOfSight.MAX_RADIUS, 2, 6 }) {
+            sight.getFieldsOfView(viewers, 2, 10, radius, views);
+            if ((views[0] != null) || (views[11] != null))
+                fail("A field of view is computed outside of the range!");
+            for (int i = 2; i < 10; i++)
+                if (!java.util.Arrays.equals(packed(views[i]),
+                        packed(new LineOfSight().getFieldOfView(others[i], radius))))
+                    fail("A field of view depends on the radius asked for before!");
+        }
+    }
+
+    /**
+     * Returns a grid of squares split by a wall of rocks with a few gaps.
+     */
+    private static Dungeon<Square> walls() {
+        Dungeon<Square> dungeon = new Dungeon<>();
+        for (int x = 0; x < 12; x++)
+            for (int y = 1; y <= 12; y++)
+                dungeon.addSquare((x == 5) && (y % 3 != 0) ? new Rock() : new Square(), new Point3D(x, y, 0));
+        return dungeon;
+    }
+
+    private static Square[] viewers(Dungeon<Square> dungeon) {
+        Square[] res = new Square[12];
+        for (int i = 0; i < res.length; i++)
+            res[i] = dungeon.getSquare(new Point3D(i, 1 + i, 0));
+        return res;
+    }
+
+    private static long[] packed(LineOfSight.View view) {
+        long[] res = new long[view.getSize()];
+        for (int i = 0; i < res.length; i++)
+            res[i] = view.getPacked(i);
+        return res;
+    }
+
+}
@@ -0,0 +1,122 @@
+import static org.junit.Assert.fail;
+
+import be.kuleuven.cs.ogp.project.*;
+import be.kuleuven.cs.ogp.project.borders.Door;
+import be.kuleuven.cs.ogp.project.dungeons.ChunkManager;
+import be.kuleuven.cs.ogp.project.dungeons.MappedDungeon;
+import be.kuleuven.cs.ogp.project.io.MappedSquareFile;
+import be.kuleuven.cs.ogp.project.squares.Rock;
+import be.kuleuven.cs.ogp.project.tools.Point3D;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * This class is a unit test for dungeons stored in a memory mapped square file.
+ *
+ * @author Frederic Hannes
+ */
+public class MappedDungeonTest {
+
+    /**
+     * The number of chunks along the X axis of the test region, more than fit in memory at once.
+     */
+    private static final int CHUNKS = 2 * ChunkManager.MIN_CHUNKS;
+
+    private static MappedDungeon createDungeon(File path) throws IOException {
+        MappedDungeon dungeon = new MappedDungeon(MappedSquareFile.create(path, CHUNKS * ChunkManager.CHUNK_SIZE, 2, 2),
+                ChunkManager.MIN_CHUNKS);
+        for (int x = 0; x < CHUNKS * ChunkManager.CHUNK_SIZE; x++)
+            dungeon.addSquare((x % 5 == 4) ? new Rock() : new Square(x, 10), new Point3D(x, 1, 0));
+        return dungeon;
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        File path = File.createTempFile("mapped", ".ogpm");
+        path.deleteOnExit();
+        try (MappedDungeon dungeon = createDungeon(path)) {
+            dungeon.getSquare(new Point3D(2, 1, 0)).setBorder(new Door(true), Direction.EAST);
+        }
+        try (MappedDungeon dungeon = new MappedDungeon(MappedSquareFile.open(path), ChunkManager.MIN_CHUNKS)) {
+            Square square = dungeon.getSquare(new Point3D(2, 1, 0));
+            if ((square == null) || (square.getTemp() != 2) || (square.getHumidity() != 10))
+                fail("The square was not restored properly!");
+            if (!(square.getBorder(Direction.EAST) instanceof Door) || !square.getBorder(Direction.EAST).isOpen())
+                fail("The door was not restored properly!");
+            if (!(dungeon.getSquare(new Point3D(4, 1, 0)) instanceof Rock))
+                fail("The rock was not restored properly!");
+            if (dungeon.getSquare(new Point3D(2, 0, 0)) != null)
+                fail("An empty position holds a square!");
+        }
+    }
+
+    @Test
+    public void testPaging() throws IOException {
+        File path = File.createTempFile("mapped", ".ogpm");
+        path.deleteOnExit();
+        try (MappedDungeon dungeon = createDungeon(path)) {
+            ChunkManager manager = dungeon.getChunkManager();
+            if ((manager.getLoadedChunks() > ChunkManager.MIN_CHUNKS) || (manager.getEvictions() == 0))
+                fail("Chunks are not paged out!");
+            Point3D pos = new Point3D(1, 1, 0);
+            dungeon.getSquare(pos).setTemp(77);
+            for (int x = 0; x < CHUNKS * ChunkManager.CHUNK_SIZE; x += ChunkManager.CHUNK_SIZE)
+                dungeon.getSquare(new Point3D(x + 2, 1, 0));
+            if (manager.isLoaded(1, 1, 0))
+                fail("The least recently used chunk is not paged out!");
+            if (dungeon.getSquare(pos).getTemp() != 77)
+                fail("A paged out square lost its state!");
+            int last = CHUNKS * ChunkManager.CHUNK_SIZE - 1;
+            if (dungeon.getSquare(last, 1, 0) != dungeon.getSquare(new Point3D(last, 1, 0)))
+                fail("A square is not found by its coordinates!");
+            Square east = dungeon.getSquare(new Point3D(ChunkManager.CHUNK_SIZE, 1, 0));
+            if (east.getBorder(Direction.WEST).getAdjacent() == null)
+                fail("A paged in square is not linked to its neighbour!");
+        }
+    }
+
+    @Test
+    public void testCleanChunks() {
+        final int[] writes = new int[1];
+        ChunkManager manager = new ChunkManager(ChunkManager.MIN_CHUNKS, new ChunkManager.Pager() {
+            @Override
+            public void pageIn(long key, Square[] squares) {
+            }
+
+            @Override
+            public void writeBack(long key, Square[] squares) {
+                writes[0]++;
+            }
+
+            @Override
+            public void pageOut(long key, Square[] squares) {
+            }
+        });
+        for (int i = 0; i < 2 * ChunkManager.MIN_CHUNKS; i++)
+            manager.get(i * ChunkManager.CHUNK_SIZE, 0, 0);
+        manager.flush();
+        if (writes[0] != 0)
+            fail("A chunk which did not change is written back!");
+        manager.set(0, 1, 0, new Square());
+        manager.changed(ChunkManager.CHUNK_SIZE, 0, 0);
+        manager.flush();
+        manager.flush();
+        if (writes[0] != 1)
+            fail("A changed chunk is not written back exactly once!");
+    }
+
+    @Test
+    public void testSpace() throws IOException {
+        File path = File.createTempFile("mapped", ".ogpm");
+        path.deleteOnExit();
+        try (MappedDungeon dungeon = createDungeon(path)) {
+            if (dungeon.getSpaceSize(new Point3D(0, 1, 0)) != 4)
+                fail("The space does not end at the rock!");
+            if (dungeon.getSpace(new Point3D(5, 1, 0)).size() != 4)
+                fail("The space does not hold all squares between the rocks!");
+        }
+    }
+
+}
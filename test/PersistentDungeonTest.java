@@ -0,0 +1,105 @@
+import static org.junit.Assert.fail;
+
+import be.kuleuven.cs.ogp.project.*;
+import be.kuleuven.cs.ogp.project.borders.Door;
+import be.kuleuven.cs.ogp.project.borders.NoBorder;
+import be.kuleuven.cs.ogp.project.borders.Wall;
+import be.kuleuven.cs.ogp.project.dungeons.Level;
+import be.kuleuven.cs.ogp.project.dungeons.PersistentDungeon;
+import be.kuleuven.cs.ogp.project.io.DungeonFormat;
+import be.kuleuven.cs.ogp.project.squares.Rock;
+import be.kuleuven.cs.ogp.project.tools.Point3D;
+import org.junit.Test;
+
+/**
+ * This class is a unit test for persistent dungeon versions.
+ *
+ * @author Frederic Hannes
+ */
+public class PersistentDungeonTest {
+
+    private static PersistentDungeon grid(int size) {
+        PersistentDungeon dungeon = PersistentDungeon.empty();
+        for (int x = 0; x < size; x++)
+            for (int y = 1; y <= size; y++)
+                dungeon = dungeon.addSquare(new Point3D(x, y, 0), new Square());
+        return dungeon;
+    }
+
+    @Test
+    public void testVersions() {
+        PersistentDungeon v0 = grid(10);
+        Point3D pos = new Point3D(5, 5, 0);
+        PersistentDungeon v1 = v0.setTemp(pos, 150);
+        PersistentDungeon v2 = v1.setBorder(pos, Direction.EAST, new Wall(false)).removeSquare(new Point3D(9, 9, 0));
+        if ((v0.getSquare(pos).getTemp() == 150) || (v1.getSquare(pos).getTemp() != 150))
+            fail("A change is not limited to its own version!");
+        if (v1.getSquare(new Point3D(6, 5, 0)).getBorder(Direction.WEST) != DungeonFormat.BORDER_NONE)
+            fail("A border changes in an older version!");
+        if (v2.getSquare(new Point3D(6, 5, 0)).getBorder(Direction.WEST) != DungeonFormat.BORDER_WALL)
+            fail("A border is not shared with the neighbouring square!");
+        if ((v1.getSize() != 100) || (v2.getSize() != 99) || !v1.hasSquare(new Point3D(9, 9, 0)))
+            fail("Removing a square changes an older version!");
+    }
+
+    @Test
+    public void testToDungeon() {
+        PersistentDungeon version = grid(10).addSquare(new Point3D(0, 11, 0), new Rock()).setTemp(
+                new Point3D(2, 2, 0), -50);
+        Dungeon<Square> dungeon = version.toDungeon();
+        if (dungeon.getSquare(new Point3D(2, 2, 0)).getTemp() != -50)
+            fail("The state of a square is lost!");
+        if (!(dungeon.getSquare(new Point3D(0, 10, 0)).getBorder(Direction.NORTH) instanceof Wall))
+            fail("A square is not linked with its neighbours!");
+        if (PersistentDungeon.of(dungeon).getSize() != version.getSize())
+            fail("Squares are lost!");
+    }
+
+    @Test
+    public void testToDungeon_Composite() {
+        CompositeDungeon<Square> root = new CompositeDungeon<>();
+        Level<Square> level = new Level<>();
+        root.addDungeon(level, new Point3D(0, 0, 2));
+        level.addSquare(new Square(75, 10), new Point3D(2, 2, 0));
+        level.addSquare(new Square(), new Point3D(3, 2, 0));
+        root.addSquare(new Square(), new Point3D(2, 3, 2));
+        PersistentDungeon version = PersistentDungeon.of(root);
+        if ((version.getSize() != 3) || (version.getSquare(new Point3D(2, 2, 2)).getTemp() != 75))
+            fail("The squares of a sub dungeon are lost!");
+        Dungeon<Square> dungeon = version.toDungeon();
+        if (!(dungeon instanceof CompositeDungeon))
+            fail("The type of the dungeon is lost!");
+        Dungeon<Square> sub = ((CompositeDungeon<Square>) dungeon).getDungeonAt(new Point3D(3, 2, 2));
+        if (!(sub instanceof Level) || !sub.getPos().equals(new Point3D(0, 0, 2)))
+            fail("The sub dungeon is lost!");
+        if ((sub.getSquare(new Point3D(2, 2, 0)).getTemp() != 75) || !sub.hasSquare(new Point3D(3, 2, 0)))
+            fail("A square is not added at its position in its own dungeon!");
+        if (!dungeon.hasSquare(new Point3D(2, 3, 2)) || dungeon.hasSquare(new Point3D(2, 2, 2)))
+            fail("A square is added to the wrong dungeon!");
+        PersistentDungeon again = PersistentDungeon.of(dungeon);
+        if ((again.getSize() != 3) || (again.getSquare(new Point3D(3, 2, 2)) == null)
+                || (again.removeSquare(new Point3D(2, 2, 2)).getSize() != 2))
+            fail("The layout is not kept in a round trip!");
+    }
+
+    @Test
+    public void testSetBorder_Refused() {
+        Point3D pos = new Point3D(0, 2, 0);
+        PersistentDungeon version = grid(2).addSquare(new Point3D(0, 3, 0), new Rock());
+        if (version.setBorder(pos, Direction.NORTH, new NoBorder()) != version)
+            fail("The border of a rock is changed!");
+        if (version.setBorder(new Point3D(0, 3, 0), Direction.SOUTH, new NoBorder()) != version)
+            fail("A border is set on a rock!");
+        if (version.setBorder(pos, Direction.FLOOR, new Door(false)) != version)
+            fail("A door is set in the floor!");
+        PersistentDungeon door = version.setBorder(pos, Direction.WEST, new Door(true));
+        if ((door == version) || (door.getSquare(pos).getBorder(Direction.WEST) != DungeonFormat.BORDER_DOOR_OPEN))
+            fail("A door is not set!");
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testAddSquare_Occupied() {
+        grid(2).addSquare(new Point3D(1, 1, 0), new Square());
+    }
+
+}
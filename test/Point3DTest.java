@@ -0,0 +1,39 @@
+import static org.junit.Assert.fail;
+
+import be.kuleuven.cs.ogp.project.Direction;
+import be.kuleuven.cs.ogp.project.tools.Point3D;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * This class is a unit test for immutable points.
+ *
+ * @author Frederic Hannes
+ */
+public class Point3DTest {
+
+    @Test
+    public void testValues() {
+        Point3D pos = new Point3D(3, 4, 5);
+        if (!Point3D.of(3, 4, 5).equals(pos) || (Point3D.of(3, 4, 5).hashCode() != pos.hashCode()))
+            fail("Small points are not equal!");
+        if (!Point3D.of(1000, 4, 5).equals(new Point3D(1000, 4, 5)) ||
+                (Point3D.of(1000, 4, 5).hashCode() != new Point3D(1000, 4, 5).hashCode()))
+            fail("Large points are not equal!");
+        if (pos.equals("Point3D(x:3;y:4;z:5)") || pos.equals(null))
+            fail("A point equals an object of another class!");
+        if (!Point3D.unpack(pos.pack()).equals(pos))
+            fail("A point does not survive packing!");
+        Point3D moved = Direction.NORTH.move(pos);
+        if ((pos.getY() != 4) || (moved.getY() != 5) || !pos.add(moved).equals(new Point3D(6, 9, 10)))
+            fail("A point is changed by an operation!");
+        Map<Object, String> map = new HashMap<>();
+        map.put("key", "value");
+        map.put(pos, "pos");
+        if (!"pos".equals(map.get(new Point3D(3, 4, 5))))
+            fail("Points can not be mixed with other keys!");
+    }
+
+}
@@ -0,0 +1,88 @@
+import static org.junit.Assert.fail;
+
+import be.kuleuven.cs.ogp.project.*;
+import be.kuleuven.cs.ogp.project.dungeons.ChunkManager;
+import be.kuleuven.cs.ogp.project.dungeons.ProceduralDungeon;
+import be.kuleuven.cs.ogp.project.io.DungeonFormat;
+import be.kuleuven.cs.ogp.project.io.DungeonGenerator;
+import be.kuleuven.cs.ogp.project.tools.Point3D;
+import org.junit.Test;
+
+/**
+ * This class is a unit test for procedural dungeons, which generate their squares on first access.
+ *
+ * @author Frederic Hannes
+ */
+public class ProceduralDungeonTest {
+
+    @Test
+    public void testRegenerate() {
+        DungeonGenerator generator = new DungeonGenerator(42, 1);
+        ProceduralDungeon dungeon = new ProceduralDungeon(generator.getGenerator(DungeonGenerator.Region.CAVE, 1024),
+                ChunkManager.MIN_CHUNKS);
+        Point3D pos = findSquare(dungeon);
+        Square square = dungeon.getSquare(pos);
+        byte[] borders = encode(square);
+        evict(dungeon);
+        Square again = dungeon.getSquare(pos);
+        if ((again == square) || (again.getClass() != square.getClass()) ||
+                !java.util.Arrays.equals(encode(again), borders))
+            fail("A dropped chunk is not generated again in the same way!");
+        if (dungeon.getChangedChunks() != 0)
+            fail("An untouched chunk is kept!");
+        again.setTemp(again.getTemp() + 7);
+        int temp = again.getTemp();
+        evict(dungeon);
+        if ((dungeon.getChangedChunks() != 1) || (dungeon.getSquare(pos).getTemp() != temp))
+            fail("The state of a changed chunk is lost!");
+        dungeon.getSquare(pos).setTemp(temp - 7);
+        evict(dungeon);
+        if ((dungeon.getChangedChunks() != 0) || (dungeon.getSquare(pos).getTemp() != temp - 7))
+            fail("A change that is undone is kept!");
+    }
+
+    @Test
+    public void testSpaceRadius() {
+        DungeonGenerator generator = new DungeonGenerator(7, 1);
+        ProceduralDungeon dungeon = new ProceduralDungeon(generator.getGenerator(DungeonGenerator.Region.CAVE, 1024),
+                ChunkManager.MIN_CHUNKS);
+        dungeon.setSpaceRadius(3);
+        Point3D pos = findSquare(dungeon);
+        for (Square square : dungeon.getSpace(pos)) {
+            Point3D other = square.getPos();
+            if ((Math.abs(other.getX() - pos.getX()) > 3) || (Math.abs(other.getY() - pos.getY()) > 3) ||
+                    (Math.abs(other.getZ() - pos.getZ()) > 3))
+                fail("A space reaches beyond its radius!");
+        }
+    }
+
+    /**
+     * Returns the position of the first square of the dungeon which can change its temperature.
+     */
+    private static Point3D findSquare(Dungeon<?> dungeon) {
+        for (int x = 0; x < 64; x++)
+            for (int y = 0; y < 64; y++)
+                for (int z = 0; z < 64; z++) {
+                    Square square = dungeon.getSquare(new Point3D(x, y, z));
+                    if ((square != null) && square.canChangeTemp())
+                        return new Point3D(x, y, z);
+                }
+        throw new IllegalStateException("No square found!");
+    }
+
+    /**
+     * Touches enough chunks far away to page out all others.
+     */
+    private static void evict(Dungeon<?> dungeon) {
+        for (int i = 0; i < 2 * ChunkManager.MIN_CHUNKS; i++)
+            dungeon.getSquare(new Point3D(512 + i * ChunkManager.CHUNK_SIZE, 512, 512));
+    }
+
+    private static byte[] encode(Square square) {
+        byte[] res = new byte[Direction.COUNT];
+        for (int i = 0; i < Direction.COUNT; i++)
+            res[i] = DungeonFormat.encodeBorder(square.getBorder(Direction.get(i)));
+        return res;
+    }
+
+}
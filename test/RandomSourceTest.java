@@ -0,0 +1,144 @@
+import static org.junit.Assert.fail;
+
+import be.kuleuven.cs.ogp.project.*;
+import be.kuleuven.cs.ogp.project.tools.Point3D;
+import be.kuleuven.cs.ogp.project.tools.RandomSource;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * This class is a unit test for seeded random sources and the random outcomes drawn from them.
+ *
+ * @author Frederic Hannes
+ */
+public class RandomSourceTest {
+
+    private static final int ROWS = 8;
+
+    private static final int LENGTH = 10;
+
+    @Test
+    public void testSeed_SameNumbers() {
+        RandomSource first = new RandomSource(11);
+        RandomSource second = new RandomSource(11);
+        for (int i = 0; i < 1000; i++)
+            if (first.nextLong() != second.nextLong())
+                fail("Sources with the same seed give different numbers!");
+        if ((first.getSeed() != 11) || (new RandomSource(12).nextLong() == new RandomSource(11).nextLong()))
+            fail("The seed is not used!");
+    }
+
+    @Test
+    public void testDerive_Independent() {
+        RandomSource source = new RandomSource(13);
+        long expected = source.derive(5).nextLong();
+        for (int i = 0; i < 100; i++)
+            source.nextLong();
+        source.split();
+        if ((source.derive(5).nextLong() != expected) || (RandomSource.forKey(13, 5).nextLong() != expected))
+            fail("A derived stream depends on the numbers drawn before!");
+        if (source.derive(6).nextLong() == expected)
+            fail("The streams for different keys are equal!");
+    }
+
+    @Test
+    public void testNextInt_Uniform() {
+        RandomSource random = new RandomSource(17);
+        int[] counts = new int[3];
+        for (int i = 0; i < 300000; i++)
+            counts[random.nextInt(3)]++;
+        for (int count : counts)
+            if (Math.abs(count - 100000) > 1500)
+                fail("The values are not equally likely!");
+        try {
+            random.nextInt(0);
+            fail("An invalid bound is accepted!");
+        } catch (IllegalArgumentException e) {
+            // The bound must be positive
+        }
+    }
+
+    /**
+     * Lets the avatars of a row enter the square east of them one after the other, drawing extra numbers from the
+     * random source of the dungeon in between, and returns the positions of the avatars which survived.
+     */
+    private static List<Integer> collide(Dungeon<Square> dungeon, List<Avatar> row, boolean extra) {
+        for (Avatar avatar : row) {
+            if (extra)
+                dungeon.getRandomSource().nextLong();
+            if (avatar.isAlive() && (avatar.getSquare().getPos().getX() < LENGTH - 1))
+                avatar.move(Direction.EAST);
+        }
+        List<Integer> res = new ArrayList<>();
+        for (Avatar avatar : row)
+            res.add(avatar.isAlive() ? avatar.getSquare().getPos().getX() : -1);
+        return res;
+    }
+
+    /**
+     * Runs the collisions of every row of a dungeon with the given seed, on a thread per row or on a single thread.
+     */
+    private static List<List<Integer>> run(long seed, boolean threaded) throws InterruptedException {
+        final Dungeon<Square> dungeon = new Dungeon<>();
+        dungeon.setRandomSource(new RandomSource(seed));
+        final List<List<Avatar>> rows = new ArrayList<>();
+        for (int y = 1; y <= ROWS; y++) {
+            List<Avatar> row = new ArrayList<>();
+            for (int x = 0; x < LENGTH; x++) {
+                Square square = new Square();
+                dungeon.addSquare(square, new Point3D(x, y, 0));
+                row.add(new Avatar(square));
+            }
+            rows.add(row);
+        }
+        final List<List<Integer>> res = new ArrayList<>();
+        for (int r = 0; r < ROWS; r++)
+            res.add(null);
+        if (!threaded) {
+            for (int r = 0; r < ROWS; r++)
+                res.set(r, collide(dungeon, rows.get(r), true));
+            return res;
+        }
+        final AtomicReference<Throwable> error = new AtomicReference<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int r = 0; r < ROWS; r++) {
+            final int index = r;
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    List<Integer> survivors = collide(dungeon, rows.get(index), false);
+                    synchronized (res) {
+                        res.set(index, survivors);
+                    }
+                }
+            });
+            thread.setUncaughtExceptionHandler(new Thread.UncaughtExceptionHandler() {
+                @Override
+                public void uncaughtException(Thread thread, Throwable e) {
+                    error.set(e);
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads)
+            thread.join();
+        if (error.get() != null)
+            fail(error.get().toString());
+        return res;
+    }
+
+    @Test
+    public void testCollisions_SameOutcome() throws InterruptedException {
+        List<List<Integer>> expected = run(19, false);
+        for (int i = 0; i < 5; i++)
+            if (!expected.equals(run(19, true)))
+                fail("The outcome of a seed depends on the timing of the threads!");
+        if (expected.equals(run(20, false)))
+            fail("The outcome does not depend on the seed!");
+    }
+
+}
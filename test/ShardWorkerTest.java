@@ -0,0 +1,198 @@
+import static org.junit.Assert.fail;
+
+import be.kuleuven.cs.ogp.project.*;
+import be.kuleuven.cs.ogp.project.borders.Door;
+import be.kuleuven.cs.ogp.project.borders.Wall;
+import be.kuleuven.cs.ogp.project.dungeons.ProceduralDungeon;
+import be.kuleuven.cs.ogp.project.io.DungeonFormat;
+import be.kuleuven.cs.ogp.project.io.DungeonGenerator;
+import be.kuleuven.cs.ogp.project.shards.ShardCluster;
+import be.kuleuven.cs.ogp.project.shards.ShardWorker;
+import be.kuleuven.cs.ogp.project.tools.Point3D;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * This class is a unit test for shards which exchange their halos over local sockets.
+ *
+ * @author Frederic Hannes
+ */
+public class ShardWorkerTest {
+
+    @Test
+    public void testExchange() throws Exception {
+        ProceduralDungeon.Generator generator = new DungeonGenerator(11, 1).getGenerator(DungeonGenerator.Region.CAVE,
+                16);
+        try (ShardWorker left = new ShardWorker(generator, 11, 0, 2);
+             ShardWorker right = new ShardWorker(generator, 11, 1, 2)) {
+            connect(left, right);
+            Point3D start = findCrossing(left, generator);
+            left.spawn(1, start);
+            boolean crossed = false;
+            for (int i = 0; (i < 200) && !crossed; i++) {
+                tick(left, right);
+                if (left.getAvatarCount() + right.getAvatarCount() != 1)
+                    fail("An avatar is lost or duplicated between shards!");
+                crossed = right.getAvatarPos(1) != null;
+            }
+            if (!crossed)
+                fail("An avatar does not cross to the neighbouring shard!");
+            for (int y = 0; y < generator.getYDim(); y++)
+                for (int z = 0; z < generator.getZDim(); z++) {
+                    Point3D pos = new Point3D(right.getLow() - 1, y, z);
+                    Square square = left.getDungeon().getSquare(pos);
+                    Square halo = right.getDungeon().getSquare(pos);
+                    if ((square != null) && ((halo == null) || (halo.getTemp() != square.getTemp())))
+                        fail("A halo square does not mirror its owner!");
+                }
+        }
+    }
+
+    @Test
+    public void testExchange_BorderTypes() throws Exception {
+        ProceduralDungeon.Generator generator = new DungeonGenerator(11, 1).getGenerator(DungeonGenerator.Region.CAVE,
+                16);
+        try (ShardWorker left = new ShardWorker(generator, 11, 0, 2);
+             ShardWorker right = new ShardWorker(generator, 11, 1, 2)) {
+            connect(left, right);
+            Point3D pos = findCrossing(left, generator);
+            Square square = left.getDungeon().getSquare(pos);
+            square.setBorder(new Wall(true), Direction.NORTH);
+            square.setBorder(new Door(false), Direction.SOUTH);
+            byte[] borders = encode(square);
+            tick(left, right);
+            if (!Arrays.equals(encode(right.getDungeon().getSquare(pos)), borders))
+                fail("A halo square does not take over the border types of its owner!");
+        }
+    }
+
+    @Test
+    public void testCluster() throws Exception {
+        ProceduralDungeon.Generator generator = new DungeonGenerator(11, 1).getGenerator(DungeonGenerator.Region.CAVE,
+                16);
+        List<Point3D> expected = new ArrayList<>();
+        Point3D start;
+        try (ShardWorker left = new ShardWorker(generator, 11, 0, 2);
+             ShardWorker right = new ShardWorker(generator, 11, 1, 2)) {
+            connect(left, right);
+            start = findCrossing(left, generator);
+            left.spawn(1, start);
+            for (int i = 0; i < 20; i++) {
+                tick(left, right);
+                expected.add((left.getAvatarPos(1) != null) ? left.getAvatarPos(1) : right.getAvatarPos(1));
+            }
+        }
+        List<Point3D> actual = new ArrayList<>();
+        try (ShardCluster cluster = new ShardCluster(DungeonGenerator.Region.CAVE, 16, 11, 2)) {
+            if (cluster.getShards() != 2)
+                fail("The cluster does not run all shards!");
+            cluster.spawn(1, start);
+            if (!start.equals(cluster.getAvatarPos(1)))
+                fail("A spawned avatar is not found!");
+            for (int i = 0; i < 20; i++) {
+                if (cluster.tick() != 1)
+                    fail("An avatar is lost or duplicated between shard processes!");
+                actual.add(cluster.getAvatarPos(1));
+            }
+        }
+        if (!actual.equals(expected))
+            fail("Shard processes do not walk like shards in threads: " + actual + " instead of " + expected + "!");
+    }
+
+    /**
+     * Connects two neighbouring shards, waiting for the left one to accept the right one.
+     */
+    private static void connect(final ShardWorker left, final ShardWorker right) throws Exception {
+        final int port = left.listen();
+        right.listen();
+        both(new Step() {
+            @Override
+            public void run() throws Exception {
+                left.connect(-1);
+            }
+        }, new Step() {
+            @Override
+            public void run() throws Exception {
+                right.connect(port);
+            }
+        });
+    }
+
+    /**
+     * Runs a tick of two shards at once.
+     */
+    private static void tick(final ShardWorker left, final ShardWorker right) throws Exception {
+        both(new Step() {
+            @Override
+            public void run() throws Exception {
+                left.tick();
+            }
+        }, new Step() {
+            @Override
+            public void run() throws Exception {
+                right.tick();
+            }
+        });
+    }
+
+    /**
+     * A step of a shard which can fail.
+     */
+    private interface Step {
+
+        void run() throws Exception;
+
+    }
+
+    /**
+     * Runs the first step in a thread of its own and the second one in this thread, and waits for both of them.
+     */
+    private static void both(final Step first, Step second) throws Exception {
+        final Exception[] error = new Exception[1];
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    first.run();
+                } catch (Exception e) {
+                    error[0] = e;
+                }
+            }
+        });
+        thread.start();
+        try {
+            second.run();
+        } finally {
+            thread.join();
+        }
+        if (error[0] != null)
+            throw error[0];
+    }
+
+    /**
+     * Returns a square on the right edge of the given shard with an open border to a square of its neighbour.
+     */
+    private static Point3D findCrossing(ShardWorker shard, ProceduralDungeon.Generator generator) {
+        for (int y = 0; y < generator.getYDim(); y++)
+            for (int z = 0; z < generator.getZDim(); z++) {
+                Square square = shard.getDungeon().getSquare(new Point3D(shard.getHigh() - 1, y, z));
+                if ((square == null) || square.isSolid())
+                    continue;
+                Border border = square.getBorder(Direction.EAST);
+                if (border.isOpen() && (border.getAdjacent() != null) && !border.getAdjacent().getSquare().isSolid())
+                    return square.getPos();
+            }
+        throw new IllegalStateException("No square found!");
+    }
+
+    private static byte[] encode(Square square) {
+        byte[] res = new byte[Direction.COUNT];
+        for (int i = 0; i < Direction.COUNT; i++)
+            res[i] = DungeonFormat.encodeBorder(square.getBorder(Direction.get(i)));
+        return res;
+    }
+
+}
@@ -0,0 +1,85 @@
+import static org.junit.Assert.fail;
+
+import be.kuleuven.cs.ogp.project.*;
+import be.kuleuven.cs.ogp.project.squares.Teleport;
+import be.kuleuven.cs.ogp.project.tools.Point3D;
+import be.kuleuven.cs.ogp.project.tools.RandomSource;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class is a unit test for avatars moving at once in the ticks of a simulation.
+ *
+ * @author Frederic Hannes
+ */
+public class SimulationTest {
+
+    private static final int SIZE = 40;
+
+    /**
+     * Runs a number of ticks of random moves on an open grid and returns the position of every avatar afterwards, null
+     * for the avatars which were killed.
+     */
+    private static List<Point3D> run(long seed, int threads) {
+        Dungeon<Square> dungeon = new Dungeon<>();
+        for (int x = 0; x < SIZE; x++)
+            for (int y = 1; y <= SIZE; y++)
+                dungeon.addSquare(new Square(), new Point3D(x, y, 0));
+        RandomSource random = new RandomSource(seed);
+        List<Avatar> avatars = new ArrayList<>();
+        for (int i = 0; i < SIZE * SIZE / 4; i++) {
+            Square square = dungeon.getSquare(new Point3D(random.nextInt(SIZE), 1 + random.nextInt(SIZE), 0));
+            if (square.getAvatar() == null)
+                avatars.add(new Avatar(square));
+        }
+        try (Simulation simulation = new Simulation(seed, threads)) {
+            for (int t = 0; t < 20; t++) {
+                for (Avatar avatar : avatars)
+                    if (avatar.isAlive())
+                        simulation.submit(avatar, Direction.get(random.nextInt(Direction.COUNT)));
+                simulation.tick();
+            }
+        }
+        List<Point3D> res = new ArrayList<>();
+        for (Avatar avatar : avatars)
+            res.add(avatar.isAlive() ? avatar.getSquare().getPos() : null);
+        return res;
+    }
+
+    @Test
+    public void testTick_SameOutcome() {
+        List<Point3D> single = run(7, 1);
+        if (!single.equals(run(7, 4)))
+            fail("The outcome of a seed depends on the number of threads!");
+        if (!single.contains(null))
+            fail("No avatars collided!");
+    }
+
+    @Test
+    public void testTick_ClosedCycle() {
+        Dungeon<Square> dungeon = new Dungeon<>();
+        Square start = new Square();
+        dungeon.addSquare(start, new Point3D(1, 2, 0));
+        Teleport first = new Teleport();
+        Teleport second = new Teleport();
+        dungeon.addSquare(first, new Point3D(2, 2, 0));
+        dungeon.addSquare(second, new Point3D(3, 4, 0));
+        first.addDest(second);
+        second.addDest(first);
+        Avatar avatar = new Avatar(start);
+        try (Simulation simulation = new Simulation(1)) {
+            simulation.submit(avatar, Direction.EAST);
+            try {
+                simulation.tick();
+                fail("A closed cycle of teleports is entered!");
+            } catch (IllegalStateException e) {
+                // The teleports can't be left
+            }
+            if ((simulation.getPending() != 1) || (simulation.getTick() != 0) || (avatar.getSquare() != start))
+                fail("The moves of a failed tick are lost!");
+        }
+    }
+
+}
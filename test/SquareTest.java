@@ -6,6 +6,11 @@ import be.kuleuven.cs.ogp.project.borders.Wall;
 import be.kuleuven.cs.ogp.project.tools.Point3D;
 import org.junit.Test;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
 /**
  * This class is a unit test for the class Square to perform a series of tests to validate the integrity of the class.
  *
@@ -129,6 +134,79 @@ public class SquareTest {
             fail("Error with setBorder!");
     }
 
+    /**
+     * Test to make sure a border which is refused is neither reported nor journaled.
+     */
+    @Test
+    public void testBorder_Rejected() throws IOException {
+        CompositeDungeon<Square> root = new CompositeDungeon<>();
+        Square sq = new Square();
+        root.addSquare(sq, new Point3D(1, 2, 0));
+        final int[] events = new int[1];
+        root.subscribe(new DungeonListener() {
+            @Override
+            public void dungeonChanged(Dungeon<?> dungeon, List<DungeonEvent> batch) {
+                events[0] += batch.size();
+            }
+        });
+        root.flushEvents();
+        events[0] = 0;
+        File dir = File.createTempFile("journal", "");
+        if (!dir.delete() || !dir.mkdir())
+            throw new IOException("Can't create directory!");
+        dir.deleteOnExit();
+        try (DungeonJournal journal = new DungeonJournal(root, dir)) {
+            long version = root.getLayoutVersion();
+            sq.setBorder(new Door(false), Direction.FLOOR);
+            root.flushEvents();
+            if ((events[0] != 0) || (root.getLayoutVersion() != version))
+                fail("A refused border is reported!");
+            if (journal.getSequence() != journal.getCheckpointSequence())
+                fail("A refused border is journaled!");
+        }
+    }
+
+    /**
+     * Test to make sure exactly one avatar survives when several avatars enter a square at once.
+     */
+    @Test
+    public void testAvatar_Collision() throws InterruptedException {
+        final int threads = 8;
+        for (int round = 0; round < 200; round++) {
+            final Square sq = new Square();
+            final Avatar[] avatars = new Avatar[threads];
+            final CountDownLatch start = new CountDownLatch(1);
+            Thread[] workers = new Thread[threads];
+            for (int i = 0; i < threads; i++) {
+                final int index = i;
+                workers[i] = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            start.await();
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                        avatars[index] = new Avatar(sq);
+                    }
+                });
+                workers[i].start();
+            }
+            start.countDown();
+            for (Thread worker : workers)
+                worker.join();
+            int alive = 0;
+            for (Avatar avatar : avatars)
+                if (avatar.isAlive()) {
+                    alive++;
+                    if ((sq.getAvatar() != avatar) || (avatar.getSquare() != sq))
+                        fail("The surviving avatar is not on the square!");
+                }
+            if (alive != 1)
+                fail("Not exactly one avatar survives a collision!");
+        }
+    }
+
     @Test
     public void testSlippery_1() {
         Square sq = new Square();
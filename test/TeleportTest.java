@@ -0,0 +1,216 @@
+import static org.junit.Assert.fail;
+
+import be.kuleuven.cs.ogp.project.*;
+import be.kuleuven.cs.ogp.project.squares.Teleport;
+import be.kuleuven.cs.ogp.project.tools.Point3D;
+import be.kuleuven.cs.ogp.project.tools.RandomSource;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class is a unit test for weighted teleports and teleport chains.
+ *
+ * @author Frederic Hannes
+ */
+public class TeleportTest {
+
+    private static final int DRAWS = 100000;
+
+    private static Square add(Dungeon<Square> dungeon, Square square, int x) {
+        dungeon.addSquare(square, new Point3D(x, 1, 0));
+        return square;
+    }
+
+    private static double share(Teleport teleport, Square square, RandomSource random) {
+        int hits = 0;
+        for (int i = 0; i < DRAWS; i++)
+            if (teleport.teleportTerminal(random) == square)
+                hits++;
+        return (double) hits / DRAWS;
+    }
+
+    @Test
+    public void testTeleport_Weights() {
+        Dungeon<Square> dungeon = new Dungeon<>();
+        dungeon.setRandomSource(new RandomSource(1));
+        Teleport teleport = (Teleport) add(dungeon, new Teleport(), 1);
+        Square light = add(dungeon, new Square(), 2);
+        Square heavy = add(dungeon, new Square(), 3);
+        teleport.addDest(light);
+        teleport.addDest(heavy, 2);
+        teleport.addDest(heavy);
+        if ((teleport.getDest().size() != 2) || (teleport.getWeight(heavy) != 3))
+            fail("Weights of a destination added twice are not merged!");
+        int hits = 0;
+        for (int i = 0; i < DRAWS; i++)
+            if (teleport.teleport() == heavy)
+                hits++;
+        if (Math.abs((double) hits / DRAWS - 0.75) > 0.01)
+            fail("Destinations are not drawn with their weights!");
+    }
+
+    @Test
+    public void testMove_RepeatedDraws() {
+        Dungeon<Square> dungeon = new Dungeon<>();
+        dungeon.setRandomSource(new RandomSource(4));
+        Square start = add(dungeon, new Square(), 1);
+        Teleport teleport = (Teleport) add(dungeon, new Teleport(), 2);
+        for (int x = 0; x < 8; x++) {
+            Square dest = new Square();
+            dungeon.addSquare(dest, new Point3D(x, 5, 0));
+            teleport.addDest(dest);
+        }
+        java.util.Set<Square> reached = new java.util.HashSet<>();
+        int won = 0;
+        int lost = 0;
+        for (int i = 0; i < 200; i++) {
+            Avatar avatar = new Avatar(start);
+            avatar.move(Direction.EAST);
+            if (!avatar.isAlive()) {
+                lost++;
+            } else {
+                if (!reached.add(avatar.getSquare()))
+                    won++;
+            }
+        }
+        if (reached.size() < 2)
+            fail("Repeated moves into a teleport always reach the same destination!");
+        if ((won == 0) || (lost == 0))
+            fail("Repeated collisions on the same square always have the same outcome!");
+    }
+
+    @Test
+    public void testTeleportTerminal_Chain() {
+        Dungeon<Square> dungeon = new Dungeon<>();
+        Teleport first = (Teleport) add(dungeon, new Teleport(), 1);
+        Teleport second = (Teleport) add(dungeon, new Teleport(), 2);
+        Square left = add(dungeon, new Square(), 3);
+        Square right = add(dungeon, new Square(), 4);
+        first.addDest(second);
+        second.addDest(left);
+        second.addDest(right);
+        if (Math.abs(share(first, left, new RandomSource(2)) - 0.5) > 0.01)
+            fail("A chain of teleports is not collapsed!");
+        // The distribution is rebuilt when a teleport further down the chain changes
+        second.addDest(right, 2);
+        if (Math.abs(share(first, left, new RandomSource(3)) - 0.25) > 0.01)
+            fail("The terminal distribution is not rebuilt!");
+    }
+
+    @Test
+    public void testTeleportTerminal_UnrelatedChange() {
+        Dungeon<Square> dungeon = new Dungeon<>();
+        Teleport first = (Teleport) add(dungeon, new Teleport(), 1);
+        Teleport second = (Teleport) add(dungeon, new Teleport(), 2);
+        Teleport other = (Teleport) add(dungeon, new Teleport(), 3);
+        Square exit = add(dungeon, new Square(), 4);
+        first.addDest(second);
+        second.addDest(exit);
+        long threshold = DungeonTrace.getThreshold(DungeonTrace.Kind.TELEPORT_CHAIN);
+        DungeonTrace.clear();
+        DungeonTrace.setEnabled(true);
+        try {
+            DungeonTrace.setThreshold(DungeonTrace.Kind.TELEPORT_CHAIN, 0);
+            first.teleportTerminal(new RandomSource(6));
+            // A change to a teleport outside of the chain keeps the distribution
+            other.addDest(exit);
+            first.teleportTerminal(new RandomSource(6));
+            if (DungeonTrace.getEvents().size() != 1)
+                fail("The terminal distribution is rebuilt for a teleport outside of the chain!");
+            second.addDest(other);
+            if (first.teleportTerminal(new RandomSource(6)) != exit)
+                fail("The terminal distribution is not rebuilt!");
+            if (DungeonTrace.getEvents().size() != 2)
+                fail("The terminal distribution is not rebuilt exactly once!");
+        } finally {
+            DungeonTrace.setEnabled(false);
+            DungeonTrace.setThreshold(DungeonTrace.Kind.TELEPORT_CHAIN, threshold);
+            DungeonTrace.clear();
+        }
+        if (first.getDest().size() != 1)
+            fail("The destinations are not kept!");
+        try {
+            first.getDest().add(exit);
+            fail("The destinations can be changed without adding them!");
+        } catch (UnsupportedOperationException e) {
+            // The destinations are a view
+        }
+    }
+
+    @Test
+    public void testTeleportTerminal_CycleWithExit() {
+        Dungeon<Square> dungeon = new Dungeon<>();
+        Teleport first = (Teleport) add(dungeon, new Teleport(), 1);
+        Teleport second = (Teleport) add(dungeon, new Teleport(), 2);
+        Square exitFirst = add(dungeon, new Square(), 3);
+        Square exitSecond = add(dungeon, new Square(), 4);
+        first.addDest(second);
+        first.addDest(exitFirst);
+        second.addDest(first);
+        second.addDest(exitSecond);
+        // Leaving from the first teleport: 1/2 + 1/4 * 1/2 + ... = 2/3
+        if (Math.abs(share(first, exitFirst, new RandomSource(4)) - 2.0 / 3) > 0.01)
+            fail("A cycle of teleports with exits is not solved!");
+    }
+
+    @Test
+    public void testTeleportTerminal_SharedCycles() {
+        Dungeon<Square> dungeon = new Dungeon<>();
+        Teleport entry = (Teleport) add(dungeon, new Teleport(), 1);
+        Teleport first = (Teleport) add(dungeon, new Teleport(), 2);
+        Teleport second = (Teleport) add(dungeon, new Teleport(), 3);
+        Teleport third = (Teleport) add(dungeon, new Teleport(), 4);
+        Teleport fourth = (Teleport) add(dungeon, new Teleport(), 5);
+        Square exitFirst = add(dungeon, new Square(), 6);
+        Square exitThird = add(dungeon, new Square(), 7);
+        Square exitFourth = add(dungeon, new Square(), 8);
+        entry.addDest(first);
+        first.addDest(second);
+        first.addDest(exitFirst);
+        second.addDest(first);
+        second.addDest(third);
+        third.addDest(fourth);
+        third.addDest(exitThird);
+        fourth.addDest(third);
+        fourth.addDest(exitFourth);
+        long threshold = DungeonTrace.getThreshold(DungeonTrace.Kind.TELEPORT_CYCLE);
+        DungeonTrace.clear();
+        DungeonTrace.setEnabled(true);
+        try {
+            DungeonTrace.setThreshold(DungeonTrace.Kind.TELEPORT_CYCLE, 0);
+            // The second cycle is left at its third teleport with 1/3 * 2/3
+            if (Math.abs(share(entry, exitThird, new RandomSource(7)) - 2.0 / 9) > 0.01)
+                fail("A chain of cycles of teleports is not solved!");
+            first.teleportTerminal(new RandomSource(8));
+            fourth.addDest(exitFourth);
+            second.teleportTerminal(new RandomSource(9));
+            List<DungeonTrace.Event> events = new ArrayList<>();
+            for (DungeonTrace.Event event : DungeonTrace.getEvents())
+                if (event.getKind() == DungeonTrace.Kind.TELEPORT_CYCLE)
+                    events.add(event);
+
+            if ((events.size() != 6) || events.get(0).getFlag() || events.get(1).getFlag() ||
+                    !events.get(2).getFlag() || !events.get(3).getFlag())
+                fail("A cycle of teleports is not solved exactly once!");
+            if (events.get(4).getFlag() == events.get(5).getFlag())
+                fail("A changed cycle of teleports is not solved again!");
+        } finally {
+            DungeonTrace.setEnabled(false);
+            DungeonTrace.setThreshold(DungeonTrace.Kind.TELEPORT_CYCLE, threshold);
+            DungeonTrace.clear();
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testTeleportTerminal_ClosedCycle() {
+        Dungeon<Square> dungeon = new Dungeon<>();
+        Teleport first = (Teleport) add(dungeon, new Teleport(), 1);
+        Teleport second = (Teleport) add(dungeon, new Teleport(), 2);
+        first.addDest(second);
+        second.addDest(first);
+        first.teleportTerminal(new RandomSource(5));
+    }
+
+}
@@ -0,0 +1,82 @@
+import static org.junit.Assert.fail;
+
+import be.kuleuven.cs.ogp.project.tools.TimingWheel;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * This class is a unit test for timing wheels.
+ *
+ * @author Frederic Hannes
+ */
+public class TimingWheelTest {
+
+    /**
+     * Ticks which lie in the slots of several levels of the wheel.
+     */
+    private static final long[] TICKS = {1, 63, 64, 65, 70, 4095, 4097, 5000, 300000, 1L << 30, (1L << 40) + 3};
+
+    @Test
+    public void testCascade_Skipping() {
+        TimingWheel<Long> wheel = new TimingWheel<>(0);
+        for (int i = TICKS.length - 1; i >= 0; i--)
+            wheel.schedule(TICKS[i], TICKS[i]);
+        List<Long> due = new ArrayList<>();
+        for (long tick : TICKS) {
+            if (wheel.advanceUntil(Long.MAX_VALUE, due) != 1)
+                fail("The items are not due one at a time!");
+            if ((wheel.getTick() != tick) || (due.get(due.size() - 1) != tick))
+                fail("The item due in tick " + tick + " is due in tick " + wheel.getTick() + "!");
+        }
+        if (wheel.getSize() != 0)
+            fail("Items are left in the wheel!");
+    }
+
+    @Test
+    public void testCascade_TickByTick() {
+        TimingWheel<Long> wheel = new TimingWheel<>(0);
+        for (int i = 0; i < 6; i++)
+            wheel.schedule(TICKS[i], TICKS[i]);
+        List<Long> due = new ArrayList<>();
+        while (wheel.getTick() < 4095) {
+            int count = wheel.advance(due);
+            if ((count > 0) && (due.get(due.size() - 1) != wheel.getTick()))
+                fail("An item is due in the wrong tick!");
+        }
+        if (!due.equals(Arrays.asList(1L, 63L, 64L, 65L, 70L, 4095L)))
+            fail("The items are not due in order: " + due + "!");
+    }
+
+    @Test
+    public void testCancel() {
+        TimingWheel<String> wheel = new TimingWheel<>(0);
+        TimingWheel.Timer<String> near = wheel.schedule("near", 5);
+        TimingWheel.Timer<String> far = wheel.schedule("far", 100000);
+        wheel.schedule("kept", 100000);
+        if (!near.cancel() || !far.cancel() || near.cancel())
+            fail("Pending timers are not cancelled exactly once!");
+        if (near.isPending() || (wheel.getSize() != 1))
+            fail("A cancelled timer is still pending!");
+        List<String> due = new ArrayList<>();
+        wheel.advanceTo(200000, due);
+        if (!due.equals(Arrays.asList("kept")))
+            fail("A cancelled item is due: " + due + "!");
+    }
+
+    @Test
+    public void testSameTick() {
+        TimingWheel<Integer> wheel = new TimingWheel<>(0);
+        for (int i = 0; i < 10; i++)
+            wheel.schedule(i, 4100);
+        wheel.schedule(-1, 4099);
+        List<Integer> due = new ArrayList<>();
+        if ((wheel.advanceUntil(5000, due) != 1) || (wheel.advanceUntil(5000, due) != 10))
+            fail("The items due in the same tick are not due together!");
+        if (wheel.getTick() != 4100)
+            fail("The items are due in the wrong tick!");
+    }
+
+}